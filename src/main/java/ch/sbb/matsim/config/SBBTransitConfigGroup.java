@@ -20,9 +20,11 @@ public class SBBTransitConfigGroup extends ReflectiveConfigGroup {
 
     static private final String PARAM_DETERMINISTIC_SERVICE_MODES = "deterministicServiceModes";
     static private final String PARAM_CREATE_LINK_EVENTS_INTERVAL = "createLinkEventsInterval";
+    static private final String PARAM_MIN_LINK_EVENTS_FOR_PRODUCER_THREAD = "minLinkEventsForProducerThread";
 
     private Set<String> deterministicServiceModes = new HashSet<>();
     private int createLinkEventsInterval = 0;
+    private int minLinkEventsForProducerThread = 500;
 
     public SBBTransitConfigGroup() {
         super(GROUP_NAME);
@@ -57,12 +59,24 @@ public class SBBTransitConfigGroup extends ReflectiveConfigGroup {
         this.createLinkEventsInterval = value;
     }
 
+    @StringGetter(PARAM_MIN_LINK_EVENTS_FOR_PRODUCER_THREAD)
+    public int getMinLinkEventsForProducerThread() {
+        return this.minLinkEventsForProducerThread;
+    }
+
+    @StringSetter(PARAM_MIN_LINK_EVENTS_FOR_PRODUCER_THREAD)
+    public void setMinLinkEventsForProducerThread(int value) {
+        this.minLinkEventsForProducerThread = value;
+    }
+
     @Override
     public Map<String, String> getComments() {
         Map<String, String> comments = super.getComments();
         comments.put(PARAM_DETERMINISTIC_SERVICE_MODES, "Leg modes used by the created transit drivers that should be simulated strictly according to the schedule.");
         comments.put(PARAM_CREATE_LINK_EVENTS_INTERVAL, "(iterationNumber % createLinkEventsInterval) == 0 defines in which iterations linkEnter- and linkLeave-events are created,\n" +
                 "\t\t\t\t\"useful for visualization or analysis purposes. Defaults to 0. `0' disables the creation of events completely.");
+        comments.put(PARAM_MIN_LINK_EVENTS_FOR_PRODUCER_THREAD, "The link events of a simulation step are only created on a separate thread if there are at least this many,\n" +
+                "\t\t\t\totherwise they are created on the mobsim thread. Defaults to 500.");
         return comments;
     }
 }
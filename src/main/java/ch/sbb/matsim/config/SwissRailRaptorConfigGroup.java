@@ -27,12 +27,18 @@ public class SwissRailRaptorConfigGroup extends ReflectiveConfigGroup {
     private static final String PARAM_USE_INTERMODAL_ACCESS_EGRESS = "useIntermodalAccessEgress";
     private static final String PARAM_USE_MODE_MAPPING = "useModeMappingForPassengers";
     private static final String PARAM_TRANSFER_PENALTY_FACTOR = "transferPenaltyTravelTimeToCostFactor";
+    private static final String PARAM_DATA_SNAPSHOT_FILE = "dataSnapshotFile";
+    private static final String PARAM_RANGE_QUERY_DEPARTURE_CHUNKS = "rangeQueryDepartureChunks";
+    private static final String PARAM_PARETO_QUERY_MAX_BAG_SIZE = "paretoQueryMaxBagSize";
 
     private boolean useRangeQuery = false;
     private boolean useIntermodality = false;
     private boolean useModeMapping = false;
 
     private double transferPenaltyTravelTimeToCostFactor = 0.0;
+    private String dataSnapshotFile = null;
+    private int rangeQueryDepartureChunks = 1;
+    private int paretoQueryMaxBagSize = 8;
 
     private final Map<String, RangeQuerySettingsParameterSet> rangeQuerySettingsPerSubpop = new HashMap<>();
     private final Map<String, RouteSelectorParameterSet> routeSelectorPerSubpop = new HashMap<>();
@@ -83,6 +89,54 @@ public class SwissRailRaptorConfigGroup extends ReflectiveConfigGroup {
         this.transferPenaltyTravelTimeToCostFactor = transferPenaltyTravelTimeToCostFactor;
     }
 
+    @StringGetter(PARAM_DATA_SNAPSHOT_FILE)
+    public String getDataSnapshotFile() {
+        return this.dataSnapshotFile;
+    }
+
+    @StringSetter(PARAM_DATA_SNAPSHOT_FILE)
+    public void setDataSnapshotFile(String dataSnapshotFile) {
+        this.dataSnapshotFile = dataSnapshotFile;
+    }
+
+    @StringGetter(PARAM_RANGE_QUERY_DEPARTURE_CHUNKS)
+    public int getRangeQueryDepartureChunks() {
+        return this.rangeQueryDepartureChunks;
+    }
+
+    @StringSetter(PARAM_RANGE_QUERY_DEPARTURE_CHUNKS)
+    public void setRangeQueryDepartureChunks(int rangeQueryDepartureChunks) {
+        if (rangeQueryDepartureChunks < 1) {
+            throw new IllegalArgumentException("rangeQueryDepartureChunks must be at least 1, but is " + rangeQueryDepartureChunks);
+        }
+        this.rangeQueryDepartureChunks = rangeQueryDepartureChunks;
+    }
+
+    @StringGetter(PARAM_PARETO_QUERY_MAX_BAG_SIZE)
+    public int getParetoQueryMaxBagSize() {
+        return this.paretoQueryMaxBagSize;
+    }
+
+    @StringSetter(PARAM_PARETO_QUERY_MAX_BAG_SIZE)
+    public void setParetoQueryMaxBagSize(int paretoQueryMaxBagSize) {
+        if (paretoQueryMaxBagSize < 1) {
+            throw new IllegalArgumentException("paretoQueryMaxBagSize must be at least 1, but is " + paretoQueryMaxBagSize);
+        }
+        this.paretoQueryMaxBagSize = paretoQueryMaxBagSize;
+    }
+
+    @Override
+    public Map<String, String> getComments() {
+        Map<String, String> comments = super.getComments();
+        comments.put(PARAM_DATA_SNAPSHOT_FILE, "File used to store the prepared routing data. If the file exists and was created with the same transit schedule, network and settings, the data is loaded from it instead of being prepared again. 'null' disables the snapshot.");
+        comments.put(PARAM_RANGE_QUERY_DEPARTURE_CHUNKS, "Number of chunks the departures of a range query are split into. The chunks are evaluated in parallel, each by its own routing core. "
+                + "A chunk does not know the connections found by the other chunks, so it may find additional routes that the sequential evaluation (1 chunk) would have skipped. "
+                + "The result only depends on the number of chunks, not on the number of threads.");
+        comments.put(PARAM_PARETO_QUERY_MAX_BAG_SIZE, "Maximum number of labels per route stop in a Pareto query (McRAPTOR), limiting the query time. "
+                + "If a route stop has more non-dominated labels, only the ones with the lowest costs are kept, so the Pareto set may be incomplete.");
+        return comments;
+    }
+
     @Override
     public ConfigGroup createParameterSet(String type) {
         if (RangeQuerySettingsParameterSet.TYPE.equals(type)) {
@@ -45,6 +45,7 @@ public class SBBPassengerAccessEgress implements PassengerAccessEgress {
     private final TransitStopAgentTracker agentTracker;
     private final EventsManager eventsManager;
     private final boolean isGeneratingDeniedBoardingEvents;
+    private final List<PTPassengerAgent> waitingPassengers = new ArrayList<>();
 
     SBBPassengerAccessEgress(InternalInterface internalInterface, TransitStopAgentTracker agentTracker, Scenario scenario, EventsManager eventsManager) {
         this.internalInterface = internalInterface;
@@ -147,7 +148,7 @@ public class SBBPassengerAccessEgress implements PassengerAccessEgress {
      */
     private List<PTPassengerAgent> findPassengersEntering(TransitRoute transitRoute, TransitLine transitLine, TransitVehicle vehicle,
                                                           final TransitStopFacility stop, List<TransitRouteStop> stopsToCome, int freeCapacity, double now) {
-        List<PTPassengerAgent> passengers = this.agentTracker.getAgentsAtStop().get(stop.getId());
+        List<PTPassengerAgent> passengers = findPassengersWaiting(transitLine, stop);
         if (passengers != null) {
             ArrayList<PTPassengerAgent> passengersEntering = new ArrayList<>();
             for (PTPassengerAgent agent : passengers) {
@@ -166,7 +167,7 @@ public class SBBPassengerAccessEgress implements PassengerAccessEgress {
 
     private List<PTPassengerAgent> findAllPassengersWaiting(TransitRoute transitRoute, TransitLine transitLine, TransitVehicle vehicle,
                                                           final TransitStopFacility stop, List<TransitRouteStop> stopsToCome, double now) {
-        List<PTPassengerAgent> passengers = this.agentTracker.getAgentsAtStop().get(stop.getId());
+        List<PTPassengerAgent> passengers = findPassengersWaiting(transitLine, stop);
         if (passengers != null) {
             ArrayList<PTPassengerAgent> passengersEntering = new ArrayList<>();
             for (PTPassengerAgent agent : passengers) {
@@ -179,6 +180,19 @@ public class SBBPassengerAccessEgress implements PassengerAccessEgress {
         return Collections.emptyList();
     }
 
+    /**
+     * Returns the agents waiting at the stop that might want to board a vehicle of the given line.
+     * If the agent tracker does not index the agents by line, all agents waiting at the stop are returned.
+     */
+    private List<PTPassengerAgent> findPassengersWaiting(TransitLine transitLine, TransitStopFacility stop) {
+        if (this.agentTracker instanceof SBBTransitStopAgentTracker) {
+            this.waitingPassengers.clear();
+            ((SBBTransitStopAgentTracker) this.agentTracker).collectAgentsWaitingForLine(stop.getId(), transitLine.getId(), this.waitingPassengers);
+            return this.waitingPassengers;
+        }
+        return this.agentTracker.getAgentsAtStop().get(stop.getId());
+    }
+
     private void fireBoardingDeniedEvents(TransitVehicle vehicle, double now, List<PTPassengerAgent> agents){
         Id<Vehicle> vehicleId = vehicle.getId();
         for (PTPassengerAgent agent : agents) {
@@ -29,6 +29,7 @@ public class SBBTransitDriverAgent extends TransitDriverAgentImpl {
     private final SBBPassengerAccessEgress accessEgress;
     private TransitRoute currentTransitRoute;
     private LinkedList<TransitRouteStop> remainingRouteStops = null;
+    private int ordinal = -1; // the rank of this driver's id among the deterministic drivers, orders simultaneous events
 
     SBBTransitDriverAgent(Umlauf umlauf, String transportMode, TransitStopAgentTracker agentTracker, InternalInterface internalInterface) {
         super(umlauf, transportMode, agentTracker, internalInterface);
@@ -73,6 +74,14 @@ public class SBBTransitDriverAgent extends TransitDriverAgentImpl {
         processVehicleDeparture(stop, now);
     }
 
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
+    int getOrdinal() {
+        return this.ordinal;
+    }
+
     TransitRouteStop getNextRouteStop() {
         return this.nextStop;
     }
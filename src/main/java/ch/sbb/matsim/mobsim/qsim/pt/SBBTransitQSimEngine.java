@@ -5,13 +5,17 @@
 package ch.sbb.matsim.mobsim.qsim.pt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 
@@ -79,10 +83,15 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
     private TransitDriverAgentFactory deterministicDriverFactory;
     private TransitDriverAgentFactory networkDriverFactory;
     private TransitStopHandlerFactory stopHandlerFactory = new SimpleTransitStopHandlerFactory();
-    private final PriorityQueue<TransitEvent> eventQueue = new PriorityQueue<>();
+    private final TimeBucketQueue<TransitEvent> eventQueue = new TimeBucketQueue<>();
     private boolean createLinkEvents = false;
-    private final Map<TransitRoute, List<Link[]>> linksCache;
-    private final PriorityQueue<LinkEvent> linkEventQueue;
+    private final Map<TransitRoute, TransitRouteStop[]> stopsCache = new ConcurrentHashMap<>();
+    private final Map<TransitRoute, LinkSegment[]> linksCache;
+    private final TimeBucketQueue<LinkEvent> linkEventQueue; // only accessed by the link event producer while it runs
+    private final LinkEventRecords linkEventRecords; // the segments travelled in the current sim step, only accessed by the link event producer while it runs
+    private final Runnable linkEventProductionTask = this::produceLinkEvents;
+    private ExecutorService linkEventProducer = null; // only started once enough link events are created in one sim step
+    private Future<?> linkEventProduction = null;
 
     @Inject
     public SBBTransitQSimEngine(QSim qSim, ReplanningContext context) {
@@ -92,12 +101,14 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
         this.config = ConfigUtils.addOrGetModule(qSim.getScenario().getConfig(), SBBTransitConfigGroup.GROUP_NAME, SBBTransitConfigGroup.class);
         this.ptConfig = qSim.getScenario().getConfig().transit();
         this.schedule = qSim.getScenario().getTransitSchedule();
-        this.agentTracker = new TransitStopAgentTracker(qSim.getEventsManager());
+        this.agentTracker = new SBBTransitStopAgentTracker(qSim.getEventsManager());
         if (this.config.getCreateLinkEventsInterval() > 0) {
-            this.linkEventQueue = new PriorityQueue<>();
+            this.linkEventQueue = new TimeBucketQueue<>();
+            this.linkEventRecords = new LinkEventRecords();
             this.linksCache = new ConcurrentHashMap<>();
         } else {
             this.linkEventQueue = null;
+            this.linkEventRecords = null;
             this.linksCache = null;
         }
         checkSettings();
@@ -155,24 +166,72 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
     @Override
     public void doSimStep(double time) {
         if (this.createLinkEvents) {
-            LinkEvent linkEvent = this.linkEventQueue.peek();
-            while (linkEvent != null && linkEvent.time <= time) {
-                this.linkEventQueue.poll();
+            awaitLinkEventProduction();
+            LinkEvent linkEvent;
+            while ((linkEvent = this.linkEventQueue.poll(time)) != null) {
                 this.qSim.getEventsManager().processEvent(new LinkLeaveEvent(time, linkEvent.vehicleId, linkEvent.fromLinkId));
                 this.qSim.getEventsManager().processEvent(new LinkEnterEvent(time, linkEvent.vehicleId, linkEvent.toLinkId));
-                linkEvent = this.linkEventQueue.peek();
             }
         }
 
-        TransitEvent event = this.eventQueue.peek();
-        while (event != null && event.time <= time) {
-            handleTransitEvent(this.eventQueue.poll());
-            event = this.eventQueue.peek();
+        TransitEvent event;
+        while ((event = this.eventQueue.poll(time)) != null) {
+            handleTransitEvent(event);
+        }
+
+        if (this.createLinkEvents && this.linkEventRecords.size > 0) {
+            if (this.linkEventRecords.linkEventCount < this.config.getMinLinkEventsForProducerThread()) {
+                // handing a few link events over to the producer thread costs more than creating them right away
+                produceLinkEvents();
+            } else {
+                // the link events are only due in the next sim step at the earliest, create them while the other engines are busy
+                if (this.linkEventProducer == null) {
+                    this.linkEventProducer = Executors.newSingleThreadExecutor(r -> {
+                        Thread thread = new Thread(r, "SBBTransitLinkEvents");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                this.linkEventProduction = this.linkEventProducer.submit(this.linkEventProductionTask);
+            }
         }
     }
 
+    private void awaitLinkEventProduction() {
+        if (this.linkEventProduction != null) {
+            try {
+                this.linkEventProduction.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Could not create the link events of the deterministic transit vehicles.", e);
+            }
+            this.linkEventProduction = null;
+        }
+    }
+
+    private void produceLinkEvents() {
+        LinkEventRecords records = this.linkEventRecords;
+        for (int i = 0; i < records.size; i++) {
+            LinkSegment segment = records.segments[i];
+            Link[] links = segment.links;
+            double depTime = records.depTimes[i];
+            double travelTime = records.arrTimes[i] - depTime;
+            double secondsPerMeter = segment.totalLength > 0 ? travelTime / segment.totalLength : 0;
+            for (int l = 1; l < links.length; l++) {
+                double time = depTime + segment.travelledLength[l] * secondsPerMeter;
+                this.linkEventQueue.add(new LinkEvent(time, links[l - 1].getId(), links[l].getId(), records.vehicleIds[i]));
+            }
+        }
+        records.clear();
+    }
+
     @Override
     public void afterSim() {
+        if (this.linkEventProducer != null) {
+            awaitLinkEventProduction();
+            this.linkEventProducer.shutdown();
+            this.linkEventProducer = null;
+        }
+
         // check that all agents have arrived, generate stuck events otherwise
         double now = this.qSim.getSimTimer().getTimeOfDay();
         for (Map.Entry<Id<TransitStopFacility>, List<PTPassengerAgent>> agentsAtStop : this.agentTracker.getAgentsAtStop().entrySet()) {
@@ -186,7 +245,7 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
 
         // check for agents still in a vehicle
         TransitEvent event;
-        while ((event = this.eventQueue.poll()) != null) {
+        while ((event = this.eventQueue.poll(Double.POSITIVE_INFINITY)) != null) {
             Id<Link> nextStopLinkId = event.context.nextStop.getStopFacility().getLinkId();
             for (PassengerAgent agent : event.context.driver.getVehicle().getPassengers()) {
                 this.qSim.getEventsManager().processEvent(new PersonStuckEvent(now, agent.getId(), nextStopLinkId, agent.getMode()));
@@ -213,6 +272,7 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
             throw new RuntimeException("There are modes configured to be deterministic service modes as well as qsim main modes. This will not work! common modes = " + CollectionUtils.setToString(mainModes));
         }
 
+        List<SBBTransitDriverAgent> deterministicDrivers = new ArrayList<>();
         for (TransitLine line : schedule.getTransitLines().values()) {
             for (TransitRoute route : line.getRoutes().values()) {
                 String mode = route.getTransportMode();
@@ -220,13 +280,22 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
                 for (Departure dep : route.getDepartures().values()) {
                     Vehicle veh = vehicles.getVehicles().get(dep.getVehicleId());
                     Umlauf umlauf = createUmlauf(line, route, dep);
-                    createAndScheduleDriver(veh, umlauf, isDeterministic);
+                    AbstractTransitDriverAgent driver = createAndScheduleDriver(veh, umlauf, isDeterministic);
+                    if (driver instanceof SBBTransitDriverAgent) {
+                        deterministicDrivers.add((SBBTransitDriverAgent) driver);
+                    }
                 }
             }
         }
+
+        // simultaneous transit events are ordered by the driver's id, compare the ids only once
+        deterministicDrivers.sort((d1, d2) -> d1.getId().compareTo(d2.getId()));
+        for (int i = 0; i < deterministicDrivers.size(); i++) {
+            deterministicDrivers.get(i).setOrdinal(i);
+        }
     }
 
-    private void createAndScheduleDriver(Vehicle veh, Umlauf umlauf, boolean isDeterministic) {
+    private AbstractTransitDriverAgent createAndScheduleDriver(Vehicle veh, Umlauf umlauf, boolean isDeterministic) {
         AbstractTransitDriverAgent driver;
         if (isDeterministic) {
             driver = this.deterministicDriverFactory.createTransitDriver(umlauf);
@@ -244,6 +313,7 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
             this.qSim.addParkedVehicle(qVeh, startLinkId);
         }
         this.qSim.insertAgentIntoMobsim(driver);
+        return driver;
     }
 
     private Umlauf createUmlauf(TransitLine line, TransitRoute route, Departure departure) {
@@ -279,8 +349,9 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
     private void handleDeterministicDriverDeparture(MobsimAgent agent, double now) {
         SBBTransitDriverAgent driver = (SBBTransitDriverAgent) agent;
         TransitRoute trRoute = driver.getTransitRoute();
-        List<Link[]> links = this.createLinkEvents ? this.linksCache.computeIfAbsent(trRoute, r -> getLinksPerStopAlongRoute(r, this.qSim.getScenario().getNetwork())) : null;
-        TransitContext context = new TransitContext(driver, links);
+        TransitRouteStop[] stops = this.stopsCache.computeIfAbsent(trRoute, r -> r.getStops().toArray(new TransitRouteStop[0]));
+        LinkSegment[] links = this.createLinkEvents ? this.linksCache.computeIfAbsent(trRoute, r -> getLinkSegmentsAlongRoute(r, this.qSim.getScenario().getNetwork())) : null;
+        TransitContext context = new TransitContext(driver, stops, links);
         TransitRouteStop firstStop = context.nextStop;
         this.qSim.getEventsManager().processEvent(new PersonEntersVehicleEvent(now, driver.getId(), driver.getVehicle().getId()));
         if (this.createLinkEvents) {
@@ -288,6 +359,7 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
             String mode = driver.getMode();
             this.qSim.getEventsManager().processEvent(new VehicleEntersTrafficEvent(now, driver.getId(), linkId, driver.getVehicle().getId(), mode, 1.0));
         }
+        // this event is re-used for all the following events of this vehicle, it only ever has one pending event
         TransitEvent event = new TransitEvent(now, TransitEventType.ArrivalAtStop, context);
         this.eventQueue.add(event);
     }
@@ -311,10 +383,12 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
         TransitRouteStop stop = event.context.nextStop;
         double stopTime = driver.handleTransitStop(stop.getStopFacility(), event.time);
         if (stopTime > 0) {
-            TransitEvent depEvent = new TransitEvent(event.time + stopTime, TransitEventType.PassengerExchange, event.context);
-            this.eventQueue.add(depEvent);
+            event.time += stopTime;
+            event.type = TransitEventType.PassengerExchange;
+            this.eventQueue.add(event);
         } else {
-            handleDepartureAtStop(new TransitEvent(event.time, TransitEventType.DepartureAtStop, event.context));
+            event.type = TransitEventType.DepartureAtStop;
+            handleDepartureAtStop(event);
         }
 
     }
@@ -322,7 +396,8 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
     private void handleDepartureAtStop(TransitEvent event) {
         SBBTransitDriverAgent driver = event.context.driver;
         TransitRouteStop stop = event.context.nextStop;
-        driver.depart(stop.getStopFacility(), event.time);
+        double depTime = event.time;
+        driver.depart(stop.getStopFacility(), depTime);
 
         TransitRouteStop nextStop = event.context.advanceStop();
         if (nextStop != null) {
@@ -331,61 +406,53 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
                 arrOffset = nextStop.getDepartureOffset();
             }
             double arrTime = driver.getDeparture().getDepartureTime() + arrOffset;
-            if (arrTime < event.time) {
+            if (arrTime < depTime) {
                 // looks like we had a huge delay before.
                 // MATSim does not allow to send events with an earlier time than the last time,
                 // so we have to adapt a bit here.
-                arrTime = event.time;
+                arrTime = depTime;
             }
-            TransitEvent arrEvent = new TransitEvent(arrTime, TransitEventType.ArrivalAtStop, event.context);
-            this.eventQueue.add(arrEvent);
+            event.time = arrTime;
+            event.type = TransitEventType.ArrivalAtStop;
+            this.eventQueue.add(event);
             if (this.createLinkEvents) {
-                precomputeLinkEvents(event.time, arrTime, event.context.linksToNextStop, driver.getVehicle(), driver);
+                precomputeLinkEvents(depTime, arrTime, event.context.linksToNextStop, driver.getVehicle());
             }
         } else {
             if (this.createLinkEvents) {
                 Id<Link> linkId = driver.getDestinationLinkId();
                 String mode = driver.getMode();
-                this.qSim.getEventsManager().processEvent(new VehicleLeavesTrafficEvent(event.time, driver.getId(), linkId, driver.getVehicle().getId(), mode, 1.0));
+                this.qSim.getEventsManager().processEvent(new VehicleLeavesTrafficEvent(depTime, driver.getId(), linkId, driver.getVehicle().getId(), mode, 1.0));
             }
-            this.qSim.getEventsManager().processEvent(new PersonLeavesVehicleEvent(event.time, driver.getId(), driver.getVehicle().getId()));
-            driver.endLegAndComputeNextState(event.time);
+            this.qSim.getEventsManager().processEvent(new PersonLeavesVehicleEvent(depTime, driver.getId(), driver.getVehicle().getId()));
+            driver.endLegAndComputeNextState(depTime);
             this.internalInterface.arrangeNextAgentState(driver);
         }
     }
 
-    private void precomputeLinkEvents(double depTime, double arrTime, Link[] linksToNextStop, TransitVehicle vehicle, SBBTransitDriverAgent driver) {
-        double travelTime = arrTime - depTime;
-        double totalLength = 0.0;
-        boolean isDepartureLink = true;
-        boolean hasLinks = false;
-        for (Link link : linksToNextStop) {
-            if (isDepartureLink) {
-                isDepartureLink = false;
+    private void precomputeLinkEvents(double depTime, double arrTime, LinkSegment linksToNextStop, TransitVehicle vehicle) {
+        Link[] links = linksToNextStop.links;
+        if (links.length > 1) {
+            if (arrTime == depTime) {
+                // create the events right now, so they stay in correct order before next arrival
+                for (int i = 1; i < links.length; i++) {
+                    this.qSim.getEventsManager().processEvent(new LinkLeaveEvent(depTime, vehicle.getId(), links[i - 1].getId()));
+                    this.qSim.getEventsManager().processEvent(new LinkEnterEvent(depTime, vehicle.getId(), links[i].getId()));
+                }
             } else {
-                totalLength += link.getLength();
-                hasLinks = true;
+                // the link events are created by the link event producer, see produceLinkEvents()
+                this.linkEventRecords.add(vehicle.getId(), depTime, arrTime, linksToNextStop);
             }
         }
-        if (hasLinks) {
-            double secondsPerMeter = totalLength > 0 ? travelTime / totalLength : 0;
-            double travelledLength = 0;
-            Link fromLink = null;
-            for (Link toLink : linksToNextStop) {
-                if (fromLink != null) {
-                    double time = depTime + travelledLength * secondsPerMeter;
-                    if (travelTime == 0) {
-                        // create the events right now, so they stay in correct order before next arrival
-                        this.qSim.getEventsManager().processEvent(new LinkLeaveEvent(time, vehicle.getId(), fromLink.getId()));
-                        this.qSim.getEventsManager().processEvent(new LinkEnterEvent(time, vehicle.getId(), toLink.getId()));
-                    } else {
-                        this.linkEventQueue.add(new LinkEvent(time, fromLink.getId(), toLink.getId(), vehicle.getId()));
-                    }
-                    travelledLength += toLink.getLength();
-                }
-                fromLink = toLink;
-            }
+    }
+
+    private LinkSegment[] getLinkSegmentsAlongRoute(TransitRoute trRoute, Network network) {
+        Link[][] linksPerStop = getLinksPerStopAlongRoute(trRoute, network);
+        LinkSegment[] segments = new LinkSegment[linksPerStop.length];
+        for (int i = 0; i < linksPerStop.length; i++) {
+            segments[i] = new LinkSegment(linksPerStop[i]);
         }
+        return segments;
     }
 
     /**
@@ -399,9 +466,9 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
      * is the arrival link.
      *
      * @param trRoute TransitRoute for which to get the links
-     * @return list containing the links leading from each stop to the next, ordered by the sequence of TransitRouteStops in the TransitRoute
+     * @return array containing the links leading from each stop to the next, ordered by the sequence of TransitRouteStops in the TransitRoute
      */
-    private List<Link[]> getLinksPerStopAlongRoute(TransitRoute trRoute, Network network) {
+    private Link[][] getLinksPerStopAlongRoute(TransitRoute trRoute, Network network) {
         Iterator<TransitRouteStop> stopIter = trRoute.getStops().iterator();
         TransitRouteStop nextStop = stopIter.hasNext() ? stopIter.next() : null;
         Id<Link> nextStopLinkId = nextStop.getStopFacility().getLinkId();
@@ -445,43 +512,101 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
         }
         // add any potential links after the last stop
         result.add(links.toArray(new Link[links.size()]));
-        return result;
+        return result.toArray(new Link[result.size()][]);
+    }
+
+    /**
+     * The links leading from one stop to the next, together with the length travelled on the links of the
+     * segment before entering each link. The first link is the departure link, its length is not travelled.
+     */
+    private static final class LinkSegment {
+        final Link[] links;
+        final double[] travelledLength; // travelledLength[i] is the length travelled before entering links[i]
+        final double totalLength;
+
+        LinkSegment(Link[] links) {
+            this.links = links;
+            this.travelledLength = new double[links.length];
+            double length = 0.0;
+            for (int i = 1; i < links.length; i++) {
+                this.travelledLength[i] = length;
+                length += links[i].getLength();
+            }
+            this.totalLength = length;
+        }
+    }
+
+    /**
+     * The segments travelled by the deterministic vehicles in one sim step, stored in parallel arrays,
+     * from which the link events are created.
+     */
+    private static final class LinkEventRecords {
+        @SuppressWarnings("unchecked")
+        Id<Vehicle>[] vehicleIds = new Id[64];
+        double[] depTimes = new double[64];
+        double[] arrTimes = new double[64];
+        LinkSegment[] segments = new LinkSegment[64];
+        int size = 0;
+        int linkEventCount = 0; // the number of link events to be created from the segments
+
+        void add(Id<Vehicle> vehicleId, double depTime, double arrTime, LinkSegment segment) {
+            if (this.size == this.depTimes.length) {
+                int capacity = 2 * this.size;
+                this.vehicleIds = Arrays.copyOf(this.vehicleIds, capacity);
+                this.depTimes = Arrays.copyOf(this.depTimes, capacity);
+                this.arrTimes = Arrays.copyOf(this.arrTimes, capacity);
+                this.segments = Arrays.copyOf(this.segments, capacity);
+            }
+            this.vehicleIds[this.size] = vehicleId;
+            this.depTimes[this.size] = depTime;
+            this.arrTimes[this.size] = arrTime;
+            this.segments[this.size] = segment;
+            this.size++;
+            this.linkEventCount += segment.links.length - 1;
+        }
+
+        void clear() {
+            Arrays.fill(this.vehicleIds, 0, this.size, null);
+            Arrays.fill(this.segments, 0, this.size, null);
+            this.size = 0;
+            this.linkEventCount = 0;
+        }
     }
 
     private static class TransitContext {
+        private static final LinkSegment NO_LINKS = new LinkSegment(new Link[0]);
+
         SBBTransitDriverAgent driver;
-        Iterator<TransitRouteStop> stopIter;
+        final TransitRouteStop[] stops; // shared by all contexts of the same route
+        int stopIndex = 0;
         TransitRouteStop nextStop;
-        Iterator<Link[]> linksIter;
-        Link[] linksToNextStop;
+        final LinkSegment[] links; // shared by all contexts of the same route, links[i] leads from stop i to stop i+1
+        LinkSegment linksToNextStop;
 
-        TransitContext(SBBTransitDriverAgent driver, List<Link[]> links) {
+        TransitContext(SBBTransitDriverAgent driver, TransitRouteStop[] stops, LinkSegment[] links) {
             this.driver = driver;
-            this.stopIter = driver.getTransitRoute().getStops().iterator();
-            this.nextStop = this.stopIter.next();
-            this.linksIter = links == null ? null : links.iterator();
-            this.linksToNextStop = links == null ? null : new Link[0]; // the route to the first stop is empty by definition
+            this.stops = stops;
+            this.nextStop = stops[0];
+            this.links = links;
+            this.linksToNextStop = links == null ? null : NO_LINKS; // the route to the first stop is empty by definition
         }
 
         private TransitRouteStop advanceStop() {
-            if (this.stopIter.hasNext()) {
-                this.nextStop = this.stopIter.next();
-            } else {
-                this.nextStop = null;
-            }
-            if (this.linksIter != null && this.linksIter.hasNext()) {
-                this.linksToNextStop = this.linksIter.next();
-            } else {
-                this.linksToNextStop = null;
-            }
+            this.stopIndex++;
+            this.nextStop = this.stopIndex < this.stops.length ? this.stops[this.stopIndex] : null;
+            int linksIndex = this.stopIndex - 1;
+            this.linksToNextStop = (this.links != null && linksIndex < this.links.length) ? this.links[linksIndex] : null;
             return this.nextStop;
         }
     }
 
     private enum TransitEventType { ArrivalAtStop, PassengerExchange, DepartureAtStop }
 
-    private static class TransitEvent implements Comparable<TransitEvent> {
+    abstract static class TimedEvent<E extends TimedEvent<E>> implements Comparable<E> {
         double time;
+    }
+
+    private static class TransitEvent extends TimedEvent<TransitEvent> {
         TransitEventType type;
         TransitContext context;
 
@@ -496,7 +621,7 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
             int result = Double.compare(this.time, o.time);
             if (result == 0) {
                 if (this.type == o.type) {
-                    result = this.context.driver.getId().compareTo(o.context.driver.getId());
+                    result = Integer.compare(this.context.driver.getOrdinal(), o.context.driver.getOrdinal());
                 } else {
                     // arrivals should come before departures
                     result = this.type == TransitEventType.ArrivalAtStop ? -1 : +1;
@@ -506,8 +631,93 @@ public class SBBTransitQSimEngine extends TransitQSimEngine /*implements Departu
         }
     }
 
-    private static class LinkEvent implements Comparable<LinkEvent> {
-        double time;
+    /**
+     * A calendar queue for the transit and link events, with one bucket per simulated second. The events are appended
+     * to their bucket unordered, and a bucket is only sorted when its events become due, so adding and
+     * removing events does not require any heap operations. Events added to the bucket currently being
+     * processed are inserted at their position among its remaining events.
+     */
+    static final class TimeBucketQueue<E extends TimedEvent<E>> {
+        private Object[][] buckets = new Object[30 * 3600][];
+        private int[] bucketSizes = new int[30 * 3600];
+        private int currentBucket = 0; // all buckets before the current one are empty
+        private int currentPosition = 0; // the events of the current bucket before this position are already polled
+        private boolean isCurrentBucketSorted = false;
+        private Object[][] spareBuckets = new Object[16][]; // the arrays of processed buckets, for re-use
+        private int spareBucketCount = 0;
+
+        void add(E event) {
+            int bucket = Math.max((int) event.time, this.currentBucket);
+            if (bucket >= this.buckets.length) {
+                int capacity = Math.max(bucket + 1, 2 * this.buckets.length);
+                this.buckets = Arrays.copyOf(this.buckets, capacity);
+                this.bucketSizes = Arrays.copyOf(this.bucketSizes, capacity);
+            }
+            Object[] events = this.buckets[bucket];
+            int size = this.bucketSizes[bucket];
+            if (events == null) {
+                events = this.spareBucketCount > 0 ? this.spareBuckets[--this.spareBucketCount] : new Object[16];
+                this.buckets[bucket] = events;
+            } else if (size == events.length) {
+                events = Arrays.copyOf(events, 2 * size);
+                this.buckets[bucket] = events;
+            }
+            int position = size;
+            if (bucket == this.currentBucket && this.isCurrentBucketSorted) {
+                // keep the remaining events of the current bucket sorted
+                while (position > this.currentPosition && event.compareTo(getEvent(events, position - 1)) < 0) {
+                    events[position] = events[position - 1];
+                    position--;
+                }
+            }
+            events[position] = event;
+            this.bucketSizes[bucket] = size + 1;
+        }
+
+        /**
+         * @return the next event if it is not later than <code>maxTime</code>, <code>null</code> otherwise.
+         */
+        E poll(double maxTime) {
+            while (this.currentBucket < this.buckets.length && this.currentBucket <= maxTime) {
+                int size = this.bucketSizes[this.currentBucket];
+                if (this.currentPosition < size) {
+                    Object[] events = this.buckets[this.currentBucket];
+                    if (!this.isCurrentBucketSorted) {
+                        Arrays.sort(events, this.currentPosition, size);
+                        this.isCurrentBucketSorted = true;
+                    }
+                    E event = getEvent(events, this.currentPosition);
+                    if (event.time > maxTime) {
+                        return null;
+                    }
+                    events[this.currentPosition] = null;
+                    this.currentPosition++;
+                    return event;
+                }
+                // the current bucket is empty, continue with the next one
+                Object[] events = this.buckets[this.currentBucket];
+                if (events != null) {
+                    if (this.spareBucketCount == this.spareBuckets.length) {
+                        this.spareBuckets = Arrays.copyOf(this.spareBuckets, 2 * this.spareBucketCount);
+                    }
+                    this.spareBuckets[this.spareBucketCount++] = events;
+                }
+                this.buckets[this.currentBucket] = null;
+                this.bucketSizes[this.currentBucket] = 0;
+                this.currentBucket++;
+                this.currentPosition = 0;
+                this.isCurrentBucketSorted = false;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private E getEvent(Object[] events, int position) {
+            return (E) events[position];
+        }
+    }
+
+    private static class LinkEvent extends TimedEvent<LinkEvent> {
         Id<Link> fromLinkId;
         Id<Link> toLinkId;
         Id<Vehicle> vehicleId;
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.mobsim.qsim.pt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.api.experimental.events.AgentWaitingForPtEvent;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.mobsim.framework.PlanAgent;
+import org.matsim.core.mobsim.qsim.pt.PTPassengerAgent;
+import org.matsim.core.mobsim.qsim.pt.TransitStopAgentTracker;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+/**
+ * Keeps track of the agents waiting at stops just like {@link TransitStopAgentTracker}, but additionally
+ * indexes the waiting agents by the transit line they want to board. A vehicle arriving at a stop then
+ * only has to ask the agents waiting for its line whether they want to enter, instead of all agents
+ * waiting at the stop.
+ *
+ * The line is taken from the agent's current leg when it arrives at the stop. Agents not using an
+ * {@link ExperimentalTransitRoute} are asked by every vehicle, like before. The agents are not indexed
+ * by transit route, as an agent may board any route of its line that serves its egress stop.
+ *
+ * The lists of the base class are not used, as removing an agent from them requires a linear search.
+ * Instead, every agent is kept in a doubly-linked list per stop and per line, so it can be removed from
+ * both in constant time. {@link #getAgentsAtFacility(Id)} and {@link #getAgentsAtStop()} create their
+ * results from the lists per stop.
+ *
+ * @author mrieser / SBB
+ */
+class SBBTransitStopAgentTracker extends TransitStopAgentTracker {
+
+    private final EventsManager events;
+    private final Map<Id<TransitStopFacility>, AgentsAtStop> agentsAtStops = new HashMap<>();
+    private final Map<PTPassengerAgent, WaitingAgent> waitingAgents = new IdentityHashMap<>();
+    private long nextSequenceNumber = 0;
+
+    SBBTransitStopAgentTracker(EventsManager events) {
+        super(events);
+        this.events = events;
+    }
+
+    @Override
+    public void addAgentToStop(double now, PTPassengerAgent agent, Id<TransitStopFacility> stopId) {
+        if (stopId == null) {
+            throw new NullPointerException("stop must not be null.");
+        }
+        synchronized (this.waitingAgents) {
+            WaitingAgent previous = this.waitingAgents.remove(agent);
+            if (previous != null) {
+                previous.remove();
+            }
+            AgentsAtStop agentsAtStop = this.agentsAtStops.computeIfAbsent(stopId, id -> new AgentsAtStop());
+            Id<TransitLine> lineId = getLineId(agent);
+            WaitingAgents lineList;
+            if (lineId == null) {
+                lineList = agentsAtStop.withoutLine;
+            } else {
+                lineList = agentsAtStop.perLine.computeIfAbsent(lineId, id -> new WaitingAgents());
+            }
+            WaitingAgent waitingAgent = new WaitingAgent(agent, this.nextSequenceNumber++, agentsAtStop.all, lineList);
+            agentsAtStop.all.add(waitingAgent, true);
+            lineList.add(waitingAgent, false);
+            this.waitingAgents.put(agent, waitingAgent);
+        }
+        this.events.processEvent(new AgentWaitingForPtEvent(now, agent.getId(), stopId, agent.getDesiredDestinationStopId()));
+    }
+
+    @Override
+    public void removeAgentFromStop(PTPassengerAgent agent, Id<TransitStopFacility> stopId) {
+        if (stopId == null) {
+            throw new NullPointerException("stopId must not be null.");
+        }
+        synchronized (this.waitingAgents) {
+            WaitingAgent waitingAgent = this.waitingAgents.remove(agent);
+            if (waitingAgent != null) {
+                waitingAgent.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the agents currently waiting at the specified stop, in the order they arrived at the stop.
+     */
+    @Override
+    public List<PTPassengerAgent> getAgentsAtFacility(Id<TransitStopFacility> stopId) {
+        synchronized (this.waitingAgents) {
+            AgentsAtStop agentsAtStop = this.agentsAtStops.get(stopId);
+            if (agentsAtStop == null || agentsAtStop.all.first == null) {
+                return Collections.emptyList();
+            }
+            return agentsAtStop.all.toList();
+        }
+    }
+
+    /**
+     * Returns a copy of the agents currently waiting at each stop with waiting agents, in the order they arrived
+     * at the stop. Changes to the returned map have no effect on the tracker.
+     */
+    @Override
+    public Map<Id<TransitStopFacility>, List<PTPassengerAgent>> getAgentsAtStop() {
+        synchronized (this.waitingAgents) {
+            Map<Id<TransitStopFacility>, List<PTPassengerAgent>> result = new HashMap<>();
+            for (Map.Entry<Id<TransitStopFacility>, AgentsAtStop> e : this.agentsAtStops.entrySet()) {
+                if (e.getValue().all.first != null) {
+                    result.put(e.getKey(), e.getValue().all.toList());
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Adds all agents waiting at the specified stop that might want to board a vehicle of the specified line
+     * to <code>agents</code>, in the order they arrived at the stop.
+     */
+    void collectAgentsWaitingForLine(Id<TransitStopFacility> stopId, Id<TransitLine> lineId, List<PTPassengerAgent> agents) {
+        synchronized (this.waitingAgents) {
+            AgentsAtStop agentsAtStop = this.agentsAtStops.get(stopId);
+            if (agentsAtStop == null) {
+                return;
+            }
+            WaitingAgents withLine = agentsAtStop.perLine.get(lineId);
+            WaitingAgent a = withLine == null ? null : withLine.first;
+            WaitingAgent b = agentsAtStop.withoutLine.first;
+            while (a != null || b != null) {
+                if (b == null || (a != null && a.sequenceNumber < b.sequenceNumber)) {
+                    agents.add(a.agent);
+                    a = a.nextOfLine;
+                } else {
+                    agents.add(b.agent);
+                    b = b.nextOfLine;
+                }
+            }
+        }
+    }
+
+    private static Id<TransitLine> getLineId(PTPassengerAgent agent) {
+        if (agent instanceof PlanAgent) {
+            PlanElement pe = ((PlanAgent) agent).getCurrentPlanElement();
+            if (pe instanceof Leg && ((Leg) pe).getRoute() instanceof ExperimentalTransitRoute) {
+                return ((ExperimentalTransitRoute) ((Leg) pe).getRoute()).getLineId();
+            }
+        }
+        return null;
+    }
+
+    private static final class AgentsAtStop {
+        final WaitingAgents all = new WaitingAgents();
+        final WaitingAgents withoutLine = new WaitingAgents();
+        final Map<Id<TransitLine>, WaitingAgents> perLine = new HashMap<>();
+    }
+
+    /**
+     * An agent waiting at a stop, linked into the list of all agents at the stop and into the list of its line.
+     */
+    private static final class WaitingAgent {
+        final PTPassengerAgent agent;
+        final long sequenceNumber;
+        final WaitingAgents stopList;
+        final WaitingAgents lineList;
+        WaitingAgent prevAtStop = null;
+        WaitingAgent nextAtStop = null;
+        WaitingAgent prevOfLine = null;
+        WaitingAgent nextOfLine = null;
+
+        WaitingAgent(PTPassengerAgent agent, long sequenceNumber, WaitingAgents stopList, WaitingAgents lineList) {
+            this.agent = agent;
+            this.sequenceNumber = sequenceNumber;
+            this.stopList = stopList;
+            this.lineList = lineList;
+        }
+
+        void remove() {
+            this.stopList.remove(this, true);
+            this.lineList.remove(this, false);
+        }
+    }
+
+    /**
+     * Doubly-linked list of waiting agents, allowing the removal of any agent in constant time. The same list
+     * class is used for the agents at a stop and for the agents of a line, each using its own pair of links.
+     */
+    private static final class WaitingAgents {
+        WaitingAgent first = null;
+        WaitingAgent last = null;
+
+        void add(WaitingAgent agent, boolean atStop) {
+            if (this.last == null) {
+                this.first = agent;
+            } else if (atStop) {
+                this.last.nextAtStop = agent;
+                agent.prevAtStop = this.last;
+            } else {
+                this.last.nextOfLine = agent;
+                agent.prevOfLine = this.last;
+            }
+            this.last = agent;
+        }
+
+        void remove(WaitingAgent agent, boolean atStop) {
+            WaitingAgent prev = atStop ? agent.prevAtStop : agent.prevOfLine;
+            WaitingAgent next = atStop ? agent.nextAtStop : agent.nextOfLine;
+            if (prev == null) {
+                this.first = next;
+            } else if (atStop) {
+                prev.nextAtStop = next;
+            } else {
+                prev.nextOfLine = next;
+            }
+            if (next == null) {
+                this.last = prev;
+            } else if (atStop) {
+                next.prevAtStop = prev;
+            } else {
+                next.prevOfLine = prev;
+            }
+        }
+
+        /** only for the lists of all agents at a stop */
+        List<PTPassengerAgent> toList() {
+            List<PTPassengerAgent> agents = new ArrayList<>();
+            for (WaitingAgent a = this.first; a != null; a = a.nextAtStop) {
+                agents.add(a.agent);
+            }
+            return agents;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.util.List;
 public class InitialStop {
 
     final TransitStopFacility stop;
+    final int stopIndex; // the index of the stop in SwissRailRaptorData, or -1 if it is not (yet) known
     final double accessCost;
     final double accessTime;
     final double distance;
@@ -24,20 +25,32 @@ public class InitialStop {
     final List<? extends PlanElement> planElements;
 
     public InitialStop(TransitStopFacility stop, double accessCost, double accessTime, double distance, String mode) {
-        this.stop = stop;
-        this.accessCost = accessCost;
-        this.accessTime = accessTime;
-        this.distance = distance;
-        this.mode = mode;
-        this.planElements = null;
+        this(stop, -1, accessCost, accessTime, distance, mode);
     }
 
     public InitialStop(TransitStopFacility stop, double accessCost, double accessTime, List<? extends PlanElement> planElements) {
+        this(stop, -1, accessCost, accessTime, planElements);
+    }
+
+    InitialStop(TransitStopFacility stop, int stopIndex, double accessCost, double accessTime, double distance, String mode) {
+        this(stop, stopIndex, accessCost, accessTime, distance, mode, null);
+    }
+
+    InitialStop(TransitStopFacility stop, int stopIndex, double accessCost, double accessTime, List<? extends PlanElement> planElements) {
+        this(stop, stopIndex, accessCost, accessTime, Double.NaN, null, planElements);
+    }
+
+    private InitialStop(TransitStopFacility stop, int stopIndex, double accessCost, double accessTime, double distance, String mode, List<? extends PlanElement> planElements) {
         this.stop = stop;
+        this.stopIndex = stopIndex;
         this.accessCost = accessCost;
         this.accessTime = accessTime;
-        this.distance = Double.NaN;
-        this.mode = null;
+        this.distance = distance;
+        this.mode = mode;
         this.planElements = planElements;
     }
+
+    InitialStop withStopIndex(int stopIndex) {
+        return new InitialStop(this.stop, stopIndex, this.accessCost, this.accessTime, this.distance, this.mode, this.planElements);
+    }
 }
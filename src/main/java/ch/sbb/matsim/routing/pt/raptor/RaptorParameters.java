@@ -45,6 +45,8 @@ public class RaptorParameters {
 
     private final SwissRailRaptorConfigGroup config;
 
+    private volatile CompiledParameters compiledParameters = null; // the parameters indexed for the routing, created on first use
+
     public RaptorParameters(SwissRailRaptorConfigGroup config) {
         this.config = config;
     }
@@ -87,6 +89,27 @@ public class RaptorParameters {
 
     public void setMarginalUtilityOfTravelTime_utl_s(String mode, double marginalUtilityOfTravelTime_utl_s) {
         this.marginalUtilityOfTravelTime_utl_s.put(mode, marginalUtilityOfTravelTime_utl_s);
+        this.compiledParameters = null;
+    }
+
+    /**
+     * Returns the marginal utility of travel time for the mode with the given index in the data (see
+     * {@link SwissRailRaptorData#modes}) without looking up the mode by name. The values are compiled
+     * into an array indexed by the mode index when they are first used with some data, so implementations
+     * of {@link RaptorParametersForPerson} should re-use the parameters of a person for many queries.
+     */
+    double getMarginalUtilityOfTravelTime_utl_s(SwissRailRaptorData data, int modeIndex) {
+        CompiledParameters compiled = this.compiledParameters;
+        if (compiled == null || compiled.data != data) {
+            compiled = new CompiledParameters(data, this.marginalUtilityOfTravelTime_utl_s);
+            this.compiledParameters = compiled;
+        }
+        double marginalUtility = compiled.marginalUtilityOfTravelTimePerMode_utl_s[modeIndex];
+        if (Double.isNaN(marginalUtility)) {
+            // the marginal utility is missing for this mode, fail the same way as when looking it up by name
+            return getMarginalUtilityOfTravelTime_utl_s(data.modes[modeIndex]);
+        }
+        return marginalUtility;
     }
 
     public double getMarginalUtilityOfWaitingPt_utl_s() {
@@ -113,4 +136,20 @@ public class RaptorParameters {
         this.transferPenaltyTravelTimeToCostFactor = transferPenaltyTravelTimeToCostFactor;
     }
 
+    /**
+     * The mode-dependent parameters as arrays indexed by the mode index of one {@link SwissRailRaptorData}.
+     */
+    private static final class CompiledParameters {
+        final SwissRailRaptorData data;
+        final double[] marginalUtilityOfTravelTimePerMode_utl_s; // NaN if missing
+
+        CompiledParameters(SwissRailRaptorData data, Map<String, Double> marginalUtilityOfTravelTime_utl_s) {
+            this.data = data;
+            this.marginalUtilityOfTravelTimePerMode_utl_s = new double[data.modes.length];
+            for (int modeIndex = 0; modeIndex < data.modes.length; modeIndex++) {
+                Double marginalUtility = marginalUtilityOfTravelTime_utl_s.get(data.modes[modeIndex]);
+                this.marginalUtilityOfTravelTimePerMode_utl_s[modeIndex] = marginalUtility == null ? Double.NaN : marginalUtility;
+            }
+        }
+    }
 }
@@ -7,6 +7,10 @@ package ch.sbb.matsim.routing.pt.raptor;
 import org.matsim.api.core.v01.population.Person;
 
 /**
+ * Provides the parameters used to route a person. The mode-dependent parameters are compiled into arrays
+ * indexed by mode when the returned parameters are first used for routing, so implementations should return
+ * the same instance for the same person (or group of persons) instead of creating new parameters per query.
+ *
  * @author mrieser / SBB
  */
 public interface RaptorParametersForPerson {
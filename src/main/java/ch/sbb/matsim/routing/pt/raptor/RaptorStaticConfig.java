@@ -46,6 +46,24 @@ public class RaptorStaticConfig {
 
     private RaptorOptimization optimization = RaptorOptimization.OneToOneRouting;
 
+    /**
+     * If set to true, the transfers between route stops are calculated in parallel
+     * (one fork-join task per stop facility). The resulting data is identical to
+     * the one prepared sequentially.
+     */
+    private boolean useParallelDataPreparation = true;
+
+    /**
+     * If set to true, the routes and transfers handled in a round of a single query are processed
+     * in parallel, as long as there are enough of them. This can speed up single, large queries
+     * (e.g. least-cost trees on large schedules), but should not be used when many queries
+     * are already run in parallel, e.g. during a simulation. The results are the same as when
+     * processing the routes sequentially, except that the routes of a round are pruned based on
+     * the best arrival at the start of the round. Unlike the other values, this value is read
+     * whenever a new {@link SwissRailRaptorCore} is created.
+     */
+    private boolean useParallelQueryProcessing = false;
+
     public double getBeelineWalkConnectionDistance() {
         return this.beelineWalkConnectionDistance;
     }
@@ -117,4 +135,20 @@ public class RaptorStaticConfig {
     public void setOptimization(RaptorOptimization optimization) {
         this.optimization = optimization;
     }
+
+    public boolean isUseParallelDataPreparation() {
+        return this.useParallelDataPreparation;
+    }
+
+    public void setUseParallelDataPreparation(boolean useParallelDataPreparation) {
+        this.useParallelDataPreparation = useParallelDataPreparation;
+    }
+
+    public boolean isUseParallelQueryProcessing() {
+        return this.useParallelQueryProcessing;
+    }
+
+    public void setUseParallelQueryProcessing(boolean useParallelQueryProcessing) {
+        this.useParallelQueryProcessing = useParallelQueryProcessing;
+    }
 }
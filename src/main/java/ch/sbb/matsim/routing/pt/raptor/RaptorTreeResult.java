@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import java.util.Arrays;
+
+/**
+ * The result of a least-cost tree calculation, stored in arrays indexed by the stop index
+ * of the {@link SwissRailRaptorData} (see {@link SwissRailRaptorData#getStopIndex(org.matsim.api.core.v01.Id)}
+ * and {@link SwissRailRaptorData#getStopId(int)}).
+ *
+ * An instance can be re-used for many tree calculations. Only the entries of the stops reached in the
+ * previous calculation are cleared at the start of a calculation, so re-using an instance does not
+ * require any allocation and its costs only depend on the number of reached stops. The values of
+ * stops that were not reached are <code>NaN</code>, and their departure stop index is -1.
+ *
+ * The same information is available as {@link SwissRailRaptorCore.TravelInfo} per stop in the map-based
+ * tree calculations.
+ *
+ * @author mrieser / SBB
+ */
+public final class RaptorTreeResult {
+
+    public final double[] arrivalTime;
+    public final double[] departureTime;
+    public final double[] totalCost;
+    public final int[] transferCount;
+    public final int[] departureStopIndex;
+    public final double[] ptDepartureTime;
+    public final double[] accessTime;
+    public final double[] inVehicleTime;
+
+    private final int[] reachedStops;
+    private int reachedStopCount = 0;
+
+    public RaptorTreeResult(SwissRailRaptorData data) {
+        int countStops = data.countStops;
+        this.arrivalTime = new double[countStops];
+        this.departureTime = new double[countStops];
+        this.totalCost = new double[countStops];
+        this.transferCount = new int[countStops];
+        this.departureStopIndex = new int[countStops];
+        this.ptDepartureTime = new double[countStops];
+        this.accessTime = new double[countStops];
+        this.inVehicleTime = new double[countStops];
+        this.reachedStops = new int[countStops];
+        Arrays.fill(this.arrivalTime, Double.NaN);
+        Arrays.fill(this.departureTime, Double.NaN);
+        Arrays.fill(this.totalCost, Double.NaN);
+        Arrays.fill(this.departureStopIndex, -1);
+        Arrays.fill(this.ptDepartureTime, Double.NaN);
+        Arrays.fill(this.accessTime, Double.NaN);
+        Arrays.fill(this.inVehicleTime, Double.NaN);
+    }
+
+    public boolean isReached(int stopIndex) {
+        return this.departureStopIndex[stopIndex] >= 0;
+    }
+
+    /**
+     * @return the number of stops reached in the last calculation.
+     */
+    public int getReachedStopCount() {
+        return this.reachedStopCount;
+    }
+
+    /**
+     * @return the stop index of the i-th reached stop, <code>0 &lt;= i &lt; getReachedStopCount()</code>.
+     */
+    public int getReachedStop(int i) {
+        return this.reachedStops[i];
+    }
+
+    void clear() {
+        for (int i = 0; i < this.reachedStopCount; i++) {
+            int stopIndex = this.reachedStops[i];
+            this.arrivalTime[stopIndex] = Double.NaN;
+            this.departureTime[stopIndex] = Double.NaN;
+            this.totalCost[stopIndex] = Double.NaN;
+            this.transferCount[stopIndex] = 0;
+            this.departureStopIndex[stopIndex] = -1;
+            this.ptDepartureTime[stopIndex] = Double.NaN;
+            this.accessTime[stopIndex] = Double.NaN;
+            this.inVehicleTime[stopIndex] = Double.NaN;
+        }
+        this.reachedStopCount = 0;
+    }
+
+    void set(int stopIndex, double arrivalTime, double departureTime, double totalCost, int transferCount, int departureStopIndex,
+             double ptDepartureTime, double accessTime, double inVehicleTime) {
+        if (this.departureStopIndex[stopIndex] < 0) {
+            this.reachedStops[this.reachedStopCount] = stopIndex;
+            this.reachedStopCount++;
+        }
+        this.arrivalTime[stopIndex] = arrivalTime;
+        this.departureTime[stopIndex] = departureTime;
+        this.totalCost[stopIndex] = totalCost;
+        this.transferCount[stopIndex] = transferCount;
+        this.departureStopIndex[stopIndex] = departureStopIndex;
+        this.ptDepartureTime[stopIndex] = ptDepartureTime;
+        this.accessTime[stopIndex] = accessTime;
+        this.inVehicleTime[stopIndex] = inVehicleTime;
+    }
+}
@@ -30,12 +30,18 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
 
 /**
  * Provides public transport route search capabilities using an implementation of the
  * RAPTOR algorithm underneath.
  *
+ * This class is thread-safe. The search state needed by a query is held by a {@link SwissRailRaptorCore},
+ * which is borrowed from a pool shared by all routers using the same {@link SwissRailRaptorData}
+ * for the duration of the query.
+ *
  * @author mrieser / SBB
  */
 public class SwissRailRaptor implements TransitRouter {
@@ -43,7 +49,7 @@ public class SwissRailRaptor implements TransitRouter {
     private static final Logger log = Logger.getLogger(SwissRailRaptor.class);
 
     private final SwissRailRaptorData data;
-    private final SwissRailRaptorCore raptor;
+    private final SwissRailRaptorCorePool corePool;
     private final RaptorStaticConfig config;
     private final RaptorParametersForPerson parametersForPerson;
     private final RaptorRouteSelector defaultRouteSelector;
@@ -52,7 +58,7 @@ public class SwissRailRaptor implements TransitRouter {
     private final ObjectAttributes personAttributes;
     private final Map<String, RoutingModule> routingModules;
 
-    private boolean treeWarningShown = false;
+    private volatile boolean treeWarningShown = false;
 
     public SwissRailRaptor(final SwissRailRaptorData data, RaptorParametersForPerson parametersForPerson,
                            RaptorRouteSelector routeSelector, RaptorIntermodalAccessEgress intermodalAE) {
@@ -65,7 +71,7 @@ public class SwissRailRaptor implements TransitRouter {
                            String subpopulationAttribute, ObjectAttributes personAttributes, Map<String, RoutingModule> routingModules) {
         this.data = data;
         this.config = data.config;
-        this.raptor = new SwissRailRaptorCore(data);
+        this.corePool = data.corePool;
         this.parametersForPerson = parametersForPerson;
         this.defaultRouteSelector = routeSelector;
         this.intermodalAE = intermodalAE;
@@ -83,7 +89,13 @@ public class SwissRailRaptor implements TransitRouter {
         List<InitialStop> accessStops = findAccessStops(fromFacility, person, departureTime, parameters);
         List<InitialStop> egressStops = findEgressStops(toFacility, person, departureTime, parameters);
 
-        RaptorRoute foundRoute = this.raptor.calcLeastCostRoute(departureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        RaptorRoute foundRoute;
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            foundRoute = raptor.calcLeastCostRoute(departureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
         RaptorRoute directWalk = createDirectWalk(fromFacility, toFacility, departureTime, person);
 
         if (foundRoute == null || directWalk.getTotalCosts() < foundRoute.getTotalCosts()) {
@@ -93,6 +105,72 @@ public class SwissRailRaptor implements TransitRouter {
         return legs;
     }
 
+    /**
+     * Calculates the route that departs as late as possible and still arrives at the destination
+     * not later than <code>latestArrivalTime</code>, e.g. to reach an activity with a fixed start time.
+     * The route is found with a single search backwards in time, starting at the destination.
+     * If walking is cheaper than the found route, or no route arrives in time, a direct walk is returned,
+     * departing such that it arrives at <code>latestArrivalTime</code>.
+     */
+    public List<Leg> calcRouteArrivingBy(Facility<?> fromFacility, Facility<?> toFacility, double latestArrivalTime, Person person) {
+        RaptorParameters parameters = this.parametersForPerson.getRaptorParameters(person);
+        List<InitialStop> accessStops = findAccessStops(fromFacility, person, latestArrivalTime, parameters);
+        List<InitialStop> egressStops = findEgressStops(toFacility, person, latestArrivalTime, parameters);
+
+        RaptorRoute foundRoute;
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            foundRoute = raptor.calcLatestDepartureRoute(latestArrivalTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
+        double walkTime = CoordUtils.calcEuclideanDistance(fromFacility.getCoord(), toFacility.getCoord()) / this.config.getBeelineWalkSpeed();
+        RaptorRoute directWalk = createDirectWalk(fromFacility, toFacility, latestArrivalTime - walkTime, person);
+
+        if (foundRoute == null || directWalk.getTotalCosts() < foundRoute.getTotalCosts()) {
+            foundRoute = directWalk;
+        }
+        return RaptorUtils.convertRouteToLegs(foundRoute);
+    }
+
+    /**
+     * Calculates the routes from one facility to many destination facilities, all departing at the same time.
+     * The access stops are only searched once, and a single search is run for all destinations,
+     * which is much faster than calculating the routes one by one. As the search is not stopped
+     * early for a specific destination, the found routes may differ slightly from the ones found by
+     * {@link #calcRoute(Facility, Facility, double, Person)} if several routes have similar costs.
+     * Range queries are not supported by this method.
+     *
+     * @return the legs of the route to each destination facility, in the same order as <code>toFacilities</code>.
+     */
+    public List<List<Leg>> calcRoutesToMany(Facility<?> fromFacility, List<? extends Facility<?>> toFacilities, double departureTime, Person person) {
+        RaptorParameters parameters = this.parametersForPerson.getRaptorParameters(person);
+        List<InitialStop> accessStops = findAccessStops(fromFacility, person, departureTime, parameters);
+        List<List<InitialStop>> egressStopsPerDestination = new ArrayList<>(toFacilities.size());
+        for (Facility<?> toFacility : toFacilities) {
+            egressStopsPerDestination.add(findEgressStops(toFacility, person, departureTime, parameters));
+        }
+
+        List<RaptorRoute> foundRoutes;
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            foundRoutes = raptor.calcLeastCostRoutes(departureTime, fromFacility, toFacilities, accessStops, egressStopsPerDestination, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
+
+        List<List<Leg>> legsPerDestination = new ArrayList<>(toFacilities.size());
+        for (int i = 0; i < toFacilities.size(); i++) {
+            RaptorRoute foundRoute = foundRoutes.get(i);
+            RaptorRoute directWalk = createDirectWalk(fromFacility, toFacilities.get(i), departureTime, person);
+            if (foundRoute == null || directWalk.getTotalCosts() < foundRoute.getTotalCosts()) {
+                foundRoute = directWalk;
+            }
+            legsPerDestination.add(RaptorUtils.convertRouteToLegs(foundRoute));
+        }
+        return legsPerDestination;
+    }
+
     private List<Leg> performRangeQuery(Facility<?> fromFacility, Facility<?> toFacility, double desiredDepartureTime, Person person, RaptorParameters parameters) {
         SwissRailRaptorConfigGroup srrConfig = parameters.getConfig();
 
@@ -125,7 +203,7 @@ public class SwissRailRaptor implements TransitRouter {
         List<InitialStop> accessStops = findAccessStops(fromFacility, person, desiredDepartureTime, parameters);
         List<InitialStop> egressStops = findEgressStops(toFacility, person, desiredDepartureTime, parameters);
 
-        List<RaptorRoute> foundRoutes = this.raptor.calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        List<RaptorRoute> foundRoutes = calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
         RaptorRoute foundRoute = selector.selectOne(foundRoutes, desiredDepartureTime);
         RaptorRoute directWalk = createDirectWalk(fromFacility, toFacility, desiredDepartureTime, person);
 
@@ -153,7 +231,7 @@ public class SwissRailRaptor implements TransitRouter {
         List<InitialStop> accessStops = findAccessStops(fromFacility, person, desiredDepartureTime, parameters);
         List<InitialStop> egressStops = findEgressStops(toFacility, person, desiredDepartureTime, parameters);
 
-        List<RaptorRoute> foundRoutes = this.raptor.calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        List<RaptorRoute> foundRoutes = calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
         RaptorRoute directWalk = createDirectWalk(fromFacility, toFacility, desiredDepartureTime, person);
 
         if (foundRoutes == null) {
@@ -165,20 +243,67 @@ public class SwissRailRaptor implements TransitRouter {
         return foundRoutes;
     }
 
+    /**
+     * Calculates all routes departing at <code>departureTime</code> where no other route arrives earlier,
+     * costs less and needs fewer transfers, with a single multi-criteria search.
+     * See {@link SwissRailRaptorCore#calcParetoRoutes(double, Facility, Facility, List, List, RaptorParameters)}.
+     * In contrast to {@link #calcRoutes(Facility, Facility, double, double, double, Person)}, no direct walk is added.
+     */
+    public List<RaptorRoute> calcParetoRoutes(Facility<?> fromFacility, Facility<?> toFacility, double departureTime, Person person) {
+        RaptorParameters parameters = this.parametersForPerson.getRaptorParameters(person);
+        List<InitialStop> accessStops = findAccessStops(fromFacility, person, departureTime, parameters);
+        List<InitialStop> egressStops = findEgressStops(toFacility, person, departureTime, parameters);
+
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            return raptor.calcParetoRoutes(departureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
+    }
+
     public Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> calcTree(TransitStopFacility fromStop, double departureTime, RaptorParameters parameters) {
         return this.calcTree(Collections.singletonList(fromStop), departureTime, parameters);
     }
 
     public Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> calcTree(Collection<TransitStopFacility> fromStops, double departureTime, RaptorParameters parameters) {
+        List<InitialStop> accessStops = createTreeStartStops(fromStops);
+        return this.calcLeastCostTree(accessStops, departureTime, parameters);
+    }
+
+    /**
+     * Calculates the same tree as {@link #calcTree(Collection, double, RaptorParameters)}, but stores it in
+     * <code>result</code>, indexed by the stop indices of the {@link SwissRailRaptorData}. Re-using the same
+     * result for many trees avoids creating objects for each reached stop.
+     */
+    public void calcTree(Collection<TransitStopFacility> fromStops, double departureTime, RaptorParameters parameters, RaptorTreeResult result) {
+        calcTree(fromStops, departureTime, parameters, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, result);
+    }
+
+    /**
+     * Calculates the tree only up to the given maximum arrival time and maximum cost, e.g. for isochrones.
+     * Only the part of the schedule within these bounds is explored.
+     */
+    public void calcTree(Collection<TransitStopFacility> fromStops, double departureTime, RaptorParameters parameters, double maxArrivalTime, double maxCost, RaptorTreeResult result) {
+        List<InitialStop> accessStops = createTreeStartStops(fromStops);
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            raptor.calcLeastCostTree(departureTime, accessStops, parameters, maxArrivalTime, maxCost, result);
+        } finally {
+            this.corePool.release(raptor);
+        }
+    }
+
+    private List<InitialStop> createTreeStartStops(Collection<TransitStopFacility> fromStops) {
         if (this.data.config.getOptimization() != RaptorStaticConfig.RaptorOptimization.OneToAllRouting && !this.treeWarningShown) {
             log.warn("SwissRailRaptorData was not initialized with full support for tree calculations and may result in unexpected results. Use `RaptorStaticConfig.setOptimization(RaptorOptimization.OneToAllRouting)` to fix this issue.");
             this.treeWarningShown = true;
         }
         List<InitialStop> accessStops = new ArrayList<>();
         for (TransitStopFacility stop : fromStops) {
-            accessStops.add(new InitialStop(stop, 0, 0, 0, null));
+            accessStops.add(new InitialStop(stop, this.data.getStopFacilityIndex(stop), 0, 0, 0, null));
         }
-        return this.calcLeastCostTree(accessStops, departureTime, parameters);
+        return accessStops;
     }
 
     public Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> calcTree(Facility<?> fromFacility, double departureTime, Person person) {
@@ -188,7 +313,60 @@ public class SwissRailRaptor implements TransitRouter {
     }
 
     private Map<Id<TransitStopFacility>, SwissRailRaptorCore.TravelInfo> calcLeastCostTree(Collection<InitialStop> accessStops, double departureTime, RaptorParameters parameters) {
-        return this.raptor.calcLeastCostTree(departureTime, accessStops, parameters);
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            return raptor.calcLeastCostTree(departureTime, accessStops, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
+    }
+
+    private List<RaptorRoute> calcRoutes(double earliestDepartureTime, double desiredDepartureTime, double latestDepartureTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters) {
+        int chunkCount = parameters.getConfig().getRangeQueryDepartureChunks();
+        if (chunkCount > 1) {
+            return calcRoutesInChunks(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters, chunkCount);
+        }
+        SwissRailRaptorCore raptor = this.corePool.borrow();
+        try {
+            return raptor.calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters);
+        } finally {
+            this.corePool.release(raptor);
+        }
+    }
+
+    /**
+     * Splits the departures of the range query into chunks which are evaluated in parallel, each on its own core.
+     * The routes found per chunk are merged in the order of the chunks before they are filtered,
+     * so the result does not depend on the order in which the chunks are evaluated.
+     */
+    private List<RaptorRoute> calcRoutesInChunks(double earliestDepartureTime, double desiredDepartureTime, double latestDepartureTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters, int chunkCount) {
+        List<List<RaptorRoute>> routesPerChunk = new ArrayList<>(Collections.nCopies(chunkCount, null));
+        List<RecursiveAction> tasks = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final int chunkIndex = chunk;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    SwissRailRaptorCore raptor = SwissRailRaptor.this.corePool.borrow();
+                    try {
+                        routesPerChunk.set(chunkIndex, raptor.calcRoutes(earliestDepartureTime, desiredDepartureTime, latestDepartureTime, fromFacility, toFacility, accessStops, egressStops, parameters, chunkIndex, chunkCount));
+                    } finally {
+                        SwissRailRaptor.this.corePool.release(raptor);
+                    }
+                }
+            });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        List<RaptorRoute> foundRoutes = new ArrayList<>();
+        for (List<RaptorRoute> routes : routesPerChunk) {
+            foundRoutes.addAll(routes);
+        }
+        return SwissRailRaptorCore.filterRoutes(foundRoutes);
     }
 
     public SwissRailRaptorData getUnderlyingData() {
@@ -205,7 +383,7 @@ public class SwissRailRaptor implements TransitRouter {
                 double beelineDistance = CoordUtils.calcEuclideanDistance(stop.getCoord(), facility.getCoord());
                 double travelTime = Math.ceil(beelineDistance / this.config.getBeelineWalkSpeed());
                 double disutility = travelTime * -this.config.getMarginalUtilityOfTravelTimeAccessWalk_utl_s();
-                return new InitialStop(stop, disutility, travelTime, beelineDistance, TransportMode.access_walk);
+                return new InitialStop(stop, this.data.getStopFacilityIndex(stop), disutility, travelTime, beelineDistance, TransportMode.access_walk);
             }).collect(Collectors.toList());
             return initialStops;
         }
@@ -221,7 +399,7 @@ public class SwissRailRaptor implements TransitRouter {
                 double beelineDistance = CoordUtils.calcEuclideanDistance(stop.getCoord(), facility.getCoord());
                 double travelTime = Math.ceil(beelineDistance / this.config.getBeelineWalkSpeed());
                 double disutility = travelTime * -this.config.getMarginalUtilityOfTravelTimeEgressWalk_utl_s();
-                return new InitialStop(stop, disutility, travelTime, beelineDistance, TransportMode.egress_walk);
+                return new InitialStop(stop, this.data.getStopFacilityIndex(stop), disutility, travelTime, beelineDistance, TransportMode.egress_walk);
             }).collect(Collectors.toList());
             return initialStops;
         }
@@ -324,7 +502,7 @@ public class SwissRailRaptor implements TransitRouter {
                             }
                         }
                         RaptorIntermodalAccessEgress.RIntermodalAccessEgress accessEgress = this.intermodalAE.calcIntermodalAccessEgress(routeParts, parameters);
-                        InitialStop iStop = new InitialStop(stop, accessEgress.disutility, accessEgress.travelTime, accessEgress.routeParts);
+                        InitialStop iStop = new InitialStop(stop, this.data.getStopFacilityIndex(stop), accessEgress.disutility, accessEgress.travelTime, accessEgress.routeParts);
                         initialStops.add(iStop);
                     }
                 }
@@ -6,7 +6,6 @@ package ch.sbb.matsim.routing.pt.raptor;
 
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData.RRoute;
 import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData.RRouteStop;
-import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData.RTransfer;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.TransportMode;
 import org.matsim.facilities.Facility;
@@ -19,9 +18,10 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The actual RAPTOR implementation, based on Delling et al, Round-Based Public Transit Routing.
@@ -32,9 +32,19 @@ import java.util.Map;
  */
 public class SwissRailRaptorCore {
 
+    private static final int NO_PATH = -1;
+    private static final int DEFAULT_MIN_ITEMS_PER_PARALLEL_TASK = 256;
+    // the types of route parts created for the path elements of a route
+    private static final int PART_NONE = 0; // no part, e.g. a transfer at the same stop facility
+    private static final int PART_MERGED = 1; // no part, merged into the part of the next path element
+    private static final int PART_PLAN_ELEMENTS = 2;
+    private static final int PART_WALK = 3;
+    private static final int PART_PT = 4;
+
     private final SwissRailRaptorData data;
 
-    private final PathElement[] arrivalPathPerRouteStop;
+    private final PathElements pathElements;
+    private final int[] arrivalPathPerRouteStop;
     private final double[] egressCostsPerRouteStop;
     private final double[] leastArrivalCostAtRouteStop;
     private final double[] leastArrivalCostAtStop;
@@ -43,13 +53,33 @@ public class SwissRailRaptorCore {
     private final BitSet improvedStops;
     private final BitSet destinationRouteStopIndices;
     private double bestArrivalCost = Double.POSITIVE_INFINITY;
-    private final PathElement[] arrivalPathPerStop;
-    private final PathElement[] tmpArrivalPathPerStop; // only used to ensure parallel update
+    private double maxArrivalTime = Double.POSITIVE_INFINITY; // only set for bounded tree queries, no labels arriving later are created
+    private double maxArrivalCost = Double.POSITIVE_INFINITY; // only set for bounded tree queries, no labels with higher costs are created
+    private final int[] arrivalPathPerStop;
+    private final int[] tmpArrivalPathPerStop; // only used to ensure parallel update
     private final BitSet tmpImprovedStops; // only used to ensure parallel update
+    private final InitialStop[] bestInitialStopPerStop; // only used to find the best initial stop per stop facility
+    private final TouchedIndices touchedRouteStops; // route stops whose state must be reset before the next query
+    private final TouchedIndices touchedStops; // stops whose state must be reset before the next query
+    private int[] pathBuffer = new int[16]; // only used to reconstruct the path elements of a route in travel order
+    private final boolean useParallelQueryProcessing;
+    private final int minItemsPerParallelTask;
+    private final int[] workItems; // only used to distribute routes or stops to parallel tasks
+    private final Improvements[] parallelTaskBuffers; // re-used by the parallel tasks to collect improvements
+    private RaptorTreeResult treeResult = null; // only used to create the map-based tree results, created on first use
+    private BackwardSearchState backwardSearch = null; // only used to search backwards in time, created on first use
+    private ParetoSearchState paretoSearch = null; // only used to search the Pareto set of routes, created on first use
+    private final RangeQueryDepartures rangeQueryDepartures = new RangeQueryDepartures();
+    final RouteCandidates rangeQueryRoutes = new RouteCandidates(); // package-private so tests can inspect the candidate summaries
 
     public SwissRailRaptorCore(SwissRailRaptorData data) {
+        this(data, DEFAULT_MIN_ITEMS_PER_PARALLEL_TASK);
+    }
+
+    SwissRailRaptorCore(SwissRailRaptorData data, int minItemsPerParallelTask) {
         this.data = data;
-        this.arrivalPathPerRouteStop = new PathElement[data.countRouteStops];
+        this.pathElements = new PathElements(Math.max(1024, data.countStops));
+        this.arrivalPathPerRouteStop = new int[data.countRouteStops];
         this.egressCostsPerRouteStop = new double[data.countRouteStops];
         this.leastArrivalCostAtRouteStop = new double[data.countRouteStops];
         this.leastArrivalCostAtStop = new double[data.countStops];
@@ -57,21 +87,64 @@ public class SwissRailRaptorCore {
         this.reachedRouteStopIndices = new BitSet(this.data.countRouteStops);
         this.destinationRouteStopIndices = new BitSet(this.data.countRouteStops);
         this.improvedStops = new BitSet(this.data.countStops);
-        this.arrivalPathPerStop = new PathElement[this.data.countStops];
-        this.tmpArrivalPathPerStop = new PathElement[this.data.countStops];
+        this.arrivalPathPerStop = new int[this.data.countStops];
+        this.tmpArrivalPathPerStop = new int[this.data.countStops];
         this.tmpImprovedStops = new BitSet(this.data.countStops);
-    }
-
-    private void reset() {
-        Arrays.fill(this.arrivalPathPerRouteStop, null);
+        this.bestInitialStopPerStop = new InitialStop[this.data.countStops];
+        this.touchedRouteStops = new TouchedIndices(this.data.countRouteStops);
+        this.touchedStops = new TouchedIndices(this.data.countStops);
+        Arrays.fill(this.arrivalPathPerRouteStop, NO_PATH);
         Arrays.fill(this.egressCostsPerRouteStop, Double.POSITIVE_INFINITY);
-        Arrays.fill(this.arrivalPathPerStop, null);
         Arrays.fill(this.leastArrivalCostAtRouteStop, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.arrivalPathPerStop, NO_PATH);
+        Arrays.fill(this.tmpArrivalPathPerStop, NO_PATH);
         Arrays.fill(this.leastArrivalCostAtStop, Double.POSITIVE_INFINITY);
+        this.useParallelQueryProcessing = data.config.isUseParallelQueryProcessing();
+        this.minItemsPerParallelTask = minItemsPerParallelTask;
+        if (this.useParallelQueryProcessing) {
+            this.workItems = new int[Math.max(data.countStops, data.routes.length)];
+            this.parallelTaskBuffers = new Improvements[4 * ForkJoinPool.getCommonPoolParallelism()];
+            for (int i = 0; i < this.parallelTaskBuffers.length; i++) {
+                this.parallelTaskBuffers[i] = new Improvements();
+            }
+        } else {
+            this.workItems = null;
+            this.parallelTaskBuffers = null;
+        }
+    }
+
+    /**
+     * Resets only the route stops and stops that were modified by the previous query,
+     * so the costs of a reset are proportional to the explored part of the network
+     * and not to the size of the whole schedule.
+     */
+    private void reset() {
+        for (int i = 0; i < this.touchedRouteStops.size; i++) {
+            int routeStopIndex = this.touchedRouteStops.indices[i];
+            this.arrivalPathPerRouteStop[routeStopIndex] = NO_PATH;
+            this.egressCostsPerRouteStop[routeStopIndex] = Double.POSITIVE_INFINITY;
+            this.leastArrivalCostAtRouteStop[routeStopIndex] = Double.POSITIVE_INFINITY;
+            this.destinationRouteStopIndices.clear(routeStopIndex);
+        }
+        if (this.backwardSearch != null) {
+            this.backwardSearch.reset(this.touchedRouteStops);
+        }
+        if (this.paretoSearch != null) {
+            this.paretoSearch.reset(this.touchedRouteStops);
+        }
+        this.touchedRouteStops.clear();
+        for (int i = 0; i < this.touchedStops.size; i++) {
+            int stopIndex = this.touchedStops.indices[i];
+            this.arrivalPathPerStop[stopIndex] = NO_PATH;
+            this.leastArrivalCostAtStop[stopIndex] = Double.POSITIVE_INFINITY;
+        }
+        this.touchedStops.clear();
+        this.pathElements.clear();
         this.improvedRouteStopIndices.clear();
         this.reachedRouteStopIndices.clear();
-        this.destinationRouteStopIndices.clear();
         this.bestArrivalCost = Double.POSITIVE_INFINITY;
+        this.maxArrivalTime = Double.POSITIVE_INFINITY;
+        this.maxArrivalCost = Double.POSITIVE_INFINITY;
     }
 
     public RaptorRoute calcLeastCostRoute(double depTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters) {
@@ -80,53 +153,72 @@ public class SwissRailRaptorCore {
 
         reset();
 
-        Map<TransitStopFacility, InitialStop> destinationStops = new HashMap<>();
-        for (InitialStop egressStop : egressStops) {
-            InitialStop alternative = destinationStops.get(egressStop.stop);
-            if (alternative == null || egressStop.accessCost < alternative.accessCost) {
-                destinationStops.put(egressStop.stop, egressStop);
-            }
-        }
-        for (InitialStop egressStop : destinationStops.values()) {
-            int[] routeStopIndices = this.data.routeStopsPerStopFacility.get(egressStop.stop);
-            if (routeStopIndices != null) {
-                for (int routeStopIndex : routeStopIndices) {
-                    this.destinationRouteStopIndices.set(routeStopIndex);
-                    this.egressCostsPerRouteStop[routeStopIndex] = egressStop.accessCost;
+        List<InitialStop> destinationStops = getBestInitialStops(egressStops);
+        initDestinationStops(destinationStops);
+
+        initAccessStops(depTime, accessStops, parameters);
+
+        int allowedTransfersLeft = maxTransfersAfterFirstArrival;
+        // the main loop
+        for (int k = 0; k <= maxTransfers; k++) {
+            // first stage (according to paper) is to set earliestArrivalTime_k(stop) = earliestArrivalTime_k-1(stop)
+            // but because we re-use the earliestArrivalTime-array, we don't have to do anything.
+
+            // second stage: process routes
+            exploreRoutes(parameters);
+
+            int leastCostPath = findLeastCostArrival(destinationStops);
+            if (leastCostPath != NO_PATH) {
+                if (allowedTransfersLeft == 0) {
+                    break;
                 }
+                allowedTransfersLeft--;
             }
-        }
 
-        Map<TransitStopFacility, InitialStop> initialStops = new HashMap<>();
-        for (InitialStop accessStop : accessStops) {
-            InitialStop alternative = initialStops.get(accessStop.stop);
-            if (alternative == null || accessStop.accessCost < alternative.accessCost) {
-                initialStops.put(accessStop.stop, accessStop);
+            if (this.improvedStops.isEmpty()) {
+                break;
+            }
+
+            // third stage (according to paper): handle footpaths / transfers
+            handleTransfers(true, parameters);
+
+            // final stage: check stop criterion
+            if (this.improvedRouteStopIndices.isEmpty()) {
+                break;
             }
         }
-        for (InitialStop stop : initialStops.values()) {
-            int[] routeStopIndices = this.data.routeStopsPerStopFacility.get(stop.stop);
-            for (int routeStopIndex : routeStopIndices) {
+
+        // create RaptorRoute based on PathElements
+        int leastCostPath = findLeastCostArrival(destinationStops);
+        RaptorRoute raptorRoute = createRaptorRoute(fromFacility, toFacility, leastCostPath, depTime);
+        return raptorRoute;
+    }
+
+    /**
+     * Sets the arrival at the route stops of the best access stop per stop facility. An access stop is
+     * only used for route stops where a departure is possible after the agent arrived there.
+     */
+    private void initAccessStops(double depTime, List<InitialStop> accessStops, RaptorParameters parameters) {
+        List<InitialStop> initialStops = getBestInitialStops(accessStops);
+        for (InitialStop stop : initialStops) {
+            for (int pos = this.data.stopRouteStopOffsets[stop.stopIndex]; pos < this.data.stopRouteStopOffsets[stop.stopIndex + 1]; pos++) {
+                int routeStopIndex = this.data.stopRouteStops[pos];
                 double arrivalTime = depTime + stop.accessTime;
                 double arrivalCost = stop.accessCost;
 
-                RRouteStop routeStop = this.data.routeStops[routeStopIndex];
-                if (routeStop.routeStop == routeStop.route.getStops().get(routeStop.route.getStops().size() - 1)) {
+                RRoute route = this.data.routes[this.data.routeStopRouteIndices[routeStopIndex]];
+                if (routeStopIndex == route.indexFirstRouteStop + route.countRouteStops - 1) {
                     // this is the last stop of a route
                     continue;
                 }
-                RRoute route = this.data.routes[routeStop.transitRouteIndex];
-                double depOffset = routeStop.departureOffset;
+                double depOffset = this.data.routeStopDepartureOffsets[routeStopIndex];
 
-                int departureIndex = findNextDepartureIndex(route, routeStop, arrivalTime);
+                int departureIndex = findNextDepartureIndex(route, routeStopIndex, arrivalTime);
                 if (departureIndex >= 0) {
                     double nextDepartureTimeAtStop = this.data.departures[departureIndex] + depOffset;
                     double waitingTime = nextDepartureTimeAtStop - arrivalTime;
                     double waitingCost = waitingTime * -parameters.getMarginalUtilityOfWaitingPt_utl_s();
 
-                    RRouteStop toRouteStop = this.data.routeStops[routeStopIndex];
-                    PathElement pe = new PathElement(null, toRouteStop, Double.NaN, arrivalTime, arrivalCost, 0, stop.distance, 0, true, stop);
-
                     /* okay, the following is not very nice...
                      * we want to find the least-cost access leg including the waiting time
                      * until the next departure. But that waiting time should not be included anywhere else,
@@ -141,35 +233,46 @@ public class SwissRailRaptorCore {
                     double xCost = arrivalCost + waitingCost;
 
                     if (xCost < this.leastArrivalCostAtRouteStop[routeStopIndex]) {
+                        int pe = this.pathElements.add(NO_PATH, routeStopIndex, Double.NaN, arrivalTime, arrivalCost, 0, stop.distance, 0, true, stop);
                         this.arrivalPathPerRouteStop[routeStopIndex] = pe;
                         this.leastArrivalCostAtRouteStop[routeStopIndex] = xCost;
+                        this.touchedRouteStops.add(routeStopIndex);
                         this.improvedRouteStopIndices.set(routeStopIndex);
-                        if (xCost < this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex]) {
-                            this.arrivalPathPerStop[toRouteStop.stopFacilityIndex] = pe;
-                            this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex] = xCost;
+                        int stopIndex = this.data.routeStopStopIndices[routeStopIndex];
+                        if (xCost < this.leastArrivalCostAtStop[stopIndex]) {
+                            this.arrivalPathPerStop[stopIndex] = pe;
+                            this.leastArrivalCostAtStop[stopIndex] = xCost;
+                            this.touchedStops.add(stopIndex);
                         }
                     }
                 }
             }
         }
+    }
+
+    /**
+     * Calculates the least-cost routes from one origin to many destinations with a single search.
+     * In contrast to {@link #calcLeastCostRoute}, the search is not pruned by the cost of the best arrival
+     * at a destination, but runs until no further improvements are found. Afterwards, a route is created
+     * for each destination from the search state, so the additional cost per destination is mostly
+     * the cost of creating its route.
+     *
+     * @param egressStopsPerDestination the egress stops for each destination facility, in the same order as <code>toFacilities</code>
+     * @return the route for each destination, in the same order as <code>toFacilities</code>. If a destination
+     * cannot be reached, its route has infinite costs.
+     */
+    public List<RaptorRoute> calcLeastCostRoutes(double depTime, Facility<?> fromFacility, List<? extends Facility<?>> toFacilities, List<InitialStop> accessStops, List<List<InitialStop>> egressStopsPerDestination, RaptorParameters parameters) {
+        final int maxTransfers = 20; // sensible defaults, could be made configurable if there is a need for it.
+
+        reset();
+
+        initAccessStops(depTime, accessStops, parameters);
 
-        int allowedTransfersLeft = maxTransfersAfterFirstArrival;
         // the main loop
         for (int k = 0; k <= maxTransfers; k++) {
-            // first stage (according to paper) is to set earliestArrivalTime_k(stop) = earliestArrivalTime_k-1(stop)
-            // but because we re-use the earliestArrivalTime-array, we don't have to do anything.
-
             // second stage: process routes
             exploreRoutes(parameters);
 
-            PathElement leastCostPath = findLeastCostArrival(destinationStops);
-            if (leastCostPath != null) {
-                if (allowedTransfersLeft == 0) {
-                    break;
-                }
-                allowedTransfersLeft--;
-            }
-
             if (this.improvedStops.isEmpty()) {
                 break;
             }
@@ -183,23 +286,211 @@ public class SwissRailRaptorCore {
             }
         }
 
-        // create RaptorRoute based on PathElements
-        PathElement leastCostPath = findLeastCostArrival(destinationStops);
-        RaptorRoute raptorRoute = createRaptorRoute(fromFacility, toFacility, leastCostPath, depTime);
-        return raptorRoute;
+        List<RaptorRoute> routes = new ArrayList<>(toFacilities.size());
+        for (int i = 0; i < toFacilities.size(); i++) {
+            List<InitialStop> destinationStops = getBestInitialStops(egressStopsPerDestination.get(i));
+            int leastCostPath = findLeastCostArrival(destinationStops);
+            routes.add(createRaptorRoute(fromFacility, toFacilities.get(i), leastCostPath, depTime));
+        }
+        return routes;
+    }
+
+    /**
+     * Searches backwards in time, starting at the destination: finds the route that departs as late as possible
+     * at the origin facility and still arrives at the destination facility not later than <code>latestArrivalTime</code>.
+     * Among routes departing at the same time, the one with lower costs is preferred.
+     *
+     * The search works like the forward search, but with departure times and arrival times switched:
+     * In each round, routes are explored from the last to the first route stop, alighting from the latest vehicle
+     * that still arrives in time, and transfers are followed backwards using the transfers of
+     * {@link SwissRailRaptorData#getReverseTransfers()}. The labels are stored as path elements as well, but
+     * <code>comingFrom</code> points towards the destination and <code>arrivalTime</code> contains the latest time
+     * the route stop must be left (board labels) or can be reached (alight labels). The costs do not contain the
+     * transfer penalty depending on the travel time, as the total travel time is not known during the search.
+     *
+     * @return the found route, or <code>null</code> if the destination cannot be reached in time.
+     */
+    public RaptorRoute calcLatestDepartureRoute(double latestArrivalTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters) {
+        final int maxTransfers = 20; // same as in the forward search
+
+        reset();
+        if (this.backwardSearch == null) {
+            this.backwardSearch = new BackwardSearchState(this.data.countRouteStops);
+        }
+        BackwardSearchState bs = this.backwardSearch;
+        SwissRailRaptorData.ReverseTransfers reverseTransfers = this.data.getReverseTransfers();
+        PathElements pes = this.pathElements;
+
+        for (InitialStop egressStop : egressStops) {
+            int stopIndex = getStopIndex(egressStop);
+            if (stopIndex < 0) {
+                continue; // the stop is not served by any route
+            }
+            double latestArrivalAtStop = latestArrivalTime - egressStop.accessTime;
+            for (int pos = this.data.stopRouteStopOffsets[stopIndex]; pos < this.data.stopRouteStopOffsets[stopIndex + 1]; pos++) {
+                int routeStopIndex = this.data.stopRouteStops[pos];
+                improveLatestArrival(routeStopIndex, NO_PATH, latestArrivalAtStop, egressStop.accessCost, 0, egressStop.distance, egressStop);
+            }
+        }
+
+        double bestDepartureTime = Double.NEGATIVE_INFINITY;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestPE = NO_PATH;
+        InitialStop bestAccessStop = null;
+        for (int round = 0; round <= maxTransfers && !bs.improvedArrivals.isEmpty(); round++) {
+            exploreRoutesBackwards(bestDepartureTime, parameters);
+
+            for (InitialStop accessStop : accessStops) {
+                int stopIndex = getStopIndex(accessStop);
+                if (stopIndex < 0) {
+                    continue;
+                }
+                for (int pos = this.data.stopRouteStopOffsets[stopIndex]; pos < this.data.stopRouteStopOffsets[stopIndex + 1]; pos++) {
+                    int routeStopIndex = this.data.stopRouteStops[pos];
+                    int pe = bs.departurePath[routeStopIndex];
+                    if (pe == NO_PATH) {
+                        continue;
+                    }
+                    double departureTime = pes.arrivalTime[pe] - accessStop.accessTime;
+                    double cost = pes.arrivalTravelCost[pe] + accessStop.accessCost;
+                    if (departureTime > bestDepartureTime || (departureTime == bestDepartureTime && cost < bestCost)) {
+                        bestDepartureTime = departureTime;
+                        bestCost = cost;
+                        bestPE = pe;
+                        bestAccessStop = accessStop;
+                    }
+                }
+            }
+
+            handleTransfersBackwards(bestDepartureTime, reverseTransfers, parameters);
+        }
+
+        if (bestPE == NO_PATH) {
+            return null;
+        }
+        return createLatestDepartureRaptorRoute(fromFacility, toFacility, bestAccessStop, bestPE, bestDepartureTime, bestCost);
+    }
+
+    /**
+     * Calculates the Pareto set of routes departing at <code>depTime</code> with regard to the arrival time,
+     * the total cost and the number of transfers, using the McRAPTOR algorithm in a single search.
+     * Instead of a single label, each route stop keeps a bag of labels of which none is dominated by another one,
+     * so routes with fewer transfers are found even if they arrive later or cost more than the least-cost route.
+     * The labels are tagged with the round they were created in, only the labels of the previous round are
+     * boarded in a round.
+     *
+     * The number of labels per route stop is limited by {@link ch.sbb.matsim.config.SwissRailRaptorConfigGroup#getParetoQueryMaxBagSize()}
+     * to bound the query time. If a bag is full, a new label only replaces the label with the highest cost
+     * if it costs less, so for small limits, the Pareto set may not be complete.
+     *
+     * @return the routes of the Pareto set, ordered by the number of transfers and the arrival time.
+     * The list is empty if the destination cannot be reached.
+     */
+    public List<RaptorRoute> calcParetoRoutes(double depTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters) {
+        final int maxTransfers = 20; // same as in the other searches
+
+        reset();
+        if (this.paretoSearch == null) {
+            this.paretoSearch = new ParetoSearchState(this.data.countRouteStops);
+        }
+        ParetoSearchState mc = this.paretoSearch;
+        mc.maxBagSize = parameters.getConfig().getParetoQueryMaxBagSize();
+
+        List<InitialStop> destinationStops = getBestInitialStops(egressStops);
+        initDestinationStops(destinationStops);
+        for (InitialStop egressStop : destinationStops) {
+            for (int pos = this.data.stopRouteStopOffsets[egressStop.stopIndex]; pos < this.data.stopRouteStopOffsets[egressStop.stopIndex + 1]; pos++) {
+                mc.egressStopPerRouteStop[this.data.stopRouteStops[pos]] = egressStop;
+            }
+        }
+
+        for (InitialStop accessStop : getBestInitialStops(accessStops)) {
+            double arrivalTime = depTime + accessStop.accessTime;
+            for (int pos = this.data.stopRouteStopOffsets[accessStop.stopIndex]; pos < this.data.stopRouteStopOffsets[accessStop.stopIndex + 1]; pos++) {
+                int routeStopIndex = this.data.stopRouteStops[pos];
+                RRoute route = this.data.routes[this.data.routeStopRouteIndices[routeStopIndex]];
+                if (routeStopIndex == route.indexFirstRouteStop + route.countRouteStops - 1) {
+                    // this is the last stop of a route
+                    continue;
+                }
+                if (findNextDepartureIndex(route, routeStopIndex, arrivalTime) >= 0) {
+                    addParetoLabel(NO_PATH, routeStopIndex, Double.NaN, arrivalTime, accessStop.accessCost, 0, accessStop.distance, 0, true, accessStop, 0);
+                }
+            }
+        }
+
+        // round k boards the labels created in round k-1 and then transfers from the labels reached by vehicle
+        for (int k = 1; k <= maxTransfers + 1 && !mc.markedRouteStops.isEmpty(); k++) {
+            exploreRoutesPareto(k, parameters);
+            handleTransfersPareto(k, parameters);
+        }
+
+        PathElements pes = this.pathElements;
+        List<RaptorRoute> routes = new ArrayList<>(mc.journeyCount);
+        for (int j = 0; j < mc.journeyCount; j++) {
+            int pe = mc.journeyPath[j];
+            InitialStop egressStop = mc.journeyEgressStop[j];
+            int egressPE = pes.add(pe, -1, pes.firstDepartureTime[pe], pes.arrivalTime[pe] + egressStop.accessTime, pes.arrivalTravelCost[pe] + egressStop.accessCost,
+                    pes.arrivalTransferCost[pe], egressStop.distance, pes.transferCount[pe], true, egressStop);
+            routes.add(createRaptorRoute(fromFacility, toFacility, egressPE, depTime));
+        }
+        routes.sort((r1, r2) -> {
+            int cmp = Integer.compare(r1.getNumberOfTransfers(), r2.getNumberOfTransfers());
+            if (cmp == 0) {
+                cmp = Double.compare(r1.getDepartureTime() + r1.getTravelTime(), r2.getDepartureTime() + r2.getTravelTime());
+            }
+            return cmp;
+        });
+        return routes;
     }
 
     public List<RaptorRoute> calcRoutes(double earliestDepTime, double desiredDepTime, double latestDepTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters) {
-        List<RaptorRoute> foundRoutes = new ArrayList<>();
+        return calcRoutes(earliestDepTime, desiredDepTime, latestDepTime, fromFacility, toFacility, accessStops, egressStops, parameters, 0, 1);
+    }
+
+    /**
+     * Evaluates only a part of the departures of a range query. The departures are sorted the same way as
+     * in the full range query and split into <code>chunkCount</code> consecutive chunks of about the same size,
+     * only the departures in the chunk with index <code>chunkIndex</code> are evaluated.
+     * The found routes are filtered (see {@link #filterRoutes(List)}) only against the other routes found in the
+     * same chunk. They are kept as {@link RouteCandidates} during the search, only the remaining routes are created
+     * as {@link RaptorRoute}.
+     */
+    List<RaptorRoute> calcRoutes(double earliestDepTime, double desiredDepTime, double latestDepTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters, int chunkIndex, int chunkCount) {
+        RouteCandidates foundRoutes = findRouteCandidates(earliestDepTime, latestDepTime, accessStops, egressStops, parameters, chunkIndex, chunkCount);
+        int routeCount = foundRoutes.filter();
+        List<RaptorRoute> routes = new ArrayList<>(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            int c = foundRoutes.order[i];
+            routes.add(createRaptorRoute(fromFacility, toFacility, foundRoutes.handle[c], foundRoutes.searchDepTime[c], foundRoutes.costOffset[c]));
+        }
+        return routes;
+    }
+
+    /**
+     * Returns all the routes found by {@link #calcRoutes(double, double, double, Facility, Facility, List, List, RaptorParameters, int, int)}
+     * before they are filtered, in the order they were found.
+     */
+    List<RaptorRoute> calcRouteCandidates(double earliestDepTime, double latestDepTime, Facility<?> fromFacility, Facility<?> toFacility, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters, int chunkIndex, int chunkCount) {
+        RouteCandidates foundRoutes = findRouteCandidates(earliestDepTime, latestDepTime, accessStops, egressStops, parameters, chunkIndex, chunkCount);
+        List<RaptorRoute> routes = new ArrayList<>(foundRoutes.size);
+        for (int c = 0; c < foundRoutes.size; c++) {
+            routes.add(createRaptorRoute(fromFacility, toFacility, foundRoutes.handle[c], foundRoutes.searchDepTime[c], foundRoutes.costOffset[c]));
+        }
+        return routes;
+    }
+
+    private RouteCandidates findRouteCandidates(double earliestDepTime, double latestDepTime, List<InitialStop> accessStops, List<InitialStop> egressStops, RaptorParameters parameters, int chunkIndex, int chunkCount) {
+        RouteCandidates foundRoutes = this.rangeQueryRoutes;
+        foundRoutes.clear();
         int maxTransfers = 20; // sensible defaults, could be made configurable if there is a need for it.
         final int maxTransfersAfterFirstArrival = 2;
-        Map<PathElement, InitialStop> initialStopsPerStartPath = new HashMap<>();
 
         reset();
 
         double marginalUtilityOfWaitingPt_utl_s = parameters.getMarginalUtilityOfWaitingPt_utl_s();
 
-        PathElement lastFoundBestPath = null;
+        int lastFoundBestPath = NO_PATH;
 
         /* the original algorithm works with time. Starting with the latest departure,
          * it's easy to go backwards in time and potentially improve already visited stops when
@@ -214,78 +505,76 @@ public class SwissRailRaptorCore {
          * The same connection at an earlier time, resulting in an earlier arrival, will indeed
          * be found as an improved solution, although when the costOffset is subtracted again, it will
          * have the same cost. This allows us to filter and score the different routes afterwards.
+         *
+         * Note that the marginal utility of waiting is negative, so the cost offset gets smaller the later
+         * the departure is, and sorting by decreasing cost handles the earliest departure first. The labels
+         * are kept from one departure to the next, but as every later departure is cheaper, it improves
+         * nearly every stop it reaches, and each departure runs its own rounds. Handling the departures
+         * from latest to earliest (with the opposite sign of the offset) does not help: then every earlier
+         * departure is the cheaper one. Re-using labels across departures as in rRAPTOR requires labels
+         * that only improve with a genuinely better connection (e.g. the arrival time), which would change
+         * the least-cost routes found per departure.
          */
 
-        List<DepartureAtRouteStop> departures = new ArrayList<>();
+        RangeQueryDepartures departures = this.rangeQueryDepartures;
+        departures.clear();
         for (InitialStop accessStop : accessStops) {
             double earliestTimeAtStop = earliestDepTime + accessStop.accessTime;
             double latestTimeAtStop = latestDepTime + accessStop.accessTime;
-            TransitStopFacility stop = accessStop.stop;
-            int[] routeStopIndices = this.data.routeStopsPerStopFacility.get(stop);
-            if (routeStopIndices != null) {
-                for (int routeStopIndex : routeStopIndices) {
-                    RRouteStop routeStop = this.data.routeStops[routeStopIndex];
-                    if (routeStop.routeStop == routeStop.route.getStops().get(routeStop.route.getStops().size() - 1)) {
+            int stopIndex = getStopIndex(accessStop);
+            if (stopIndex >= 0) {
+                for (int pos = this.data.stopRouteStopOffsets[stopIndex]; pos < this.data.stopRouteStopOffsets[stopIndex + 1]; pos++) {
+                    int routeStopIndex = this.data.stopRouteStops[pos];
+                    RRoute route = this.data.routes[this.data.routeStopRouteIndices[routeStopIndex]];
+                    if (routeStopIndex == route.indexFirstRouteStop + route.countRouteStops - 1) {
                         // this is the last stop of a route
                         continue;
                     }
-                    RRoute route = this.data.routes[routeStop.transitRouteIndex];
-                    double depOffset = routeStop.departureOffset;
-                    for (int depIndex = route.indexFirstDeparture; depIndex < route.indexFirstDeparture + route.countDepartures; depIndex++) {
-                        double depTimeAtStart = this.data.departures[depIndex];
-                        double depTimeAtStop = depTimeAtStart + depOffset;
-                        if (depTimeAtStop >= earliestTimeAtStop && depTimeAtStop <= latestTimeAtStop) {
-                            double costOffset = (depTimeAtStop - earliestTimeAtStop) * marginalUtilityOfWaitingPt_utl_s;
-                            departures.add(new DepartureAtRouteStop(routeStop, routeStopIndex, depIndex, depTimeAtStop, costOffset, accessStop));
+                    // the departures of a route are sorted, so only look at the ones inside the time window
+                    int firstDepIndex = findNextDepartureIndex(route, routeStopIndex, earliestTimeAtStop);
+                    if (firstDepIndex < 0) {
+                        continue;
+                    }
+                    double depOffset = this.data.routeStopDepartureOffsets[routeStopIndex];
+                    for (int depIndex = firstDepIndex; depIndex < route.indexFirstDeparture + route.countDepartures; depIndex++) {
+                        double depTimeAtStop = this.data.departures[depIndex] + depOffset;
+                        if (depTimeAtStop > latestTimeAtStop) {
+                            break;
                         }
+                        double costOffset = (depTimeAtStop - earliestTimeAtStop) * marginalUtilityOfWaitingPt_utl_s;
+                        departures.add(routeStopIndex, depIndex, depTimeAtStop, costOffset, accessStop);
                     }
                 }
             }
         }
-        departures.sort((d1, d2) -> {
-            // sort the departures by cost, not by time as in the original algorithm
-            double c1 = d1.costOffset + d1.accessStop.accessCost;
-            double c2 = d2.costOffset + d2.accessStop.accessCost;
-            int cmp = Double.compare(c1, c2);
-            if (cmp == 0) {
-                cmp = Integer.compare(d1.departureIndex, d2.departureIndex);
-            }
-            return -cmp; // negate, we want to order from biggest to smallest
-        });
+        // sort the departures by cost, not by time as in the original algorithm
+        departures.sort();
 
-        Map<TransitStopFacility, InitialStop> destinationStops = new HashMap<>();
-        for (InitialStop egressStop : egressStops) {
-            InitialStop alternative = destinationStops.get(egressStop.stop);
-            if (alternative == null || egressStop.accessCost < alternative.accessCost) {
-                destinationStops.put(egressStop.stop, egressStop);
-            }
-        }
-        for (InitialStop egressStop : destinationStops.values()) {
-            int[] routeStopIndices = this.data.routeStopsPerStopFacility.get(egressStop.stop);
-            if (routeStopIndices != null) {
-                for (int routeStopIndex : routeStopIndices) {
-                    this.destinationRouteStopIndices.set(routeStopIndex);
-                    this.egressCostsPerRouteStop[routeStopIndex] = egressStop.accessCost;
-                }
-            }
-        }
+        List<InitialStop> destinationStops = getBestInitialStops(egressStops);
+        initDestinationStops(destinationStops);
 
-        for (DepartureAtRouteStop depAtRouteStop : departures) {
+        int fromDepartureIndex = (int) ((long) departures.size * chunkIndex / chunkCount);
+        int toDepartureIndex = (int) ((long) departures.size * (chunkIndex + 1) / chunkCount);
+        for (int i = fromDepartureIndex; i < toDepartureIndex; i++) {
             this.improvedStops.clear();
             this.improvedRouteStopIndices.clear();
             this.bestArrivalCost = Double.POSITIVE_INFINITY;
+            int d = departures.order[i];
+            double costOffset = departures.costOffset[d];
             { // initialization for this departure Time
-                double arrivalTime = depAtRouteStop.depTime;
-                double arrivalCost = depAtRouteStop.accessStop.accessCost + depAtRouteStop.costOffset;
-                RRouteStop toRouteStop = depAtRouteStop.routeStop;
-                int routeStopIndex = depAtRouteStop.routeStopIndex;
-                PathElement pe = new PathElement(null, toRouteStop, depAtRouteStop.depTime, arrivalTime, arrivalCost, 0, depAtRouteStop.accessStop.distance, 0, true, depAtRouteStop.accessStop);
+                InitialStop accessStop = departures.accessStop[d];
+                double arrivalTime = departures.depTime[d];
+                double arrivalCost = departures.cost[d];
+                int routeStopIndex = departures.routeStopIndex[d];
+                int stopIndex = this.data.routeStopStopIndices[routeStopIndex];
+                int pe = this.pathElements.add(NO_PATH, routeStopIndex, arrivalTime, arrivalTime, arrivalCost, 0, accessStop.distance, 0, true, accessStop);
                 this.arrivalPathPerRouteStop[routeStopIndex] = pe;
                 this.leastArrivalCostAtRouteStop[routeStopIndex] = arrivalCost;
-                this.arrivalPathPerStop[toRouteStop.stopFacilityIndex] = pe;
-                this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex] = arrivalCost;
+                this.touchedRouteStops.add(routeStopIndex);
+                this.arrivalPathPerStop[stopIndex] = pe;
+                this.leastArrivalCostAtStop[stopIndex] = arrivalCost;
+                this.touchedStops.add(stopIndex);
                 this.improvedRouteStopIndices.set(routeStopIndex);
-                initialStopsPerStartPath.put(pe, depAtRouteStop.accessStop);
             }
 
             // the main loop
@@ -296,17 +585,14 @@ public class SwissRailRaptorCore {
                 // second stage: process routes
                 exploreRoutes(parameters);
 
-                PathElement leastCostPath = findLeastCostArrival(destinationStops);
-                if (leastCostPath != null && (lastFoundBestPath == null || leastCostPath.comingFrom != lastFoundBestPath.comingFrom)) {
+                int leastCostPath = findLeastCostArrival(destinationStops);
+                if (leastCostPath != NO_PATH && (lastFoundBestPath == NO_PATH || this.pathElements.comingFrom[leastCostPath] != this.pathElements.comingFrom[lastFoundBestPath])) {
                     lastFoundBestPath = leastCostPath;
 
-                    double depTime = calculateOptimalDepartureTime(leastCostPath, initialStopsPerStartPath);
-                    leastCostPath.arrivalTravelCost -= depAtRouteStop.costOffset;
-                    RaptorRoute raptorRoute = createRaptorRoute(fromFacility, toFacility, leastCostPath, depTime);
-                    leastCostPath.arrivalTravelCost += depAtRouteStop.costOffset;
-                    foundRoutes.add(raptorRoute);
+                    double depTime = calculateOptimalDepartureTime(leastCostPath);
+                    addRouteCandidate(foundRoutes, leastCostPath, depTime, costOffset);
 
-                    int optimizedTransferLimit = leastCostPath.transferCount + maxTransfersAfterFirstArrival;
+                    int optimizedTransferLimit = this.pathElements.transferCount[leastCostPath] + maxTransfersAfterFirstArrival;
                     if (optimizedTransferLimit < maxTransfers) {
                         maxTransfers = optimizedTransferLimit;
                     }
@@ -329,96 +615,103 @@ public class SwissRailRaptorCore {
             }
         }
 
-        List<RaptorRoute> routes = filterRoutes(foundRoutes);
-        return routes;
+        return foundRoutes;
     }
 
-    private double calculateOptimalDepartureTime(PathElement leastCostPath, Map<PathElement, InitialStop> initialStopsPerStartPath) {
-        PathElement firstPE = leastCostPath;
-        while (firstPE.comingFrom != null) {
-            firstPE = firstPE.comingFrom;
+    private double calculateOptimalDepartureTime(int leastCostPath) {
+        int firstPE = leastCostPath;
+        while (this.pathElements.comingFrom[firstPE] != NO_PATH) {
+            firstPE = this.pathElements.comingFrom[firstPE];
         }
-        double depTime = firstPE.arrivalTime;
+        double depTime = this.pathElements.arrivalTime[firstPE];
         // currently, firstPE.arrivalTime is exactly the time of departure at that stop
         // let's add some time for safety reasons and to add some realism
         depTime -= this.data.config.getMinimalTransferTime();
         // for more realism, a (random) value from a distribution could be taken instead of a fixed value
-        InitialStop accessStop = initialStopsPerStartPath.get(firstPE);
+        InitialStop accessStop = this.pathElements.initialStop[firstPE];
         depTime -= accessStop.accessTime; // take access time into account
         return Math.floor(depTime);
     }
 
-    private List<RaptorRoute> filterRoutes(List<RaptorRoute> allRoutes) {
-        // first, eliminate duplicates
-        allRoutes.sort((r1, r2) -> {
-            int cmp = Integer.compare(r1.getNumberOfTransfers(), r2.getNumberOfTransfers());
-            if (cmp == 0) {
-                cmp = Double.compare(r1.getDepartureTime(), r2.getDepartureTime());
-            }
-            if (cmp == 0) {
-                cmp = Double.compare(r1.getTravelTime(), r2.getTravelTime());
-            }
-            return cmp;
-        });
-        List<RaptorRoute> uniqueRoutes = new ArrayList<>();
-        int lastTransferCount = -1;
-        double lastDepTime = Double.NaN;
-        double lastTravelTime = Double.NaN;
-        for (RaptorRoute route : allRoutes) {
-            if (route.getNumberOfTransfers() != lastTransferCount
-                || route.getDepartureTime() != lastDepTime
-                || route.getTravelTime() != lastTravelTime) {
-                uniqueRoutes.add(route);
-                lastTransferCount = route.getNumberOfTransfers();
-                lastDepTime = route.getDepartureTime();
-                lastTravelTime = route.getTravelTime();
-            }
-        }
-
-        // now search for non-dominant routes
-        List<RaptorRoute> routesToKeep = new ArrayList<>();
-        for (RaptorRoute route1 : uniqueRoutes) {
-            boolean addRoute1 = true;
-            for (RaptorRoute route2 : uniqueRoutes) {
-                if (route1 != route2) {
-                    // check if route2 dominates route1
-                    double arrTime1 = route1.getDepartureTime() + route1.getTravelTime();
-                    double arrTime2 = route2.getDepartureTime() + route2.getTravelTime();
-                    if (route2.getNumberOfTransfers() <=route1.getNumberOfTransfers()
-                        && route2.getDepartureTime() >= route1.getDepartureTime()
-                        && arrTime2 <= arrTime1) {
-                        addRoute1 = false;
-                        break;
-                    }
-                }
-            }
-            if (addRoute1) {
-                routesToKeep.add(route1);
-            }
+    static List<RaptorRoute> filterRoutes(List<RaptorRoute> allRoutes) {
+        RouteCandidates candidates = new RouteCandidates();
+        for (int i = 0; i < allRoutes.size(); i++) {
+            RaptorRoute route = allRoutes.get(i);
+            candidates.add(route.getDepartureTime(), route.getTravelTime(), route.getTotalCosts(), route.getNumberOfTransfers(), i, Double.NaN, 0);
+        }
+        int routeCount = candidates.filter();
+        List<RaptorRoute> routesToKeep = new ArrayList<>(routeCount);
+        for (int i = 0; i < routeCount; i++) {
+            routesToKeep.add(allRoutes.get(candidates.handle[candidates.order[i]]));
         }
         return routesToKeep;
     }
 
     public Map<Id<TransitStopFacility>, TravelInfo> calcLeastCostTree(double depTime, Collection<InitialStop> startStops, RaptorParameters parameters) {
+        if (this.treeResult == null) {
+            this.treeResult = new RaptorTreeResult(this.data);
+        }
+        RaptorTreeResult tree = this.treeResult;
+        calcLeastCostTree(depTime, startStops, parameters, tree);
+
+        Map<Id<TransitStopFacility>, TravelInfo> result = new HashMap<>((int) (tree.getReachedStopCount() * 1.5));
+        for (int i = 0; i < tree.getReachedStopCount(); i++) {
+            int stopIndex = tree.getReachedStop(i);
+            TravelInfo ti = new TravelInfo(tree.arrivalTime[stopIndex], tree.departureTime[stopIndex], tree.totalCost[stopIndex], tree.transferCount[stopIndex],
+                    this.data.stopFacilities[tree.departureStopIndex[stopIndex]].getId(),
+                    tree.ptDepartureTime[stopIndex], tree.accessTime[stopIndex], tree.inVehicleTime[stopIndex]);
+            result.put(this.data.stopFacilities[stopIndex].getId(), ti);
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the least-cost tree like {@link #calcLeastCostTree(double, Collection, RaptorParameters)},
+     * but stores the result in the given arrays instead of creating an object per reached stop.
+     * The previous content of <code>result</code> is replaced.
+     */
+    public void calcLeastCostTree(double depTime, Collection<InitialStop> startStops, RaptorParameters parameters, RaptorTreeResult result) {
+        calcLeastCostTree(depTime, startStops, parameters, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, result);
+    }
+
+    /**
+     * Calculates the least-cost tree, but only up to the given maximum arrival time and maximum cost.
+     * Connections arriving later or at higher costs are not explored any further, so the effort of the
+     * calculation depends on the size of the area within the bounds, and not on the size of the whole
+     * schedule. Stops that can only be reached outside the bounds are not part of the result.
+     * Pass <code>Double.POSITIVE_INFINITY</code> to not restrict the arrival time or the cost.
+     */
+    public void calcLeastCostTree(double depTime, Collection<InitialStop> startStops, RaptorParameters parameters, double maxArrivalTime, double maxCost, RaptorTreeResult result) {
         reset();
+        result.clear();
+        this.maxArrivalTime = maxArrivalTime;
+        this.maxArrivalCost = maxCost;
 
         BitSet initialRouteStopIndices = new BitSet();
         BitSet initialStopIndices = new BitSet();
         for (InitialStop stop : startStops) {
-            int[] routeStopIndices = this.data.routeStopsPerStopFacility.get(stop.stop);
-            for (int routeStopIndex : routeStopIndices) {
+            int stopIndex = getStopIndex(stop);
+            if (stopIndex < 0) {
+                continue; // the stop is not served by any route
+            }
+            if (!isWithinBounds(depTime + stop.accessTime, stop.accessCost)) {
+                continue;
+            }
+            for (int pos = this.data.stopRouteStopOffsets[stopIndex]; pos < this.data.stopRouteStopOffsets[stopIndex + 1]; pos++) {
+                int routeStopIndex = this.data.stopRouteStops[pos];
                 double arrivalTime = depTime + stop.accessTime;
                 double arrivalCost = stop.accessCost;
-                RRouteStop toRouteStop = this.data.routeStops[routeStopIndex];
-                PathElement pe = new PathElement(null, toRouteStop, Double.NaN, arrivalTime, arrivalCost, 0, stop.distance, 0, true, stop);
+                int pe = this.pathElements.add(NO_PATH, routeStopIndex, Double.NaN, arrivalTime, arrivalCost, 0, stop.distance, 0, true, stop);
                 this.arrivalPathPerRouteStop[routeStopIndex] = pe;
-                this.arrivalPathPerStop[toRouteStop.stopFacilityIndex] = pe;
+                this.arrivalPathPerStop[stopIndex] = pe;
                 this.leastArrivalCostAtRouteStop[routeStopIndex] = arrivalCost;
-                this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex] = arrivalCost;
+                this.touchedRouteStops.add(routeStopIndex);
+                this.leastArrivalCostAtStop[stopIndex] = arrivalCost;
+                this.touchedStops.add(stopIndex);
                 this.improvedRouteStopIndices.set(routeStopIndex);
                 // this is special: make sure we can transfer even at the start stop
                 initialRouteStopIndices.set(routeStopIndex);
-                initialStopIndices.set(toRouteStop.stopFacilityIndex);
+                initialStopIndices.set(stopIndex);
             }
         }
 
@@ -451,144 +744,301 @@ public class SwissRailRaptorCore {
         }
 
         // collect information for each stop
-        Map<Id<TransitStopFacility>, TravelInfo> result = new HashMap<>();
-        for (Map.Entry<TransitStopFacility, Integer> e : this.data.stopFacilityIndices.entrySet()) {
-            TransitStopFacility stop = e.getKey();
-            int index = e.getValue();
-            PathElement destination = this.arrivalPathPerStop[index];
-            PathElement path = destination;
-            PathElement prevLast = null;
-            if (path != null) {
-                while (path.comingFrom != null) {
+        // only the touched stops can have an arrival path
+        for (int i = 0; i < this.touchedStops.size; i++) {
+            int stopIndex = this.touchedStops.indices[i];
+            int destination = this.arrivalPathPerStop[stopIndex];
+            int path = destination;
+            int prevLast = NO_PATH;
+            if (path != NO_PATH) {
+                PathElements pes = this.pathElements;
+                double inVehicleTime = 0;
+                while (pes.comingFrom[path] != NO_PATH) {
+                    if (!pes.isTransfer[path]) {
+                        int boardingRouteStopIndex = pes.toRouteStopIndex[pes.comingFrom[path]];
+                        inVehicleTime += this.data.routeStopArrivalOffsets[pes.toRouteStopIndex[path]] - this.data.routeStopDepartureOffsets[boardingRouteStopIndex];
+                    }
                     prevLast = path;
-                    path = path.comingFrom;
+                    path = pes.comingFrom[path];
                 }
-                double arrivalTime = destination.arrivalTime;
-                double departureTime = path.arrivalTime;
-                double totalCost = destination.arrivalTravelCost + destination.arrivalTransferCost;
-                int transferCount = destination.transferCount;
-                if (destination.isTransfer && transferCount > 0) {
+                double arrivalTime = pes.arrivalTime[destination];
+                double departureTime = pes.arrivalTime[path];
+                double totalCost = pes.arrivalTravelCost[destination] + pes.arrivalTransferCost[destination];
+                int transferCount = pes.transferCount[destination];
+                if (pes.isTransfer[destination] && transferCount > 0) {
                     transferCount--; // do not count this as transfer, as the router would merge it with the egress walk
                 }
-                if (prevLast != null && prevLast.isTransfer && transferCount > 0) {
+                if (prevLast != NO_PATH && pes.isTransfer[prevLast] && transferCount > 0) {
                     transferCount--; // the first "leg" is a transfer, do not count it as such as the router would merge it with the access walk
                 }
-                Id<TransitStopFacility> departureStopId = path.toRouteStop.routeStop.getStopFacility().getId();
-                TravelInfo ti = new TravelInfo(arrivalTime, departureTime, totalCost, transferCount, departureStopId);
-                result.put(stop.getId(), ti);
+                int departureStopIndex = this.data.routeStopStopIndices[pes.toRouteStopIndex[path]];
+                double accessTime = pes.initialStop[path].accessTime;
+                result.set(stopIndex, arrivalTime, departureTime, totalCost, transferCount, departureStopIndex,
+                        pes.firstDepartureTime[destination], accessTime, inVehicleTime);
+            }
+        }
+    }
+
+    private int getStopIndex(InitialStop initialStop) {
+        return initialStop.stopIndex >= 0 ? initialStop.stopIndex : this.data.getStopFacilityIndex(initialStop.stop);
+    }
+
+    /**
+     * Keeps only the initial stop with the least access cost per stop facility. Initial stops at
+     * stop facilities not served by any route are dropped, all returned initial stops have their
+     * stop index set.
+     */
+    private List<InitialStop> getBestInitialStops(List<InitialStop> initialStops) {
+        List<InitialStop> candidates = new ArrayList<>(initialStops.size());
+        for (InitialStop initialStop : initialStops) {
+            int stopIndex = getStopIndex(initialStop);
+            if (stopIndex < 0) {
+                continue;
+            }
+            if (initialStop.stopIndex != stopIndex) {
+                initialStop = initialStop.withStopIndex(stopIndex);
+            }
+            candidates.add(initialStop);
+            InitialStop alternative = this.bestInitialStopPerStop[stopIndex];
+            if (alternative == null || initialStop.accessCost < alternative.accessCost) {
+                this.bestInitialStopPerStop[stopIndex] = initialStop;
+            }
+        }
+        List<InitialStop> bestStops = new ArrayList<>(candidates.size());
+        for (InitialStop initialStop : candidates) {
+            if (this.bestInitialStopPerStop[initialStop.stopIndex] == initialStop) {
+                bestStops.add(initialStop);
+                this.bestInitialStopPerStop[initialStop.stopIndex] = null;
+            }
+        }
+        return bestStops;
+    }
+
+    private void initDestinationStops(List<InitialStop> destinationStops) {
+        for (InitialStop egressStop : destinationStops) {
+            for (int pos = this.data.stopRouteStopOffsets[egressStop.stopIndex]; pos < this.data.stopRouteStopOffsets[egressStop.stopIndex + 1]; pos++) {
+                int routeStopIndex = this.data.stopRouteStops[pos];
+                this.destinationRouteStopIndices.set(routeStopIndex);
+                this.egressCostsPerRouteStop[routeStopIndex] = egressStop.accessCost;
+                this.touchedRouteStops.add(routeStopIndex);
             }
         }
-        return result;
     }
 
     private void exploreRoutes(RaptorParameters parameters) {
         this.improvedStops.clear();
         this.reachedRouteStopIndices.clear();
 
-        double transferPenaltyTravelTimeToCostFactor = parameters.getTransferPenaltyTravelTimeToCostFactor();
-        double marginalUtilityOfWaitingPt_utl_s = parameters.getMarginalUtilityOfWaitingPt_utl_s();
+        if (this.useParallelQueryProcessing) {
+            int routeCount = collectImprovedRoutes();
+            if (routeCount >= 2 * this.minItemsPerParallelTask) {
+                exploreRoutesInParallel(routeCount, parameters);
+                return;
+            }
+        }
 
         int routeIndex = -1;
         for (int firstRouteStopIndex = this.improvedRouteStopIndices.nextSetBit(0); firstRouteStopIndex >= 0; firstRouteStopIndex = this.improvedRouteStopIndices.nextSetBit(firstRouteStopIndex+1)) {
-            RRouteStop firstRouteStop = this.data.routeStops[firstRouteStopIndex];
-            if (firstRouteStop.transitRouteIndex == routeIndex) {
+            int tmpRouteIndex = this.data.routeStopRouteIndices[firstRouteStopIndex];
+            if (tmpRouteIndex == routeIndex) {
                 continue; // we've handled this route already
             }
-            int tmpRouteIndex = firstRouteStop.transitRouteIndex;
-
-            // for each relevant route, step along route and look for new/improved connections
-            RRoute route = this.data.routes[tmpRouteIndex];
-
-            // firstRouteStop is the first RouteStop in the route we can board in this round
-            // figure out which departure we can take
-            PathElement boardingPE = this.arrivalPathPerRouteStop[firstRouteStopIndex];
-            double agentFirstArrivalTime = boardingPE.arrivalTime;
-            int currentDepartureIndex = findNextDepartureIndex(route, firstRouteStop, agentFirstArrivalTime);
-            if (currentDepartureIndex >= 0) {
-                double currentDepartureTime = this.data.departures[currentDepartureIndex];
-                double currentAgentBoardingTime;
-                double currentTravelCostWhenBoarding;
-                double currentTransferCostWhenBoarding;
-                {
-                    double vehicleArrivalTime = currentDepartureTime + firstRouteStop.arrivalOffset;
-                    currentAgentBoardingTime = (agentFirstArrivalTime < vehicleArrivalTime) ? vehicleArrivalTime : agentFirstArrivalTime;
-                    double waitingTime = currentAgentBoardingTime - agentFirstArrivalTime;
-                    double waitingCost = -marginalUtilityOfWaitingPt_utl_s * waitingTime;
-                    currentTravelCostWhenBoarding = boardingPE.arrivalTravelCost + waitingCost;
-                    currentTransferCostWhenBoarding = boardingPE.arrivalTransferCost;
-                }
-
-                if ((currentTravelCostWhenBoarding + currentTransferCostWhenBoarding) > this.bestArrivalCost) {
-                    continue;
-                }
+            if (exploreRoute(tmpRouteIndex, firstRouteStopIndex, this.bestArrivalCost, parameters, null)) {
                 routeIndex = tmpRouteIndex;
-                double firstDepartureTime = Double.isNaN(boardingPE.firstDepartureTime) ? currentAgentBoardingTime : boardingPE.firstDepartureTime;
-
-                double marginalUtilityOfTravelTime_utl_s = parameters.getMarginalUtilityOfTravelTime_utl_s(boardingPE.toRouteStop.mode);
-
-                for (int toRouteStopIndex = firstRouteStopIndex + 1; toRouteStopIndex < route.indexFirstRouteStop + route.countRouteStops; toRouteStopIndex++) {
-                    RRouteStop toRouteStop = this.data.routeStops[toRouteStopIndex];
-                    double arrivalTime = currentDepartureTime + toRouteStop.arrivalOffset;
-                    double inVehicleTime = arrivalTime - currentAgentBoardingTime;
-                    double inVehicleCost = inVehicleTime * -marginalUtilityOfTravelTime_utl_s;
-                    double arrivalTravelCost = currentTravelCostWhenBoarding + inVehicleCost;
-                    double arrivalTransferCost = ((arrivalTime - firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * (boardingPE.transferCount);
-                    double previousArrivalCost = this.leastArrivalCostAtRouteStop[toRouteStopIndex];
-                    double totalArrivalCost = arrivalTravelCost + arrivalTransferCost;
-                    if (totalArrivalCost <= previousArrivalCost) {
-                        double distance = toRouteStop.distanceAlongRoute - boardingPE.toRouteStop.distanceAlongRoute;
-                        PathElement pe = new PathElement(boardingPE, toRouteStop, firstDepartureTime, arrivalTime, arrivalTravelCost, arrivalTransferCost, distance, boardingPE.transferCount, false, null);
-                        this.arrivalPathPerRouteStop[toRouteStopIndex] = pe;
-                        this.leastArrivalCostAtRouteStop[toRouteStopIndex] = totalArrivalCost;
-                        if (totalArrivalCost <= this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex]) {
-                            this.leastArrivalCostAtStop[toRouteStop.stopFacilityIndex] = totalArrivalCost;
-                            this.arrivalPathPerStop[toRouteStop.stopFacilityIndex] = pe;
-                            this.improvedStops.set(toRouteStop.stopFacilityIndex);
-                            checkForBestArrival(toRouteStopIndex, totalArrivalCost);
-                        }
-                    } else /*if (previousArrivalCost < arrivalCost)*/ {
-                        // looks like we could reach this stop with better cost from somewhere else
-                        // check if we can depart also with better cost, if yes, switch to this connection
-                        PathElement alternativeBoardingPE = this.arrivalPathPerRouteStop[toRouteStopIndex];
-                        double alternativeAgentFirstArrivalTime = alternativeBoardingPE.arrivalTime;
-                        int alternativeDepartureIndex = findNextDepartureIndex(route, toRouteStop, alternativeAgentFirstArrivalTime);
-                        if (alternativeDepartureIndex >= 0) {
-                            double alternativeDepartureTime = this.data.departures[alternativeDepartureIndex];
-                            double alternativeVehicleArrivalTime = alternativeDepartureTime + toRouteStop.arrivalOffset;
-                            double alternativeAgentBoardingTime = (alternativeAgentFirstArrivalTime < alternativeVehicleArrivalTime) ? alternativeVehicleArrivalTime : alternativeAgentFirstArrivalTime;
-                            double alternativeWaitingTime = alternativeAgentBoardingTime - alternativeAgentFirstArrivalTime;
-                            double alternativeWaitingCost = -marginalUtilityOfWaitingPt_utl_s * alternativeWaitingTime;
-                            double alternativeTravelCostWhenBoarding = alternativeBoardingPE.arrivalTravelCost + alternativeWaitingCost;
-                            double alternativeTotalCostWhenBoarding = alternativeTravelCostWhenBoarding + alternativeBoardingPE.arrivalTransferCost;
-                            if (alternativeTotalCostWhenBoarding < totalArrivalCost) {
-                                currentDepartureIndex = alternativeDepartureIndex;
-                                currentDepartureTime = alternativeDepartureTime;
-                                if (!alternativeBoardingPE.isTransfer) {
-                                    // we improve to a line/route we entered at some earlier stop, do not create a new transfer for this,
-                                    // but set the boarding info back to the original boarding of this route
-                                    alternativeBoardingPE = alternativeBoardingPE.comingFrom;
-                                    alternativeAgentFirstArrivalTime = alternativeBoardingPE.arrivalTime;
-                                    alternativeVehicleArrivalTime = alternativeDepartureTime + alternativeBoardingPE.toRouteStop.arrivalOffset;
-                                    alternativeAgentBoardingTime = (alternativeAgentFirstArrivalTime < alternativeVehicleArrivalTime) ? alternativeVehicleArrivalTime : alternativeAgentFirstArrivalTime;
-
-                                    alternativeWaitingTime = alternativeAgentBoardingTime - alternativeAgentFirstArrivalTime;
-                                    alternativeWaitingCost = -marginalUtilityOfWaitingPt_utl_s * alternativeWaitingTime;
-                                    alternativeTravelCostWhenBoarding = alternativeBoardingPE.arrivalTravelCost + alternativeWaitingCost;
-                                }
-                                currentAgentBoardingTime = alternativeAgentBoardingTime;
-                                currentTravelCostWhenBoarding = alternativeTravelCostWhenBoarding;
-                                currentTransferCostWhenBoarding = alternativeBoardingPE.arrivalTransferCost;
-                                boardingPE = alternativeBoardingPE;
-                                firstDepartureTime = Double.isNaN(boardingPE.firstDepartureTime) ? currentAgentBoardingTime : boardingPE.firstDepartureTime;
-                            }
+                RRoute route = this.data.routes[routeIndex];
+                firstRouteStopIndex = route.indexFirstRouteStop + route.countRouteStops - 1; // we've handled this route, so we can skip its route stops in the loop
+            }
+        }
+    }
+
+    /**
+     * Steps along the route, starting at the given route stop, and looks for new or improved connections.
+     * The improved route stops are either applied directly, or, if <code>improvements</code> is not null, only
+     * collected, so they can be applied later. The route only reads and writes the data of its own route stops
+     * while it is explored, so different routes can be explored in parallel.
+     *
+     * @return <code>true</code> if the route could be boarded at the given route stop, <code>false</code> if the next improved route stop of the route should be tried.
+     */
+    private boolean exploreRoute(int routeIndex, int firstRouteStopIndex, double bestArrivalCost, RaptorParameters parameters, Improvements improvements) {
+        double transferPenaltyTravelTimeToCostFactor = parameters.getTransferPenaltyTravelTimeToCostFactor();
+        double marginalUtilityOfWaitingPt_utl_s = parameters.getMarginalUtilityOfWaitingPt_utl_s();
+        PathElements pes = this.pathElements;
+
+        // for each relevant route, step along route and look for new/improved connections
+        RRoute route = this.data.routes[routeIndex];
+
+        // firstRouteStop is the first RouteStop in the route we can board in this round
+        // figure out which departure we can take
+        int boardingPE = this.arrivalPathPerRouteStop[firstRouteStopIndex];
+        double agentFirstArrivalTime = pes.arrivalTime[boardingPE];
+        int currentDepartureIndex = findNextDepartureIndex(route, firstRouteStopIndex, agentFirstArrivalTime);
+        if (currentDepartureIndex < 0) {
+            return false;
+        }
+        double currentDepartureTime = this.data.departures[currentDepartureIndex];
+        double currentAgentBoardingTime;
+        double currentTravelCostWhenBoarding;
+        double currentTransferCostWhenBoarding;
+        {
+            double vehicleArrivalTime = currentDepartureTime + this.data.routeStopArrivalOffsets[firstRouteStopIndex];
+            currentAgentBoardingTime = (agentFirstArrivalTime < vehicleArrivalTime) ? vehicleArrivalTime : agentFirstArrivalTime;
+            double waitingTime = currentAgentBoardingTime - agentFirstArrivalTime;
+            double waitingCost = -marginalUtilityOfWaitingPt_utl_s * waitingTime;
+            currentTravelCostWhenBoarding = pes.arrivalTravelCost[boardingPE] + waitingCost;
+            currentTransferCostWhenBoarding = pes.arrivalTransferCost[boardingPE];
+        }
+
+        if ((currentTravelCostWhenBoarding + currentTransferCostWhenBoarding) > bestArrivalCost) {
+            return false;
+        }
+        if (!isWithinBounds(currentAgentBoardingTime, currentTravelCostWhenBoarding + currentTransferCostWhenBoarding)) {
+            return false; // every route stop would be reached outside the bounds, try boarding at a later improved route stop
+        }
+        double firstDepartureTime = Double.isNaN(pes.firstDepartureTime[boardingPE]) ? currentAgentBoardingTime : pes.firstDepartureTime[boardingPE];
+
+        double marginalUtilityOfTravelTime_utl_s = parameters.getMarginalUtilityOfTravelTime_utl_s(this.data, this.data.routeStopModeIndices[pes.toRouteStopIndex[boardingPE]]);
+
+        for (int toRouteStopIndex = firstRouteStopIndex + 1; toRouteStopIndex < route.indexFirstRouteStop + route.countRouteStops; toRouteStopIndex++) {
+            double arrivalTime = currentDepartureTime + this.data.routeStopArrivalOffsets[toRouteStopIndex];
+            double inVehicleTime = arrivalTime - currentAgentBoardingTime;
+            double inVehicleCost = inVehicleTime * -marginalUtilityOfTravelTime_utl_s;
+            double arrivalTravelCost = currentTravelCostWhenBoarding + inVehicleCost;
+            double arrivalTransferCost = ((arrivalTime - firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * (pes.transferCount[boardingPE]);
+            double previousArrivalCost = this.leastArrivalCostAtRouteStop[toRouteStopIndex];
+            double totalArrivalCost = arrivalTravelCost + arrivalTransferCost;
+            if (totalArrivalCost <= previousArrivalCost) {
+                if (!isWithinBounds(arrivalTime, totalArrivalCost)) {
+                    continue; // do not stop here, a later route stop could still switch to an earlier departure
+                }
+                double distance = this.data.routeStopDistances[toRouteStopIndex] - this.data.routeStopDistances[pes.toRouteStopIndex[boardingPE]];
+                if (improvements == null) {
+                    improveRouteStop(toRouteStopIndex, boardingPE, firstDepartureTime, arrivalTime, arrivalTravelCost, arrivalTransferCost, distance);
+                } else {
+                    improvements.add(toRouteStopIndex, boardingPE, firstDepartureTime, arrivalTime, arrivalTravelCost, arrivalTransferCost, distance);
+                }
+            } else /*if (previousArrivalCost < arrivalCost)*/ {
+                // looks like we could reach this stop with better cost from somewhere else
+                // check if we can depart also with better cost, if yes, switch to this connection
+                int alternativeBoardingPE = this.arrivalPathPerRouteStop[toRouteStopIndex];
+                double alternativeAgentFirstArrivalTime = pes.arrivalTime[alternativeBoardingPE];
+                int alternativeDepartureIndex = findNextDepartureIndex(route, toRouteStopIndex, alternativeAgentFirstArrivalTime);
+                if (alternativeDepartureIndex >= 0) {
+                    double alternativeDepartureTime = this.data.departures[alternativeDepartureIndex];
+                    double alternativeVehicleArrivalTime = alternativeDepartureTime + this.data.routeStopArrivalOffsets[toRouteStopIndex];
+                    double alternativeAgentBoardingTime = (alternativeAgentFirstArrivalTime < alternativeVehicleArrivalTime) ? alternativeVehicleArrivalTime : alternativeAgentFirstArrivalTime;
+                    double alternativeWaitingTime = alternativeAgentBoardingTime - alternativeAgentFirstArrivalTime;
+                    double alternativeWaitingCost = -marginalUtilityOfWaitingPt_utl_s * alternativeWaitingTime;
+                    double alternativeTravelCostWhenBoarding = pes.arrivalTravelCost[alternativeBoardingPE] + alternativeWaitingCost;
+                    double alternativeTotalCostWhenBoarding = alternativeTravelCostWhenBoarding + pes.arrivalTransferCost[alternativeBoardingPE];
+                    if (alternativeTotalCostWhenBoarding < totalArrivalCost) {
+                        currentDepartureIndex = alternativeDepartureIndex;
+                        currentDepartureTime = alternativeDepartureTime;
+                        if (!pes.isTransfer[alternativeBoardingPE]) {
+                            // we improve to a line/route we entered at some earlier stop, do not create a new transfer for this,
+                            // but set the boarding info back to the original boarding of this route
+                            alternativeBoardingPE = pes.comingFrom[alternativeBoardingPE];
+                            alternativeAgentFirstArrivalTime = pes.arrivalTime[alternativeBoardingPE];
+                            alternativeVehicleArrivalTime = alternativeDepartureTime + this.data.routeStopArrivalOffsets[pes.toRouteStopIndex[alternativeBoardingPE]];
+                            alternativeAgentBoardingTime = (alternativeAgentFirstArrivalTime < alternativeVehicleArrivalTime) ? alternativeVehicleArrivalTime : alternativeAgentFirstArrivalTime;
+
+                            alternativeWaitingTime = alternativeAgentBoardingTime - alternativeAgentFirstArrivalTime;
+                            alternativeWaitingCost = -marginalUtilityOfWaitingPt_utl_s * alternativeWaitingTime;
+                            alternativeTravelCostWhenBoarding = pes.arrivalTravelCost[alternativeBoardingPE] + alternativeWaitingCost;
                         }
+                        currentAgentBoardingTime = alternativeAgentBoardingTime;
+                        currentTravelCostWhenBoarding = alternativeTravelCostWhenBoarding;
+                        currentTransferCostWhenBoarding = pes.arrivalTransferCost[alternativeBoardingPE];
+                        boardingPE = alternativeBoardingPE;
+                        firstDepartureTime = Double.isNaN(pes.firstDepartureTime[boardingPE]) ? currentAgentBoardingTime : pes.firstDepartureTime[boardingPE];
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void improveRouteStop(int toRouteStopIndex, int boardingPE, double firstDepartureTime, double arrivalTime, double arrivalTravelCost, double arrivalTransferCost, double distance) {
+        double totalArrivalCost = arrivalTravelCost + arrivalTransferCost;
+        int pe = this.pathElements.add(boardingPE, toRouteStopIndex, firstDepartureTime, arrivalTime, arrivalTravelCost, arrivalTransferCost, distance, this.pathElements.transferCount[boardingPE], false, null);
+        this.arrivalPathPerRouteStop[toRouteStopIndex] = pe;
+        this.leastArrivalCostAtRouteStop[toRouteStopIndex] = totalArrivalCost;
+        this.touchedRouteStops.add(toRouteStopIndex);
+        int toStopIndex = this.data.routeStopStopIndices[toRouteStopIndex];
+        if (totalArrivalCost <= this.leastArrivalCostAtStop[toStopIndex]) {
+            this.leastArrivalCostAtStop[toStopIndex] = totalArrivalCost;
+            this.touchedStops.add(toStopIndex);
+            this.arrivalPathPerStop[toStopIndex] = pe;
+            this.improvedStops.set(toStopIndex);
+            checkForBestArrival(toRouteStopIndex, totalArrivalCost);
+        }
+    }
+
+    /**
+     * Stores the index of every route with at least one improved route stop in {@link #workItems}, in the
+     * order in which the routes are handled sequentially.
+     *
+     * @return the number of routes
+     */
+    private int collectImprovedRoutes() {
+        int count = 0;
+        int routeIndex = -1;
+        for (int routeStopIndex = this.improvedRouteStopIndices.nextSetBit(0); routeStopIndex >= 0; routeStopIndex = this.improvedRouteStopIndices.nextSetBit(routeStopIndex + 1)) {
+            int tmpRouteIndex = this.data.routeStopRouteIndices[routeStopIndex];
+            if (tmpRouteIndex != routeIndex) {
+                routeIndex = tmpRouteIndex;
+                this.workItems[count] = routeIndex;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Explores the routes in {@link #workItems} in parallel. Each task only collects the improved route stops of
+     * its routes, they are applied afterwards in the same order as if the routes were explored sequentially,
+     * so the result does not depend on the scheduling of the tasks. The only difference to the sequential
+     * exploration is that all routes are pruned based on the best arrival cost known at the start of the round.
+     */
+    private void exploreRoutesInParallel(int routeCount, RaptorParameters parameters) {
+        double bestArrivalCost = this.bestArrivalCost;
+        List<ParallelTask> tasks = createParallelTasks(routeCount, (improvements, from, to) -> {
+            for (int i = from; i < to; i++) {
+                int routeIndex = this.workItems[i];
+                RRoute route = this.data.routes[routeIndex];
+                int lastRouteStopIndex = route.indexFirstRouteStop + route.countRouteStops - 1;
+                for (int routeStopIndex = this.improvedRouteStopIndices.nextSetBit(route.indexFirstRouteStop); routeStopIndex >= 0 && routeStopIndex <= lastRouteStopIndex; routeStopIndex = this.improvedRouteStopIndices.nextSetBit(routeStopIndex + 1)) {
+                    if (exploreRoute(routeIndex, routeStopIndex, bestArrivalCost, parameters, improvements)) {
+                        break;
                     }
-                    firstRouteStopIndex = toRouteStopIndex; // we've handled this route stop, so we can skip it in the outer loop
                 }
             }
+        });
+        runInParallel(tasks);
+        for (ParallelTask task : tasks) {
+            Improvements improvements = task.improvements;
+            for (int i = 0; i < improvements.size; i++) {
+                improveRouteStop(improvements.toRouteStopIndex[i], improvements.comingFrom[i], improvements.firstDepartureTime[i], improvements.arrivalTime[i],
+                        improvements.arrivalTravelCost[i], improvements.arrivalTransferCost[i], improvements.distance[i]);
+            }
         }
     }
 
+    /**
+     * Splits the work items [0, count) into consecutive ranges, each handled by its own task.
+     */
+    private List<ParallelTask> createParallelTasks(int count, WorkRange work) {
+        int taskCount = Math.min(this.parallelTaskBuffers.length, count / this.minItemsPerParallelTask);
+        List<ParallelTask> tasks = new ArrayList<>(taskCount);
+        for (int t = 0; t < taskCount; t++) {
+            int from = (int) ((long) count * t / taskCount);
+            int to = (int) ((long) count * (t + 1) / taskCount);
+            Improvements improvements = this.parallelTaskBuffers[t];
+            improvements.size = 0;
+            tasks.add(new ParallelTask(improvements, from, to, work));
+        }
+        return tasks;
+    }
+
     private void checkForBestArrival(int routeStopIndex, double arrivalCost) {
         if (this.destinationRouteStopIndices.get(routeStopIndex)) {
             // this is a destination stop
@@ -599,8 +1049,8 @@ public class SwissRailRaptorCore {
         }
     }
 
-    private int findNextDepartureIndex(RRoute route, RRouteStop routeStop, double time) {
-        double depTimeAtRouteStart = time - routeStop.departureOffset;
+    private int findNextDepartureIndex(RRoute route, int routeStopIndex, double time) {
+        double depTimeAtRouteStart = time - this.data.routeStopDepartureOffsets[routeStopIndex];
         int fromIndex = route.indexFirstDeparture;
         int toIndex = fromIndex + route.countDepartures;
         int pos = Arrays.binarySearch(this.data.departures, fromIndex, toIndex, depTimeAtRouteStart);
@@ -623,173 +1073,1300 @@ public class SwissRailRaptorCore {
         this.improvedRouteStopIndices.clear();
         this.tmpImprovedStops.clear();
 
-        double transferPenaltyFixed = raptorParams.getTransferPenaltyFixCostPerTransfer();
-        double transferPenaltyTravelTimeToCostFactor = raptorParams.getTransferPenaltyTravelTimeToCostFactor();
-
-        for (int stopIndex = this.improvedStops.nextSetBit(0); stopIndex >= 0; stopIndex = this.improvedStops.nextSetBit(stopIndex + 1)) {
-            PathElement fromPE = this.arrivalPathPerStop[stopIndex];
-            double arrivalTime = fromPE.arrivalTime;
-            double arrivalTravelCost = fromPE.arrivalTravelCost;
-            double arrivalTransferCost = fromPE.arrivalTransferCost;
-            double totalArrivalCost = arrivalTravelCost + arrivalTransferCost;
-            if (totalArrivalCost > this.bestArrivalCost) {
-                continue;
-            }
-            RRouteStop fromRouteStop = fromPE.toRouteStop; // this is the route stop we arrive with least cost at stop
-            int firstTransferIndex = fromRouteStop.indexFirstTransfer;
-            int lastTransferIndex = firstTransferIndex + fromRouteStop.countTransfers;
-            for (int transferIndex = firstTransferIndex; transferIndex < lastTransferIndex; transferIndex++) {
-                RTransfer transfer = this.data.transfers[transferIndex];
-                int toRouteStopIndex = transfer.toRouteStop;
-                double newArrivalTime = arrivalTime + transfer.transferTime;
-                double newArrivalTravelCost = arrivalTravelCost + transfer.transferCost + transferPenaltyFixed;
-                double newArrivalTransferCost = Double.isFinite(fromPE.firstDepartureTime) ? ((newArrivalTime - fromPE.firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * (fromPE.transferCount + 1) : 0;
-                double newTotalArrivalCost = newArrivalTravelCost + newArrivalTransferCost;
-                double prevLeastArrivalCost = this.leastArrivalCostAtRouteStop[toRouteStopIndex];
-                if (newTotalArrivalCost < prevLeastArrivalCost || (!strict && newTotalArrivalCost <= prevLeastArrivalCost)) {
-                    RRouteStop toRouteStop = this.data.routeStops[toRouteStopIndex];
-                    PathElement pe = new PathElement(fromPE, toRouteStop, fromPE.firstDepartureTime, newArrivalTime, newArrivalTravelCost, newArrivalTransferCost, transfer.transferDistance, fromPE.transferCount + 1, true, null);
-                    this.arrivalPathPerRouteStop[toRouteStopIndex] = pe;
-                    this.leastArrivalCostAtRouteStop[toRouteStopIndex] = newTotalArrivalCost;
-                    this.improvedRouteStopIndices.set(toRouteStopIndex);
-                    int toStopFacilityIndex = toRouteStop.stopFacilityIndex;
-                    prevLeastArrivalCost = this.leastArrivalCostAtStop[toStopFacilityIndex];
-                    if (newTotalArrivalCost < prevLeastArrivalCost || (!strict && newTotalArrivalCost <= prevLeastArrivalCost)) {
-                        // store it in tmp only. We don't want that this PE is used by a stop processed later in the same round. ("parallel update")
-                        this.leastArrivalCostAtStop[toStopFacilityIndex] = newTotalArrivalCost;
-                        this.tmpArrivalPathPerStop[toStopFacilityIndex] = pe;
-                        this.tmpImprovedStops.set(toStopFacilityIndex);
-                    }
-                }
+        if (this.useParallelQueryProcessing) {
+            int stopCount = collectImprovedStops();
+            if (stopCount >= 2 * this.minItemsPerParallelTask) {
+                handleTransfersInParallel(stopCount, strict, raptorParams);
+                copyImprovedStops();
+                return;
             }
         }
-        // "parallel update". now copy over the newly improved data after all transfers were handled
-        for (int stopIndex = this.tmpImprovedStops.nextSetBit(0); stopIndex >= 0; stopIndex = this.tmpImprovedStops.nextSetBit(stopIndex + 1)) {
-            PathElement pe = this.tmpArrivalPathPerStop[stopIndex];
-            this.arrivalPathPerStop[stopIndex] = pe;
+
+        for (int stopIndex = this.improvedStops.nextSetBit(0); stopIndex >= 0; stopIndex = this.improvedStops.nextSetBit(stopIndex + 1)) {
+            handleTransfers(stopIndex, strict, raptorParams, null);
         }
+        copyImprovedStops();
     }
 
-    private PathElement findLeastCostArrival(Map<TransitStopFacility, InitialStop> destinationStops) {
-        double leastCost = Double.POSITIVE_INFINITY;
-        PathElement leastCostPath = null;
-
-        for (Map.Entry<TransitStopFacility, InitialStop> e : destinationStops.entrySet()) {
-            TransitStopFacility stop = e.getKey();
-            int stopIndex = this.data.stopFacilityIndices.get(stop);
-            PathElement pe = this.arrivalPathPerStop[stopIndex];
-            if (pe != null) {
-                InitialStop egressStop = e.getValue();
-                double arrivalTime = pe.arrivalTime + egressStop.accessTime;
-                double arrivalTravelCost = pe.arrivalTravelCost + egressStop.accessCost;
-                double totalCost = arrivalTravelCost + pe.arrivalTransferCost;
-                if ((totalCost < leastCost) || (totalCost == leastCost && pe.transferCount < leastCostPath.transferCount)) {
-                    leastCost = totalCost;
-                    leastCostPath = new PathElement(pe, null, pe.firstDepartureTime, arrivalTime, arrivalTravelCost, pe.arrivalTransferCost, egressStop.distance, pe.transferCount, true, egressStop); // this is the egress leg
+    /**
+     * Handles the transfers starting at the route stop with which the given stop was reached with least cost.
+     * The improved route stops are either applied directly, or, if <code>improvements</code> is not null, only
+     * collected, so they can be applied later. Collecting the improvements only reads data that does not change
+     * while the transfers are handled, so the transfers of different stops can be collected in parallel.
+     */
+    private void handleTransfers(int stopIndex, boolean strict, RaptorParameters raptorParams, Improvements improvements) {
+        double transferPenaltyFixed = raptorParams.getTransferPenaltyFixCostPerTransfer();
+        double transferPenaltyTravelTimeToCostFactor = raptorParams.getTransferPenaltyTravelTimeToCostFactor();
+        PathElements pes = this.pathElements;
+
+        int fromPE = this.arrivalPathPerStop[stopIndex];
+        double arrivalTime = pes.arrivalTime[fromPE];
+        double arrivalTravelCost = pes.arrivalTravelCost[fromPE];
+        double arrivalTransferCost = pes.arrivalTransferCost[fromPE];
+        double firstDepartureTime = pes.firstDepartureTime[fromPE];
+        int transferCount = pes.transferCount[fromPE];
+        double totalArrivalCost = arrivalTravelCost + arrivalTransferCost;
+        if (totalArrivalCost > this.bestArrivalCost) {
+            return;
+        }
+        int fromRouteStopIndex = pes.toRouteStopIndex[fromPE]; // this is the route stop we arrive with least cost at stop
+        int firstTransferIndex = this.data.routeStopTransferOffsets[fromRouteStopIndex];
+        int lastTransferIndex = this.data.routeStopTransferOffsets[fromRouteStopIndex + 1];
+        for (int transferIndex = firstTransferIndex; transferIndex < lastTransferIndex; transferIndex++) {
+            int toRouteStopIndex = this.data.transferToRouteStops[transferIndex];
+            double newArrivalTime = arrivalTime + this.data.transferTimes[transferIndex];
+            double newArrivalTravelCost = arrivalTravelCost + this.data.transferCosts[transferIndex] + transferPenaltyFixed;
+            double newArrivalTransferCost = Double.isFinite(firstDepartureTime) ? ((newArrivalTime - firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * (transferCount + 1) : 0;
+            double newTotalArrivalCost = newArrivalTravelCost + newArrivalTransferCost;
+            double prevLeastArrivalCost = this.leastArrivalCostAtRouteStop[toRouteStopIndex];
+            if ((newTotalArrivalCost < prevLeastArrivalCost || (!strict && newTotalArrivalCost <= prevLeastArrivalCost)) && isWithinBounds(newArrivalTime, newTotalArrivalCost)) {
+                double distance = this.data.transferDistances[transferIndex];
+                if (improvements == null) {
+                    improveRouteStopByTransfer(toRouteStopIndex, fromPE, newArrivalTime, newArrivalTravelCost, newArrivalTransferCost, distance, strict);
+                } else {
+                    improvements.add(toRouteStopIndex, fromPE, firstDepartureTime, newArrivalTime, newArrivalTravelCost, newArrivalTransferCost, distance);
                 }
             }
         }
-        return leastCostPath;
     }
 
-    private RaptorRoute createRaptorRoute(Facility<?> fromFacility, Facility<?> toFacility, PathElement destinationPathElement, double departureTime) {
-        LinkedList<PathElement> pes = new LinkedList<>();
-        double arrivalCost = Double.POSITIVE_INFINITY;
-        if (destinationPathElement != null) {
-            arrivalCost = destinationPathElement.arrivalTravelCost + destinationPathElement.arrivalTransferCost;
-            PathElement pe = destinationPathElement;
-            while (pe.comingFrom != null) {
-                pes.addFirst(pe);
-                pe = pe.comingFrom;
+    private boolean isWithinBounds(double arrivalTime, double totalArrivalCost) {
+        return arrivalTime <= this.maxArrivalTime && totalArrivalCost <= this.maxArrivalCost;
+    }
+
+    private void improveRouteStopByTransfer(int toRouteStopIndex, int fromPE, double newArrivalTime, double newArrivalTravelCost, double newArrivalTransferCost, double distance, boolean strict) {
+        double newTotalArrivalCost = newArrivalTravelCost + newArrivalTransferCost;
+        double prevLeastArrivalCost = this.leastArrivalCostAtRouteStop[toRouteStopIndex];
+        if (newTotalArrivalCost < prevLeastArrivalCost || (!strict && newTotalArrivalCost <= prevLeastArrivalCost)) {
+            int pe = this.pathElements.add(fromPE, toRouteStopIndex, this.pathElements.firstDepartureTime[fromPE], newArrivalTime, newArrivalTravelCost, newArrivalTransferCost, distance, this.pathElements.transferCount[fromPE] + 1, true, null);
+            this.arrivalPathPerRouteStop[toRouteStopIndex] = pe;
+            this.leastArrivalCostAtRouteStop[toRouteStopIndex] = newTotalArrivalCost;
+            this.touchedRouteStops.add(toRouteStopIndex);
+            this.improvedRouteStopIndices.set(toRouteStopIndex);
+            int toStopFacilityIndex = this.data.routeStopStopIndices[toRouteStopIndex];
+            prevLeastArrivalCost = this.leastArrivalCostAtStop[toStopFacilityIndex];
+            if (newTotalArrivalCost < prevLeastArrivalCost || (!strict && newTotalArrivalCost <= prevLeastArrivalCost)) {
+                // store it in tmp only. We don't want that this PE is used by a stop processed later in the same round. ("parallel update")
+                this.leastArrivalCostAtStop[toStopFacilityIndex] = newTotalArrivalCost;
+                this.touchedStops.add(toStopFacilityIndex);
+                this.tmpArrivalPathPerStop[toStopFacilityIndex] = pe;
+                this.tmpImprovedStops.set(toStopFacilityIndex);
             }
-            pes.addFirst(pe);
-        }
-        if (pes.size() == 2 && pes.get(0).isTransfer && pes.get(1).isTransfer) {
-            // it's only access and egress, no real pt trip
-            arrivalCost = Double.POSITIVE_INFINITY;
-            pes.clear();
         }
+    }
 
-        RaptorRoute raptorRoute = new RaptorRoute(fromFacility, toFacility, arrivalCost);
-        double time = departureTime;
-        TransitStopFacility fromStop = null;
-        int peCount = pes.size();
-        int i = -1;
-        for (PathElement pe : pes) {
-            i++;
-            TransitStopFacility toStop = pe.toRouteStop == null ? null : pe.toRouteStop.routeStop.getStopFacility();
-            double travelTime = pe.arrivalTime - time;
-            if (pe.initialStop != null && pe.initialStop.planElements != null) {
-                raptorRoute.addPlanElements(time, travelTime, pe.initialStop.planElements);
-            } else if (pe.isTransfer) {
-                boolean differentFromTo = (fromStop == null || toStop == null) || (fromStop != toStop);
-                // do not create a transfer-leg if we stay at the same stop facility
-                if (differentFromTo) {
-                    if (i == peCount - 2) {
-                        // the second last element is a transfer, skip it so it gets merged into the egress_walk
-                        continue;
+    private static void runInParallel(List<ParallelTask> tasks) {
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    private void copyImprovedStops() {
+        // "parallel update". now copy over the newly improved data after all transfers were handled
+        for (int stopIndex = this.tmpImprovedStops.nextSetBit(0); stopIndex >= 0; stopIndex = this.tmpImprovedStops.nextSetBit(stopIndex + 1)) {
+            this.arrivalPathPerStop[stopIndex] = this.tmpArrivalPathPerStop[stopIndex];
+        }
+    }
+
+    /**
+     * Stores the index of every improved stop in {@link #workItems}, in the order in which the stops are handled sequentially.
+     *
+     * @return the number of stops
+     */
+    private int collectImprovedStops() {
+        int count = 0;
+        for (int stopIndex = this.improvedStops.nextSetBit(0); stopIndex >= 0; stopIndex = this.improvedStops.nextSetBit(stopIndex + 1)) {
+            this.workItems[count] = stopIndex;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Collects the transfers of the stops in {@link #workItems} in parallel. As the collection is only based on the
+     * arrival costs known before any transfer was handled, it may contain transfers that turn out not to be an
+     * improvement. Applying the collected transfers in the same order as if they were handled sequentially checks
+     * them again, so the result is the same as when handling the transfers sequentially.
+     */
+    private void handleTransfersInParallel(int stopCount, boolean strict, RaptorParameters raptorParams) {
+        List<ParallelTask> tasks = createParallelTasks(stopCount, (improvements, from, to) -> {
+            for (int i = from; i < to; i++) {
+                handleTransfers(this.workItems[i], strict, raptorParams, improvements);
+            }
+        });
+        runInParallel(tasks);
+        for (ParallelTask task : tasks) {
+            Improvements improvements = task.improvements;
+            for (int i = 0; i < improvements.size; i++) {
+                improveRouteStopByTransfer(improvements.toRouteStopIndex[i], improvements.comingFrom[i], improvements.arrivalTime[i],
+                        improvements.arrivalTravelCost[i], improvements.arrivalTransferCost[i], improvements.distance[i], strict);
+            }
+        }
+    }
+
+    private int findLeastCostArrival(List<InitialStop> destinationStops) {
+        PathElements pes = this.pathElements;
+        double leastCost = Double.POSITIVE_INFINITY;
+        int leastCostPE = NO_PATH;
+        InitialStop leastCostEgressStop = null;
+
+        for (InitialStop egressStop : destinationStops) {
+            int pe = this.arrivalPathPerStop[egressStop.stopIndex];
+            if (pe != NO_PATH) {
+                double totalCost = pes.arrivalTravelCost[pe] + egressStop.accessCost + pes.arrivalTransferCost[pe];
+                if ((totalCost < leastCost) || (totalCost == leastCost && pes.transferCount[pe] < pes.transferCount[leastCostPE])) {
+                    leastCost = totalCost;
+                    leastCostPE = pe;
+                    leastCostEgressStop = egressStop;
+                }
+            }
+        }
+        if (leastCostPE == NO_PATH) {
+            return NO_PATH;
+        }
+        // only create the egress leg for the best arrival
+        double arrivalTime = pes.arrivalTime[leastCostPE] + leastCostEgressStop.accessTime;
+        double arrivalTravelCost = pes.arrivalTravelCost[leastCostPE] + leastCostEgressStop.accessCost;
+        return pes.add(leastCostPE, -1, pes.firstDepartureTime[leastCostPE], arrivalTime, arrivalTravelCost, pes.arrivalTransferCost[leastCostPE], leastCostEgressStop.distance, pes.transferCount[leastCostPE], true, leastCostEgressStop);
+    }
+
+    private RaptorRoute createRaptorRoute(Facility<?> fromFacility, Facility<?> toFacility, int destinationPathElement, double departureTime) {
+        return createRaptorRoute(fromFacility, toFacility, destinationPathElement, departureTime, 0);
+    }
+
+    /**
+     * @param costOffset the cost offset of the range query included in the cost of the destination path element,
+     *                   it is subtracted from the costs of the route.
+     */
+    private RaptorRoute createRaptorRoute(Facility<?> fromFacility, Facility<?> toFacility, int destinationPathElement, double departureTime, double costOffset) {
+        PathElements pes = this.pathElements;
+        int peCount = fillPathBuffer(destinationPathElement);
+        double arrivalCost = Double.POSITIVE_INFINITY;
+        if (peCount > 0) {
+            arrivalCost = (pes.arrivalTravelCost[destinationPathElement] - costOffset) + pes.arrivalTransferCost[destinationPathElement];
+        }
+
+        RaptorRoute raptorRoute = new RaptorRoute(fromFacility, toFacility, arrivalCost);
+        double time = departureTime;
+        TransitStopFacility fromStop = null;
+        for (int i = 0; i < peCount; i++) {
+            int pe = this.pathBuffer[i];
+            int toRouteStopIndex = pes.toRouteStopIndex[pe];
+            RRouteStop toRouteStop = toRouteStopIndex < 0 ? null : this.data.routeStops[toRouteStopIndex];
+            TransitStopFacility toStop = toRouteStop == null ? null : toRouteStop.routeStop.getStopFacility();
+            double travelTime = pes.arrivalTime[pe] - time;
+            int partType = getRoutePartType(pe, i, peCount, fromStop, toStop);
+            if (partType == PART_MERGED) {
+                continue;
+            }
+            if (partType == PART_PLAN_ELEMENTS) {
+                raptorRoute.addPlanElements(time, travelTime, pes.initialStop[pe].planElements);
+            } else if (partType == PART_WALK) {
+                String mode = TransportMode.transit_walk;
+                if (fromStop == null && toStop != null) {
+                    mode = TransportMode.access_walk;
+                }
+                if (fromStop != null && toStop == null) {
+                    mode = TransportMode.egress_walk;
+                }
+                raptorRoute.addNonPt(fromStop, toStop, time, travelTime, pes.distance[pe], mode);
+            } else if (partType == PART_PT) {
+                TransitLine line = toRouteStop.line;
+                TransitRoute route = toRouteStop.route;
+                raptorRoute.addPt(fromStop, toStop, line, route, toRouteStop.mode, time, travelTime, pes.distance[pe]);
+            }
+            time = pes.arrivalTime[pe];
+            fromStop = toStop;
+        }
+        return raptorRoute;
+    }
+
+    /**
+     * Adds the summary of the route to the destination path element to the candidates, with exactly the
+     * departure time, travel time, costs and number of transfers the {@link RaptorRoute} created by
+     * {@link #createRaptorRoute(Facility, Facility, int, double, double)} would have, but without creating it.
+     */
+    private void addRouteCandidate(RouteCandidates candidates, int destinationPathElement, double departureTime, double costOffset) {
+        PathElements pes = this.pathElements;
+        int peCount = fillPathBuffer(destinationPathElement);
+        double arrivalCost = Double.POSITIVE_INFINITY;
+        if (peCount > 0) {
+            arrivalCost = (pes.arrivalTravelCost[destinationPathElement] - costOffset) + pes.arrivalTransferCost[destinationPathElement];
+        }
+
+        double routeDepTime = Double.NaN;
+        double routeTravelTime = 0;
+        int ptLegCount = 0;
+        double time = departureTime;
+        TransitStopFacility fromStop = null;
+        for (int i = 0; i < peCount; i++) {
+            int pe = this.pathBuffer[i];
+            int toRouteStopIndex = pes.toRouteStopIndex[pe];
+            TransitStopFacility toStop = toRouteStopIndex < 0 ? null : this.data.routeStops[toRouteStopIndex].routeStop.getStopFacility();
+            int partType = getRoutePartType(pe, i, peCount, fromStop, toStop);
+            if (partType == PART_MERGED) {
+                continue;
+            }
+            if (partType != PART_NONE) {
+                if (Double.isNaN(routeDepTime)) {
+                    routeDepTime = time;
+                }
+                routeTravelTime += pes.arrivalTime[pe] - time;
+                if (partType == PART_PT) {
+                    ptLegCount++;
+                }
+            }
+            time = pes.arrivalTime[pe];
+            fromStop = toStop;
+        }
+        int transferCount = ptLegCount > 0 ? ptLegCount - 1 : 0;
+        candidates.add(routeDepTime, routeTravelTime, arrivalCost, transferCount, destinationPathElement, departureTime, costOffset);
+    }
+
+    /**
+     * Stores the path elements of the route to the destination path element in travel order in the path buffer.
+     *
+     * @return the number of path elements of the route, 0 if there is no route or it only consists of access and egress.
+     */
+    private int fillPathBuffer(int destinationPathElement) {
+        PathElements pes = this.pathElements;
+        int peCount = 0;
+        if (destinationPathElement != NO_PATH) {
+            for (int pe = destinationPathElement; pe != NO_PATH; pe = pes.comingFrom[pe]) {
+                peCount++;
+            }
+            if (peCount > this.pathBuffer.length) {
+                this.pathBuffer = new int[Math.max(peCount, 2 * this.pathBuffer.length)];
+            }
+            int pos = peCount;
+            for (int pe = destinationPathElement; pe != NO_PATH; pe = pes.comingFrom[pe]) {
+                this.pathBuffer[--pos] = pe;
+            }
+        }
+        if (peCount == 2 && pes.isTransfer[this.pathBuffer[0]] && pes.isTransfer[this.pathBuffer[1]]) {
+            // it's only access and egress, no real pt trip
+            peCount = 0;
+        }
+        return peCount;
+    }
+
+    /**
+     * @return the type of the route part created for the i-th of the peCount path elements of a route.
+     */
+    private int getRoutePartType(int pe, int i, int peCount, TransitStopFacility fromStop, TransitStopFacility toStop) {
+        InitialStop initialStop = this.pathElements.initialStop[pe];
+        if (initialStop != null && initialStop.planElements != null) {
+            return PART_PLAN_ELEMENTS;
+        }
+        if (this.pathElements.isTransfer[pe]) {
+            boolean differentFromTo = (fromStop == null || toStop == null) || (fromStop != toStop);
+            // do not create a transfer-leg if we stay at the same stop facility
+            if (!differentFromTo) {
+                return PART_NONE;
+            }
+            if (i == peCount - 2) {
+                // the second last element is a transfer, skip it so it gets merged into the egress_walk
+                return PART_MERGED;
+            }
+            return PART_WALK;
+        }
+        return PART_PT;
+    }
+
+    private void exploreRoutesBackwards(double bestDepartureTime, RaptorParameters parameters) {
+        BackwardSearchState bs = this.backwardSearch;
+        bs.improvedDepartures.clear();
+        BitSet improvedArrivals = bs.improvedArrivals;
+        int routeStopIndex = improvedArrivals.previousSetBit(this.data.countRouteStops - 1);
+        while (routeStopIndex >= 0) {
+            RRoute route = this.data.routes[this.data.routeStopRouteIndices[routeStopIndex]];
+            exploreRouteBackwards(route, routeStopIndex, bestDepartureTime, parameters);
+            // continue with the last improved route stop of the previous route
+            routeStopIndex = route.indexFirstRouteStop > 0 ? improvedArrivals.previousSetBit(route.indexFirstRouteStop - 1) : -1;
+        }
+        improvedArrivals.clear();
+    }
+
+    /**
+     * Steps along the route from the given route stop towards its first route stop. At every route stop
+     * that can be reached, the latest departure that arrives there in time is alighted, if it is later than
+     * the departure currently used. Every route stop before the alighting route stop can then be left
+     * with this departure.
+     */
+    private void exploreRouteBackwards(RRoute route, int lastRouteStopIndex, double bestDepartureTime, RaptorParameters parameters) {
+        BackwardSearchState bs = this.backwardSearch;
+        PathElements pes = this.pathElements;
+        double marginalUtilityOfWaitingPt_utl_s = parameters.getMarginalUtilityOfWaitingPt_utl_s();
+        double marginalUtilityOfTravelTime_utl_s = parameters.getMarginalUtilityOfTravelTime_utl_s(this.data, this.data.routeStopModeIndices[lastRouteStopIndex]);
+
+        int departureIndex = -1;
+        int alightingPE = NO_PATH;
+        int alightingRouteStopIndex = -1;
+        double alightingCost = 0; // the costs from the alighting route stop to the destination, when arriving there with the current departure
+        for (int routeStopIndex = lastRouteStopIndex; routeStopIndex >= route.indexFirstRouteStop; routeStopIndex--) {
+            if (departureIndex >= 0) {
+                double departureTime = this.data.departures[departureIndex] + this.data.routeStopDepartureOffsets[routeStopIndex];
+                if (departureTime > bestDepartureTime) {
+                    double vehicleArrivalTime = this.data.departures[departureIndex] + this.data.routeStopArrivalOffsets[alightingRouteStopIndex];
+                    double cost = alightingCost + (vehicleArrivalTime - departureTime) * -marginalUtilityOfTravelTime_utl_s;
+                    double distance = this.data.routeStopDistances[alightingRouteStopIndex] - this.data.routeStopDistances[routeStopIndex];
+                    improveLatestDeparture(routeStopIndex, alightingPE, departureTime, cost, distance);
+                }
+            }
+            int arrivalPE = bs.arrivalPath[routeStopIndex];
+            if (arrivalPE != NO_PATH) {
+                int candidateIndex = findPreviousArrivalIndex(route, routeStopIndex, bs.latestArrival[routeStopIndex]);
+                if (candidateIndex >= 0 && candidateIndex >= departureIndex) {
+                    double vehicleArrivalTime = this.data.departures[candidateIndex] + this.data.routeStopArrivalOffsets[routeStopIndex];
+                    double candidateCost = pes.arrivalTravelCost[arrivalPE];
+                    if (pes.comingFrom[arrivalPE] != NO_PATH) {
+                        // wait for the next departure after the transfer. Arriving early at the destination is not considered as waiting.
+                        candidateCost += (bs.latestArrival[routeStopIndex] - vehicleArrivalTime) * -marginalUtilityOfWaitingPt_utl_s;
                     }
-                    String mode = TransportMode.transit_walk;
-                    if (fromStop == null && toStop != null) {
-                        mode = TransportMode.access_walk;
+                    boolean isBetter = candidateIndex > departureIndex;
+                    if (!isBetter) {
+                        // same departure: only alight here if it is cheaper than staying in the vehicle
+                        double currentVehicleArrivalTime = this.data.departures[departureIndex] + this.data.routeStopArrivalOffsets[alightingRouteStopIndex];
+                        double currentCost = alightingCost + (currentVehicleArrivalTime - vehicleArrivalTime) * -marginalUtilityOfTravelTime_utl_s;
+                        isBetter = candidateCost < currentCost;
                     }
-                    if (fromStop != null && toStop == null) {
-                        mode = TransportMode.egress_walk;
+                    if (isBetter) {
+                        departureIndex = candidateIndex;
+                        alightingPE = arrivalPE;
+                        alightingRouteStopIndex = routeStopIndex;
+                        alightingCost = candidateCost;
                     }
-                    raptorRoute.addNonPt(fromStop, toStop, time, travelTime, pe.distance, mode);
                 }
-            } else {
-                TransitLine line = pe.toRouteStop.line;
-                TransitRoute route = pe.toRouteStop.route;
-                raptorRoute.addPt(fromStop, toStop, line, route, pe.toRouteStop.mode, time, travelTime, pe.distance);
             }
-            time = pe.arrivalTime;
+        }
+    }
+
+    /**
+     * @return the index of the latest departure of the route arriving at the route stop not later than <code>time</code>, or -1 if there is none.
+     */
+    private int findPreviousArrivalIndex(RRoute route, int routeStopIndex, double time) {
+        double depTimeAtRouteStart = time - this.data.routeStopArrivalOffsets[routeStopIndex];
+        int fromIndex = route.indexFirstDeparture;
+        int toIndex = fromIndex + route.countDepartures;
+        int pos = Arrays.binarySearch(this.data.departures, fromIndex, toIndex, depTimeAtRouteStart);
+        if (pos < 0) {
+            // the insertion point is the next later departure, so the one before is the departure we're looking for
+            pos = -(pos + 1) - 1;
+        }
+        if (pos < fromIndex) {
+            return -1;
+        }
+        return pos;
+    }
+
+    private void handleTransfersBackwards(double bestDepartureTime, SwissRailRaptorData.ReverseTransfers reverseTransfers, RaptorParameters parameters) {
+        BackwardSearchState bs = this.backwardSearch;
+        PathElements pes = this.pathElements;
+        double transferPenaltyFixed = parameters.getTransferPenaltyFixCostPerTransfer();
+        for (int toRouteStopIndex = bs.improvedDepartures.nextSetBit(0); toRouteStopIndex >= 0; toRouteStopIndex = bs.improvedDepartures.nextSetBit(toRouteStopIndex + 1)) {
+            int fromPE = bs.departurePath[toRouteStopIndex];
+            double departureTime = pes.arrivalTime[fromPE];
+            double cost = pes.arrivalTravelCost[fromPE];
+            int transferCount = pes.transferCount[fromPE];
+            for (int pos = reverseTransfers.routeStopTransferOffsets[toRouteStopIndex]; pos < reverseTransfers.routeStopTransferOffsets[toRouteStopIndex + 1]; pos++) {
+                int transferIndex = reverseTransfers.transferIndices[pos];
+                double latestArrivalTime = departureTime - this.data.transferTimes[transferIndex];
+                if (latestArrivalTime <= bestDepartureTime) {
+                    continue;
+                }
+                double newCost = cost + this.data.transferCosts[transferIndex] + transferPenaltyFixed;
+                improveLatestArrival(reverseTransfers.fromRouteStops[pos], fromPE, latestArrivalTime, newCost, transferCount + 1, this.data.transferDistances[transferIndex], null);
+            }
+        }
+    }
+
+    private void improveLatestArrival(int routeStopIndex, int comingFrom, double latestArrivalTime, double cost, int transferCount, double distance, InitialStop egressStop) {
+        BackwardSearchState bs = this.backwardSearch;
+        int previousPE = bs.arrivalPath[routeStopIndex];
+        if (latestArrivalTime > bs.latestArrival[routeStopIndex] || (latestArrivalTime == bs.latestArrival[routeStopIndex] && cost < this.pathElements.arrivalTravelCost[previousPE])) {
+            int pe = this.pathElements.add(comingFrom, routeStopIndex, Double.NaN, latestArrivalTime, cost, 0, distance, transferCount, true, egressStop);
+            bs.arrivalPath[routeStopIndex] = pe;
+            bs.latestArrival[routeStopIndex] = latestArrivalTime;
+            bs.improvedArrivals.set(routeStopIndex);
+            this.touchedRouteStops.add(routeStopIndex);
+        }
+    }
+
+    private void improveLatestDeparture(int routeStopIndex, int alightingPE, double departureTime, double cost, double distance) {
+        BackwardSearchState bs = this.backwardSearch;
+        int previousPE = bs.departurePath[routeStopIndex];
+        if (departureTime > bs.latestDeparture[routeStopIndex] || (departureTime == bs.latestDeparture[routeStopIndex] && cost < this.pathElements.arrivalTravelCost[previousPE])) {
+            int pe = this.pathElements.add(alightingPE, routeStopIndex, Double.NaN, departureTime, cost, 0, distance, this.pathElements.transferCount[alightingPE], false, null);
+            bs.departurePath[routeStopIndex] = pe;
+            bs.latestDeparture[routeStopIndex] = departureTime;
+            bs.improvedDepartures.set(routeStopIndex);
+            this.touchedRouteStops.add(routeStopIndex);
+        }
+    }
+
+    /**
+     * Creates the route of a backward search. The path elements are already in travel order,
+     * they alternate between boarding a departure and alighting from it (followed by a transfer or the egress).
+     */
+    private RaptorRoute createLatestDepartureRaptorRoute(Facility<?> fromFacility, Facility<?> toFacility, InitialStop accessStop, int firstBoardingPE, double departureTime, double totalCost) {
+        PathElements pes = this.pathElements;
+        RaptorRoute raptorRoute = new RaptorRoute(fromFacility, toFacility, totalCost);
+        TransitStopFacility fromStop = this.data.routeStops[pes.toRouteStopIndex[firstBoardingPE]].routeStop.getStopFacility();
+        if (accessStop.planElements != null) {
+            raptorRoute.addPlanElements(departureTime, accessStop.accessTime, accessStop.planElements);
+        } else {
+            raptorRoute.addNonPt(null, fromStop, departureTime, accessStop.accessTime, accessStop.distance, TransportMode.access_walk);
+        }
+        double time = departureTime + accessStop.accessTime;
+
+        for (int boardingPE = firstBoardingPE; boardingPE != NO_PATH; ) {
+            int boardingRouteStopIndex = pes.toRouteStopIndex[boardingPE];
+            int alightingPE = pes.comingFrom[boardingPE];
+            int alightingRouteStopIndex = pes.toRouteStopIndex[alightingPE];
+            double departureAtRouteStart = pes.arrivalTime[boardingPE] - this.data.routeStopDepartureOffsets[boardingRouteStopIndex];
+            double vehicleArrivalTime = departureAtRouteStart + this.data.routeStopArrivalOffsets[alightingRouteStopIndex];
+            RRouteStop alightingRouteStop = this.data.routeStops[alightingRouteStopIndex];
+            TransitStopFacility toStop = alightingRouteStop.routeStop.getStopFacility();
+            raptorRoute.addPt(fromStop, toStop, alightingRouteStop.line, alightingRouteStop.route, alightingRouteStop.mode, time, vehicleArrivalTime - time, pes.distance[boardingPE]);
+            time = vehicleArrivalTime;
             fromStop = toStop;
+
+            int nextBoardingPE = pes.comingFrom[alightingPE];
+            if (nextBoardingPE == NO_PATH) {
+                InitialStop egressStop = pes.initialStop[alightingPE];
+                if (egressStop.planElements != null) {
+                    raptorRoute.addPlanElements(time, egressStop.accessTime, egressStop.planElements);
+                } else {
+                    raptorRoute.addNonPt(fromStop, null, time, egressStop.accessTime, egressStop.distance, TransportMode.egress_walk);
+                }
+            } else {
+                TransitStopFacility transferStop = this.data.routeStops[pes.toRouteStopIndex[nextBoardingPE]].routeStop.getStopFacility();
+                double transferTime = pes.arrivalTime[nextBoardingPE] - pes.arrivalTime[alightingPE];
+                // do not create a transfer-leg if we stay at the same stop facility
+                if (transferStop != fromStop) {
+                    raptorRoute.addNonPt(fromStop, transferStop, time, transferTime, pes.distance[alightingPE], TransportMode.transit_walk);
+                }
+                time += transferTime;
+                fromStop = transferStop;
+            }
+            boardingPE = nextBoardingPE;
         }
         return raptorRoute;
     }
 
-    private static class PathElement {
-        final PathElement comingFrom;
-        final RRouteStop toRouteStop;
-        final double firstDepartureTime; // the departure time at the start stop
-        final double arrivalTime;
-        double arrivalTravelCost;
-        double arrivalTransferCost;
-        final double distance;
-        final int transferCount;
-        final boolean isTransfer;
-        final InitialStop initialStop;
-
-        PathElement(PathElement comingFrom, RRouteStop toRouteStop, double firstDepartureTime, double arrivalTime, double arrivalTravelCost, double arrivalTransferCost, double distance, int transferCount, boolean isTransfer, InitialStop initialStop) {
-            this.comingFrom = comingFrom;
-            this.toRouteStop = toRouteStop;
-            this.firstDepartureTime = firstDepartureTime;
-            this.arrivalTime = arrivalTime;
-            this.arrivalTravelCost = arrivalTravelCost;
-            this.arrivalTransferCost = arrivalTransferCost;
-            this.distance = distance;
-            this.transferCount = transferCount;
-            this.isTransfer = isTransfer;
-            this.initialStop = initialStop;
+    /**
+     * Scans all routes with a route stop where a label of the previous round was added. Along each route,
+     * the trips boarded so far are kept in a bag as well, a trip is only dropped if an earlier trip with
+     * less or equal costs and transfers was boarded, as such a trip arrives earlier and cheaper at every later stop.
+     */
+    private void exploreRoutesPareto(int round, RaptorParameters parameters) {
+        ParetoSearchState mc = this.paretoSearch;
+        mc.vehicleLabelCount = 0;
+        for (int firstRouteStopIndex = mc.markedRouteStops.nextSetBit(0); firstRouteStopIndex >= 0; ) {
+            RRoute route = this.data.routes[this.data.routeStopRouteIndices[firstRouteStopIndex]];
+            int lastRouteStopIndex = route.indexFirstRouteStop + route.countRouteStops - 1;
+            exploreRoutePareto(route, firstRouteStopIndex, lastRouteStopIndex, round, parameters);
+            firstRouteStopIndex = mc.markedRouteStops.nextSetBit(lastRouteStopIndex + 1);
+        }
+        mc.markedRouteStops.clear();
+    }
+
+    private void exploreRoutePareto(RRoute route, int firstRouteStopIndex, int lastRouteStopIndex, int round, RaptorParameters parameters) {
+        double marginalUtilityOfWaitingPt_utl_s = parameters.getMarginalUtilityOfWaitingPt_utl_s();
+        double marginalUtilityOfTravelTime_utl_s = parameters.getMarginalUtilityOfTravelTime_utl_s(this.data, this.data.routeStopModeIndices[firstRouteStopIndex]);
+        double transferPenaltyTravelTimeToCostFactor = parameters.getTransferPenaltyTravelTimeToCostFactor();
+        ParetoSearchState mc = this.paretoSearch;
+        PathElements pes = this.pathElements;
+
+        mc.tripCount = 0;
+        for (int routeStopIndex = firstRouteStopIndex; routeStopIndex <= lastRouteStopIndex; routeStopIndex++) {
+            // first, arrive at this route stop with every trip boarded so far
+            for (int t = 0; t < mc.tripCount; t++) {
+                int boardingPE = mc.tripBoardingPath[t];
+                double arrivalTime = this.data.departures[mc.tripDepartureIndex[t]] + this.data.routeStopArrivalOffsets[routeStopIndex];
+                double arrivalTravelCost = mc.tripTravelCost[t] + (arrivalTime - mc.tripBoardingTime[t]) * -marginalUtilityOfTravelTime_utl_s;
+                double arrivalTransferCost = ((arrivalTime - mc.tripFirstDepartureTime[t]) * transferPenaltyTravelTimeToCostFactor) * pes.transferCount[boardingPE];
+                double distance = this.data.routeStopDistances[routeStopIndex] - this.data.routeStopDistances[pes.toRouteStopIndex[boardingPE]];
+                addParetoLabel(boardingPE, routeStopIndex, mc.tripFirstDepartureTime[t], arrivalTime, arrivalTravelCost, arrivalTransferCost, distance, pes.transferCount[boardingPE], false, null, round);
+            }
+            // then, board the trips that can be reached with the labels of the previous round
+            if (routeStopIndex == lastRouteStopIndex || !mc.markedRouteStops.get(routeStopIndex)) {
+                continue;
+            }
+            for (int pe = mc.bagHead[routeStopIndex]; pe != NO_PATH; pe = mc.nextInBag[pe]) {
+                if (mc.labelRound[pe] != round - 1 || !pes.isTransfer[pe]) {
+                    continue;
+                }
+                double agentArrivalTime = pes.arrivalTime[pe];
+                int departureIndex = findNextDepartureIndex(route, routeStopIndex, agentArrivalTime);
+                if (departureIndex < 0) {
+                    continue;
+                }
+                double vehicleArrivalTime = this.data.departures[departureIndex] + this.data.routeStopArrivalOffsets[routeStopIndex];
+                double boardingTime = (agentArrivalTime < vehicleArrivalTime) ? vehicleArrivalTime : agentArrivalTime;
+                double travelCost = pes.arrivalTravelCost[pe] + (boardingTime - agentArrivalTime) * -marginalUtilityOfWaitingPt_utl_s;
+                double firstDepartureTime = Double.isNaN(pes.firstDepartureTime[pe]) ? boardingTime : pes.firstDepartureTime[pe];
+                double transferCost = ((boardingTime - firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * pes.transferCount[pe];
+                addParetoTrip(pe, departureIndex, boardingTime, travelCost, transferCost, firstDepartureTime, routeStopIndex, marginalUtilityOfTravelTime_utl_s, transferPenaltyTravelTimeToCostFactor);
+            }
+        }
+    }
+
+    private void addParetoTrip(int boardingPE, int departureIndex, double boardingTime, double travelCost, double transferCost, double firstDepartureTime,
+                               int routeStopIndex, double marginalUtilityOfTravelTime_utl_s, double transferPenaltyTravelTimeToCostFactor) {
+        ParetoSearchState mc = this.paretoSearch;
+        PathElements pes = this.pathElements;
+        int transferCount = pes.transferCount[boardingPE];
+        double totalCost = travelCost + transferCost;
+        int worstTrip = -1;
+        double worstCost = Double.NEGATIVE_INFINITY;
+        int t = 0;
+        while (t < mc.tripCount) {
+            // compare the trips by their costs if they were at this route stop
+            int otherBoardingPE = mc.tripBoardingPath[t];
+            int otherTransferCount = pes.transferCount[otherBoardingPE];
+            double otherArrivalTime = this.data.departures[mc.tripDepartureIndex[t]] + this.data.routeStopArrivalOffsets[routeStopIndex];
+            double otherTotalCost = mc.tripTravelCost[t] + (otherArrivalTime - mc.tripBoardingTime[t]) * -marginalUtilityOfTravelTime_utl_s
+                    + ((otherArrivalTime - mc.tripFirstDepartureTime[t]) * transferPenaltyTravelTimeToCostFactor) * otherTransferCount;
+            if (mc.tripDepartureIndex[t] <= departureIndex && otherTotalCost <= totalCost && otherTransferCount <= transferCount) {
+                return;
+            }
+            if (departureIndex <= mc.tripDepartureIndex[t] && totalCost <= otherTotalCost && transferCount <= otherTransferCount) {
+                mc.removeTrip(t);
+                continue;
+            }
+            if (otherTotalCost > worstCost) {
+                worstCost = otherTotalCost;
+                worstTrip = t;
+            }
+            t++;
+        }
+        if (mc.tripCount >= mc.maxBagSize) {
+            if (totalCost >= worstCost) {
+                return;
+            }
+            mc.removeTrip(worstTrip);
+        }
+        mc.addTrip(boardingPE, departureIndex, boardingTime, travelCost, firstDepartureTime);
+    }
+
+    private void handleTransfersPareto(int round, RaptorParameters parameters) {
+        double transferPenaltyFixed = parameters.getTransferPenaltyFixCostPerTransfer();
+        double transferPenaltyTravelTimeToCostFactor = parameters.getTransferPenaltyTravelTimeToCostFactor();
+        ParetoSearchState mc = this.paretoSearch;
+        PathElements pes = this.pathElements;
+        for (int i = 0; i < mc.vehicleLabelCount; i++) {
+            int fromPE = mc.vehicleLabels[i];
+            if (mc.labelRound[fromPE] < 0) {
+                continue; // the label was dominated by a later label in the same round
+            }
+            double arrivalTime = pes.arrivalTime[fromPE];
+            double firstDepartureTime = pes.firstDepartureTime[fromPE];
+            int transferCount = pes.transferCount[fromPE] + 1;
+            int fromRouteStopIndex = pes.toRouteStopIndex[fromPE];
+            for (int transferIndex = this.data.routeStopTransferOffsets[fromRouteStopIndex]; transferIndex < this.data.routeStopTransferOffsets[fromRouteStopIndex + 1]; transferIndex++) {
+                double newArrivalTime = arrivalTime + this.data.transferTimes[transferIndex];
+                double newArrivalTravelCost = pes.arrivalTravelCost[fromPE] + this.data.transferCosts[transferIndex] + transferPenaltyFixed;
+                double newArrivalTransferCost = ((newArrivalTime - firstDepartureTime) * transferPenaltyTravelTimeToCostFactor) * transferCount;
+                addParetoLabel(fromPE, this.data.transferToRouteStops[transferIndex], firstDepartureTime, newArrivalTime, newArrivalTravelCost, newArrivalTransferCost,
+                        this.data.transferDistances[transferIndex], transferCount, true, null, round);
+            }
+        }
+    }
+
+    /**
+     * Adds a label to the bag of the route stop, unless it is dominated by a label in the bag or by a route
+     * already found to the destination. Labels in the bag dominated by the new label are removed. Labels arriving
+     * by transfer or access are marked to be boarded in the next round, labels arriving by vehicle to transfer from.
+     *
+     * @return the new label, or {@link #NO_PATH} if it was not added.
+     */
+    private int addParetoLabel(int comingFrom, int routeStopIndex, double firstDepartureTime, double arrivalTime, double arrivalTravelCost, double arrivalTransferCost,
+                               double distance, int transferCount, boolean isTransfer, InitialStop initialStop, int round) {
+        ParetoSearchState mc = this.paretoSearch;
+        PathElements pes = this.pathElements;
+        double totalCost = arrivalTravelCost + arrivalTransferCost;
+        int minJourneyTransferCount = isTransfer ? transferCount - 1 : transferCount;
+        for (int j = 0; j < mc.journeyCount; j++) {
+            // the egress costs and time can only increase the values, so such a label cannot lead to a better route
+            if (mc.journeyArrivalTime[j] <= arrivalTime && mc.journeyTotalCost[j] <= totalCost && mc.journeyTransferCount[j] <= minJourneyTransferCount) {
+                return NO_PATH;
+            }
+        }
+        int worstPE = NO_PATH;
+        int beforeWorstPE = NO_PATH;
+        double worstCost = Double.NEGATIVE_INFINITY;
+        int previousPE = NO_PATH;
+        int pe = mc.bagHead[routeStopIndex];
+        while (pe != NO_PATH) {
+            int nextPE = mc.nextInBag[pe];
+            double cost = pes.arrivalTravelCost[pe] + pes.arrivalTransferCost[pe];
+            // labels arriving by vehicle and by transfer are used differently, so they do not dominate each other
+            boolean comparable = pes.isTransfer[pe] == isTransfer;
+            if (comparable && pes.arrivalTime[pe] <= arrivalTime && cost <= totalCost && pes.transferCount[pe] <= transferCount) {
+                return NO_PATH;
+            }
+            if (comparable && arrivalTime <= pes.arrivalTime[pe] && totalCost <= cost && transferCount <= pes.transferCount[pe]) {
+                mc.removeLabel(routeStopIndex, pe, previousPE);
+            } else {
+                if (cost > worstCost) {
+                    worstCost = cost;
+                    worstPE = pe;
+                    beforeWorstPE = previousPE;
+                }
+                previousPE = pe;
+            }
+            pe = nextPE;
+        }
+        if (mc.bagSize[routeStopIndex] >= mc.maxBagSize) {
+            if (totalCost >= worstCost) {
+                return NO_PATH;
+            }
+            mc.removeLabel(routeStopIndex, worstPE, beforeWorstPE);
+        }
+
+        pe = pes.add(comingFrom, routeStopIndex, firstDepartureTime, arrivalTime, arrivalTravelCost, arrivalTransferCost, distance, transferCount, isTransfer, initialStop);
+        mc.addLabel(routeStopIndex, pe, round);
+        this.touchedRouteStops.add(routeStopIndex);
+        if (isTransfer) {
+            mc.markedRouteStops.set(routeStopIndex);
+        } else {
+            mc.addVehicleLabel(pe);
+        }
+        if (initialStop == null && this.destinationRouteStopIndices.get(routeStopIndex)) {
+            addParetoJourney(pe, mc.egressStopPerRouteStop[routeStopIndex]);
+        }
+        return pe;
+    }
+
+    private void addParetoJourney(int pe, InitialStop egressStop) {
+        ParetoSearchState mc = this.paretoSearch;
+        PathElements pes = this.pathElements;
+        double arrivalTime = pes.arrivalTime[pe] + egressStop.accessTime;
+        double totalCost = pes.arrivalTravelCost[pe] + pes.arrivalTransferCost[pe] + egressStop.accessCost;
+        // a transfer at the end of the route is merged into the egress leg, it does not count as transfer
+        int transferCount = pes.isTransfer[pe] ? pes.transferCount[pe] - 1 : pes.transferCount[pe];
+        int j = 0;
+        while (j < mc.journeyCount) {
+            if (mc.journeyArrivalTime[j] <= arrivalTime && mc.journeyTotalCost[j] <= totalCost && mc.journeyTransferCount[j] <= transferCount) {
+                return;
+            }
+            if (arrivalTime <= mc.journeyArrivalTime[j] && totalCost <= mc.journeyTotalCost[j] && transferCount <= mc.journeyTransferCount[j]) {
+                mc.removeJourney(j);
+            } else {
+                j++;
+            }
+        }
+        mc.addJourney(pe, egressStop, arrivalTime, totalCost, transferCount);
+    }
+
+    /**
+     * Stores the path elements (labels) of a query in parallel arrays, a path element is identified by its index.
+     * The arrays are re-used for all queries handled by this core and only grow if a query
+     * creates more path elements than any query before, so no objects are allocated per label.
+     * Path elements cannot be stored per route stop, as a path element must stay valid as long as
+     * later path elements are coming from it, even if the route stop was reached with better cost in the meantime.
+     */
+    private static final class PathElements {
+        int[] comingFrom;
+        int[] toRouteStopIndex; // -1 for the egress leg
+        double[] firstDepartureTime; // the departure time at the start stop
+        double[] arrivalTime;
+        double[] arrivalTravelCost;
+        double[] arrivalTransferCost;
+        double[] distance;
+        int[] transferCount;
+        boolean[] isTransfer;
+        InitialStop[] initialStop;
+        int size = 0;
+
+        PathElements(int capacity) {
+            this.comingFrom = new int[capacity];
+            this.toRouteStopIndex = new int[capacity];
+            this.firstDepartureTime = new double[capacity];
+            this.arrivalTime = new double[capacity];
+            this.arrivalTravelCost = new double[capacity];
+            this.arrivalTransferCost = new double[capacity];
+            this.distance = new double[capacity];
+            this.transferCount = new int[capacity];
+            this.isTransfer = new boolean[capacity];
+            this.initialStop = new InitialStop[capacity];
+        }
+
+        int add(int comingFrom, int toRouteStopIndex, double firstDepartureTime, double arrivalTime, double arrivalTravelCost, double arrivalTransferCost, double distance, int transferCount, boolean isTransfer, InitialStop initialStop) {
+            if (this.size == this.comingFrom.length) {
+                grow();
+            }
+            int index = this.size;
+            this.comingFrom[index] = comingFrom;
+            this.toRouteStopIndex[index] = toRouteStopIndex;
+            this.firstDepartureTime[index] = firstDepartureTime;
+            this.arrivalTime[index] = arrivalTime;
+            this.arrivalTravelCost[index] = arrivalTravelCost;
+            this.arrivalTransferCost[index] = arrivalTransferCost;
+            this.distance[index] = distance;
+            this.transferCount[index] = transferCount;
+            this.isTransfer[index] = isTransfer;
+            this.initialStop[index] = initialStop;
+            this.size++;
+            return index;
+        }
+
+        private void grow() {
+            int capacity = 2 * this.comingFrom.length;
+            this.comingFrom = Arrays.copyOf(this.comingFrom, capacity);
+            this.toRouteStopIndex = Arrays.copyOf(this.toRouteStopIndex, capacity);
+            this.firstDepartureTime = Arrays.copyOf(this.firstDepartureTime, capacity);
+            this.arrivalTime = Arrays.copyOf(this.arrivalTime, capacity);
+            this.arrivalTravelCost = Arrays.copyOf(this.arrivalTravelCost, capacity);
+            this.arrivalTransferCost = Arrays.copyOf(this.arrivalTransferCost, capacity);
+            this.distance = Arrays.copyOf(this.distance, capacity);
+            this.transferCount = Arrays.copyOf(this.transferCount, capacity);
+            this.isTransfer = Arrays.copyOf(this.isTransfer, capacity);
+            this.initialStop = Arrays.copyOf(this.initialStop, capacity);
+        }
+
+        void clear() {
+            // release the references to the initial stops so they can be garbage collected
+            Arrays.fill(this.initialStop, 0, this.size, null);
+            this.size = 0;
         }
     }
 
-    private static class DepartureAtRouteStop {
-        final RRouteStop routeStop;
-        final InitialStop accessStop;
-        final int departureIndex;
-        final int routeStopIndex;
-        final double depTime;
-        final double costOffset;
+    private interface IndexComparator {
+        int compare(int index1, int index2);
+    }
 
-        DepartureAtRouteStop(RRouteStop routeStop, int routeStopIndex, int departureIndex, double depTime, double costOffset, InitialStop accessStop) {
-            this.routeStop = routeStop;
-            this.routeStopIndex = routeStopIndex;
-            this.departureIndex = departureIndex;
-            this.depTime = depTime;
-            this.costOffset = costOffset;
-            this.accessStop = accessStop;
+    /**
+     * Sorts the indices <code>0 &lt;= i &lt; size</code> with a stable bottom-up merge sort, using the second
+     * array as buffer. Depending on the number of merge passes, the sorted indices end up in either array.
+     *
+     * @return <code>true</code> if the sorted indices are in the buffer, <code>false</code> if in <code>order</code>.
+     */
+    private static boolean sortIndices(int[] order, int[] buffer, int size, IndexComparator comparator) {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] from = order;
+        int[] to = buffer;
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = middle;
+                for (int pos = start; pos < end; pos++) {
+                    if (left < middle && (right >= end || comparator.compare(from[left], from[right]) <= 0)) {
+                        to[pos] = from[left++];
+                    } else {
+                        to[pos] = from[right++];
+                    }
+                }
+            }
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        return from == buffer;
+    }
+
+    /**
+     * The departures of a range query, stored in parallel arrays that are re-used by all range queries of a core.
+     * The departures are not moved when sorting, only their order is stored.
+     */
+    private static final class RangeQueryDepartures {
+        int[] routeStopIndex = new int[64];
+        int[] departureIndex = new int[64];
+        double[] depTime = new double[64]; // at the route stop
+        double[] costOffset = new double[64];
+        double[] cost = new double[64]; // access cost plus cost offset
+        InitialStop[] accessStop = new InitialStop[64];
+        int[] order = new int[64];
+        private int[] tmpOrder = new int[64];
+        int size = 0;
+
+        void clear() {
+            // release the references to the access stops so they can be garbage collected
+            Arrays.fill(this.accessStop, 0, this.size, null);
+            this.size = 0;
+        }
+
+        void add(int routeStopIndex, int departureIndex, double depTime, double costOffset, InitialStop accessStop) {
+            if (this.size == this.routeStopIndex.length) {
+                int capacity = 2 * this.size;
+                this.routeStopIndex = Arrays.copyOf(this.routeStopIndex, capacity);
+                this.departureIndex = Arrays.copyOf(this.departureIndex, capacity);
+                this.depTime = Arrays.copyOf(this.depTime, capacity);
+                this.costOffset = Arrays.copyOf(this.costOffset, capacity);
+                this.cost = Arrays.copyOf(this.cost, capacity);
+                this.accessStop = Arrays.copyOf(this.accessStop, capacity);
+                this.order = new int[capacity];
+                this.tmpOrder = new int[capacity];
+            }
+            int d = this.size;
+            this.routeStopIndex[d] = routeStopIndex;
+            this.departureIndex[d] = departureIndex;
+            this.depTime[d] = depTime;
+            this.costOffset[d] = costOffset;
+            this.cost[d] = accessStop.accessCost + costOffset;
+            this.accessStop[d] = accessStop;
+            this.size++;
+        }
+
+        /**
+         * Orders the departures from the highest to the lowest cost, using a bottom-up merge sort
+         * on the indices of the departures.
+         */
+        void sort() {
+            if (sortIndices(this.order, this.tmpOrder, this.size, this::compare)) {
+                int[] tmp = this.order;
+                this.order = this.tmpOrder;
+                this.tmpOrder = tmp;
+            }
+        }
+
+        private int compare(int d1, int d2) {
+            int cmp = Double.compare(this.cost[d1], this.cost[d2]);
+            if (cmp == 0) {
+                cmp = Integer.compare(this.departureIndex[d1], this.departureIndex[d2]);
+            }
+            return -cmp; // negate, we want to order from biggest to smallest
+        }
+    }
+
+    /**
+     * Summaries of the routes found by a range query, addressed by their index. The routes are only filtered
+     * based on these summaries, so {@link RaptorRoute}s only need to be created for the remaining routes.
+     */
+    static final class RouteCandidates {
+        double[] depTime = new double[16]; // the departure time of the route, NaN if it has no parts
+        double[] travelTime = new double[16];
+        double[] cost = new double[16];
+        int[] transferCount = new int[16];
+        int[] handle = new int[16]; // the destination path element, or the index in the list of routes to filter
+        double[] searchDepTime = new double[16]; // the departure time to create the route with
+        double[] costOffset = new double[16];
+        int[] order = new int[16];
+        private int[] tmpOrder = new int[16];
+        private double[] stepDepTime = new double[16]; // the staircase of non-dominated routes used by filter()
+        private double[] stepArrTime = new double[16];
+        int size = 0;
+
+        void clear() {
+            this.size = 0;
+        }
+
+        void add(double depTime, double travelTime, double cost, int transferCount, int handle, double searchDepTime, double costOffset) {
+            if (this.size == this.depTime.length) {
+                int capacity = 2 * this.size;
+                this.depTime = Arrays.copyOf(this.depTime, capacity);
+                this.travelTime = Arrays.copyOf(this.travelTime, capacity);
+                this.cost = Arrays.copyOf(this.cost, capacity);
+                this.transferCount = Arrays.copyOf(this.transferCount, capacity);
+                this.handle = Arrays.copyOf(this.handle, capacity);
+                this.searchDepTime = Arrays.copyOf(this.searchDepTime, capacity);
+                this.costOffset = Arrays.copyOf(this.costOffset, capacity);
+                this.order = new int[capacity];
+                this.tmpOrder = new int[capacity];
+                this.stepDepTime = new double[capacity];
+                this.stepArrTime = new double[capacity];
+            }
+            int c = this.size;
+            this.depTime[c] = depTime;
+            this.travelTime[c] = travelTime;
+            this.cost[c] = cost;
+            this.transferCount[c] = transferCount;
+            this.handle[c] = handle;
+            this.searchDepTime[c] = searchDepTime;
+            this.costOffset[c] = costOffset;
+            this.size++;
+        }
+
+        /**
+         * Removes duplicates (routes with the same number of transfers, departure time and travel time, of which
+         * the first added is kept) and dominated routes. A route is dominated if another route has at most as many
+         * transfers, departs at the same time or later and arrives at the same time or earlier.
+         * The remaining routes are stored in {@link #order}, sorted by transfers, departure time and travel time.
+         *
+         * @return the number of remaining routes
+         */
+        int filter() {
+            if (sortIndices(this.order, this.tmpOrder, this.size, this::compare)) {
+                int[] tmp = this.order;
+                this.order = this.tmpOrder;
+                this.tmpOrder = tmp;
+            }
+            // first, eliminate duplicates
+            int uniqueCount = 0;
+            for (int i = 0; i < this.size; i++) {
+                int c = this.order[i];
+                if (uniqueCount == 0) {
+                    this.order[uniqueCount++] = c;
+                } else {
+                    int last = this.order[uniqueCount - 1];
+                    if (this.transferCount[c] != this.transferCount[last]
+                        || this.depTime[c] != this.depTime[last]
+                        || this.travelTime[c] != this.travelTime[last]) {
+                        this.order[uniqueCount++] = c;
+                    }
+                }
+            }
+
+            // now search for non-dominant routes.
+            // Visiting the routes by increasing number of transfers, decreasing departure time and increasing
+            // arrival time, every route that could dominate a route is visited before that route. The
+            // non-dominated departure and arrival times seen so far are kept as a staircase in which both times
+            // strictly increase, so a route is dominated exactly if the first step departing at the same time
+            // or later does not arrive later. Dominated routes are marked with -1 in the order.
+            int stepCount = 0;
+            int blockStart = 0;
+            while (blockStart < uniqueCount) {
+                int transfers = this.transferCount[this.order[blockStart]];
+                int blockEnd = blockStart + 1;
+                while (blockEnd < uniqueCount && this.transferCount[this.order[blockEnd]] == transfers) {
+                    blockEnd++;
+                }
+                // within a block, the routes are sorted by departure time and travel time. Visit the runs of
+                // equal departure time backwards, and the routes within a run forwards (by increasing arrival time)
+                int runEnd = blockEnd;
+                while (runEnd > blockStart) {
+                    double runDepTime = this.depTime[this.order[runEnd - 1]];
+                    int runStart = runEnd - 1;
+                    while (runStart > blockStart && this.depTime[this.order[runStart - 1]] == runDepTime) {
+                        runStart--;
+                    }
+                    for (int i = runStart; i < runEnd; i++) {
+                        int c = this.order[i];
+                        double arrTime = this.depTime[c] + this.travelTime[c];
+                        int step = findFirstStep(stepCount, runDepTime);
+                        if (step < stepCount && this.stepArrTime[step] <= arrTime) {
+                            this.order[i] = -1;
+                        } else {
+                            // replace the steps this route dominates, they cannot dominate any later route
+                            int removeEnd = step < stepCount && this.stepDepTime[step] == runDepTime ? step + 1 : step;
+                            int removeStart = step;
+                            while (removeStart > 0 && this.stepArrTime[removeStart - 1] >= arrTime) {
+                                removeStart--;
+                            }
+                            int moved = stepCount - removeEnd;
+                            System.arraycopy(this.stepDepTime, removeEnd, this.stepDepTime, removeStart + 1, moved);
+                            System.arraycopy(this.stepArrTime, removeEnd, this.stepArrTime, removeStart + 1, moved);
+                            this.stepDepTime[removeStart] = runDepTime;
+                            this.stepArrTime[removeStart] = arrTime;
+                            stepCount = removeStart + 1 + moved;
+                        }
+                    }
+                    runEnd = runStart;
+                }
+                blockStart = blockEnd;
+            }
+
+            int count = 0;
+            for (int i = 0; i < uniqueCount; i++) {
+                if (this.order[i] >= 0) {
+                    this.order[count++] = this.order[i];
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return the index of the first step of the staircase departing at <code>depTime</code> or later,
+         * <code>stepCount</code> if there is no such step.
+         */
+        private int findFirstStep(int stepCount, double depTime) {
+            int low = 0;
+            int high = stepCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.stepDepTime[middle] < depTime) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int compare(int c1, int c2) {
+            int cmp = Integer.compare(this.transferCount[c1], this.transferCount[c2]);
+            if (cmp == 0) {
+                cmp = Double.compare(this.depTime[c1], this.depTime[c2]);
+            }
+            if (cmp == 0) {
+                cmp = Double.compare(this.travelTime[c1], this.travelTime[c2]);
+            }
+            return cmp;
+        }
+    }
+
+    /**
+     * Improved route stops collected by a parallel task, stored in growable parallel arrays.
+     */
+    private static final class Improvements {
+        int size = 0;
+        int[] toRouteStopIndex = new int[64];
+        int[] comingFrom = new int[64];
+        double[] firstDepartureTime = new double[64];
+        double[] arrivalTime = new double[64];
+        double[] arrivalTravelCost = new double[64];
+        double[] arrivalTransferCost = new double[64];
+        double[] distance = new double[64];
+
+        void add(int toRouteStopIndex, int comingFrom, double firstDepartureTime, double arrivalTime, double arrivalTravelCost, double arrivalTransferCost, double distance) {
+            if (this.size == this.toRouteStopIndex.length) {
+                int newLength = this.size * 2;
+                this.toRouteStopIndex = Arrays.copyOf(this.toRouteStopIndex, newLength);
+                this.comingFrom = Arrays.copyOf(this.comingFrom, newLength);
+                this.firstDepartureTime = Arrays.copyOf(this.firstDepartureTime, newLength);
+                this.arrivalTime = Arrays.copyOf(this.arrivalTime, newLength);
+                this.arrivalTravelCost = Arrays.copyOf(this.arrivalTravelCost, newLength);
+                this.arrivalTransferCost = Arrays.copyOf(this.arrivalTransferCost, newLength);
+                this.distance = Arrays.copyOf(this.distance, newLength);
+            }
+            this.toRouteStopIndex[this.size] = toRouteStopIndex;
+            this.comingFrom[this.size] = comingFrom;
+            this.firstDepartureTime[this.size] = firstDepartureTime;
+            this.arrivalTime[this.size] = arrivalTime;
+            this.arrivalTravelCost[this.size] = arrivalTravelCost;
+            this.arrivalTransferCost[this.size] = arrivalTransferCost;
+            this.distance[this.size] = distance;
+            this.size++;
+        }
+    }
+
+    @FunctionalInterface
+    private interface WorkRange {
+        void run(Improvements improvements, int fromIndex, int toIndex);
+    }
+
+    private static final class ParallelTask extends RecursiveAction {
+        final Improvements improvements;
+        private final int fromIndex;
+        private final int toIndex;
+        private final WorkRange work;
+
+        ParallelTask(Improvements improvements, int fromIndex, int toIndex, WorkRange work) {
+            this.improvements = improvements;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            this.work.run(this.improvements, this.fromIndex, this.toIndex);
+        }
+    }
+
+    /**
+     * The search state per route stop of a backward search. Like the state of the forward search,
+     * it is only reset for the route stops touched by the previous query.
+     */
+    private static final class BackwardSearchState {
+        final int[] arrivalPath; // the alight label per route stop
+        final double[] latestArrival; // the latest time a route stop can be reached by a vehicle
+        final int[] departurePath; // the board label per route stop
+        final double[] latestDeparture; // the latest time a route stop can be left by a vehicle
+        final BitSet improvedArrivals;
+        final BitSet improvedDepartures;
+
+        BackwardSearchState(int countRouteStops) {
+            this.arrivalPath = new int[countRouteStops];
+            this.latestArrival = new double[countRouteStops];
+            this.departurePath = new int[countRouteStops];
+            this.latestDeparture = new double[countRouteStops];
+            this.improvedArrivals = new BitSet(countRouteStops);
+            this.improvedDepartures = new BitSet(countRouteStops);
+            Arrays.fill(this.arrivalPath, NO_PATH);
+            Arrays.fill(this.latestArrival, Double.NEGATIVE_INFINITY);
+            Arrays.fill(this.departurePath, NO_PATH);
+            Arrays.fill(this.latestDeparture, Double.NEGATIVE_INFINITY);
+        }
+
+        void reset(TouchedIndices touchedRouteStops) {
+            for (int i = 0; i < touchedRouteStops.size; i++) {
+                int routeStopIndex = touchedRouteStops.indices[i];
+                this.arrivalPath[routeStopIndex] = NO_PATH;
+                this.latestArrival[routeStopIndex] = Double.NEGATIVE_INFINITY;
+                this.departurePath[routeStopIndex] = NO_PATH;
+                this.latestDeparture[routeStopIndex] = Double.NEGATIVE_INFINITY;
+            }
+            this.improvedArrivals.clear();
+            this.improvedDepartures.clear();
+        }
+    }
+
+    /**
+     * The state of a McRAPTOR search. The bag of each route stop is a linked list of labels, using the
+     * index of the label in the {@link PathElements} to store the next label of the same bag.
+     */
+    private static final class ParetoSearchState {
+        final int[] bagHead; // the first label in the bag per route stop
+        final int[] bagSize;
+        final InitialStop[] egressStopPerRouteStop;
+        final BitSet markedRouteStops; // route stops with labels to board in the next round
+        int maxBagSize;
+        int[] nextInBag = new int[1024]; // per label
+        int[] labelRound = new int[1024]; // per label, the round it was created in, or -1 if it was removed from its bag
+
+        int[] vehicleLabels = new int[256]; // the labels reached by vehicle in the current round
+        int vehicleLabelCount = 0;
+
+        int[] tripBoardingPath = new int[16]; // the trips boarded while scanning the current route
+        int[] tripDepartureIndex = new int[16];
+        double[] tripBoardingTime = new double[16];
+        double[] tripTravelCost = new double[16];
+        double[] tripFirstDepartureTime = new double[16];
+        int tripCount = 0;
+
+        int[] journeyPath = new int[16]; // the non-dominated arrivals at the destination, without the egress leg
+        InitialStop[] journeyEgressStop = new InitialStop[16];
+        double[] journeyArrivalTime = new double[16];
+        double[] journeyTotalCost = new double[16];
+        int[] journeyTransferCount = new int[16];
+        int journeyCount = 0;
+
+        ParetoSearchState(int countRouteStops) {
+            this.bagHead = new int[countRouteStops];
+            this.bagSize = new int[countRouteStops];
+            this.egressStopPerRouteStop = new InitialStop[countRouteStops];
+            this.markedRouteStops = new BitSet(countRouteStops);
+            Arrays.fill(this.bagHead, NO_PATH);
+        }
+
+        void reset(TouchedIndices touchedRouteStops) {
+            for (int i = 0; i < touchedRouteStops.size; i++) {
+                int routeStopIndex = touchedRouteStops.indices[i];
+                this.bagHead[routeStopIndex] = NO_PATH;
+                this.bagSize[routeStopIndex] = 0;
+                this.egressStopPerRouteStop[routeStopIndex] = null;
+            }
+            this.markedRouteStops.clear();
+            this.vehicleLabelCount = 0;
+            this.tripCount = 0;
+            Arrays.fill(this.journeyEgressStop, 0, this.journeyCount, null);
+            this.journeyCount = 0;
+        }
+
+        void addLabel(int routeStopIndex, int pe, int round) {
+            if (pe >= this.nextInBag.length) {
+                int capacity = Math.max(pe + 1, 2 * this.nextInBag.length);
+                this.nextInBag = Arrays.copyOf(this.nextInBag, capacity);
+                this.labelRound = Arrays.copyOf(this.labelRound, capacity);
+            }
+            this.nextInBag[pe] = this.bagHead[routeStopIndex];
+            this.labelRound[pe] = round;
+            this.bagHead[routeStopIndex] = pe;
+            this.bagSize[routeStopIndex]++;
+        }
+
+        void removeLabel(int routeStopIndex, int pe, int previousPE) {
+            if (previousPE == NO_PATH) {
+                this.bagHead[routeStopIndex] = this.nextInBag[pe];
+            } else {
+                this.nextInBag[previousPE] = this.nextInBag[pe];
+            }
+            this.labelRound[pe] = -1;
+            this.bagSize[routeStopIndex]--;
+        }
+
+        void addVehicleLabel(int pe) {
+            if (this.vehicleLabelCount == this.vehicleLabels.length) {
+                this.vehicleLabels = Arrays.copyOf(this.vehicleLabels, 2 * this.vehicleLabels.length);
+            }
+            this.vehicleLabels[this.vehicleLabelCount] = pe;
+            this.vehicleLabelCount++;
+        }
+
+        void addTrip(int boardingPE, int departureIndex, double boardingTime, double travelCost, double firstDepartureTime) {
+            if (this.tripCount == this.tripBoardingPath.length) {
+                int capacity = 2 * this.tripBoardingPath.length;
+                this.tripBoardingPath = Arrays.copyOf(this.tripBoardingPath, capacity);
+                this.tripDepartureIndex = Arrays.copyOf(this.tripDepartureIndex, capacity);
+                this.tripBoardingTime = Arrays.copyOf(this.tripBoardingTime, capacity);
+                this.tripTravelCost = Arrays.copyOf(this.tripTravelCost, capacity);
+                this.tripFirstDepartureTime = Arrays.copyOf(this.tripFirstDepartureTime, capacity);
+            }
+            int t = this.tripCount;
+            this.tripBoardingPath[t] = boardingPE;
+            this.tripDepartureIndex[t] = departureIndex;
+            this.tripBoardingTime[t] = boardingTime;
+            this.tripTravelCost[t] = travelCost;
+            this.tripFirstDepartureTime[t] = firstDepartureTime;
+            this.tripCount++;
+        }
+
+        void removeTrip(int t) {
+            // the order of the trips does not matter, so move the last trip into the gap
+            int last = this.tripCount - 1;
+            this.tripBoardingPath[t] = this.tripBoardingPath[last];
+            this.tripDepartureIndex[t] = this.tripDepartureIndex[last];
+            this.tripBoardingTime[t] = this.tripBoardingTime[last];
+            this.tripTravelCost[t] = this.tripTravelCost[last];
+            this.tripFirstDepartureTime[t] = this.tripFirstDepartureTime[last];
+            this.tripCount--;
+        }
+
+        void addJourney(int pe, InitialStop egressStop, double arrivalTime, double totalCost, int transferCount) {
+            if (this.journeyCount == this.journeyPath.length) {
+                int capacity = 2 * this.journeyPath.length;
+                this.journeyPath = Arrays.copyOf(this.journeyPath, capacity);
+                this.journeyEgressStop = Arrays.copyOf(this.journeyEgressStop, capacity);
+                this.journeyArrivalTime = Arrays.copyOf(this.journeyArrivalTime, capacity);
+                this.journeyTotalCost = Arrays.copyOf(this.journeyTotalCost, capacity);
+                this.journeyTransferCount = Arrays.copyOf(this.journeyTransferCount, capacity);
+            }
+            int j = this.journeyCount;
+            this.journeyPath[j] = pe;
+            this.journeyEgressStop[j] = egressStop;
+            this.journeyArrivalTime[j] = arrivalTime;
+            this.journeyTotalCost[j] = totalCost;
+            this.journeyTransferCount[j] = transferCount;
+            this.journeyCount++;
+        }
+
+        void removeJourney(int j) {
+            int last = this.journeyCount - 1;
+            this.journeyPath[j] = this.journeyPath[last];
+            this.journeyEgressStop[j] = this.journeyEgressStop[last];
+            this.journeyArrivalTime[j] = this.journeyArrivalTime[last];
+            this.journeyTotalCost[j] = this.journeyTotalCost[last];
+            this.journeyTransferCount[j] = this.journeyTransferCount[last];
+            this.journeyEgressStop[last] = null;
+            this.journeyCount--;
+        }
+    }
+
+    /**
+     * A set of indices that remembers the insertion order, without allocating memory after its creation.
+     */
+    private static final class TouchedIndices {
+        final int[] indices;
+        private final boolean[] isTouched;
+        int size = 0;
+
+        TouchedIndices(int capacity) {
+            this.indices = new int[capacity];
+            this.isTouched = new boolean[capacity];
+        }
+
+        void add(int index) {
+            if (!this.isTouched[index]) {
+                this.isTouched[index] = true;
+                this.indices[this.size] = index;
+                this.size++;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < this.size; i++) {
+                this.isTouched[this.indices[i]] = false;
+            }
+            this.size = 0;
         }
     }
 
@@ -800,14 +2377,28 @@ public class SwissRailRaptorCore {
         public final double totalCost;
         public final int transferCount;
         public final Id<TransitStopFacility> departureStop;
+        /** the departure time of the first pt vehicle, or NaN if the stop is reached without using pt */
+        public final double ptDepartureTime;
+        /** the time needed to reach the departure stop */
+        public final double accessTime;
+        /** the time spent in pt vehicles, without waiting and transfer times */
+        public final double inVehicleTime;
 
         public TravelInfo(double arrivalTime, double departureTime, double totalCost, int transferCount, Id<TransitStopFacility> departureStop) {
+            this(arrivalTime, departureTime, totalCost, transferCount, departureStop, Double.NaN, 0, 0);
+        }
+
+        public TravelInfo(double arrivalTime, double departureTime, double totalCost, int transferCount, Id<TransitStopFacility> departureStop,
+                          double ptDepartureTime, double accessTime, double inVehicleTime) {
             this.arrivalTime = arrivalTime;
             this.departureTime = departureTime;
             this.travelTime = arrivalTime - departureTime;
             this.totalCost = totalCost;
             this.transferCount = transferCount;
             this.departureStop = departureStop;
+            this.ptDepartureTime = ptDepartureTime;
+            this.accessTime = accessTime;
+            this.inVehicleTime = inVehicleTime;
         }
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+/**
+ * Keeps {@link SwissRailRaptorCore} instances for re-use by all {@link SwissRailRaptor}s working
+ * on the same {@link SwissRailRaptorData}.
+ *
+ * A core is borrowed for the duration of a single query and returned afterwards, so the number
+ * of cores (each having arrays sized by the number of route stops) depends on the number of
+ * concurrently routing threads and not on the number of routers that were created.
+ * If no idle core is available, a new one is created. At most <code>maxIdleCores</code> idle cores
+ * are kept, and cores that were not used for longer than <code>maxIdleMillis</code> are released.
+ *
+ * This class is thread-safe.
+ *
+ * @author mrieser / SBB
+ */
+final class SwissRailRaptorCorePool {
+
+    private static final long DEFAULT_MAX_IDLE_MILLIS = 60 * 1000;
+
+    private final SwissRailRaptorData data;
+    private final long maxIdleNanos;
+    // idle cores, ordered by the time they were returned: the core at index 0 is idle for the longest time
+    private final SwissRailRaptorCore[] idleCores;
+    private final long[] idleSinceNanos;
+    private int idleCount = 0;
+
+    SwissRailRaptorCorePool(SwissRailRaptorData data) {
+        this(data, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    SwissRailRaptorCorePool(SwissRailRaptorData data, int maxIdleCores, long maxIdleMillis) {
+        this.data = data;
+        this.maxIdleNanos = maxIdleMillis * 1000 * 1000;
+        this.idleCores = new SwissRailRaptorCore[maxIdleCores];
+        this.idleSinceNanos = new long[maxIdleCores];
+    }
+
+    /**
+     * Returns a core that is exclusively used by the caller until it is given back with {@link #release(SwissRailRaptorCore)}.
+     */
+    SwissRailRaptorCore borrow() {
+        synchronized (this) {
+            removeExpiredCores(System.nanoTime());
+            if (this.idleCount > 0) {
+                // take the most recently used core, its memory is the most likely to be still cached
+                this.idleCount--;
+                SwissRailRaptorCore core = this.idleCores[this.idleCount];
+                this.idleCores[this.idleCount] = null;
+                return core;
+            }
+        }
+        return new SwissRailRaptorCore(this.data);
+    }
+
+    void release(SwissRailRaptorCore core) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            removeExpiredCores(now);
+            if (this.idleCores.length == 0) {
+                return;
+            }
+            if (this.idleCount == this.idleCores.length) {
+                // too many idle cores, drop the one idle for the longest time
+                removeOldestCores(1);
+            }
+            this.idleCores[this.idleCount] = core;
+            this.idleSinceNanos[this.idleCount] = now;
+            this.idleCount++;
+        }
+    }
+
+    synchronized int getIdleCoreCount() {
+        return this.idleCount;
+    }
+
+    private void removeExpiredCores(long now) {
+        int expiredCount = 0;
+        while (expiredCount < this.idleCount && (now - this.idleSinceNanos[expiredCount]) > this.maxIdleNanos) {
+            expiredCount++;
+        }
+        if (expiredCount > 0) {
+            removeOldestCores(expiredCount);
+        }
+    }
+
+    private void removeOldestCores(int count) {
+        int remaining = this.idleCount - count;
+        System.arraycopy(this.idleCores, count, this.idleCores, 0, remaining);
+        System.arraycopy(this.idleSinceNanos, count, this.idleSinceNanos, 0, remaining);
+        for (int i = remaining; i < this.idleCount; i++) {
+            this.idleCores[i] = null;
+        }
+        this.idleCount = remaining;
+    }
+}
@@ -29,7 +29,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 /**
  * @author mrieser / SBB
@@ -43,26 +45,84 @@ public class SwissRailRaptorData {
     final int countRouteStops;
     final RRoute[] routes;
     final double[] departures; // in the RAPTOR paper, this is usually called "trips", but I stick with the MATSim nomenclature
-    final RRouteStop[] routeStops; // list of all route stops
-    final RTransfer[] transfers;
-    final Map<TransitStopFacility, Integer> stopFacilityIndices;
-    final Map<TransitStopFacility, int[]> routeStopsPerStopFacility;
+    final RRouteStop[] routeStops; // list of all route stops, only needed to resolve the MATSim objects when creating the final routes
+
+    // the data of the route stops is stored in parallel primitive arrays, indexed by the route stop index
+    final int[] routeStopRouteIndices;
+    final int[] routeStopStopIndices;
+    final double[] routeStopArrivalOffsets;
+    final double[] routeStopDepartureOffsets;
+    final double[] routeStopDistances; // distance along the route
+    final int[] routeStopTransferOffsets; // the transfers of route stop i are stored at [routeStopTransferOffsets[i], routeStopTransferOffsets[i+1])
+    final int[] routeStopModeIndices; // the index of the passenger mode in modes
+
+    // the distinct passenger modes of the routes, so the routing can look up mode-dependent parameters by index
+    final String[] modes;
+
+    // the transfers are stored in parallel primitive arrays as well, indexed by the transfer index
+    final int[] transferToRouteStops;
+    final double[] transferTimes;
+    final double[] transferCosts;
+    final double[] transferDistances;
+    final int countTransfers;
+
+    // every stop facility served by at least one route has a dense index
+    final TransitStopFacility[] stopFacilities;
+    final int[] stopRouteStopOffsets; // the route stops of stop facility i are stored at [stopRouteStopOffsets[i], stopRouteStopOffsets[i+1]) in stopRouteStops
+    final int[] stopRouteStops;
+    private final Map<TransitStopFacility, Integer> stopFacilityIndices; // only used to look up the index of a stop facility once, e.g. for an InitialStop
+    private final Map<Id<TransitStopFacility>, Integer> stopIdIndices;
     final QuadTree<TransitStopFacility> stopsQT;
-
-    private SwissRailRaptorData(RaptorStaticConfig config, int countStops,
-                                RRoute[] routes, double[] departures, RRouteStop[] routeStops,
-                                RTransfer[] transfers, Map<TransitStopFacility, Integer> stopFacilityIndices,
-                                Map<TransitStopFacility, int[]> routeStopsPerStopFacility, QuadTree<TransitStopFacility> stopsQT) {
+    final SwissRailRaptorCorePool corePool; // shared by all routers using this data
+    private volatile ReverseTransfers reverseTransfers = null; // only prepared when the first backward search needs them
+
+    SwissRailRaptorData(RaptorStaticConfig config, int countStops, RRoute[] routes, double[] departures, RRouteStop[] routeStops,
+                        int[] routeStopRouteIndices, int[] routeStopStopIndices, double[] routeStopArrivalOffsets,
+                        double[] routeStopDepartureOffsets, double[] routeStopDistances, int[] routeStopTransferOffsets,
+                        int[] transferToRouteStops, double[] transferTimes, double[] transferCosts, double[] transferDistances,
+                        TransitStopFacility[] stopFacilities, Map<TransitStopFacility, Integer> stopFacilityIndices,
+                        int[] stopRouteStopOffsets, int[] stopRouteStops, QuadTree<TransitStopFacility> stopsQT) {
         this.config = config;
         this.countStops = countStops;
         this.countRouteStops = routeStops.length;
         this.routes = routes;
         this.departures = departures;
         this.routeStops = routeStops;
-        this.transfers = transfers;
+        this.routeStopRouteIndices = routeStopRouteIndices;
+        this.routeStopStopIndices = routeStopStopIndices;
+        this.routeStopArrivalOffsets = routeStopArrivalOffsets;
+        this.routeStopDepartureOffsets = routeStopDepartureOffsets;
+        this.routeStopDistances = routeStopDistances;
+        this.routeStopTransferOffsets = routeStopTransferOffsets;
+        this.routeStopModeIndices = new int[routeStops.length];
+        Map<String, Integer> modeIndices = new HashMap<>();
+        List<String> modes = new ArrayList<>();
+        for (int i = 0; i < routeStops.length; i++) {
+            String mode = routeStops[i].mode;
+            Integer modeIndex = modeIndices.get(mode);
+            if (modeIndex == null) {
+                modeIndex = modes.size();
+                modeIndices.put(mode, modeIndex);
+                modes.add(mode);
+            }
+            this.routeStopModeIndices[i] = modeIndex;
+        }
+        this.modes = modes.toArray(new String[0]);
+        this.transferToRouteStops = transferToRouteStops;
+        this.transferTimes = transferTimes;
+        this.transferCosts = transferCosts;
+        this.transferDistances = transferDistances;
+        this.countTransfers = transferToRouteStops.length;
+        this.stopFacilities = stopFacilities;
         this.stopFacilityIndices = stopFacilityIndices;
-        this.routeStopsPerStopFacility = routeStopsPerStopFacility;
+        this.stopIdIndices = new HashMap<>((int) (stopFacilities.length * 1.5));
+        for (int i = 0; i < stopFacilities.length; i++) {
+            this.stopIdIndices.put(stopFacilities[i].getId(), i);
+        }
+        this.stopRouteStopOffsets = stopRouteStopOffsets;
+        this.stopRouteStops = stopRouteStops;
         this.stopsQT = stopsQT;
+        this.corePool = new SwissRailRaptorCorePool(this);
     }
 
     public static SwissRailRaptorData create(TransitSchedule schedule, RaptorStaticConfig staticConfig, Network network) {
@@ -91,6 +151,11 @@ public class SwissRailRaptorData {
         double[] departures = new double[(int) countDepartures];
         RRoute[] routes = new RRoute[countRoutes];
         RRouteStop[] routeStops = new RRouteStop[(int) countRouteStops];
+        int[] routeStopRouteIndices = new int[(int) countRouteStops];
+        int[] routeStopStopIndices = new int[(int) countRouteStops];
+        double[] routeStopArrivalOffsets = new double[(int) countRouteStops];
+        double[] routeStopDepartureOffsets = new double[(int) countRouteStops];
+        double[] routeStopDistances = new double[(int) countRouteStops];
 
         int indexRoutes = 0;
         int indexRouteStops = 0;
@@ -99,7 +164,6 @@ public class SwissRailRaptorData {
         // enumerate TransitStopFacilities along their usage in transit routes to (hopefully) achieve a better memory locality
         // well, I'm not even sure how often we'll need the transit stop facilities, likely we'll use RouteStops more often
         Map<TransitStopFacility, Integer> stopFacilityIndices = new HashMap<>((int) (schedule.getFacilities().size() * 1.5));
-        Map<TransitStopFacility, int[]> routeStopsPerStopFacility = new HashMap<>();
 
         boolean useModeMapping = staticConfig.isUseModeMappingForPassengers();
         for (TransitLine line : schedule.getTransitLines().values()) {
@@ -135,18 +199,13 @@ public class SwissRailRaptorData {
                         }
                     }
                     int stopFacilityIndex = stopFacilityIndices.computeIfAbsent(routeStop.getStopFacility(), stop -> stopFacilityIndices.size());
-                    RRouteStop rRouteStop = new RRouteStop(routeStop, line, route, mode, indexRoutes, stopFacilityIndex, distanceAlongRoute);
-                    final int thisRouteStopIndex = indexRouteStops;
-                    routeStops[thisRouteStopIndex] = rRouteStop;
-                    routeStopsPerStopFacility.compute(routeStop.getStopFacility(), (stop, currentRouteStops) -> {
-                        if (currentRouteStops == null) {
-                            return new int[] { thisRouteStopIndex };
-                        }
-                        int[] tmp = new int[currentRouteStops.length + 1];
-                        System.arraycopy(currentRouteStops, 0, tmp, 0, currentRouteStops.length);
-                        tmp[currentRouteStops.length] = thisRouteStopIndex;
-                        return tmp;
-                    });
+                    routeStops[indexRouteStops] = new RRouteStop(routeStop, line, route, mode);
+                    routeStopRouteIndices[indexRouteStops] = indexRoutes;
+                    routeStopStopIndices[indexRouteStops] = stopFacilityIndex;
+                    // "normalize" the arrival and departure offsets, make sure they are always well defined.
+                    routeStopArrivalOffsets[indexRouteStops] = isUndefinedTime(routeStop.getArrivalOffset()) ? routeStop.getDepartureOffset() : routeStop.getArrivalOffset();
+                    routeStopDepartureOffsets[indexRouteStops] = isUndefinedTime(routeStop.getDepartureOffset()) ? routeStop.getArrivalOffset() : routeStop.getDepartureOffset();
+                    routeStopDistances[indexRouteStops] = distanceAlongRoute;
                     indexRouteStops++;
                 }
                 for (Departure dep : route.getDepartures().values()) {
@@ -158,13 +217,80 @@ public class SwissRailRaptorData {
             }
         }
 
+        int countStopFacilities = stopFacilityIndices.size();
+        TransitStopFacility[] stopFacilities = new TransitStopFacility[countStopFacilities];
+        for (Map.Entry<TransitStopFacility, Integer> e : stopFacilityIndices.entrySet()) {
+            stopFacilities[e.getValue()] = e.getKey();
+        }
+
+        int[] stopRouteStopOffsets = getStopRouteStopOffsets(countStopFacilities, routeStopStopIndices);
+        int[] stopRouteStops = getStopRouteStops(stopRouteStopOffsets, routeStopStopIndices);
+
         // only put used transit stops into the quad tree
+        QuadTree<TransitStopFacility> stopsQT = createStopsQuadTree(stopFacilities);
+
+        TransferCalculator transferCalculator = new TransferCalculator(schedule, stopsQT, stopFacilities, stopFacilityIndices, stopRouteStopOffsets, stopRouteStops,
+                routes, departures, routeStopRouteIndices, routeStopStopIndices, routeStopArrivalOffsets, routeStopDepartureOffsets, staticConfig);
+        forEachStopFacility(countStopFacilities, staticConfig.isUseParallelDataPreparation(), transferCalculator::calculateTransfers);
+        int[] routeStopTransferOffsets = new int[routeStops.length + 1];
+        long countTransfers = 0;
+        for (int routeStopIndex = 0; routeStopIndex < routeStops.length; routeStopIndex++) {
+            routeStopTransferOffsets[routeStopIndex] = (int) countTransfers;
+            countTransfers += transferCalculator.transferCountPerRouteStop[routeStopIndex];
+            if (countTransfers > Integer.MAX_VALUE) {
+                throw new RuntimeException("TransitSchedule has too many Transfers: " + countTransfers);
+            }
+        }
+        routeStopTransferOffsets[routeStops.length] = (int) countTransfers;
+        int[] transferToRouteStops = new int[(int) countTransfers];
+        double[] transferTimes = new double[(int) countTransfers];
+        double[] transferCosts = new double[(int) countTransfers];
+        double[] transferDistances = new double[(int) countTransfers];
+        forEachStopFacility(countStopFacilities, staticConfig.isUseParallelDataPreparation(),
+                stopIndex -> transferCalculator.copyTransfers(stopIndex, routeStopTransferOffsets, transferToRouteStops, transferTimes, transferCosts, transferDistances));
+
+        SwissRailRaptorData data = new SwissRailRaptorData(staticConfig, countStopFacilities, routes, departures, routeStops,
+                routeStopRouteIndices, routeStopStopIndices, routeStopArrivalOffsets, routeStopDepartureOffsets, routeStopDistances, routeStopTransferOffsets,
+                transferToRouteStops, transferTimes, transferCosts, transferDistances,
+                stopFacilities, stopFacilityIndices, stopRouteStopOffsets, stopRouteStops, stopsQT);
+
+        long endMillis = System.currentTimeMillis();
+        log.info("SwissRailRaptor data preparation done. Took " + (endMillis - startMillis) / 1000 + " seconds.");
+        log.info("SwissRailRaptor statistics:  #routes = " + routes.length);
+        log.info("SwissRailRaptor statistics:  #departures = " + departures.length);
+        log.info("SwissRailRaptor statistics:  #routeStops = " + routeStops.length);
+        log.info("SwissRailRaptor statistics:  #stopFacilities = " + countStopFacilities);
+        log.info("SwissRailRaptor statistics:  #transfers (between routeStops) = " + data.countTransfers);
+        return data;
+    }
+
+    // the route stops are grouped by stop facility in two passes (count, then fill), the route stop indices of each stop facility stay sorted
+    static int[] getStopRouteStopOffsets(int countStopFacilities, int[] routeStopStopIndices) {
+        int[] stopRouteStopOffsets = new int[countStopFacilities + 1];
+        for (int stopIndex : routeStopStopIndices) {
+            stopRouteStopOffsets[stopIndex + 1]++;
+        }
+        for (int stopIndex = 0; stopIndex < countStopFacilities; stopIndex++) {
+            stopRouteStopOffsets[stopIndex + 1] += stopRouteStopOffsets[stopIndex];
+        }
+        return stopRouteStopOffsets;
+    }
+
+    static int[] getStopRouteStops(int[] stopRouteStopOffsets, int[] routeStopStopIndices) {
+        int[] stopRouteStops = new int[routeStopStopIndices.length];
+        int[] nextPosition = Arrays.copyOf(stopRouteStopOffsets, stopRouteStopOffsets.length - 1);
+        for (int routeStopIndex = 0; routeStopIndex < routeStopStopIndices.length; routeStopIndex++) {
+            stopRouteStops[nextPosition[routeStopStopIndices[routeStopIndex]]++] = routeStopIndex;
+        }
+        return stopRouteStops;
+    }
+
+    static QuadTree<TransitStopFacility> createStopsQuadTree(TransitStopFacility[] stopFacilities) {
         double minX = Double.POSITIVE_INFINITY;
         double minY = Double.POSITIVE_INFINITY;
         double maxX = Double.NEGATIVE_INFINITY;
         double maxY = Double.NEGATIVE_INFINITY;
-        Set<TransitStopFacility> stops = routeStopsPerStopFacility.keySet();
-        for (TransitStopFacility stopFacility : stops) {
+        for (TransitStopFacility stopFacility : stopFacilities) {
             double x = stopFacility.getCoord().getX();
             double y = stopFacility.getCoord().getY();
 
@@ -174,296 +300,410 @@ public class SwissRailRaptorData {
             if (y > maxY) maxY = y;
         }
         QuadTree<TransitStopFacility> stopsQT = new QuadTree<>(minX, minY, maxX, maxY);
-        for (TransitStopFacility stopFacility : stops) {
+        for (TransitStopFacility stopFacility : stopFacilities) {
             double x = stopFacility.getCoord().getX();
             double y = stopFacility.getCoord().getY();
             stopsQT.put(x, y, stopFacility);
         }
-        int countStopFacilities = stops.size();
+        return stopsQT;
+    }
 
-        Map<Integer, RTransfer[]> allTransfers = calculateRouteStopTransfers(schedule, stopsQT, routeStopsPerStopFacility, routeStops, staticConfig);
-        long countTransfers = 0;
-        for (RTransfer[] transfers : allTransfers.values()) {
-            countTransfers += transfers.length;
-        }
-        if (countTransfers > Integer.MAX_VALUE) {
-            throw new RuntimeException("TransitSchedule has too many Transfers: " + countTransfers);
-        }
-        RTransfer[] transfers = new RTransfer[(int) countTransfers];
-        int indexTransfer = 0;
-        for (int routeStopIndex = 0; routeStopIndex < routeStops.length; routeStopIndex++) {
-            RTransfer[] stopTransfers = allTransfers.get(routeStopIndex);
-            int transferCount = stopTransfers == null ? 0 : stopTransfers.length;
-            if (transferCount > 0) {
-                RRouteStop routeStop = routeStops[routeStopIndex];
-                routeStop.indexFirstTransfer = indexTransfer;
-                routeStop.countTransfers = transferCount;
-                System.arraycopy(stopTransfers, 0, transfers, indexTransfer, transferCount);
-                indexTransfer += transferCount;
+    /**
+     * Runs the action once for every stop facility index, either sequentially in the calling thread
+     * or with one fork-join task per stop facility. The action must only write to data owned by
+     * the given stop facility.
+     */
+    private static void forEachStopFacility(int countStopFacilities, boolean parallel, IntConsumer action) {
+        if (parallel) {
+            List<StopFacilityTask> tasks = new ArrayList<>(countStopFacilities);
+            for (int stopIndex = 0; stopIndex < countStopFacilities; stopIndex++) {
+                tasks.add(new StopFacilityTask(stopIndex, action));
+            }
+            ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } else {
+            for (int stopIndex = 0; stopIndex < countStopFacilities; stopIndex++) {
+                action.accept(stopIndex);
             }
         }
-
-        SwissRailRaptorData data = new SwissRailRaptorData(staticConfig, countStopFacilities, routes, departures, routeStops, transfers, stopFacilityIndices, routeStopsPerStopFacility, stopsQT);
-
-        long endMillis = System.currentTimeMillis();
-        log.info("SwissRailRaptor data preparation done. Took " + (endMillis - startMillis) / 1000 + " seconds.");
-        log.info("SwissRailRaptor statistics:  #routes = " + routes.length);
-        log.info("SwissRailRaptor statistics:  #departures = " + departures.length);
-        log.info("SwissRailRaptor statistics:  #routeStops = " + routeStops.length);
-        log.info("SwissRailRaptor statistics:  #stopFacilities = " + countStopFacilities);
-        log.info("SwissRailRaptor statistics:  #transfers (between routeStops) = " + transfers.length);
-        return data;
     }
 
-    // calculate possible transfers between TransitRouteStops
-    private static Map<Integer, RTransfer[]> calculateRouteStopTransfers(TransitSchedule schedule, QuadTree<TransitStopFacility> stopsQT, Map<TransitStopFacility, int[]> routeStopsPerStopFacility, RRouteStop[] routeStops, RaptorStaticConfig config) {
-        Map<Integer, RTransfer[]> transfers = new HashMap<>(stopsQT.size() * 5);
-        double maxBeelineWalkConnectionDistance = config.getBeelineWalkConnectionDistance();
-        double beelineWalkSpeed = config.getBeelineWalkSpeed();
-        double transferUtilPerS = config.getMarginalUtilityOfTravelTimeWalk_utl_s();
-        double minimalTransferTime = config.getMinimalTransferTime();
-
-        Map<TransitStopFacility, List<TransitStopFacility>> stopToStopsTransfers = new HashMap<>();
-
-        // first, add transfers based on distance
-        for (TransitStopFacility fromStop : routeStopsPerStopFacility.keySet()) {
-            Coord fromCoord = fromStop.getCoord();
-            Collection<TransitStopFacility> nearbyStops = stopsQT.getDisk(fromCoord.getX(), fromCoord.getY(), maxBeelineWalkConnectionDistance);
-            stopToStopsTransfers.computeIfAbsent(fromStop, stop -> new ArrayList<>(5)).addAll(nearbyStops);
-        }
-
-        // take the transfers from the schedule into account
-        MinimalTransferTimes.MinimalTransferTimesIterator iter = schedule.getMinimalTransferTimes().iterator();
-        while (iter.hasNext()) {
-            iter.next();
-            Id<TransitStopFacility> fromStopId = iter.getFromStopId();
-            TransitStopFacility fromStop = schedule.getFacilities().get(fromStopId);
-            Id<TransitStopFacility> toStopId = iter.getToStopId();
-            TransitStopFacility toStop = schedule.getFacilities().get(toStopId);
-            List<TransitStopFacility> destinationStops = stopToStopsTransfers.computeIfAbsent(fromStop, stop -> new ArrayList<>(5));
-            if (!destinationStops.contains(toStop)) {
-                destinationStops.add(toStop);
+    private static Departure getEarliestDeparture(TransitRoute route) {
+        Departure earliest = null;
+        for (Departure dep : route.getDepartures().values()) {
+            if (earliest == null || dep.getDepartureTime() < earliest.getDepartureTime()) {
+                earliest = dep;
             }
         }
+        return earliest;
+    }
 
-        // now calculate the transfers between the route stops
-        MinimalTransferTimes mtt = schedule.getMinimalTransferTimes();
-        for (Map.Entry<TransitStopFacility, List<TransitStopFacility>> e : stopToStopsTransfers.entrySet()) {
-            TransitStopFacility fromStop = e.getKey();
-            Coord fromCoord = fromStop.getCoord();
-            int[] fromRouteStopIndices = routeStopsPerStopFacility.get(fromStop);
-            Collection<TransitStopFacility> nearbyStops = e.getValue();
-            for (TransitStopFacility toStop : nearbyStops) {
-                int[] toRouteStopIndices = routeStopsPerStopFacility.get(toStop);
-                double distance = CoordUtils.calcEuclideanDistance(fromCoord, toStop.getCoord());
-                double transferTime = distance / beelineWalkSpeed;
-                if (transferTime < minimalTransferTime) {
-                    transferTime = minimalTransferTime;
-                }
+    private static boolean isUndefinedTime(double time) {
+        return Time.isUndefinedTime(time) || Double.isNaN(time);
+    }
 
-                transferTime = mtt.get(fromStop.getId(), toStop.getId(), transferTime);
-
-                double transferUtil = transferTime * transferUtilPerS;
-                double transferCost = -transferUtil;
-                final double fixedTransferTime = transferTime; // variables must be effective final to be used in lambdas (below)
-
-                for (int fromRouteStopIndex : fromRouteStopIndices) {
-                    RRouteStop fromRouteStop = routeStops[fromRouteStopIndex];
-                    for (int toRouteStopIndex : toRouteStopIndices) {
-                        RRouteStop toRouteStop = routeStops[toRouteStopIndex];
-                        if (isUsefulTransfer(fromRouteStop, toRouteStop, maxBeelineWalkConnectionDistance, config.getOptimization())) {
-                            transfers.compute(fromRouteStopIndex, (routeStopIndex, currentTransfers) -> {
-                                RTransfer newTransfer = new RTransfer(fromRouteStopIndex, toRouteStopIndex, fixedTransferTime, transferCost, distance);
-                                if (currentTransfers == null) {
-                                    return new RTransfer[] { newTransfer };
-                                }
-                                RTransfer[] tmp = new RTransfer[currentTransfers.length + 1];
-                                System.arraycopy(currentTransfers, 0, tmp, 0, currentTransfers.length);
-                                tmp[currentTransfers.length] = newTransfer;
-                                return tmp;
-                            });
-                        }
-                    }
+    /**
+     * @return the index of the stop facility, or -1 if the stop facility is not served by any transit route.
+     */
+    int getStopFacilityIndex(TransitStopFacility stop) {
+        Integer index = this.stopFacilityIndices.get(stop);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the transfers grouped by the route stop they lead to, as required to search backwards in time.
+     * They are prepared when they are first requested, as most applications only search forward in time.
+     */
+    ReverseTransfers getReverseTransfers() {
+        ReverseTransfers transfers = this.reverseTransfers;
+        if (transfers == null) {
+            synchronized (this) {
+                transfers = this.reverseTransfers;
+                if (transfers == null) {
+                    transfers = new ReverseTransfers(this);
+                    this.reverseTransfers = transfers;
                 }
             }
         }
         return transfers;
     }
 
-    private static boolean isUsefulTransfer(RRouteStop fromRouteStop, RRouteStop toRouteStop, double maxBeelineWalkConnectionDistance, RaptorStaticConfig.RaptorOptimization optimization) {
-        if (fromRouteStop == toRouteStop) {
-            return false;
-        }
-        // there is no use to transfer away from the first stop in a route
-        if (isFirstStopInRoute(fromRouteStop)) {
-            return false;
-        }
-        // there is no use to transfer to the last stop in a route, we can't go anywhere from there
-        if (isLastStopInRoute(toRouteStop)) {
-            return false;
-        }
-        // if the first departure at fromRouteStop arrives after the last departure at toRouteStop,
-        // we'll never get any connection here
-        if (hasNoPossibleDeparture(fromRouteStop, toRouteStop)) {
-            return false;
-        }
-        // if the stop facilities are different, and the destination stop is part
-        // of the current route, it does not make sense to transfer here
-        if (toStopIsPartOfRouteButNotSame(fromRouteStop, toRouteStop)) {
-            return false;
-        }
-        // assuming vehicles serving the exact same stop sequence do not overtake each other,
-        // it does not make sense to transfer to another route that serves the exact same upcoming stops
-        if (cannotReachAdditionalStops(fromRouteStop, toRouteStop)) {
-            return false;
-        }
-        if (optimization == RaptorStaticConfig.RaptorOptimization.OneToOneRouting) {
-            // If one could have transferred to the same route one stop before, it does not make sense
-            // to transfer here.
-            // This optimization may lead to unexpected results in the case of OneToAllRouting ("tree"),
-            // e.g. when starting at a single stop, users would expect that the stop facility
-            // in the opposite direction could be reached within a minute or so by walk. But the algorithm
-            // would find this if the transfers are missing.
-            if (couldHaveTransferredOneStopEarlierInOppositeDirection(fromRouteStop, toRouteStop, maxBeelineWalkConnectionDistance)) {
-                return false;
-            }
-        }
-        // if we failed all other checks, it looks like this transfer is useful
-        return true;
+    /**
+     * @return the number of stop facilities served by at least one transit route. These stop facilities
+     * have the indices <code>0</code> to <code>getStopCount() - 1</code>.
+     */
+    public int getStopCount() {
+        return this.countStops;
     }
 
-    private static boolean isFirstStopInRoute(RRouteStop routeStop) {
-        TransitRouteStop firstRouteStop = routeStop.route.getStops().get(0);
-        return routeStop.routeStop == firstRouteStop;
+    /**
+     * @return the index of the stop facility with the given id, or -1 if the stop facility is not served by any transit route.
+     */
+    public int getStopIndex(Id<TransitStopFacility> stopId) {
+        Integer index = this.stopIdIndices.get(stopId);
+        return index == null ? -1 : index;
     }
 
-    private static boolean isLastStopInRoute(RRouteStop routeStop) {
-        List<TransitRouteStop> routeStops = routeStop.route.getStops();
-        TransitRouteStop lastRouteStop = routeStops.get(routeStops.size() - 1);
-        return routeStop.routeStop == lastRouteStop;
+    public Id<TransitStopFacility> getStopId(int stopIndex) {
+        return this.stopFacilities[stopIndex].getId();
     }
 
-    private static boolean hasNoPossibleDeparture(RRouteStop fromRouteStop, RRouteStop toRouteStop) {
-        Departure earliestDep = getEarliestDeparture(fromRouteStop.route);
-        Departure latestDep = getLatestDeparture(toRouteStop.route);
-        if (earliestDep == null || latestDep == null) {
-            return true;
-        }
-        double earliestArrival = earliestDep.getDepartureTime() + fromRouteStop.arrivalOffset;
-        double latestDeparture = latestDep.getDepartureTime() + toRouteStop.departureOffset;
-        return earliestArrival > latestDeparture;
+    public TransitStopFacility getStopFacility(int stopIndex) {
+        return this.stopFacilities[stopIndex];
     }
 
-    private static Departure getEarliestDeparture(TransitRoute route) {
-        Departure earliest = null;
-        for (Departure dep : route.getDepartures().values()) {
-            if (earliest == null || dep.getDepartureTime() < earliest.getDepartureTime()) {
-                earliest = dep;
-            }
-        }
-        return earliest;
+    public Collection<TransitStopFacility> findNearbyStops(double x, double y, double distance) {
+        return this.stopsQT.getDisk(x, y, distance);
     }
 
-    private static Departure getLatestDeparture(TransitRoute route) {
-        Departure latest = null;
-        for (Departure dep : route.getDepartures().values()) {
-            if (latest == null || dep.getDepartureTime() > latest.getDepartureTime()) {
-                latest = dep;
-            }
-        }
-        return latest;
+    public TransitStopFacility findNearestStop(double x, double y) {
+        return this.stopsQT.getClosest(x, y);
     }
 
-    private static boolean toStopIsPartOfRouteButNotSame(RRouteStop fromRouteStop, RRouteStop toRouteStop) {
-        TransitStopFacility fromStopFacility = fromRouteStop.routeStop.getStopFacility();
-        TransitStopFacility toStopFacility = toRouteStop.routeStop.getStopFacility();
-        if (fromStopFacility == toStopFacility) {
-            return false;
+    private static final class StopFacilityTask extends RecursiveAction {
+        private final int stopIndex;
+        private final IntConsumer action;
+
+        StopFacilityTask(int stopIndex, IntConsumer action) {
+            this.stopIndex = stopIndex;
+            this.action = action;
         }
-        for (TransitRouteStop routeStop : fromRouteStop.route.getStops()) {
-            fromStopFacility = routeStop.getStopFacility();
-            if (fromStopFacility == toStopFacility) {
-                return true;
-            }
+
+        @Override
+        protected void compute() {
+            this.action.accept(this.stopIndex);
         }
-        return false;
     }
 
-    private static boolean cannotReachAdditionalStops(RRouteStop fromRouteStop, RRouteStop toRouteStop) {
-        Iterator<TransitRouteStop> fromIter = fromRouteStop.route.getStops().iterator();
-        while (fromIter.hasNext()) {
-            TransitRouteStop routeStop = fromIter.next();
-            if (fromRouteStop.routeStop == routeStop) {
-                break;
+    /**
+     * Calculates the possible transfers between route stops, grouped by the stop facility they start at.
+     * {@link #calculateTransfers(int)} stores the transfers of a stop facility ordered by their
+     * from-route-stop and counts them per route stop, {@link #copyTransfers} then copies them to
+     * their final location once the offsets per route stop are known.
+     * Both methods can be called concurrently for different stop facilities.
+     */
+    private static final class TransferCalculator {
+        private final QuadTree<TransitStopFacility> stopsQT;
+        private final TransitStopFacility[] stopFacilities;
+        private final Map<TransitStopFacility, Integer> stopFacilityIndices;
+        private final int[] stopRouteStopOffsets;
+        private final int[] stopRouteStops;
+        private final RRoute[] routes;
+        private final double[] departures;
+        private final int[] routeStopRouteIndices;
+        private final int[] routeStopStopIndices;
+        private final double[] routeStopArrivalOffsets;
+        private final double[] routeStopDepartureOffsets;
+        private final int[][] sortedStopFacilityIndicesPerRoute;
+        private final MinimalTransferTimes mtt;
+        private final Map<TransitStopFacility, List<TransitStopFacility>> additionalTransfersFromSchedule = new HashMap<>();
+        private final double maxBeelineWalkConnectionDistance;
+        private final double beelineWalkSpeed;
+        private final double transferUtilPerS;
+        private final double minimalTransferTime;
+        private final RaptorStaticConfig.RaptorOptimization optimization;
+
+        private final TransferList[] transfersPerStopFacility;
+        final int[] transferCountPerRouteStop;
+
+        TransferCalculator(TransitSchedule schedule, QuadTree<TransitStopFacility> stopsQT, TransitStopFacility[] stopFacilities,
+                           Map<TransitStopFacility, Integer> stopFacilityIndices, int[] stopRouteStopOffsets, int[] stopRouteStops,
+                           RRoute[] routes, double[] departures, int[] routeStopRouteIndices, int[] routeStopStopIndices,
+                           double[] routeStopArrivalOffsets, double[] routeStopDepartureOffsets, RaptorStaticConfig config) {
+            this.stopsQT = stopsQT;
+            this.stopFacilities = stopFacilities;
+            this.stopFacilityIndices = stopFacilityIndices;
+            this.stopRouteStopOffsets = stopRouteStopOffsets;
+            this.stopRouteStops = stopRouteStops;
+            this.routes = routes;
+            this.departures = departures;
+            this.routeStopRouteIndices = routeStopRouteIndices;
+            this.routeStopStopIndices = routeStopStopIndices;
+            this.routeStopArrivalOffsets = routeStopArrivalOffsets;
+            this.routeStopDepartureOffsets = routeStopDepartureOffsets;
+            this.mtt = schedule.getMinimalTransferTimes();
+            this.maxBeelineWalkConnectionDistance = config.getBeelineWalkConnectionDistance();
+            this.beelineWalkSpeed = config.getBeelineWalkSpeed();
+            this.transferUtilPerS = config.getMarginalUtilityOfTravelTimeWalk_utl_s();
+            this.minimalTransferTime = config.getMinimalTransferTime();
+            this.optimization = config.getOptimization();
+            this.transfersPerStopFacility = new TransferList[stopFacilities.length];
+            this.transferCountPerRouteStop = new int[routeStopStopIndices.length];
+
+            // the stop facilities served by each route, sorted to allow a binary search
+            this.sortedStopFacilityIndicesPerRoute = new int[routes.length][];
+            for (int routeIndex = 0; routeIndex < routes.length; routeIndex++) {
+                RRoute route = routes[routeIndex];
+                int[] stopIndices = Arrays.copyOfRange(routeStopStopIndices, route.indexFirstRouteStop, route.indexFirstRouteStop + route.countRouteStops);
+                Arrays.sort(stopIndices);
+                this.sortedStopFacilityIndicesPerRoute[routeIndex] = stopIndices;
+            }
+
+            // take the transfers from the schedule into account
+            MinimalTransferTimes.MinimalTransferTimesIterator iter = this.mtt.iterator();
+            while (iter.hasNext()) {
+                iter.next();
+                TransitStopFacility fromStop = schedule.getFacilities().get(iter.getFromStopId());
+                TransitStopFacility toStop = schedule.getFacilities().get(iter.getToStopId());
+                this.additionalTransfersFromSchedule.computeIfAbsent(fromStop, stop -> new ArrayList<>(5)).add(toStop);
             }
         }
-        Iterator<TransitRouteStop> toIter = toRouteStop.route.getStops().iterator();
-        while (toIter.hasNext()) {
-            TransitRouteStop routeStop = toIter.next();
-            if (toRouteStop.routeStop == routeStop) {
-                break;
+
+        void calculateTransfers(int fromStopIndex) {
+            TransitStopFacility fromStop = this.stopFacilities[fromStopIndex];
+            Coord fromCoord = fromStop.getCoord();
+
+            // first, add transfers based on distance, then the ones from the schedule
+            List<TransitStopFacility> toStops = new ArrayList<>(this.stopsQT.getDisk(fromCoord.getX(), fromCoord.getY(), this.maxBeelineWalkConnectionDistance));
+            List<TransitStopFacility> additionalToStops = this.additionalTransfersFromSchedule.get(fromStop);
+            if (additionalToStops != null) {
+                for (TransitStopFacility toStop : additionalToStops) {
+                    if (!toStops.contains(toStop)) {
+                        toStops.add(toStop);
+                    }
+                }
+            }
+
+            int countToStops = toStops.size();
+            int[] toStopIndices = new int[countToStops];
+            double[] transferTimes = new double[countToStops];
+            double[] transferCosts = new double[countToStops];
+            double[] distances = new double[countToStops];
+            for (int i = 0; i < countToStops; i++) {
+                TransitStopFacility toStop = toStops.get(i);
+                Integer toStopIndex = toStop == null ? null : this.stopFacilityIndices.get(toStop);
+                if (toStopIndex == null) {
+                    // the stop facility is not served by any route, so there is nothing to transfer to
+                    toStopIndices[i] = -1;
+                    continue;
+                }
+                toStopIndices[i] = toStopIndex;
+                double distance = CoordUtils.calcEuclideanDistance(fromCoord, toStop.getCoord());
+                double transferTime = distance / this.beelineWalkSpeed;
+                if (transferTime < this.minimalTransferTime) {
+                    transferTime = this.minimalTransferTime;
+                }
+
+                transferTime = this.mtt.get(fromStop.getId(), toStop.getId(), transferTime);
+
+                double transferUtil = transferTime * this.transferUtilPerS;
+                transferTimes[i] = transferTime;
+                transferCosts[i] = -transferUtil;
+                distances[i] = distance;
             }
+
+            // now calculate the transfers between the route stops
+            TransferList stopTransfers = new TransferList();
+            for (int fromPos = this.stopRouteStopOffsets[fromStopIndex]; fromPos < this.stopRouteStopOffsets[fromStopIndex + 1]; fromPos++) {
+                int fromRouteStopIndex = this.stopRouteStops[fromPos];
+                int countBefore = stopTransfers.size;
+                for (int i = 0; i < countToStops; i++) {
+                    int toStopIndex = toStopIndices[i];
+                    if (toStopIndex < 0) {
+                        continue;
+                    }
+                    for (int toPos = this.stopRouteStopOffsets[toStopIndex]; toPos < this.stopRouteStopOffsets[toStopIndex + 1]; toPos++) {
+                        int toRouteStopIndex = this.stopRouteStops[toPos];
+                        if (isUsefulTransfer(fromRouteStopIndex, toRouteStopIndex)) {
+                            stopTransfers.add(toRouteStopIndex, transferTimes[i], transferCosts[i], distances[i]);
+                        }
+                    }
+                }
+                this.transferCountPerRouteStop[fromRouteStopIndex] = stopTransfers.size - countBefore;
+            }
+            this.transfersPerStopFacility[fromStopIndex] = stopTransfers;
+        }
+
+        void copyTransfers(int fromStopIndex, int[] routeStopTransferOffsets, int[] toRouteStops, double[] times, double[] costs, double[] distances) {
+            TransferList stopTransfers = this.transfersPerStopFacility[fromStopIndex];
+            int index = 0;
+            for (int fromPos = this.stopRouteStopOffsets[fromStopIndex]; fromPos < this.stopRouteStopOffsets[fromStopIndex + 1]; fromPos++) {
+                int fromRouteStopIndex = this.stopRouteStops[fromPos];
+                int transferCount = this.transferCountPerRouteStop[fromRouteStopIndex];
+                if (transferCount > 0) {
+                    int offset = routeStopTransferOffsets[fromRouteStopIndex];
+                    System.arraycopy(stopTransfers.toRouteStops, index, toRouteStops, offset, transferCount);
+                    System.arraycopy(stopTransfers.times, index, times, offset, transferCount);
+                    System.arraycopy(stopTransfers.costs, index, costs, offset, transferCount);
+                    System.arraycopy(stopTransfers.distances, index, distances, offset, transferCount);
+                    index += transferCount;
+                }
+            }
+            this.transfersPerStopFacility[fromStopIndex] = null;
         }
-        // both iterators now point to the route stops where the potential transfer happens
-        while (true) {
-            boolean fromRouteHasNext = fromIter.hasNext();
-            boolean toRouteHasNext = toIter.hasNext();
-            if (!toRouteHasNext) {
-                // there are no more stops in the toRoute
-                return true;
+
+        private boolean isUsefulTransfer(int fromRouteStopIndex, int toRouteStopIndex) {
+            if (fromRouteStopIndex == toRouteStopIndex) {
+                return false;
             }
-            if (!fromRouteHasNext) {
-                // there are no more stops in the fromRoute, but there are in the toRoute
+            RRoute fromRoute = this.routes[this.routeStopRouteIndices[fromRouteStopIndex]];
+            RRoute toRoute = this.routes[this.routeStopRouteIndices[toRouteStopIndex]];
+            // there is no use to transfer away from the first stop in a route
+            if (fromRouteStopIndex == fromRoute.indexFirstRouteStop) {
                 return false;
             }
-            TransitRouteStop fromStop = fromIter.next();
-            TransitRouteStop toStop = toIter.next();
-            if (fromStop.getStopFacility() != toStop.getStopFacility()) {
-                // the toRoute goes to a different stop
+            // there is no use to transfer to the last stop in a route, we can't go anywhere from there
+            if (toRouteStopIndex == toRoute.indexFirstRouteStop + toRoute.countRouteStops - 1) {
                 return false;
             }
-        }
-    }
-
-    private static boolean couldHaveTransferredOneStopEarlierInOppositeDirection(RRouteStop fromRouteStop, RRouteStop toRouteStop, double maxBeelineWalkConnectionDistance) {
-        TransitRouteStop previousRouteStop = null;
-        for (TransitRouteStop routeStop : fromRouteStop.route.getStops()) {
-            if (fromRouteStop.routeStop == routeStop) {
-                break;
+            // if the first departure at fromRouteStop arrives after the last departure at toRouteStop,
+            // we'll never get any connection here
+            if (hasNoPossibleDeparture(fromRouteStopIndex, fromRoute, toRouteStopIndex, toRoute)) {
+                return false;
             }
-            previousRouteStop = routeStop;
-        }
-        if (previousRouteStop == null) {
-            return false;
+            // if the stop facilities are different, and the destination stop is part
+            // of the current route, it does not make sense to transfer here
+            if (toStopIsPartOfRouteButNotSame(fromRouteStopIndex, toRouteStopIndex)) {
+                return false;
+            }
+            // assuming vehicles serving the exact same stop sequence do not overtake each other,
+            // it does not make sense to transfer to another route that serves the exact same upcoming stops
+            if (cannotReachAdditionalStops(fromRouteStopIndex, fromRoute, toRouteStopIndex, toRoute)) {
+                return false;
+            }
+            if (this.optimization == RaptorStaticConfig.RaptorOptimization.OneToOneRouting) {
+                // If one could have transferred to the same route one stop before, it does not make sense
+                // to transfer here.
+                // This optimization may lead to unexpected results in the case of OneToAllRouting ("tree"),
+                // e.g. when starting at a single stop, users would expect that the stop facility
+                // in the opposite direction could be reached within a minute or so by walk. But the algorithm
+                // would find this if the transfers are missing.
+                if (couldHaveTransferredOneStopEarlierInOppositeDirection(fromRouteStopIndex, fromRoute, toRouteStopIndex, toRoute)) {
+                    return false;
+                }
+            }
+            // if we failed all other checks, it looks like this transfer is useful
+            return true;
         }
 
-        Iterator<TransitRouteStop> toIter = toRouteStop.route.getStops().iterator();
-        while (toIter.hasNext()) {
-            TransitRouteStop routeStop = toIter.next();
-            if (toRouteStop.routeStop == routeStop) {
-                break;
+        private boolean hasNoPossibleDeparture(int fromRouteStopIndex, RRoute fromRoute, int toRouteStopIndex, RRoute toRoute) {
+            if (fromRoute.countDepartures == 0 || toRoute.countDepartures == 0) {
+                return true;
             }
-        }
-        boolean toRouteHasNext = toIter.hasNext();
-        if (!toRouteHasNext) {
-            return false;
+            // the departures of each route are sorted
+            double earliestArrival = this.departures[fromRoute.indexFirstDeparture] + this.routeStopArrivalOffsets[fromRouteStopIndex];
+            double latestDeparture = this.departures[toRoute.indexFirstDeparture + toRoute.countDepartures - 1] + this.routeStopDepartureOffsets[toRouteStopIndex];
+            return earliestArrival > latestDeparture;
         }
 
-        TransitRouteStop toStop = toIter.next();
-        if (previousRouteStop.getStopFacility() == toStop.getStopFacility()) {
-            return true;
+        private boolean toStopIsPartOfRouteButNotSame(int fromRouteStopIndex, int toRouteStopIndex) {
+            int fromStopIndex = this.routeStopStopIndices[fromRouteStopIndex];
+            int toStopIndex = this.routeStopStopIndices[toRouteStopIndex];
+            if (fromStopIndex == toStopIndex) {
+                return false;
+            }
+            return Arrays.binarySearch(this.sortedStopFacilityIndicesPerRoute[this.routeStopRouteIndices[fromRouteStopIndex]], toStopIndex) >= 0;
+        }
+
+        private boolean cannotReachAdditionalStops(int fromRouteStopIndex, RRoute fromRoute, int toRouteStopIndex, RRoute toRoute) {
+            int fromEnd = fromRoute.indexFirstRouteStop + fromRoute.countRouteStops;
+            int toEnd = toRoute.indexFirstRouteStop + toRoute.countRouteStops;
+            int fromIndex = fromRouteStopIndex + 1;
+            int toIndex = toRouteStopIndex + 1;
+            while (true) {
+                if (toIndex == toEnd) {
+                    // there are no more stops in the toRoute
+                    return true;
+                }
+                if (fromIndex == fromEnd) {
+                    // there are no more stops in the fromRoute, but there are in the toRoute
+                    return false;
+                }
+                if (this.routeStopStopIndices[fromIndex] != this.routeStopStopIndices[toIndex]) {
+                    // the toRoute goes to a different stop
+                    return false;
+                }
+                fromIndex++;
+                toIndex++;
+            }
         }
 
-        double distance = CoordUtils.calcEuclideanDistance(previousRouteStop.getStopFacility().getCoord(), toStop.getStopFacility().getCoord());
-        return distance < maxBeelineWalkConnectionDistance;
-    }
+        private boolean couldHaveTransferredOneStopEarlierInOppositeDirection(int fromRouteStopIndex, RRoute fromRoute, int toRouteStopIndex, RRoute toRoute) {
+            if (fromRouteStopIndex == fromRoute.indexFirstRouteStop) {
+                return false;
+            }
+            if (toRouteStopIndex + 1 == toRoute.indexFirstRouteStop + toRoute.countRouteStops) {
+                return false;
+            }
+            int previousStopIndex = this.routeStopStopIndices[fromRouteStopIndex - 1];
+            int nextStopIndex = this.routeStopStopIndices[toRouteStopIndex + 1];
+            if (previousStopIndex == nextStopIndex) {
+                return true;
+            }
 
-    public Collection<TransitStopFacility> findNearbyStops(double x, double y, double distance) {
-        return this.stopsQT.getDisk(x, y, distance);
+            double distance = CoordUtils.calcEuclideanDistance(this.stopFacilities[previousStopIndex].getCoord(), this.stopFacilities[nextStopIndex].getCoord());
+            return distance < this.maxBeelineWalkConnectionDistance;
+        }
     }
 
-    public TransitStopFacility findNearestStop(double x, double y) {
-        return this.stopsQT.getClosest(x, y);
+    /**
+     * Growable parallel arrays to collect the transfers of one stop facility.
+     */
+    private static final class TransferList {
+        int size = 0;
+        int[] toRouteStops = new int[16];
+        double[] times = new double[16];
+        double[] costs = new double[16];
+        double[] distances = new double[16];
+
+        void add(int toRouteStop, double time, double cost, double distance) {
+            if (this.size == this.toRouteStops.length) {
+                int newLength = this.size * 2;
+                this.toRouteStops = Arrays.copyOf(this.toRouteStops, newLength);
+                this.times = Arrays.copyOf(this.times, newLength);
+                this.costs = Arrays.copyOf(this.costs, newLength);
+                this.distances = Arrays.copyOf(this.distances, newLength);
+            }
+            this.toRouteStops[this.size] = toRouteStop;
+            this.times[this.size] = time;
+            this.costs[this.size] = cost;
+            this.distances[this.size] = distance;
+            this.size++;
+        }
     }
 
     static final class RRoute {
@@ -480,50 +720,53 @@ public class SwissRailRaptorData {
         }
     }
 
+    /**
+     * The transfers of the data, grouped by the route stop they lead to instead of the route stop they start at.
+     * The transfers leading to route stop i are stored at <code>[routeStopTransferOffsets[i], routeStopTransferOffsets[i+1])</code>.
+     * Only the index of the transfer is stored, the transfer times, costs and distances are looked up
+     * in the forward transfer arrays with it.
+     */
+    static final class ReverseTransfers {
+        final int[] routeStopTransferOffsets;
+        final int[] fromRouteStops;
+        final int[] transferIndices;
+
+        ReverseTransfers(SwissRailRaptorData data) {
+            this.routeStopTransferOffsets = new int[data.countRouteStops + 1];
+            this.fromRouteStops = new int[data.countTransfers];
+            this.transferIndices = new int[data.countTransfers];
+            for (int transferIndex = 0; transferIndex < data.countTransfers; transferIndex++) {
+                this.routeStopTransferOffsets[data.transferToRouteStops[transferIndex] + 1]++;
+            }
+            for (int routeStopIndex = 0; routeStopIndex < data.countRouteStops; routeStopIndex++) {
+                this.routeStopTransferOffsets[routeStopIndex + 1] += this.routeStopTransferOffsets[routeStopIndex];
+            }
+            int[] nextPositions = Arrays.copyOf(this.routeStopTransferOffsets, data.countRouteStops);
+            for (int fromRouteStopIndex = 0; fromRouteStopIndex < data.countRouteStops; fromRouteStopIndex++) {
+                for (int transferIndex = data.routeStopTransferOffsets[fromRouteStopIndex]; transferIndex < data.routeStopTransferOffsets[fromRouteStopIndex + 1]; transferIndex++) {
+                    int pos = nextPositions[data.transferToRouteStops[transferIndex]]++;
+                    this.fromRouteStops[pos] = fromRouteStopIndex;
+                    this.transferIndices[pos] = transferIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * The references to the MATSim objects of a route stop. They are only needed when the final route is created,
+     * the routing itself works on the primitive arrays in {@link SwissRailRaptorData}.
+     */
     static final class RRouteStop {
         final TransitRouteStop routeStop;
         final TransitLine line;
         final TransitRoute route;
         final String mode;
-        final int transitRouteIndex;
-        final int stopFacilityIndex;
-        final double arrivalOffset;
-        final double departureOffset;
-        final double distanceAlongRoute;
-        int indexFirstTransfer = -1;
-        int countTransfers = 0;
-
-        RRouteStop(TransitRouteStop routeStop, TransitLine line, TransitRoute route, String mode, int transitRouteIndex, int stopFacilityIndex, double distanceAlongRoute) {
+
+        RRouteStop(TransitRouteStop routeStop, TransitLine line, TransitRoute route, String mode) {
             this.routeStop = routeStop;
             this.line = line;
             this.route = route;
             this.mode = mode;
-            this.transitRouteIndex = transitRouteIndex;
-            this.stopFacilityIndex = stopFacilityIndex;
-            this.distanceAlongRoute = distanceAlongRoute;
-            // "normalize" the arrival and departure offsets, make sure they are always well defined.
-            this.arrivalOffset = isUndefinedTime(routeStop.getArrivalOffset()) ? routeStop.getDepartureOffset() : routeStop.getArrivalOffset();
-            this.departureOffset = isUndefinedTime(routeStop.getDepartureOffset()) ? routeStop.getArrivalOffset() : routeStop.getDepartureOffset();
-        }
-
-        private static boolean isUndefinedTime(double time) {
-            return Time.isUndefinedTime(time) || Double.isNaN(time);
-        }
-    }
-
-    static final class RTransfer {
-        final int fromRouteStop;
-        final int toRouteStop;
-        final double transferTime;
-        final double transferCost;
-        final double transferDistance;
-
-        RTransfer(int fromRouteStop, int toRouteStop, double transferTime, double transferCost, double transferDistance) {
-            this.fromRouteStop = fromRouteStop;
-            this.toRouteStop = toRouteStop;
-            this.transferTime = transferTime;
-            this.transferCost = transferCost;
-            this.transferDistance = transferDistance;
         }
     }
 }
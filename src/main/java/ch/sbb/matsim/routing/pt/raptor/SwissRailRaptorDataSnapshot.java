@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData.RRoute;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorData.RRouteStop;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.utils.collections.QuadTree;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.MinimalTransferTimes;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link SwissRailRaptorData} to a binary file and reads it back, so the data does not have to be
+ * prepared again at every start if neither the transit schedule, the network nor the {@link RaptorStaticConfig}
+ * have changed.
+ *
+ * Each snapshot contains a hash of all the inputs relevant for the preparation of the data. A snapshot is only
+ * used if its hash and format version match the ones of the current inputs. The snapshot only contains indices
+ * and numbers; the references to the MATSim objects (lines, routes, route stops and stop facilities) are looked
+ * up again in the transit schedule when the snapshot is loaded.
+ *
+ * @author mrieser / SBB
+ */
+public final class SwissRailRaptorDataSnapshot {
+
+    private static final Logger log = Logger.getLogger(SwissRailRaptorDataSnapshot.class);
+
+    private static final int MAGIC = 0x53525244; // "SRRD"
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+
+    private SwissRailRaptorDataSnapshot() {
+    }
+
+    /**
+     * Loads the data from the snapshot file if the file exists and was created from the same inputs.
+     * Otherwise, the data is prepared from scratch and written to the snapshot file.
+     */
+    public static SwissRailRaptorData loadOrCreate(File snapshotFile, TransitSchedule schedule, RaptorStaticConfig staticConfig, Network network) {
+        byte[] hash = calcHash(schedule, staticConfig, network);
+        if (snapshotFile.exists()) {
+            try {
+                SwissRailRaptorData data = read(snapshotFile, hash, schedule, staticConfig);
+                if (data != null) {
+                    return data;
+                }
+                log.info("SwissRailRaptor data snapshot " + snapshotFile + " does not match the current input data, preparing the data again.");
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not read SwissRailRaptor data snapshot " + snapshotFile + ", preparing the data again.", e);
+            }
+        }
+        SwissRailRaptorData data = SwissRailRaptorData.create(schedule, staticConfig, network);
+        try {
+            write(data, hash, snapshotFile);
+        } catch (IOException e) {
+            log.warn("Could not write SwissRailRaptor data snapshot " + snapshotFile, e);
+        }
+        return data;
+    }
+
+    /**
+     * Calculates a hash over all the inputs that have an influence on the prepared {@link SwissRailRaptorData}.
+     */
+    public static byte[] calcHash(TransitSchedule schedule, RaptorStaticConfig staticConfig, Network network) {
+        Hasher hasher = new Hasher();
+        hasher.putInt(VERSION);
+
+        hasher.putDouble(staticConfig.getBeelineWalkConnectionDistance());
+        hasher.putDouble(staticConfig.getBeelineWalkSpeed());
+        hasher.putDouble(staticConfig.getMarginalUtilityOfTravelTimeWalk_utl_s());
+        hasher.putDouble(staticConfig.getMarginalUtilityOfTravelTimeAccessWalk_utl_s());
+        hasher.putDouble(staticConfig.getMarginalUtilityOfTravelTimeEgressWalk_utl_s());
+        hasher.putDouble(staticConfig.getMinimalTransferTime());
+        hasher.putString(staticConfig.getOptimization().name());
+        boolean useModeMapping = staticConfig.isUseModeMappingForPassengers();
+        hasher.putInt(useModeMapping ? 1 : 0);
+
+        for (TransitStopFacility stop : schedule.getFacilities().values()) {
+            hasher.putString(stop.getId().toString());
+            hasher.putDouble(stop.getCoord().getX());
+            hasher.putDouble(stop.getCoord().getY());
+            hasher.putString(stop.getLinkId() == null ? null : stop.getLinkId().toString());
+        }
+
+        for (TransitLine line : schedule.getTransitLines().values()) {
+            hasher.putString(line.getId().toString());
+            for (TransitRoute route : line.getRoutes().values()) {
+                hasher.putString(route.getId().toString());
+                hasher.putString(useModeMapping ? staticConfig.getPassengerMode(route.getTransportMode()) : TransportMode.pt);
+                NetworkRoute networkRoute = route.getRoute();
+                hashLink(hasher, networkRoute.getStartLinkId(), network);
+                for (Id<Link> linkId : networkRoute.getLinkIds()) {
+                    hashLink(hasher, linkId, network);
+                }
+                hashLink(hasher, networkRoute.getEndLinkId(), network);
+                for (TransitRouteStop routeStop : route.getStops()) {
+                    hasher.putString(routeStop.getStopFacility().getId().toString());
+                    hasher.putDouble(routeStop.getArrivalOffset());
+                    hasher.putDouble(routeStop.getDepartureOffset());
+                }
+                for (Departure departure : route.getDepartures().values()) {
+                    hasher.putDouble(departure.getDepartureTime());
+                }
+            }
+        }
+
+        MinimalTransferTimes.MinimalTransferTimesIterator iter = schedule.getMinimalTransferTimes().iterator();
+        while (iter.hasNext()) {
+            iter.next();
+            hasher.putString(iter.getFromStopId().toString());
+            hasher.putString(iter.getToStopId().toString());
+            hasher.putDouble(iter.getSeconds());
+        }
+
+        return hasher.digest();
+    }
+
+    private static void hashLink(Hasher hasher, Id<Link> linkId, Network network) {
+        hasher.putString(linkId.toString());
+        Link link = network.getLinks().get(linkId);
+        hasher.putDouble(link == null ? Double.NaN : link.getLength());
+    }
+
+    /**
+     * Writes the snapshot to a temporary file in the same directory first and then moves it into place,
+     * so concurrent runs or a failure while writing never leave a partially written snapshot behind.
+     */
+    public static void write(SwissRailRaptorData data, byte[] hash, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tmpFile = File.createTempFile(file.getName() + ".", ".tmp", directory);
+        boolean moved = false;
+        try {
+            writeFile(data, hash, tmpFile);
+            try {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        }
+    }
+
+    private static void writeFile(SwissRailRaptorData data, byte[] hash, File file) throws IOException {
+        TransitStopFacility[] stopFacilities = data.stopFacilities;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+
+            out.writeInt(stopFacilities.length);
+            for (TransitStopFacility stop : stopFacilities) {
+                writeString(out, stop.getId().toString());
+            }
+
+            out.writeInt(data.routes.length);
+            for (RRoute route : data.routes) {
+                if (route.countRouteStops > 0) {
+                    RRouteStop firstRouteStop = data.routeStops[route.indexFirstRouteStop];
+                    writeString(out, firstRouteStop.line.getId().toString());
+                    writeString(out, firstRouteStop.route.getId().toString());
+                    writeString(out, firstRouteStop.mode);
+                } else {
+                    // a route without stops is never referenced, there is nothing to resolve later
+                    writeString(out, null);
+                    writeString(out, null);
+                    writeString(out, null);
+                }
+                out.writeInt(route.indexFirstRouteStop);
+                out.writeInt(route.countRouteStops);
+                out.writeInt(route.indexFirstDeparture);
+                out.writeInt(route.countDepartures);
+            }
+
+            out.writeInt(data.departures.length);
+            writeDoubles(out, data.departures);
+
+            out.writeInt(data.countRouteStops);
+            writeInts(out, data.routeStopStopIndices);
+            writeDoubles(out, data.routeStopArrivalOffsets);
+            writeDoubles(out, data.routeStopDepartureOffsets);
+            writeDoubles(out, data.routeStopDistances);
+            writeInts(out, data.routeStopTransferOffsets);
+
+            out.writeInt(data.countTransfers);
+            writeInts(out, data.transferToRouteStops);
+            writeDoubles(out, data.transferTimes);
+            writeDoubles(out, data.transferCosts);
+            writeDoubles(out, data.transferDistances);
+        }
+    }
+
+    /**
+     * Reads the data from a snapshot file using a memory-mapped buffer.
+     *
+     * @return the data stored in the file, or <code>null</code> if the file has a different format version
+     * or was created from different input data.
+     */
+    public static SwissRailRaptorData read(File file, byte[] hash, TransitSchedule schedule, RaptorStaticConfig staticConfig) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                log.warn("SwissRailRaptor data snapshot " + file + " is too large to be memory-mapped.");
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a SwissRailRaptor data snapshot: " + file);
+            }
+            if (buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] fileHash = new byte[HASH_LENGTH];
+            buffer.get(fileHash);
+            if (!Arrays.equals(hash, fileHash)) {
+                return null;
+            }
+            return read(buffer, schedule, staticConfig);
+        }
+    }
+
+    private static SwissRailRaptorData read(ByteBuffer buffer, TransitSchedule schedule, RaptorStaticConfig staticConfig) {
+        int countStops = buffer.getInt();
+        TransitStopFacility[] stopFacilities = new TransitStopFacility[countStops];
+        Map<TransitStopFacility, Integer> stopFacilityIndices = new HashMap<>((int) (countStops * 1.5));
+        for (int stopIndex = 0; stopIndex < countStops; stopIndex++) {
+            Id<TransitStopFacility> stopId = Id.create(readString(buffer), TransitStopFacility.class);
+            TransitStopFacility stop = schedule.getFacilities().get(stopId);
+            if (stop == null) {
+                throw new RuntimeException("Stop facility " + stopId + " from the snapshot is missing in the transit schedule.");
+            }
+            stopFacilities[stopIndex] = stop;
+            stopFacilityIndices.put(stop, stopIndex);
+        }
+
+        int countRoutes = buffer.getInt();
+        RRoute[] routes = new RRoute[countRoutes];
+        TransitLine[] lines = new TransitLine[countRoutes];
+        TransitRoute[] transitRoutes = new TransitRoute[countRoutes];
+        String[] modes = new String[countRoutes];
+        for (int routeIndex = 0; routeIndex < countRoutes; routeIndex++) {
+            String lineId = readString(buffer);
+            String routeId = readString(buffer);
+            if (lineId != null) {
+                TransitLine line = schedule.getTransitLines().get(Id.create(lineId, TransitLine.class));
+                TransitRoute route = line == null ? null : line.getRoutes().get(Id.create(routeId, TransitRoute.class));
+                if (route == null) {
+                    throw new RuntimeException("Transit route " + lineId + " / " + routeId + " from the snapshot is missing in the transit schedule.");
+                }
+                lines[routeIndex] = line;
+                transitRoutes[routeIndex] = route;
+            }
+            modes[routeIndex] = readString(buffer);
+            routes[routeIndex] = new RRoute(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+        }
+
+        int countDepartures = buffer.getInt();
+        double[] departures = readDoubles(buffer, countDepartures);
+
+        int countRouteStops = buffer.getInt();
+        int[] routeStopStopIndices = readInts(buffer, countRouteStops);
+        double[] routeStopArrivalOffsets = readDoubles(buffer, countRouteStops);
+        double[] routeStopDepartureOffsets = readDoubles(buffer, countRouteStops);
+        double[] routeStopDistances = readDoubles(buffer, countRouteStops);
+        int[] routeStopTransferOffsets = readInts(buffer, countRouteStops + 1);
+
+        RRouteStop[] routeStops = new RRouteStop[countRouteStops];
+        int[] routeStopRouteIndices = new int[countRouteStops];
+        for (int routeIndex = 0; routeIndex < countRoutes; routeIndex++) {
+            RRoute route = routes[routeIndex];
+            TransitRoute transitRoute = transitRoutes[routeIndex];
+            for (int i = 0; i < route.countRouteStops; i++) {
+                TransitRouteStop transitRouteStop = transitRoute.getStops().get(i);
+                routeStops[route.indexFirstRouteStop + i] = new RRouteStop(transitRouteStop, lines[routeIndex], transitRoute, modes[routeIndex]);
+                routeStopRouteIndices[route.indexFirstRouteStop + i] = routeIndex;
+            }
+        }
+
+        int countTransfers = buffer.getInt();
+        int[] transferToRouteStops = readInts(buffer, countTransfers);
+        double[] transferTimes = readDoubles(buffer, countTransfers);
+        double[] transferCosts = readDoubles(buffer, countTransfers);
+        double[] transferDistances = readDoubles(buffer, countTransfers);
+
+        int[] stopRouteStopOffsets = SwissRailRaptorData.getStopRouteStopOffsets(countStops, routeStopStopIndices);
+        int[] stopRouteStops = SwissRailRaptorData.getStopRouteStops(stopRouteStopOffsets, routeStopStopIndices);
+        QuadTree<TransitStopFacility> stopsQT = SwissRailRaptorData.createStopsQuadTree(stopFacilities);
+
+        log.info("SwissRailRaptor data loaded from snapshot. #routeStops = " + countRouteStops + ", #transfers = " + countTransfers);
+        return new SwissRailRaptorData(staticConfig, countStops, routes, departures, routeStops,
+                routeStopRouteIndices, routeStopStopIndices, routeStopArrivalOffsets, routeStopDepartureOffsets, routeStopDistances, routeStopTransferOffsets,
+                transferToRouteStops, transferTimes, transferCosts, transferDistances,
+                stopFacilities, stopFacilityIndices, stopRouteStopOffsets, stopRouteStops, stopsQT);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Hasher {
+        private final MessageDigest digest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+
+        Hasher() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void putInt(int value) {
+            this.buffer.clear();
+            this.buffer.putInt(value);
+            this.digest.update(this.buffer.array(), 0, Integer.BYTES);
+        }
+
+        void putDouble(double value) {
+            this.buffer.clear();
+            this.buffer.putLong(Double.doubleToLongBits(value));
+            this.digest.update(this.buffer.array(), 0, Long.BYTES);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            this.digest.update(bytes);
+        }
+
+        byte[] digest() {
+            return this.digest.digest();
+        }
+    }
+}
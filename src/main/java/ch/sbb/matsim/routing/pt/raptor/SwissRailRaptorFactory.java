@@ -17,6 +17,7 @@ import org.matsim.pt.transitSchedule.api.TransitSchedule;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,6 +33,7 @@ public class SwissRailRaptorFactory implements Provider<SwissRailRaptor> {
     private final RaptorParametersForPerson raptorParametersForPerson;
     private final RaptorRouteSelector routeSelector;
     private final RaptorIntermodalAccessEgress intermodalAE;
+    private final String dataSnapshotFile;
 
     private final Network network;
     private final PlansConfigGroup plansConfigGroup;
@@ -53,6 +55,7 @@ public class SwissRailRaptorFactory implements Provider<SwissRailRaptor> {
         this.population = population;
 
         SwissRailRaptorConfigGroup srrConfig = ConfigUtils.addOrGetModule(config, SwissRailRaptorConfigGroup.class);
+        this.dataSnapshotFile = srrConfig.getDataSnapshotFile();
         this.routingModuleProviders = new HashMap<>();
         if (srrConfig.isUseIntermodalAccessEgress()) {
             for (IntermodalAccessEgressParameterSet params : srrConfig.getIntermodalAccessEgressParameterSets()) {
@@ -88,7 +91,11 @@ public class SwissRailRaptorFactory implements Provider<SwissRailRaptor> {
             // prevent doing the work twice.
             return this.data;
         }
-        this.data = SwissRailRaptorData.create(this.schedule, this.raptorConfig, this.network);
+        if (this.dataSnapshotFile == null) {
+            this.data = SwissRailRaptorData.create(this.schedule, this.raptorConfig, this.network);
+        } else {
+            this.data = SwissRailRaptorDataSnapshot.loadOrCreate(new File(this.dataSnapshotFile), this.schedule, this.raptorConfig, this.network);
+        }
         return this.data;
     }
 
@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Calculates zone-to-zone skim matrices for public transport.
+ *
+ * For every origin zone and every departure time, a least-cost tree is calculated starting at the stops
+ * near the zone. Each destination zone is then reached via the stop near it with the least total cost
+ * (including the egress walk). The indicators of these connections are averaged over all departure times
+ * for which a connection using pt was found. If no such connection was found, the value is <code>NaN</code>.
+ *
+ * The origin zones are processed in parallel in the common fork-join pool, each on a core borrowed from
+ * the core pool of the {@link SwissRailRaptorData}. Access and egress are always walked along the beeline
+ * to the stops within the search radius, intermodal access and egress are not taken into account.
+ *
+ * @author mrieser / SBB
+ */
+public final class SwissRailRaptorSkims {
+
+    public static final String TRAVEL_TIME = "travelTime";
+    public static final String TRANSFER_COUNT = "transferCount";
+    public static final String ACCESS_TIME = "accessTime";
+    public static final String EGRESS_TIME = "egressTime";
+    public static final String IN_VEHICLE_TIME = "inVehicleTime";
+
+    private static final String[] MATRIX_NAMES = { TRAVEL_TIME, TRANSFER_COUNT, ACCESS_TIME, EGRESS_TIME, IN_VEHICLE_TIME };
+    private static final int TRAVEL_TIME_INDEX = 0;
+    private static final int TRANSFER_COUNT_INDEX = 1;
+    private static final int ACCESS_TIME_INDEX = 2;
+    private static final int EGRESS_TIME_INDEX = 3;
+    private static final int IN_VEHICLE_TIME_INDEX = 4;
+
+    private final SwissRailRaptorData data;
+    private final RaptorParameters parameters;
+
+    public SwissRailRaptorSkims(SwissRailRaptorData data, RaptorParameters parameters) {
+        this.data = data;
+        this.parameters = parameters;
+    }
+
+    /**
+     * @param zoneCoords the coordinates of the zones, the index in the list is used as index in the matrices
+     * @param departureTimes the departure times to average over, e.g. every 5 minutes of the peak hour
+     */
+    public SkimMatrices calcSkims(List<Coord> zoneCoords, double[] departureTimes) {
+        int zoneCount = zoneCoords.size();
+        ZoneStops[] zoneStops = new ZoneStops[zoneCount];
+        for (int zone = 0; zone < zoneCount; zone++) {
+            zoneStops[zone] = findZoneStops(zoneCoords.get(zone));
+        }
+
+        SkimMatrices skims = new SkimMatrices(zoneCount, MATRIX_NAMES);
+        List<RecursiveAction> tasks = new ArrayList<>(zoneCount);
+        for (int zone = 0; zone < zoneCount; zone++) {
+            final int fromZone = zone;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    SwissRailRaptorCore raptor = SwissRailRaptorSkims.this.data.corePool.borrow();
+                    try {
+                        calcSkimsFromZone(raptor, fromZone, zoneStops, departureTimes, skims);
+                    } finally {
+                        SwissRailRaptorSkims.this.data.corePool.release(raptor);
+                    }
+                }
+            });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return skims;
+    }
+
+    /**
+     * Fills the row <code>fromZone</code> of all matrices. Each origin zone writes to its own rows only,
+     * so the zones can be processed concurrently without synchronization.
+     */
+    private void calcSkimsFromZone(SwissRailRaptorCore raptor, int fromZone, ZoneStops[] zoneStops, double[] departureTimes, SkimMatrices skims) {
+        int zoneCount = zoneStops.length;
+        double[][] sums = new double[MATRIX_NAMES.length][zoneCount];
+        int[] counts = new int[zoneCount];
+        RaptorTreeResult tree = new RaptorTreeResult(this.data);
+
+        for (double depTime : departureTimes) {
+            raptor.calcLeastCostTree(depTime, zoneStops[fromZone].accessStops, this.parameters, tree);
+            for (int toZone = 0; toZone < zoneCount; toZone++) {
+                ZoneStops egress = zoneStops[toZone];
+                int bestStop = -1;
+                double bestCost = Double.POSITIVE_INFINITY;
+                double bestEgressTime = 0;
+                for (int i = 0; i < egress.stopIndices.length; i++) {
+                    int stopIndex = egress.stopIndices[i];
+                    if (stopIndex < 0 || Double.isNaN(tree.ptDepartureTime[stopIndex])) {
+                        continue; // not reachable, or only reachable by walking
+                    }
+                    double cost = tree.totalCost[stopIndex] + egress.egressCosts[i];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestStop = stopIndex;
+                        bestEgressTime = egress.egressTimes[i];
+                    }
+                }
+                if (bestStop >= 0) {
+                    double startTime = tree.ptDepartureTime[bestStop] - tree.accessTime[bestStop];
+                    sums[TRAVEL_TIME_INDEX][toZone] += tree.arrivalTime[bestStop] + bestEgressTime - startTime;
+                    sums[TRANSFER_COUNT_INDEX][toZone] += tree.transferCount[bestStop];
+                    sums[ACCESS_TIME_INDEX][toZone] += tree.accessTime[bestStop];
+                    sums[EGRESS_TIME_INDEX][toZone] += bestEgressTime;
+                    sums[IN_VEHICLE_TIME_INDEX][toZone] += tree.inVehicleTime[bestStop];
+                    counts[toZone]++;
+                }
+            }
+        }
+
+        int rowOffset = fromZone * zoneCount;
+        for (int m = 0; m < MATRIX_NAMES.length; m++) {
+            float[] values = skims.values[m];
+            for (int toZone = 0; toZone < zoneCount; toZone++) {
+                values[rowOffset + toZone] = counts[toZone] == 0 ? Float.NaN : (float) (sums[m][toZone] / counts[toZone]);
+            }
+        }
+    }
+
+    private ZoneStops findZoneStops(Coord coord) {
+        Collection<TransitStopFacility> stops = this.data.stopsQT.getDisk(coord.getX(), coord.getY(), this.parameters.getSearchRadius());
+        if (stops.size() < 2) {
+            TransitStopFacility nearestStop = this.data.stopsQT.getClosest(coord.getX(), coord.getY());
+            if (nearestStop == null) {
+                return new ZoneStops(0); // there are no stops at all
+            }
+            double nearestDistance = CoordUtils.calcEuclideanDistance(coord, nearestStop.getCoord());
+            stops = this.data.stopsQT.getDisk(coord.getX(), coord.getY(), nearestDistance + this.parameters.getExtensionRadius());
+        }
+        RaptorStaticConfig config = this.data.config;
+        ZoneStops zoneStops = new ZoneStops(stops.size());
+        int i = 0;
+        for (TransitStopFacility stop : stops) {
+            double beelineDistance = CoordUtils.calcEuclideanDistance(stop.getCoord(), coord);
+            double walkTime = Math.ceil(beelineDistance / config.getBeelineWalkSpeed());
+            double accessCost = walkTime * -config.getMarginalUtilityOfTravelTimeAccessWalk_utl_s();
+            zoneStops.accessStops.add(new InitialStop(stop, this.data.getStopFacilityIndex(stop), accessCost, walkTime, beelineDistance, TransportMode.access_walk));
+            zoneStops.stopIndices[i] = this.data.getStopFacilityIndex(stop);
+            zoneStops.egressTimes[i] = walkTime;
+            zoneStops.egressCosts[i] = walkTime * -config.getMarginalUtilityOfTravelTimeEgressWalk_utl_s();
+            i++;
+        }
+        return zoneStops;
+    }
+
+    private static final class ZoneStops {
+        final List<InitialStop> accessStops;
+        final int[] stopIndices; // -1 if the stop is not served
+        final double[] egressTimes;
+        final double[] egressCosts;
+
+        ZoneStops(int count) {
+            this.accessStops = new ArrayList<>(count);
+            this.stopIndices = new int[count];
+            this.egressTimes = new double[count];
+            this.egressCosts = new double[count];
+        }
+    }
+
+    /**
+     * A set of square zone-to-zone matrices, stored row by row (<code>values[from * zoneCount + to]</code>).
+     *
+     * The matrices can be written to a binary file that can be memory-mapped by other tools. All numbers in
+     * the file are little-endian. The file starts with a header of 4 ints (magic number <code>"SKIM"</code>,
+     * format version, number of zones, number of matrices), followed by the name of each matrix as 32 bytes
+     * of US-ASCII text padded with zeros. Afterwards, each matrix follows as <code>zoneCount * zoneCount</code>
+     * float32 values in the order of the names.
+     */
+    public static final class SkimMatrices {
+
+        private static final int MAGIC = 0x534B494D; // "SKIM"
+        private static final int VERSION = 1;
+        private static final int NAME_LENGTH = 32;
+        private static final int MAX_FLOATS_PER_MAPPING = 1 << 28; // map at most 1 GiB at once
+
+        public final int zoneCount;
+        private final String[] names;
+        final float[][] values;
+
+        SkimMatrices(int zoneCount, String[] names) {
+            if ((long) zoneCount * zoneCount > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many zones for a skim matrix: " + zoneCount);
+            }
+            this.zoneCount = zoneCount;
+            this.names = names.clone();
+            this.values = new float[names.length][zoneCount * zoneCount];
+        }
+
+        public List<String> getNames() {
+            return Arrays.asList(this.names);
+        }
+
+        public float get(String name, int fromZone, int toZone) {
+            return this.values[getMatrixIndex(name)][fromZone * this.zoneCount + toZone];
+        }
+
+        private int getMatrixIndex(String name) {
+            for (int i = 0; i < this.names.length; i++) {
+                if (this.names[i].equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown skim matrix: " + name);
+        }
+
+        public void write(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                raf.setLength(0);
+                ByteBuffer header = ByteBuffer.allocate(4 * 4 + this.names.length * NAME_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(this.zoneCount);
+                header.putInt(this.names.length);
+                for (String name : this.names) {
+                    byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+                    if (bytes.length > NAME_LENGTH) {
+                        throw new IllegalArgumentException("Skim matrix name is too long: " + name);
+                    }
+                    header.put(bytes);
+                    header.put(new byte[NAME_LENGTH - bytes.length]);
+                }
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                long position = channel.position();
+                for (float[] matrix : this.values) {
+                    for (int offset = 0; offset < matrix.length; offset += MAX_FLOATS_PER_MAPPING) {
+                        int length = Math.min(MAX_FLOATS_PER_MAPPING, matrix.length - offset);
+                        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) length * 4);
+                        buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(matrix, offset, length);
+                        buffer.force();
+                        position += (long) length * 4;
+                    }
+                }
+            }
+        }
+
+        public static SkimMatrices read(File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * 4).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, buffer);
+                if (buffer.getInt() != MAGIC) {
+                    throw new IOException("Not a skim matrix file: " + file);
+                }
+                int version = buffer.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported skim matrix file version " + version + " in " + file);
+                }
+                int zoneCount = buffer.getInt();
+                int matrixCount = buffer.getInt();
+                buffer = ByteBuffer.allocate(matrixCount * NAME_LENGTH);
+                readFully(channel, buffer);
+                String[] names = new String[matrixCount];
+                byte[] nameBytes = new byte[NAME_LENGTH];
+                for (int m = 0; m < matrixCount; m++) {
+                    buffer.get(nameBytes);
+                    int length = 0;
+                    while (length < NAME_LENGTH && nameBytes[length] != 0) {
+                        length++;
+                    }
+                    names[m] = new String(nameBytes, 0, length, StandardCharsets.US_ASCII);
+                }
+                SkimMatrices skims = new SkimMatrices(zoneCount, names);
+                long position = channel.position();
+                for (float[] matrix : skims.values) {
+                    for (int offset = 0; offset < matrix.length; offset += MAX_FLOATS_PER_MAPPING) {
+                        int length = Math.min(MAX_FLOATS_PER_MAPPING, matrix.length - offset);
+                        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) length * 4);
+                        mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(matrix, offset, length);
+                        position += (long) length * 4;
+                    }
+                }
+                return skims;
+            }
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of skim matrix file.");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
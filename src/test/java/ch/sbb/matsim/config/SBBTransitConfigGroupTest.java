@@ -29,6 +29,7 @@ public class SBBTransitConfigGroupTest {
 
         ptConfig1.setDeterministicServiceModes(Collections.singleton("schienenfahrzeug"));
         ptConfig1.setCreateLinkEventsInterval(4);
+        ptConfig1.setMinLinkEventsForProducerThread(123);
 
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         OutputStreamWriter writer = new OutputStreamWriter(output);
@@ -43,5 +44,6 @@ public class SBBTransitConfigGroupTest {
         Assert.assertEquals(1, ptConfig2.getDeterministicServiceModes().size());
         Assert.assertTrue(ptConfig2.getDeterministicServiceModes().contains("schienenfahrzeug"));
         Assert.assertEquals(4, ptConfig2.getCreateLinkEventsInterval());
+        Assert.assertEquals(123, ptConfig2.getMinLinkEventsForProducerThread());
     }
 }
@@ -41,6 +41,7 @@ public class SwissRailRaptorConfigGroupTest {
             config1.setUseIntermodalAccessEgress(true);
             config1.setUseModeMappingForPassengers(true);
             config1.setTransferPenaltyTravelTimeToCostFactor(0.0031);
+            config1.setDataSnapshotFile("raptorData.bin");
         }
 
         SwissRailRaptorConfigGroup config2 = writeRead(config1);
@@ -50,6 +51,7 @@ public class SwissRailRaptorConfigGroupTest {
         Assert.assertTrue(config2.isUseIntermodalAccessEgress());
         Assert.assertTrue(config2.isUseModeMappingForPassengers());
         Assert.assertEquals(0.0031, config2.getTransferPenaltyTravelTimeToCostFactor(), 0.0);
+        Assert.assertEquals("raptorData.bin", config2.getDataSnapshotFile());
     }
 
     @Test
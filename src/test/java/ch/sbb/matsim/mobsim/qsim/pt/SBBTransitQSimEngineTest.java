@@ -5,6 +5,8 @@
 package ch.sbb.matsim.mobsim.qsim.pt;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,8 +26,10 @@ import org.matsim.api.core.v01.events.PersonLeavesVehicleEvent;
 import org.matsim.api.core.v01.events.TransitDriverStartsEvent;
 import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
 import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.api.experimental.events.AgentWaitingForPtEvent;
+import org.matsim.core.api.experimental.events.BoardingDeniedEvent;
 import org.matsim.core.api.experimental.events.EventsManager;
 import org.matsim.core.api.experimental.events.VehicleArrivesAtFacilityEvent;
 import org.matsim.core.api.experimental.events.VehicleDepartsAtFacilityEvent;
@@ -36,12 +40,18 @@ import org.matsim.core.mobsim.qsim.ActivityEnginePlugin;
 import org.matsim.core.mobsim.qsim.PopulationPlugin;
 import org.matsim.core.mobsim.qsim.QSim;
 import org.matsim.core.mobsim.qsim.QSimUtils;
+import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.utils.collections.CollectionUtils;
 import org.matsim.core.utils.misc.Time;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
 import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitRouteStop;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 import org.matsim.testcases.utils.EventsCollector;
+import org.matsim.vehicles.Vehicle;
+import org.matsim.vehicles.VehicleCapacity;
+import org.matsim.vehicles.VehicleType;
 
 /**
  * @author mrieser / SBB
@@ -264,6 +274,138 @@ public class SBBTransitQSimEngineTest {
         assertEqualEvent(PersonArrivalEvent.class,            30720, allEvents.get(35)); // driver
     }
 
+    /**
+     * Several vehicles serve the same route at the same time, some of them departing simultaneously.
+     * Each vehicle must still stop at all stops according to the schedule.
+     */
+    @Test
+    public void testEvents_withSeveralVehicles_withoutLinks() {
+        TestFixture f = new TestFixture();
+        f.addDepartures(5, 30060, 60);
+        f.addDepartures(2, 30090, 0);
+
+        EventsManager eventsManager = EventsUtils.createEventsManager(f.config);
+        List<AbstractQSimPlugin> plugins = new ArrayList<>();
+        plugins.add(new ActivityEnginePlugin(f.config));
+        plugins.add(new SBBTransitEnginePlugin(f.config));
+        plugins.add(new TestQSimModule(f.config));
+
+        QSim qSim = QSimUtils.createQSim(f.scenario, eventsManager, plugins);
+
+        EventsCollector collector = new EventsCollector();
+        eventsManager.addHandler(collector);
+        qSim.run();
+        List<Event> allEvents = collector.getEvents();
+        assertTimeOrder(allEvents);
+
+        Map<Id<Vehicle>, List<VehicleArrivesAtFacilityEvent>> arrivals = new HashMap<>();
+        Map<Id<Vehicle>, List<VehicleDepartsAtFacilityEvent>> departures = new HashMap<>();
+        for (Event event : allEvents) {
+            if (event instanceof VehicleArrivesAtFacilityEvent) {
+                VehicleArrivesAtFacilityEvent arrival = (VehicleArrivesAtFacilityEvent) event;
+                arrivals.computeIfAbsent(arrival.getVehicleId(), id -> new ArrayList<>()).add(arrival);
+            }
+            if (event instanceof VehicleDepartsAtFacilityEvent) {
+                VehicleDepartsAtFacilityEvent departure = (VehicleDepartsAtFacilityEvent) event;
+                departures.computeIfAbsent(departure.getVehicleId(), id -> new ArrayList<>()).add(departure);
+            }
+        }
+
+        Assert.assertEquals(8, f.route1.getDepartures().size());
+        List<TransitRouteStop> stops = f.route1.getStops();
+        for (Departure departure : f.route1.getDepartures().values()) {
+            List<VehicleArrivesAtFacilityEvent> vehArrivals = arrivals.get(departure.getVehicleId());
+            List<VehicleDepartsAtFacilityEvent> vehDepartures = departures.get(departure.getVehicleId());
+            Assert.assertEquals(stops.size(), vehArrivals.size());
+            Assert.assertEquals(stops.size(), vehDepartures.size());
+            for (int i = 0; i < stops.size(); i++) {
+                TransitRouteStop stop = stops.get(i);
+                double arrOffset = Time.isUndefinedTime(stop.getArrivalOffset()) ? stop.getDepartureOffset() : stop.getArrivalOffset();
+                double depOffset = Time.isUndefinedTime(stop.getDepartureOffset()) ? stop.getArrivalOffset() : stop.getDepartureOffset();
+                Assert.assertEquals(stop.getStopFacility().getId(), vehArrivals.get(i).getFacilityId());
+                Assert.assertEquals(departure.getDepartureTime() + arrOffset, vehArrivals.get(i).getTime(), 1e-7);
+                Assert.assertEquals(stop.getStopFacility().getId(), vehDepartures.get(i).getFacilityId());
+                Assert.assertEquals(departure.getDepartureTime() + depOffset, vehDepartures.get(i).getTime(), 1e-7);
+            }
+        }
+    }
+
+    /**
+     * Agents of several lines wait at the same stop, some of them for a line not in the schedule, one of them for a
+     * stop the vehicle already passed. The agents indexed by line must board in the order they arrived at the stop,
+     * and only the agents wanting to board may be denied boarding, just as if every vehicle asked all waiting agents.
+     */
+    @Test
+    public void testEvents_withSeveralLinesAtOneStop() {
+        TestFixture f = new TestFixture();
+        f.config.vspExperimental().setGeneratingBoardingDeniedEvents(true);
+        VehicleCapacity capacity = f.scenario.getTransitVehicles().getVehicleTypes().get(Id.create("some_train", VehicleType.class)).getCapacity();
+        capacity.setSeats(4);
+        capacity.setStandingRoom(0);
+        TransitRoute shuttleRoute = f.addShuttleLine(30300);
+        TransitLine shuttleLine = f.scenario.getTransitSchedule().getTransitLines().get(Id.create("Shuttle", TransitLine.class));
+        TransitLine unknownLine = f.scenario.getTransitSchedule().getFactory().createTransitLine(Id.create("Unknown", TransitLine.class));
+
+        f.addTransitDemand("p01", 29500, f.line1, f.route1, f.stopD);
+        f.addTransitDemand("p02", 29501, shuttleLine, shuttleRoute, f.stopD);
+        f.addTransitDemand("p03", 29502, unknownLine, f.route1, f.stopD);
+        f.addTransitDemand("p04", 29503, f.line1, f.route1, f.stopA); // stop A is never served after stop B
+        f.addTransitDemand("p05", 29504, f.line1, f.route1, f.stopE);
+        f.addTransitDemand("p06", 29505, shuttleLine, shuttleRoute, f.stopD);
+        f.addTransitDemand("p07", 29506, f.line1, f.route1, f.stopD);
+        f.addTransitDemand("p08", 29507, unknownLine, f.route1, f.stopD);
+        f.addTransitDemand("p09", 29508, f.line1, f.route1, f.stopC);
+        f.addTransitDemand("p10", 29509, f.line1, f.route1, f.stopD);
+        f.addTransitDemand("p11", 29510, f.line1, f.route1, f.stopE);
+
+        EventsManager eventsManager = EventsUtils.createEventsManager(f.config);
+        List<AbstractQSimPlugin> plugins = new ArrayList<>();
+        plugins.add(new ActivityEnginePlugin(f.config));
+        plugins.add(new PopulationPlugin(f.config));
+        plugins.add(new SBBTransitEnginePlugin(f.config));
+        plugins.add(new TestQSimModule(f.config));
+
+        QSim qSim = QSimUtils.createQSim(f.scenario, eventsManager, plugins);
+
+        EventsCollector collector = new EventsCollector();
+        eventsManager.addHandler(collector);
+        qSim.run();
+        List<Event> allEvents = collector.getEvents();
+
+        Map<Id<Vehicle>, List<String>> entering = new HashMap<>();
+        Map<Id<Vehicle>, List<String>> denied = new HashMap<>();
+        for (Event event : allEvents) {
+            if (event instanceof PersonEntersVehicleEvent) {
+                PersonEntersVehicleEvent enter = (PersonEntersVehicleEvent) event;
+                if (f.scenario.getPopulation().getPersons().containsKey(enter.getPersonId())) {
+                    entering.computeIfAbsent(enter.getVehicleId(), id -> new ArrayList<>()).add(enter.getPersonId().toString());
+                }
+            }
+            if (event instanceof BoardingDeniedEvent) {
+                BoardingDeniedEvent deny = (BoardingDeniedEvent) event;
+                List<String> deniedPersons = denied.computeIfAbsent(deny.getVehicleId(), id -> new ArrayList<>());
+                if (!deniedPersons.contains(deny.getPersonId().toString())) {
+                    deniedPersons.add(deny.getPersonId().toString());
+                }
+            }
+        }
+
+        // the agents wanting to board line 1, in the order they arrived at the stop
+        List<String> line1Agents = Arrays.asList("p01", "p05", "p07", "p09", "p10", "p11");
+        Id<Vehicle> train1 = Id.create("train1", Vehicle.class);
+        List<String> boarded = entering.get(train1);
+        Assert.assertNotNull(boarded);
+        Assert.assertTrue("the vehicle should be full.", boarded.size() < line1Agents.size());
+        Assert.assertEquals(line1Agents.subList(0, boarded.size()), boarded);
+        Assert.assertEquals(line1Agents.subList(boarded.size(), line1Agents.size()), denied.get(train1));
+
+        Id<Vehicle> shuttle = shuttleRoute.getDepartures().values().iterator().next().getVehicleId();
+        Assert.assertEquals(Arrays.asList("p02", "p06"), entering.get(shuttle));
+        Assert.assertNull(denied.get(shuttle));
+        Assert.assertEquals(2, entering.size());
+        Assert.assertEquals(1, denied.size());
+    }
+
     @Test
     public void testEvents_withoutPassengers_withLinks() {
         TestFixture f = new TestFixture();
@@ -316,6 +458,116 @@ public class SBBTransitQSimEngineTest {
         assertEqualEvent(PersonArrivalEvent.class,            30720, allEvents.get(22));
     }
 
+    /**
+     * Several vehicles travel along several links between two stops at the same time. The link events must be
+     * created at the time each vehicle reaches the link, based on the length travelled along the segment.
+     */
+    @Test
+    public void testEvents_withSeveralVehicles_withLinks() {
+        TestFixture f = new TestFixture();
+        f.sbbConfig.setCreateLinkEventsInterval(1);
+        TransitRoute expressRoute = f.addExpressRoute(4, 30030, 45);
+        f.addDepartures(2, 30030, 0);
+
+        EventsManager eventsManager = EventsUtils.createEventsManager(f.config);
+        List<AbstractQSimPlugin> plugins = new ArrayList<>();
+        plugins.add(new ActivityEnginePlugin(f.config));
+        plugins.add(new SBBTransitEnginePlugin(f.config));
+        plugins.add(new TestQSimModule(f.config));
+
+        QSim qSim = QSimUtils.createQSim(f.scenario, eventsManager, plugins);
+
+        EventsCollector collector = new EventsCollector();
+        eventsManager.addHandler(collector);
+        qSim.run();
+        List<Event> allEvents = collector.getEvents();
+        assertTimeOrder(allEvents);
+
+        List<Link> links = new ArrayList<>();
+        NetworkRoute netRoute = expressRoute.getRoute();
+        links.add(f.scenario.getNetwork().getLinks().get(netRoute.getStartLinkId()));
+        for (Id<Link> linkId : netRoute.getLinkIds()) {
+            links.add(f.scenario.getNetwork().getLinks().get(linkId));
+        }
+        links.add(f.scenario.getNetwork().getLinks().get(netRoute.getEndLinkId()));
+        double totalLength = 0;
+        for (int i = 1; i < links.size(); i++) {
+            totalLength += links.get(i).getLength();
+        }
+        double travelTime = expressRoute.getStops().get(1).getArrivalOffset();
+
+        for (Departure departure : expressRoute.getDepartures().values()) {
+            List<LinkEnterEvent> enterEvents = new ArrayList<>();
+            List<LinkLeaveEvent> leaveEvents = new ArrayList<>();
+            for (Event event : allEvents) {
+                if (event instanceof LinkEnterEvent && ((LinkEnterEvent) event).getVehicleId().equals(departure.getVehicleId())) {
+                    enterEvents.add((LinkEnterEvent) event);
+                }
+                if (event instanceof LinkLeaveEvent && ((LinkLeaveEvent) event).getVehicleId().equals(departure.getVehicleId())) {
+                    leaveEvents.add((LinkLeaveEvent) event);
+                }
+            }
+            Assert.assertEquals(links.size() - 1, enterEvents.size());
+            Assert.assertEquals(links.size() - 1, leaveEvents.size());
+            double travelledLength = 0;
+            for (int i = 1; i < links.size(); i++) {
+                // the events are created in the first sim step after the vehicle reached the link, but not before the vehicle departed
+                double reachedTime = departure.getDepartureTime() + travelledLength * travelTime / totalLength;
+                double expectedTime = Math.max(departure.getDepartureTime() + 1, Math.ceil(reachedTime));
+                Assert.assertEquals(links.get(i - 1).getId(), leaveEvents.get(i - 1).getLinkId());
+                Assert.assertEquals(expectedTime, leaveEvents.get(i - 1).getTime(), 1e-7);
+                Assert.assertEquals(links.get(i).getId(), enterEvents.get(i - 1).getLinkId());
+                Assert.assertEquals(expectedTime, enterEvents.get(i - 1).getTime(), 1e-7);
+                travelledLength += links.get(i).getLength();
+            }
+        }
+    }
+
+    /**
+     * The link events must not depend on whether they are created on the producer thread or on the mobsim thread.
+     */
+    @Test
+    public void testEvents_withLinks_withAndWithoutProducerThread() {
+        List<Event> withProducer = runWithSeveralVehiclesAndLinks(0);
+        List<Event> withoutProducer = runWithSeveralVehiclesAndLinks(Integer.MAX_VALUE);
+
+        Assert.assertEquals(withoutProducer.size(), withProducer.size());
+        int linkEventCount = 0;
+        for (int i = 0; i < withoutProducer.size(); i++) {
+            Event expected = withoutProducer.get(i);
+            Event actual = withProducer.get(i);
+            Assert.assertEquals(expected.getClass(), actual.getClass());
+            Assert.assertEquals(expected.getAttributes(), actual.getAttributes());
+            if (expected instanceof LinkEnterEvent) {
+                linkEventCount++;
+            }
+        }
+        Assert.assertTrue(linkEventCount > 20);
+    }
+
+    private static List<Event> runWithSeveralVehiclesAndLinks(int minLinkEventsForProducerThread) {
+        TestFixture f = new TestFixture();
+        f.sbbConfig.setCreateLinkEventsInterval(1);
+        f.sbbConfig.setMinLinkEventsForProducerThread(minLinkEventsForProducerThread);
+        f.addExpressRoute(4, 30030, 45);
+        f.addDepartures(4, 30000, 0);
+        f.addTripleTransitDemand();
+
+        EventsManager eventsManager = EventsUtils.createEventsManager(f.config);
+        List<AbstractQSimPlugin> plugins = new ArrayList<>();
+        plugins.add(new ActivityEnginePlugin(f.config));
+        plugins.add(new PopulationPlugin(f.config));
+        plugins.add(new SBBTransitEnginePlugin(f.config));
+        plugins.add(new TestQSimModule(f.config));
+
+        QSim qSim = QSimUtils.createQSim(f.scenario, eventsManager, plugins);
+
+        EventsCollector collector = new EventsCollector();
+        eventsManager.addHandler(collector);
+        qSim.run();
+        return collector.getEvents();
+    }
+
     @Test
     public void testEvents_withoutPassengers_withLinks_Sesselbahn() {
         TestFixture f = new TestFixture();
@@ -575,6 +827,12 @@ public class SBBTransitQSimEngineTest {
         }
     }
 
+    private static void assertTimeOrder(List<Event> events) {
+        for (int i = 1; i < events.size(); i++) {
+            Assert.assertTrue("events are not ordered by time: " + events.get(i), events.get(i - 1).getTime() <= events.get(i).getTime());
+        }
+    }
+
     private static void assertEqualEvent(Class<? extends Event> eventClass, double time, Event event) {
         Assert.assertTrue(event.getClass().isAssignableFrom(event.getClass()));
         Assert.assertEquals(time, event.getTime(), 1e-7);
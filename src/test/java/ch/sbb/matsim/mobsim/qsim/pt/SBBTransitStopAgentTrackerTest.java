@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.mobsim.qsim.pt;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.mobsim.framework.PlanAgent;
+import org.matsim.core.mobsim.qsim.pt.PTPassengerAgent;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.pt.routes.ExperimentalTransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+/**
+ * @author mrieser / SBB
+ */
+public class SBBTransitStopAgentTrackerTest {
+
+    private final TestFixture f = new TestFixture();
+    private final Id<TransitStopFacility> stopB = this.f.stopB.getId();
+    private final Id<TransitStopFacility> stopC = this.f.stopC.getId();
+    private final Id<TransitLine> line1 = this.f.line1.getId();
+    private final Id<TransitLine> line2 = Id.create("2", TransitLine.class);
+
+    /**
+     * A vehicle must see the same agents in the same order as when asking all agents waiting at the stop,
+     * except for the agents waiting for another line, which would not board anyway.
+     */
+    @Test
+    public void testCollectAgentsWaitingForLine() {
+        SBBTransitStopAgentTracker tracker = new SBBTransitStopAgentTracker(EventsUtils.createEventsManager());
+        PTPassengerAgent a1 = createAgent("a1", this.line1);
+        PTPassengerAgent a2 = createAgent("a2", this.line2);
+        PTPassengerAgent a3 = createAgent("a3", null);
+        PTPassengerAgent a4 = createAgent("a4", Id.create("unknown", TransitLine.class));
+        PTPassengerAgent a5 = createAgent("a5", this.line1);
+        PTPassengerAgent a6 = createAgent("a6", null);
+        PTPassengerAgent a7 = createAgent("a7", this.line2);
+        PTPassengerAgent a8 = createAgent("a8", this.line1);
+        PTPassengerAgent c1 = createAgent("c1", this.line1);
+
+        tracker.addAgentToStop(100, a1, this.stopB);
+        tracker.addAgentToStop(101, a2, this.stopB);
+        tracker.addAgentToStop(102, c1, this.stopC);
+        tracker.addAgentToStop(103, a3, this.stopB);
+        tracker.addAgentToStop(104, a4, this.stopB);
+        tracker.addAgentToStop(105, a5, this.stopB);
+        tracker.addAgentToStop(106, a6, this.stopB);
+        tracker.addAgentToStop(107, a7, this.stopB);
+        tracker.addAgentToStop(108, a8, this.stopB);
+
+        Assert.assertEquals(Arrays.asList(a1, a3, a5, a6, a8), collect(tracker, this.stopB, this.line1));
+        Assert.assertEquals(Arrays.asList(a2, a3, a6, a7), collect(tracker, this.stopB, this.line2));
+        Assert.assertEquals(Arrays.asList(a3, a6), collect(tracker, this.stopB, Id.create("3", TransitLine.class)));
+        Assert.assertEquals(Collections.singletonList(c1), collect(tracker, this.stopC, this.line1));
+        Assert.assertEquals(Collections.emptyList(), collect(tracker, this.stopC, this.line2));
+
+        // the collected agents are a subsequence of all agents waiting at the stop
+        for (Id<TransitLine> lineId : Arrays.asList(this.line1, this.line2)) {
+            List<PTPassengerAgent> expected = new ArrayList<>();
+            for (PTPassengerAgent agent : tracker.getAgentsAtStop().get(this.stopB)) {
+                if (agent == a3 || agent == a6 || lineId.equals(getLineId(agent))) {
+                    expected.add(agent);
+                }
+            }
+            Assert.assertEquals(expected, collect(tracker, this.stopB, lineId));
+        }
+
+        // boarding agents from different lines keeps the order of the others
+        tracker.removeAgentFromStop(a3, this.stopB);
+        tracker.removeAgentFromStop(a7, this.stopB);
+        tracker.removeAgentFromStop(a1, this.stopB);
+        Assert.assertEquals(Arrays.asList(a5, a6, a8), collect(tracker, this.stopB, this.line1));
+        Assert.assertEquals(Arrays.asList(a2, a6), collect(tracker, this.stopB, this.line2));
+    }
+
+    @Test
+    public void testRemoveAgentFromStop() {
+        SBBTransitStopAgentTracker tracker = new SBBTransitStopAgentTracker(EventsUtils.createEventsManager());
+        PTPassengerAgent a1 = createAgent("a1", this.line1);
+        PTPassengerAgent a2 = createAgent("a2", this.line1);
+        PTPassengerAgent a3 = createAgent("a3", this.line1);
+        PTPassengerAgent a4 = createAgent("a4", this.line1);
+        PTPassengerAgent a5 = createAgent("a5", this.line1);
+
+        tracker.addAgentToStop(100, a1, this.stopB);
+        tracker.addAgentToStop(101, a2, this.stopB);
+        tracker.addAgentToStop(102, a3, this.stopB);
+
+        tracker.removeAgentFromStop(a2, this.stopB); // from the middle
+        Assert.assertEquals(Arrays.asList(a1, a3), collect(tracker, this.stopB, this.line1));
+
+        tracker.addAgentToStop(103, a4, this.stopB);
+        Assert.assertEquals(Arrays.asList(a1, a3, a4), collect(tracker, this.stopB, this.line1));
+
+        tracker.removeAgentFromStop(a3, this.stopB); // from the middle
+        tracker.removeAgentFromStop(a4, this.stopB); // the last one
+        Assert.assertEquals(Collections.singletonList(a1), collect(tracker, this.stopB, this.line1));
+
+        tracker.removeAgentFromStop(a1, this.stopB); // the only one
+        Assert.assertEquals(Collections.emptyList(), collect(tracker, this.stopB, this.line1));
+
+        // removing an agent no longer waiting has no effect
+        tracker.removeAgentFromStop(a2, this.stopB);
+        tracker.addAgentToStop(104, a5, this.stopB);
+        tracker.addAgentToStop(105, a2, this.stopB);
+        Assert.assertEquals(Arrays.asList(a5, a2), collect(tracker, this.stopB, this.line1));
+    }
+
+    /**
+     * The agents at a stop are no longer kept in the lists of the base class, but created from the index.
+     */
+    @Test
+    public void testGetAgentsAtStop() {
+        SBBTransitStopAgentTracker tracker = new SBBTransitStopAgentTracker(EventsUtils.createEventsManager());
+        PTPassengerAgent a1 = createAgent("a1", this.line1);
+        PTPassengerAgent a2 = createAgent("a2", this.line2);
+        PTPassengerAgent a3 = createAgent("a3", null);
+        PTPassengerAgent a4 = createAgent("a4", this.line1);
+        PTPassengerAgent c1 = createAgent("c1", this.line1);
+
+        Assert.assertEquals(Collections.emptyList(), tracker.getAgentsAtFacility(this.stopB));
+        Assert.assertTrue(tracker.getAgentsAtStop().isEmpty());
+
+        tracker.addAgentToStop(100, a1, this.stopB);
+        tracker.addAgentToStop(101, a2, this.stopB);
+        tracker.addAgentToStop(102, c1, this.stopC);
+        tracker.addAgentToStop(103, a3, this.stopB);
+        tracker.addAgentToStop(104, a4, this.stopB);
+        Assert.assertEquals(Arrays.asList(a1, a2, a3, a4), tracker.getAgentsAtFacility(this.stopB));
+        Assert.assertEquals(Collections.singletonList(c1), tracker.getAgentsAtFacility(this.stopC));
+
+        tracker.removeAgentFromStop(a2, this.stopB);
+        tracker.addAgentToStop(105, a1, this.stopB);
+        Assert.assertEquals(Arrays.asList(a3, a4, a1), tracker.getAgentsAtFacility(this.stopB));
+
+        tracker.removeAgentFromStop(c1, this.stopC);
+        Map<Id<TransitStopFacility>, List<PTPassengerAgent>> agentsAtStop = tracker.getAgentsAtStop();
+        Assert.assertEquals(1, agentsAtStop.size());
+        Assert.assertEquals(Arrays.asList(a3, a4, a1), agentsAtStop.get(this.stopB));
+        Assert.assertEquals(Collections.emptyList(), tracker.getAgentsAtFacility(this.stopC));
+
+        tracker.removeAgentFromStop(a4, this.stopB); // from the middle
+        tracker.removeAgentFromStop(a1, this.stopB); // the last one
+        tracker.addAgentToStop(106, a2, this.stopB);
+        Assert.assertEquals(Arrays.asList(a3, a2), tracker.getAgentsAtFacility(this.stopB));
+    }
+
+    @Test
+    public void testAddAgentTwice() {
+        SBBTransitStopAgentTracker tracker = new SBBTransitStopAgentTracker(EventsUtils.createEventsManager());
+        PTPassengerAgent a1 = createAgent("a1", this.line1);
+        PTPassengerAgent a2 = createAgent("a2", this.line1);
+        PTPassengerAgent a3 = createAgent("a3", null);
+
+        tracker.addAgentToStop(100, a1, this.stopB);
+        tracker.addAgentToStop(101, a2, this.stopB);
+        tracker.addAgentToStop(102, a3, this.stopB);
+        tracker.addAgentToStop(103, a1, this.stopB);
+        tracker.addAgentToStop(104, a3, this.stopB);
+        Assert.assertEquals(Arrays.asList(a2, a1, a3), collect(tracker, this.stopB, this.line1));
+
+        // adding the agent to another stop removes it from the previous one
+        tracker.addAgentToStop(105, a1, this.stopC);
+        Assert.assertEquals(Arrays.asList(a2, a3), collect(tracker, this.stopB, this.line1));
+        Assert.assertEquals(Collections.singletonList(a1), collect(tracker, this.stopC, this.line1));
+
+        tracker.removeAgentFromStop(a1, this.stopC);
+        Assert.assertEquals(Collections.emptyList(), collect(tracker, this.stopC, this.line1));
+        Assert.assertEquals(Arrays.asList(a2, a3), collect(tracker, this.stopB, this.line1));
+    }
+
+    private static List<PTPassengerAgent> collect(SBBTransitStopAgentTracker tracker, Id<TransitStopFacility> stopId, Id<TransitLine> lineId) {
+        List<PTPassengerAgent> agents = new ArrayList<>();
+        tracker.collectAgentsWaitingForLine(stopId, lineId, agents);
+        return agents;
+    }
+
+    private static Id<TransitLine> getLineId(PTPassengerAgent agent) {
+        if (agent instanceof PlanAgent) {
+            Leg leg = (Leg) ((PlanAgent) agent).getCurrentPlanElement();
+            return ((ExperimentalTransitRoute) leg.getRoute()).getLineId();
+        }
+        return null;
+    }
+
+    /**
+     * Creates an agent currently on a leg with the specified transit line. If the line is <code>null</code>,
+     * the agent does not provide its plan at all.
+     */
+    private PTPassengerAgent createAgent(String id, Id<TransitLine> lineId) {
+        Id<Person> personId = Id.create(id, Person.class);
+        Leg leg;
+        Class<?>[] interfaces;
+        if (lineId == null) {
+            leg = null;
+            interfaces = new Class<?>[] { PTPassengerAgent.class };
+        } else {
+            TransitLine line = this.f.scenario.getTransitSchedule().getFactory().createTransitLine(lineId);
+            leg = PopulationUtils.createLeg("pt");
+            leg.setRoute(new ExperimentalTransitRoute(this.f.stopB, line, this.f.route1, this.f.stopD));
+            interfaces = new Class<?>[] { PTPassengerAgent.class, PlanAgent.class };
+        }
+        return (PTPassengerAgent) Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                    return personId;
+                case "getCurrentPlanElement":
+                    return leg;
+                case "getDesiredAccessStopId":
+                    return this.f.stopB.getId();
+                case "getDesiredDestinationStopId":
+                    return this.f.stopD.getId();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return id;
+                default:
+                    return null;
+            }
+        });
+    }
+}
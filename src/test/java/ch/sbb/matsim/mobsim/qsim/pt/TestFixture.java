@@ -167,6 +167,88 @@ class TestFixture {
         return link;
     }
 
+    /**
+     * Adds departures to the existing route, each with its own vehicle.
+     */
+    void addDepartures(int count, double firstDepTime, double interval) {
+        addDepartures(this.route1, count, firstDepTime, interval);
+    }
+
+    private void addDepartures(TransitRoute route, int count, double firstDepTime, double interval) {
+        Vehicles vehicles = this.scenario.getTransitVehicles();
+        VehicleType vehType = vehicles.getVehicleTypes().get(Id.create("some_train", VehicleType.class));
+        TransitScheduleFactory f = this.scenario.getTransitSchedule().getFactory();
+        for (int i = 0; i < count; i++) {
+            int index = vehicles.getVehicles().size() + 1;
+            Vehicle veh = vehicles.getFactory().createVehicle(Id.create("train" + index, Vehicle.class), vehType);
+            vehicles.addVehicle(veh);
+            Departure departure = f.createDeparture(Id.create(index, Departure.class), firstDepTime + i * interval);
+            departure.setVehicleId(veh.getId());
+            route.addDeparture(departure);
+        }
+    }
+
+    /**
+     * Adds a line running from stop A to stop E without intermediate stops, so the vehicles travel along
+     * several links of different lengths between two stops.
+     */
+    TransitRoute addExpressRoute(int count, double firstDepTime, double interval) {
+        TransitSchedule schedule = this.scenario.getTransitSchedule();
+        TransitScheduleFactory f = schedule.getFactory();
+
+        TransitLine line = f.createTransitLine(Id.create("Express", TransitLine.class));
+        List<TransitRouteStop> stops = new ArrayList<>();
+        stops.add(f.createTransitRouteStop(this.stopA, Time.getUndefinedTime(), 0.0));
+        stops.add(f.createTransitRouteStop(this.stopE, 720, Time.getUndefinedTime()));
+        TransitRoute route = f.createTransitRoute(Id.create("A2E_express", TransitRoute.class), this.route1.getRoute(), stops, "train");
+        addDepartures(route, count, firstDepTime, interval);
+        line.addRoute(route);
+        schedule.addTransitLine(line);
+        return route;
+    }
+
+    /**
+     * Adds a line running from stop B to stop D without intermediate stops, departing once at the specified time.
+     */
+    TransitRoute addShuttleLine(double depTime) {
+        TransitSchedule schedule = this.scenario.getTransitSchedule();
+        TransitScheduleFactory f = schedule.getFactory();
+
+        TransitLine line = f.createTransitLine(Id.create("Shuttle", TransitLine.class));
+        NetworkRoute netRoute = RouteUtils.createLinkNetworkRouteImpl(this.stopB.getLinkId(), Collections.singletonList(this.stopC.getLinkId()), this.stopD.getLinkId());
+        List<TransitRouteStop> stops = new ArrayList<>();
+        stops.add(f.createTransitRouteStop(this.stopB, Time.getUndefinedTime(), 0.0));
+        stops.add(f.createTransitRouteStop(this.stopD, 300, Time.getUndefinedTime()));
+        TransitRoute route = f.createTransitRoute(Id.create("B2D_shuttle", TransitRoute.class), netRoute, stops, "train");
+        addDepartures(route, 1, depTime, 0);
+        line.addRoute(route);
+        schedule.addTransitLine(line);
+        return route;
+    }
+
+    /**
+     * Adds an agent travelling from stop B to the specified egress stop with the specified line and route.
+     * The line does not need to be part of the schedule.
+     */
+    void addTransitDemand(String personId, double departureTime, TransitLine line, TransitRoute transitRoute, TransitStopFacility egressStop) {
+        Population population = this.scenario.getPopulation();
+        PopulationFactory pf = population.getFactory();
+        Person person = pf.createPerson(Id.create(personId, Person.class));
+        Plan plan = pf.createPlan();
+        Activity act1 = pf.createActivityFromLinkId("home", Id.create(1, Link.class));
+        act1.setEndTime(departureTime);
+        Leg leg = pf.createLeg("pt");
+        Route route = new ExperimentalTransitRoute(this.stopB, line, transitRoute, egressStop);
+        leg.setRoute(route);
+        Activity act2 = pf.createActivityFromLinkId("work", egressStop.getLinkId());
+
+        plan.addActivity(act1);
+        plan.addLeg(leg);
+        plan.addActivity(act2);
+        person.addPlan(plan);
+        population.addPerson(person);
+    }
+
     void addSingleTransitDemand() {
         Population population = this.scenario.getPopulation();
         PopulationFactory pf = population.getFactory();
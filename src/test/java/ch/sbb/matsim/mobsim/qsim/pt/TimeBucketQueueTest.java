@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.mobsim.qsim.pt;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.sbb.matsim.mobsim.qsim.pt.SBBTransitQSimEngine.TimeBucketQueue;
+import ch.sbb.matsim.mobsim.qsim.pt.SBBTransitQSimEngine.TimedEvent;
+
+/**
+ * @author mrieser / SBB
+ */
+public class TimeBucketQueueTest {
+
+    @Test
+    public void testPollInOrder() {
+        TimeBucketQueue<TestEvent> queue = new TimeBucketQueue<>();
+        TestEvent e1 = new TestEvent(10.5, 1);
+        TestEvent e2 = new TestEvent(10.0, 2);
+        TestEvent e3 = new TestEvent(10.0, 1);
+        TestEvent e4 = new TestEvent(12.0, 1);
+        queue.add(e1);
+        queue.add(e2);
+        queue.add(e3);
+        queue.add(e4);
+
+        Assert.assertSame(e3, queue.poll(10));
+        Assert.assertSame(e2, queue.poll(10));
+        Assert.assertNull("the next event of the bucket is not due yet.", queue.poll(10));
+
+        // an earlier event added to the partially polled bucket must come first
+        TestEvent e5 = new TestEvent(10.2, 1);
+        queue.add(e5);
+        // an event in the past is put into the current bucket
+        TestEvent e6 = new TestEvent(3.0, 1);
+        queue.add(e6);
+
+        Assert.assertSame(e6, queue.poll(11));
+        Assert.assertSame(e5, queue.poll(11));
+        Assert.assertSame(e1, queue.poll(11));
+        Assert.assertNull(queue.poll(11));
+        Assert.assertSame(e4, queue.poll(12));
+        Assert.assertNull(queue.poll(Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * Simulates the usage by the transit engine: every sim step polls all due events, and handling an event
+     * adds new events, also for the current second or for the past. The events must come out in the same
+     * order as from a priority queue.
+     */
+    @Test
+    public void testCompareWithPriorityQueue() {
+        Random random = new Random(20180705);
+        TimeBucketQueue<TestEvent> queue = new TimeBucketQueue<>();
+        PriorityQueue<TestEvent> expectedQueue = new PriorityQueue<>();
+        int nextId = 0;
+        int polledCount = 0;
+        int stoppedInBucketCount = 0;
+
+        for (int time = 0; time < 5000; time++) {
+            // events added between the sim steps, some of them are already in the past
+            int count = random.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                TestEvent event = new TestEvent(randomTime(random, time), nextId++);
+                queue.add(event);
+                expectedQueue.add(event);
+            }
+
+            while (true) {
+                TestEvent expected = expectedQueue.peek();
+                if (expected != null && expected.time <= time) {
+                    expectedQueue.poll();
+                } else {
+                    expected = null;
+                }
+                TestEvent actual = queue.poll(time);
+                Assert.assertSame("wrong event at time " + time, expected, actual);
+                if (actual == null) {
+                    if (expectedQueue.peek() != null && expectedQueue.peek().time < time + 1) {
+                        stoppedInBucketCount++;
+                    }
+                    break;
+                }
+                polledCount++;
+
+                // handling the event creates follow-up events, some for the current second, some in the past
+                if (random.nextInt(3) == 0) {
+                    TestEvent event = new TestEvent(randomTime(random, time), nextId++);
+                    queue.add(event);
+                    expectedQueue.add(event);
+                }
+            }
+        }
+
+        TestEvent expected;
+        while ((expected = expectedQueue.poll()) != null) {
+            Assert.assertSame(expected, queue.poll(Double.POSITIVE_INFINITY));
+        }
+        Assert.assertNull(queue.poll(Double.POSITIVE_INFINITY));
+        Assert.assertTrue(polledCount > 5000);
+        Assert.assertTrue("some sim steps should stop in the middle of a bucket.", stoppedInBucketCount > 100);
+    }
+
+    private static double randomTime(Random random, int now) {
+        int seconds = Math.max(0, now + random.nextInt(25) - 5);
+        return random.nextBoolean() ? seconds : seconds + random.nextInt(4) * 0.25;
+    }
+
+    private static class TestEvent extends TimedEvent<TestEvent> {
+        final int id;
+
+        TestEvent(double time, int id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(TestEvent o) {
+            int result = Double.compare(this.time, o.time);
+            if (result == 0) {
+                result = Integer.compare(this.id, o.id);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.transitSchedule.api.Departure;
+import org.matsim.pt.transitSchedule.api.TransitLine;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
+import org.matsim.pt.transitSchedule.api.TransitRouteStop;
+import org.matsim.pt.transitSchedule.api.TransitSchedule;
+import org.matsim.pt.transitSchedule.api.TransitScheduleFactory;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the latency of short, local queries on a large synthetic schedule.
+ *
+ * The schedule is a square grid of stops with one line along every row and every column
+ * (in both directions), so the size of the schedule can be increased without making the
+ * local queries any more complex. For comparison, the benchmark also measures how long it
+ * takes to reset the search state of all route stops and stops, as it was done before
+ * every query before the search state was reset sparsely.
+ *
+ * Not a unit test, run it manually: <code>SwissRailRaptorBenchmark [gridSize] [queryCount]</code>
+ *
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorBenchmark {
+
+    private static final double GRID_SPACING = 800.0;
+    private static final double HEADWAY = 600.0;
+    private static final double TRAVEL_TIME_BETWEEN_STOPS = 90.0;
+
+    public static void main(String[] args) {
+        int gridSize = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = createGridScenario(config, gridSize);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), RaptorUtils.createStaticConfig(config), scenario.getNetwork());
+        SwissRailRaptor raptor = new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(config),
+                new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress());
+
+        Random random = new Random(20180601);
+        Coord[][] queries = new Coord[queryCount][];
+        for (int i = 0; i < queryCount; i++) {
+            int row = random.nextInt(gridSize - 3);
+            int col = random.nextInt(gridSize - 3);
+            queries[i] = new Coord[] {
+                    new Coord(col * GRID_SPACING + 50, row * GRID_SPACING + 50),
+                    new Coord((col + 3) * GRID_SPACING - 50, (row + 2) * GRID_SPACING - 50)
+            };
+        }
+
+        // warm up
+        runQueries(raptor, queries);
+
+        long startNanos = System.nanoTime();
+        int legCount = runQueries(raptor, queries);
+        long queryNanos = System.nanoTime() - startNanos;
+
+        long fullResetNanos = measureFullReset(data, queryCount);
+
+        System.out.println("grid size:           " + gridSize + " x " + gridSize);
+        System.out.println("#stops:              " + data.countStops);
+        System.out.println("#route stops:        " + data.countRouteStops);
+        System.out.println("#queries:            " + queryCount + " (" + legCount + " legs)");
+        System.out.println("local query:         " + (queryNanos / queryCount / 1000) + " us/query");
+        System.out.println("full reset (before): " + (fullResetNanos / queryCount / 1000) + " us/query");
+    }
+
+    private static int runQueries(SwissRailRaptor raptor, Coord[][] queries) {
+        int legCount = 0;
+        for (Coord[] query : queries) {
+            legCount += raptor.calcRoute(new FakeFacility(query[0]), new FakeFacility(query[1]), 8 * 3600, null).size();
+        }
+        return legCount;
+    }
+
+    /**
+     * Does the same work as the reset of the search state before it became sparse.
+     */
+    private static long measureFullReset(SwissRailRaptorData data, int count) {
+        Object[] arrivalPathPerRouteStop = new Object[data.countRouteStops];
+        double[] egressCostsPerRouteStop = new double[data.countRouteStops];
+        double[] leastArrivalCostAtRouteStop = new double[data.countRouteStops];
+        Object[] arrivalPathPerStop = new Object[data.countStops];
+        double[] leastArrivalCostAtStop = new double[data.countStops];
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Arrays.fill(arrivalPathPerRouteStop, null);
+            Arrays.fill(egressCostsPerRouteStop, Double.POSITIVE_INFINITY);
+            Arrays.fill(arrivalPathPerStop, null);
+            Arrays.fill(leastArrivalCostAtRouteStop, Double.POSITIVE_INFINITY);
+            Arrays.fill(leastArrivalCostAtStop, Double.POSITIVE_INFINITY);
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    static Scenario createGridScenario(Config config, int gridSize) {
+        Scenario scenario = ScenarioUtils.createScenario(config);
+        Network network = scenario.getNetwork();
+        NetworkFactory nf = network.getFactory();
+        TransitSchedule schedule = scenario.getTransitSchedule();
+
+        Node[][] nodes = new Node[gridSize][gridSize];
+        for (int row = 0; row < gridSize; row++) {
+            for (int col = 0; col < gridSize; col++) {
+                nodes[row][col] = nf.createNode(Id.create(row + "_" + col, Node.class), new Coord(col * GRID_SPACING, row * GRID_SPACING));
+                network.addNode(nodes[row][col]);
+            }
+        }
+
+        for (int i = 0; i < gridSize; i++) {
+            List<Node> rowNodes = new ArrayList<>(gridSize);
+            List<Node> colNodes = new ArrayList<>(gridSize);
+            for (int j = 0; j < gridSize; j++) {
+                rowNodes.add(nodes[i][j]);
+                colNodes.add(nodes[j][i]);
+            }
+            createLine(network, schedule, "row" + i, rowNodes);
+            createLine(network, schedule, "col" + i, colNodes);
+        }
+        return scenario;
+    }
+
+    private static void createLine(Network network, TransitSchedule schedule, String name, List<Node> nodes) {
+        TransitScheduleFactory sf = schedule.getFactory();
+        TransitLine line = sf.createTransitLine(Id.create(name, TransitLine.class));
+        for (String direction : new String[] { "a", "b" }) {
+            List<Node> routeNodes = new ArrayList<>(nodes);
+            if (direction.equals("b")) {
+                Collections.reverse(routeNodes);
+            }
+            String prefix = name + direction + "_";
+            List<Id<Link>> linkIds = new ArrayList<>();
+            List<TransitRouteStop> stops = new ArrayList<>();
+            for (int i = 1; i < routeNodes.size(); i++) {
+                Node fromNode = routeNodes.get(i - 1);
+                Node toNode = routeNodes.get(i);
+                Link link = network.getFactory().createLink(Id.create(prefix + i, Link.class), fromNode, toNode);
+                link.setLength(GRID_SPACING);
+                network.addLink(link);
+                linkIds.add(link.getId());
+            }
+            for (int i = 0; i < routeNodes.size(); i++) {
+                Node node = routeNodes.get(i);
+                TransitStopFacility stop = sf.createTransitStopFacility(Id.create(prefix + i, TransitStopFacility.class), node.getCoord(), false);
+                stop.setLinkId(linkIds.get(Math.max(0, i - 1)));
+                schedule.addStopFacility(stop);
+                double offset = i * TRAVEL_TIME_BETWEEN_STOPS;
+                stops.add(sf.createTransitRouteStop(stop, offset, offset));
+            }
+            NetworkRoute networkRoute = RouteUtils.createLinkNetworkRouteImpl(linkIds.get(0), linkIds.get(linkIds.size() - 1));
+            networkRoute.setLinkIds(linkIds.get(0), linkIds.subList(1, linkIds.size() - 1), linkIds.get(linkIds.size() - 1));
+            TransitRoute route = sf.createTransitRoute(Id.create(prefix, TransitRoute.class), networkRoute, stops, "bus");
+            for (double time = 5 * 3600; time < 22 * 3600; time += HEADWAY) {
+                route.addDeparture(sf.createDeparture(Id.create(prefix + (int) time, Departure.class), time));
+            }
+            line.addRoute(route);
+        }
+        schedule.addTransitLine(line);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.population.Leg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorCorePoolTest {
+
+    private static SwissRailRaptorData createData() {
+        Fixture f = new Fixture();
+        f.init();
+        return SwissRailRaptorData.create(f.schedule, RaptorUtils.createStaticConfig(f.config), f.network);
+    }
+
+    @Test
+    public void testReuseOfReleasedCore() {
+        SwissRailRaptorCorePool pool = new SwissRailRaptorCorePool(createData(), 2, 60000);
+        SwissRailRaptorCore core1 = pool.borrow();
+        SwissRailRaptorCore core2 = pool.borrow();
+        Assert.assertNotSame("a borrowed core must not be handed out twice.", core1, core2);
+        Assert.assertEquals(0, pool.getIdleCoreCount());
+
+        pool.release(core1);
+        pool.release(core2);
+        Assert.assertEquals(2, pool.getIdleCoreCount());
+        Assert.assertSame("the most recently released core should be re-used first.", core2, pool.borrow());
+        Assert.assertSame(core1, pool.borrow());
+        Assert.assertEquals(0, pool.getIdleCoreCount());
+    }
+
+    @Test
+    public void testMaxIdleCores() {
+        SwissRailRaptorCorePool pool = new SwissRailRaptorCorePool(createData(), 1, 60000);
+        SwissRailRaptorCore core1 = pool.borrow();
+        SwissRailRaptorCore core2 = pool.borrow();
+        pool.release(core1);
+        pool.release(core2);
+        Assert.assertEquals(1, pool.getIdleCoreCount());
+        Assert.assertSame(core2, pool.borrow());
+        Assert.assertNotSame(core1, pool.borrow());
+    }
+
+    @Test
+    public void testIdleCoresAreReleased() throws InterruptedException {
+        SwissRailRaptorCorePool pool = new SwissRailRaptorCorePool(createData(), 2, 1);
+        SwissRailRaptorCore core = pool.borrow();
+        pool.release(core);
+        Assert.assertEquals(1, pool.getIdleCoreCount());
+        Thread.sleep(20);
+        Assert.assertNotSame("the idle core should have been released.", core, pool.borrow());
+        Assert.assertEquals(0, pool.getIdleCoreCount());
+    }
+
+    @Test
+    public void testSharedRouterInMultipleThreads() throws Exception {
+        Fixture f = new Fixture();
+        f.init();
+        SwissRailRaptorData data = SwissRailRaptorData.create(f.schedule, RaptorUtils.createStaticConfig(f.config), f.network);
+        SwissRailRaptor raptor = new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(f.config),
+                new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress());
+
+        Coord fromCoord = new Coord(3800, 5100);
+        Coord toCoord = new Coord(28100, 4950);
+        String expected = describe(raptor.calcRoute(new FakeFacility(fromCoord), new FakeFacility(toCoord), 5.0 * 3600 + 50, null));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> describe(raptor.calcRoute(new FakeFacility(fromCoord), new FakeFacility(toCoord), 5.0 * 3600 + 50, null))));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(data.corePool.getIdleCoreCount() <= 4);
+    }
+
+    private static String describe(List<Leg> legs) {
+        StringBuilder str = new StringBuilder();
+        for (Leg leg : legs) {
+            str.append(leg.getMode()).append(' ').append(leg.getTravelTime()).append(' ').append(leg.getRoute().getStartLinkId()).append(';');
+        }
+        return str.toString();
+    }
+}
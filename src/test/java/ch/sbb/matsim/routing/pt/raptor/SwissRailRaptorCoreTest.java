@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.RouteCandidates;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the internal bookkeeping of range queries.
+ *
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorCoreTest {
+
+    private static final int GRID_SIZE = 20;
+
+    /**
+     * The range query filters the routes based on summaries it calculates without creating the routes,
+     * they must match the routes created later from the same path elements.
+     */
+    @Test
+    public void testRouteCandidatesMatchCreatedRoutes() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, GRID_SIZE);
+        RaptorParameters parameters = RaptorUtils.createParameters(config);
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(config);
+        raptorConfig.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), raptorConfig, scenario.getNetwork());
+        SwissRailRaptorCore core = new SwissRailRaptorCore(data);
+
+        Random random = new Random(20180702);
+        double maxCoord = GRID_SIZE * 800;
+        int candidateCount = 0;
+        for (int q = 0; q < 20; q++) {
+            FakeFacility fromFacility = new FakeFacility(new Coord(random.nextDouble() * maxCoord, random.nextDouble() * maxCoord));
+            FakeFacility toFacility = new FakeFacility(new Coord(random.nextDouble() * maxCoord, random.nextDouble() * maxCoord));
+            double depTime = 6 * 3600 + random.nextInt(10 * 3600);
+            List<InitialStop> accessStops = findInitialStops(data, fromFacility, TransportMode.access_walk);
+            List<InitialStop> egressStops = findInitialStops(data, toFacility, TransportMode.egress_walk);
+
+            List<RaptorRoute> routes = core.calcRouteCandidates(depTime - 3600, depTime + 3600, fromFacility, toFacility, accessStops, egressStops, parameters, 0, 1);
+            RouteCandidates candidates = core.rangeQueryRoutes;
+            Assert.assertEquals(routes.size(), candidates.size);
+            for (int c = 0; c < candidates.size; c++) {
+                RaptorRoute route = routes.get(c);
+                Assert.assertEquals(route.getDepartureTime(), candidates.depTime[c], 0.0);
+                Assert.assertEquals(route.getTravelTime(), candidates.travelTime[c], 0.0);
+                Assert.assertEquals(route.getTotalCosts(), candidates.cost[c], 0.0);
+                Assert.assertEquals(route.getNumberOfTransfers(), candidates.transferCount[c]);
+            }
+            candidateCount += candidates.size;
+        }
+        Assert.assertTrue("the queries should find routes.", candidateCount > 20);
+    }
+
+    @Test
+    public void testFilterRoutes() {
+        RaptorRoute a = createRoute(100, 50, 0);
+        RaptorRoute b = createRoute(100, 50, 0); // duplicate of a
+        RaptorRoute c = createRoute(100, 60, 0); // same departure as a, but arrives later
+        RaptorRoute d = createRoute(90, 60, 0); // same arrival as a, but departs earlier
+        RaptorRoute e = createRoute(110, 40, 1); // same arrival as a, departs later, but with a transfer
+        RaptorRoute f = createRoute(100, 50, 1); // like a, but with a transfer
+        RaptorRoute g = createRoute(120, 50, 2);
+        RaptorRoute h = createRoute(80, 60, 1);
+        RaptorRoute i = createRoute(80, 60, 0); // like h, but without transfer
+        List<RaptorRoute> routes = Arrays.asList(a, b, c, d, e, f, g, h, i);
+
+        List<RaptorRoute> expected = Arrays.asList(i, a, e, g);
+        assertSameRoutes(expected, filterRoutesPairwise(routes));
+        assertSameRoutes(expected, SwissRailRaptorCore.filterRoutes(routes));
+    }
+
+    /**
+     * Compares the filtering with the pairwise comparison of all routes, using only a few different
+     * values so that there are many ties in departure time, arrival time and number of transfers.
+     */
+    @Test
+    public void testFilterRoutesRandomly() {
+        Random random = new Random(20180703);
+        for (int q = 0; q < 1000; q++) {
+            int routeCount = random.nextInt(40);
+            List<RaptorRoute> routes = new ArrayList<>(routeCount);
+            for (int r = 0; r < routeCount; r++) {
+                routes.add(createRoute(60 * random.nextInt(8), 60 * (1 + random.nextInt(8)), random.nextInt(3)));
+            }
+            assertSameRoutes(filterRoutesPairwise(routes), SwissRailRaptorCore.filterRoutes(routes));
+        }
+    }
+
+    private static RaptorRoute createRoute(double depTime, double travelTime, int transferCount) {
+        RaptorRoute route = new RaptorRoute(null, null, 0);
+        route.addPt(null, null, null, null, "pt", depTime, travelTime, 0);
+        for (int i = 0; i < transferCount; i++) {
+            route.addPt(null, null, null, null, "pt", depTime + travelTime, 0, 0);
+        }
+        return route;
+    }
+
+    /**
+     * Filters the routes by comparing each pair of routes, like the range query did originally.
+     */
+    private static List<RaptorRoute> filterRoutesPairwise(List<RaptorRoute> allRoutes) {
+        List<RaptorRoute> sortedRoutes = new ArrayList<>(allRoutes);
+        sortedRoutes.sort((r1, r2) -> {
+            int cmp = Integer.compare(r1.getNumberOfTransfers(), r2.getNumberOfTransfers());
+            if (cmp == 0) {
+                cmp = Double.compare(r1.getDepartureTime(), r2.getDepartureTime());
+            }
+            if (cmp == 0) {
+                cmp = Double.compare(r1.getTravelTime(), r2.getTravelTime());
+            }
+            return cmp;
+        });
+        List<RaptorRoute> uniqueRoutes = new ArrayList<>();
+        RaptorRoute last = null;
+        for (RaptorRoute route : sortedRoutes) {
+            if (last == null
+                || route.getNumberOfTransfers() != last.getNumberOfTransfers()
+                || route.getDepartureTime() != last.getDepartureTime()
+                || route.getTravelTime() != last.getTravelTime()) {
+                uniqueRoutes.add(route);
+                last = route;
+            }
+        }
+
+        List<RaptorRoute> routesToKeep = new ArrayList<>();
+        for (RaptorRoute route1 : uniqueRoutes) {
+            boolean isDominated = false;
+            for (RaptorRoute route2 : uniqueRoutes) {
+                if (route1 != route2
+                    && route2.getNumberOfTransfers() <= route1.getNumberOfTransfers()
+                    && route2.getDepartureTime() >= route1.getDepartureTime()
+                    && route2.getDepartureTime() + route2.getTravelTime() <= route1.getDepartureTime() + route1.getTravelTime()) {
+                    isDominated = true;
+                    break;
+                }
+            }
+            if (!isDominated) {
+                routesToKeep.add(route1);
+            }
+        }
+        return routesToKeep;
+    }
+
+    private static void assertSameRoutes(List<RaptorRoute> expected, List<RaptorRoute> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int r = 0; r < expected.size(); r++) {
+            Assert.assertSame(expected.get(r), actual.get(r));
+        }
+    }
+
+    private static List<InitialStop> findInitialStops(SwissRailRaptorData data, FakeFacility facility, String mode) {
+        List<InitialStop> initialStops = new ArrayList<>();
+        for (TransitStopFacility stop : data.findNearbyStops(facility.getCoord().getX(), facility.getCoord().getY(), 1000)) {
+            double distance = CoordUtils.calcEuclideanDistance(stop.getCoord(), facility.getCoord());
+            double travelTime = Math.ceil(distance / 1.0);
+            initialStops.add(new InitialStop(stop, travelTime * 0.002, travelTime, distance, mode));
+        }
+        return initialStops;
+    }
+}
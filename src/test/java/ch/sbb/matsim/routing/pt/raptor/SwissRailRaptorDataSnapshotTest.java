@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorDataSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteRead() throws IOException {
+        Fixture f = new Fixture();
+        f.init();
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(f.config);
+        SwissRailRaptorData data = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
+
+        byte[] hash = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        File file = this.tmpFolder.newFile("raptorData.bin");
+        SwissRailRaptorDataSnapshot.write(data, hash, file);
+        SwissRailRaptorData data2 = SwissRailRaptorDataSnapshot.read(file, hash, f.schedule, raptorConfig);
+
+        Assert.assertNotNull(data2);
+        Assert.assertEquals(data.countStops, data2.countStops);
+        Assert.assertArrayEquals(data.stopFacilities, data2.stopFacilities);
+        for (TransitStopFacility stop : data.stopFacilities) {
+            Assert.assertEquals(data.getStopFacilityIndex(stop), data2.getStopFacilityIndex(stop));
+        }
+        Assert.assertArrayEquals(data.stopRouteStopOffsets, data2.stopRouteStopOffsets);
+        Assert.assertArrayEquals(data.stopRouteStops, data2.stopRouteStops);
+        Assert.assertArrayEquals(data.departures, data2.departures, 0.0);
+
+        Assert.assertEquals(data.routes.length, data2.routes.length);
+        for (int i = 0; i < data.routes.length; i++) {
+            Assert.assertEquals(data.routes[i].indexFirstRouteStop, data2.routes[i].indexFirstRouteStop);
+            Assert.assertEquals(data.routes[i].countRouteStops, data2.routes[i].countRouteStops);
+            Assert.assertEquals(data.routes[i].indexFirstDeparture, data2.routes[i].indexFirstDeparture);
+            Assert.assertEquals(data.routes[i].countDepartures, data2.routes[i].countDepartures);
+        }
+
+        Assert.assertEquals(data.countRouteStops, data2.countRouteStops);
+        for (int i = 0; i < data.countRouteStops; i++) {
+            SwissRailRaptorData.RRouteStop expected = data.routeStops[i];
+            SwissRailRaptorData.RRouteStop actual = data2.routeStops[i];
+            Assert.assertSame(expected.routeStop, actual.routeStop);
+            Assert.assertSame(expected.line, actual.line);
+            Assert.assertSame(expected.route, actual.route);
+            Assert.assertEquals(expected.mode, actual.mode);
+        }
+        Assert.assertArrayEquals(data.routeStopRouteIndices, data2.routeStopRouteIndices);
+        Assert.assertArrayEquals(data.routeStopStopIndices, data2.routeStopStopIndices);
+        Assert.assertArrayEquals(data.routeStopArrivalOffsets, data2.routeStopArrivalOffsets, 0.0);
+        Assert.assertArrayEquals(data.routeStopDepartureOffsets, data2.routeStopDepartureOffsets, 0.0);
+        Assert.assertArrayEquals(data.routeStopDistances, data2.routeStopDistances, 0.0);
+        Assert.assertArrayEquals(data.routeStopTransferOffsets, data2.routeStopTransferOffsets);
+
+        Assert.assertEquals(data.countTransfers, data2.countTransfers);
+        Assert.assertArrayEquals(data.transferToRouteStops, data2.transferToRouteStops);
+        Assert.assertArrayEquals(data.transferTimes, data2.transferTimes, 0.0);
+        Assert.assertArrayEquals(data.transferCosts, data2.transferCosts, 0.0);
+        Assert.assertArrayEquals(data.transferDistances, data2.transferDistances, 0.0);
+    }
+
+    @Test
+    public void testHashChanges() {
+        Fixture f = new Fixture();
+        f.init();
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(f.config);
+        byte[] hash1 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        byte[] hash2 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        Assert.assertTrue(Arrays.equals(hash1, hash2));
+
+        f.schedule.getMinimalTransferTimes().set(Id.create(19, TransitStopFacility.class), Id.create(9, TransitStopFacility.class), 345);
+        byte[] hash3 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        Assert.assertFalse(Arrays.equals(hash1, hash3));
+
+        raptorConfig.setBeelineWalkConnectionDistance(raptorConfig.getBeelineWalkConnectionDistance() + 10);
+        byte[] hash4 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        Assert.assertFalse(Arrays.equals(hash3, hash4));
+
+        f.network.getLinks().values().iterator().next().setLength(12345);
+        byte[] hash5 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        Assert.assertFalse(Arrays.equals(hash4, hash5));
+    }
+
+    @Test
+    public void testLoadOrCreate() throws IOException {
+        Fixture f = new Fixture();
+        f.init();
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(f.config);
+        File file = new File(this.tmpFolder.getRoot(), "raptorData.bin");
+
+        SwissRailRaptorData data = SwissRailRaptorDataSnapshot.loadOrCreate(file, f.schedule, raptorConfig, f.network);
+        Assert.assertTrue("snapshot file should have been written.", file.exists());
+        byte[] hash = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        SwissRailRaptorData data2 = SwissRailRaptorDataSnapshot.read(file, hash, f.schedule, raptorConfig);
+        Assert.assertNotNull(data2);
+        Assert.assertEquals(data.countTransfers, data2.countTransfers);
+
+        // add a previously inexistant transfer, the snapshot must not be used anymore
+        f.schedule.getMinimalTransferTimes().set(Id.create(19, TransitStopFacility.class), Id.create(9, TransitStopFacility.class), 345);
+        byte[] hash2 = SwissRailRaptorDataSnapshot.calcHash(f.schedule, raptorConfig, f.network);
+        Assert.assertNull(SwissRailRaptorDataSnapshot.read(file, hash2, f.schedule, raptorConfig));
+
+        SwissRailRaptorData data3 = SwissRailRaptorDataSnapshot.loadOrCreate(file, f.schedule, raptorConfig, f.network);
+        Assert.assertEquals(data.countTransfers + 1, data3.countTransfers);
+        Assert.assertNotNull("snapshot file should have been updated.", SwissRailRaptorDataSnapshot.read(file, hash2, f.schedule, raptorConfig));
+        Assert.assertArrayEquals("no temporary files should be left behind.", new String[] { "raptorData.bin" }, this.tmpFolder.getRoot().list());
+    }
+}
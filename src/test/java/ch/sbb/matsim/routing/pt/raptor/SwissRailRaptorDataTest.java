@@ -4,11 +4,20 @@
 
 package ch.sbb.matsim.routing.pt.raptor;
 
+import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
 import org.junit.Assert;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.pt.transitSchedule.api.TransitRoute;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * @author mrieser / SBB
  */
@@ -28,9 +37,9 @@ public class SwissRailRaptorDataTest {
         Id<TransitStopFacility> stopId9 = Id.create(9, TransitStopFacility.class);
         Id<TransitStopFacility> stopId18 = Id.create(18, TransitStopFacility.class);
         Id<TransitStopFacility> stopId19 = Id.create(19, TransitStopFacility.class);
-        for (SwissRailRaptorData.RTransfer t : data.transfers) {
-            TransitStopFacility fromStop = data.routeStops[t.fromRouteStop].routeStop.getStopFacility();
-            TransitStopFacility toStop = data.routeStops[t.toRouteStop].routeStop.getStopFacility();
+        for (int t = 0; t < data.countTransfers; t++) {
+            TransitStopFacility fromStop = data.routeStops[getFromRouteStop(data, t)].routeStop.getStopFacility();
+            TransitStopFacility toStop = data.routeStops[data.transferToRouteStops[t]].routeStop.getStopFacility();
             if (fromStop.getId().equals(stopId19) && toStop.getId().equals(stopId9)) {
                 Assert.fail("There should not be any transfer between stop facilities 19 and 9.");
             }
@@ -41,45 +50,232 @@ public class SwissRailRaptorDataTest {
         f.schedule.getMinimalTransferTimes().set(stopId19, stopId9, 345);
         SwissRailRaptorData data2 = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
         int foundTransferCount = 0;
-        for (SwissRailRaptorData.RTransfer t : data2.transfers) {
-            TransitStopFacility fromStop = data2.routeStops[t.fromRouteStop].routeStop.getStopFacility();
-            TransitStopFacility toStop = data2.routeStops[t.toRouteStop].routeStop.getStopFacility();
+        for (int t = 0; t < data2.countTransfers; t++) {
+            TransitStopFacility fromStop = data2.routeStops[getFromRouteStop(data2, t)].routeStop.getStopFacility();
+            TransitStopFacility toStop = data2.routeStops[data2.transferToRouteStops[t]].routeStop.getStopFacility();
             if (fromStop.getId().equals(stopId19) && toStop.getId().equals(stopId9)) {
                 foundTransferCount++;
             }
         }
         Assert.assertEquals("wrong number of transfers between stop facilities 19 and 9.", 1, foundTransferCount);
-        Assert.assertEquals("number of transfers should have incrased.", data.transfers.length + 1, data2.transfers.length);
+        Assert.assertEquals("number of transfers should have incrased.", data.countTransfers + 1, data2.countTransfers);
 
         // assign a high transfer time to a "default" transfer
         f.schedule.getMinimalTransferTimes().set(stopId5, stopId18, 456);
         SwissRailRaptorData data3 = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
         boolean foundCorrectTransfer = false;
-        for (SwissRailRaptorData.RTransfer t : data3.transfers) {
-            TransitStopFacility fromStop = data3.routeStops[t.fromRouteStop].routeStop.getStopFacility();
-            TransitStopFacility toStop = data3.routeStops[t.toRouteStop].routeStop.getStopFacility();
+        for (int t = 0; t < data3.countTransfers; t++) {
+            TransitStopFacility fromStop = data3.routeStops[getFromRouteStop(data3, t)].routeStop.getStopFacility();
+            TransitStopFacility toStop = data3.routeStops[data3.transferToRouteStops[t]].routeStop.getStopFacility();
             if (fromStop.getId().equals(stopId5) && toStop.getId().equals(stopId18)) {
-                Assert.assertEquals("transfer has wrong transfer time.", 456, t.transferTime, 0.0);
+                Assert.assertEquals("transfer has wrong transfer time.", 456, data3.transferTimes[t], 0.0);
                 foundCorrectTransfer = true;
             }
         }
         Assert.assertTrue("did not find overwritten transfer", foundCorrectTransfer);
-        Assert.assertEquals("number of transfers should have stayed the same.", data2.transfers.length, data3.transfers.length);
+        Assert.assertEquals("number of transfers should have stayed the same.", data2.countTransfers, data3.countTransfers);
 
         // assign a low transfer time to a "default" transfer
         f.schedule.getMinimalTransferTimes().set(stopId5, stopId18, 0.2);
         SwissRailRaptorData data4 = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
         foundCorrectTransfer = false;
-        for (SwissRailRaptorData.RTransfer t : data4.transfers) {
-            TransitStopFacility fromStop = data4.routeStops[t.fromRouteStop].routeStop.getStopFacility();
-            TransitStopFacility toStop = data4.routeStops[t.toRouteStop].routeStop.getStopFacility();
+        for (int t = 0; t < data4.countTransfers; t++) {
+            TransitStopFacility fromStop = data4.routeStops[getFromRouteStop(data4, t)].routeStop.getStopFacility();
+            TransitStopFacility toStop = data4.routeStops[data4.transferToRouteStops[t]].routeStop.getStopFacility();
             if (fromStop.getId().equals(stopId5) && toStop.getId().equals(stopId18)) {
-                Assert.assertEquals("transfer has wrong transfer time.", 0.2, t.transferTime, 0.0);
+                Assert.assertEquals("transfer has wrong transfer time.", 0.2, data4.transferTimes[t], 0.0);
                 foundCorrectTransfer = true;
             }
         }
         Assert.assertTrue("did not find overwritten transfer", foundCorrectTransfer);
-        Assert.assertEquals("number of transfers should have stayed the same.", data2.transfers.length, data4.transfers.length);
+        Assert.assertEquals("number of transfers should have stayed the same.", data2.countTransfers, data4.countTransfers);
+    }
+
+    @Test
+    public void testParallelDataPreparation() {
+        Fixture f = new Fixture();
+        f.init();
+        f.schedule.getMinimalTransferTimes().set(Id.create(19, TransitStopFacility.class), Id.create(9, TransitStopFacility.class), 345);
+
+        for (RaptorStaticConfig.RaptorOptimization optimization : RaptorStaticConfig.RaptorOptimization.values()) {
+            RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(f.config);
+            raptorConfig.setOptimization(optimization);
+
+            raptorConfig.setUseParallelDataPreparation(false);
+            SwissRailRaptorData sequentialData = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
+            raptorConfig.setUseParallelDataPreparation(true);
+            SwissRailRaptorData parallelData = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
+
+            Assert.assertEquals(sequentialData.countStops, parallelData.countStops);
+            Assert.assertArrayEquals(sequentialData.stopFacilities, parallelData.stopFacilities);
+            Assert.assertArrayEquals(sequentialData.stopRouteStopOffsets, parallelData.stopRouteStopOffsets);
+            Assert.assertArrayEquals(sequentialData.stopRouteStops, parallelData.stopRouteStops);
+
+            Assert.assertEquals(sequentialData.countRouteStops, parallelData.countRouteStops);
+            for (int i = 0; i < sequentialData.countRouteStops; i++) {
+                Assert.assertSame(sequentialData.routeStops[i].routeStop, parallelData.routeStops[i].routeStop);
+            }
+            Assert.assertArrayEquals(sequentialData.routeStopStopIndices, parallelData.routeStopStopIndices);
+            Assert.assertArrayEquals(sequentialData.routeStopTransferOffsets, parallelData.routeStopTransferOffsets);
+
+            Assert.assertEquals(sequentialData.countTransfers, parallelData.countTransfers);
+            Assert.assertArrayEquals(sequentialData.transferToRouteStops, parallelData.transferToRouteStops);
+            Assert.assertArrayEquals(sequentialData.transferTimes, parallelData.transferTimes, 0.0);
+            Assert.assertArrayEquals(sequentialData.transferCosts, parallelData.transferCosts, 0.0);
+            Assert.assertArrayEquals(sequentialData.transferDistances, parallelData.transferDistances, 0.0);
+        }
+    }
+
+    /**
+     * Compares the transfers with the ones created by the original, sequential implementation for the same fixture.
+     * The transfers of a route stop are compared as a set, as their order depends on the order the stop facilities
+     * were inserted into the quad tree for stops with identical coordinates.
+     */
+    @Test
+    public void testTransfersAsBefore() {
+        String[] expectedOneToOne = new String[] {
+                "blue A > I/12 -> green clockwise/21 @3.12",
+                "blue A > I/12 -> red G > C/13 @6.24",
+                "blue A > I/4 -> green clockwise/18 @3.12",
+                "blue A > I/4 -> red C > G/4 @0.00",
+                "blue I > A/13 -> green clockwise/21 @3.12",
+                "blue I > A/13 -> red G > C/13 @0.00",
+                "blue I > A/5 -> green clockwise/18 @3.12",
+                "blue I > A/5 -> red C > G/4 @6.24",
+                "green clockwise/18 -> blue A > I/4 @3.12",
+                "green clockwise/18 -> blue I > A/5 @3.12",
+                "green clockwise/18 -> green clockwise/18 @0.00",
+                "green clockwise/18 -> red C > G/4 @3.12",
+                "green clockwise/21 -> blue A > I/12 @3.12",
+                "green clockwise/21 -> blue I > A/13 @3.12",
+                "green clockwise/21 -> red G > C/13 @3.12",
+                "red C > G/12 -> blue A > I/12 @0.00",
+                "red C > G/12 -> blue I > A/13 @6.24",
+                "red C > G/12 -> green clockwise/21 @3.12",
+                "red G > C/5 -> blue A > I/4 @6.24",
+                "red G > C/5 -> blue I > A/5 @0.00",
+                "red G > C/5 -> green clockwise/18 @3.12"
+        };
+        String[] expectedOneToAll = new String[] {
+                "blue A > I/10 -> blue I > A/11 @6.24",
+                "blue A > I/12 -> blue I > A/13 @6.24",
+                "blue A > I/12 -> green clockwise/21 @3.12",
+                "blue A > I/12 -> red G > C/13 @6.24",
+                "blue A > I/14 -> blue I > A/15 @6.24",
+                "blue A > I/16 -> blue I > A/17 @6.24",
+                "blue A > I/2 -> blue I > A/3 @6.24",
+                "blue A > I/4 -> blue I > A/5 @6.24",
+                "blue A > I/4 -> green clockwise/18 @3.12",
+                "blue A > I/4 -> red C > G/4 @0.00",
+                "blue A > I/6 -> blue I > A/7 @6.24",
+                "blue A > I/8 -> blue I > A/9 @6.24",
+                "blue I > A/1 -> blue A > I/0 @6.24",
+                "blue I > A/11 -> blue A > I/10 @6.24",
+                "blue I > A/13 -> blue A > I/12 @6.24",
+                "blue I > A/13 -> green clockwise/21 @3.12",
+                "blue I > A/13 -> red G > C/13 @0.00",
+                "blue I > A/15 -> blue A > I/14 @6.24",
+                "blue I > A/3 -> blue A > I/2 @6.24",
+                "blue I > A/5 -> blue A > I/4 @6.24",
+                "blue I > A/5 -> green clockwise/18 @3.12",
+                "blue I > A/5 -> red C > G/4 @6.24",
+                "blue I > A/7 -> blue A > I/6 @6.24",
+                "blue I > A/9 -> blue A > I/8 @6.24",
+                "green clockwise/18 -> blue A > I/4 @3.12",
+                "green clockwise/18 -> blue I > A/5 @3.12",
+                "green clockwise/18 -> green clockwise/18 @0.00",
+                "green clockwise/18 -> red C > G/4 @3.12",
+                "green clockwise/21 -> blue A > I/12 @3.12",
+                "green clockwise/21 -> blue I > A/13 @3.12",
+                "green clockwise/21 -> red G > C/13 @3.12",
+                "red C > G/12 -> blue A > I/12 @0.00",
+                "red C > G/12 -> blue I > A/13 @6.24",
+                "red C > G/12 -> green clockwise/21 @3.12",
+                "red C > G/12 -> red G > C/13 @6.24",
+                "red G > C/5 -> blue A > I/4 @6.24",
+                "red G > C/5 -> blue I > A/5 @0.00",
+                "red G > C/5 -> green clockwise/18 @3.12",
+                "red G > C/5 -> red C > G/4 @6.24"
+        };
+        for (RaptorStaticConfig.RaptorOptimization optimization : RaptorStaticConfig.RaptorOptimization.values()) {
+            for (boolean parallel : new boolean[] { false, true }) {
+                Fixture f = new Fixture();
+                f.init();
+                RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(f.config);
+                raptorConfig.setOptimization(optimization);
+                raptorConfig.setUseParallelDataPreparation(parallel);
+                SwissRailRaptorData data = SwissRailRaptorData.create(f.schedule, raptorConfig, f.network);
+
+                List<String> transfers = new ArrayList<>();
+                for (int t = 0; t < data.countTransfers; t++) {
+                    String fromRouteStop = getRouteStopName(data, getFromRouteStop(data, t));
+                    String toRouteStop = getRouteStopName(data, data.transferToRouteStops[t]);
+                    transfers.add(fromRouteStop + " -> " + toRouteStop + " @" + String.format(Locale.ROOT, "%.2f", data.transferTimes[t]));
+                }
+                Collections.sort(transfers);
+                String[] expected = optimization == RaptorStaticConfig.RaptorOptimization.OneToOneRouting ? expectedOneToOne : expectedOneToAll;
+                Assert.assertEquals(optimization + ", parallel=" + parallel, Arrays.asList(expected), transfers);
+            }
+        }
+    }
+
+    @Test
+    public void testModeIndices() {
+        Fixture f = new Fixture();
+        f.init();
+        for (TransitRoute route : f.blueLine.getRoutes().values()) {
+            route.setTransportMode("tram");
+        }
+        for (TransitRoute route : f.redLine.getRoutes().values()) {
+            route.setTransportMode("train");
+        }
+        for (TransitRoute route : f.greenLine.getRoutes().values()) {
+            route.setTransportMode("bus");
+        }
+        SwissRailRaptorConfigGroup srrConfig = ConfigUtils.addOrGetModule(f.config, SwissRailRaptorConfigGroup.class);
+        srrConfig.setUseModeMappingForPassengers(true);
+        srrConfig.addModeMappingForPassengers(new SwissRailRaptorConfigGroup.ModeMappingForPassengersParameterSet("tram", "rail"));
+        srrConfig.addModeMappingForPassengers(new SwissRailRaptorConfigGroup.ModeMappingForPassengersParameterSet("train", "rail"));
+        srrConfig.addModeMappingForPassengers(new SwissRailRaptorConfigGroup.ModeMappingForPassengersParameterSet("bus", "road"));
+
+        SwissRailRaptorData data = SwissRailRaptorData.create(f.schedule, RaptorUtils.createStaticConfig(f.config), f.network);
+        Assert.assertEquals(2, data.modes.length);
+        Assert.assertNotEquals(data.modes[0], data.modes[1]);
+        for (int i = 0; i < data.countRouteStops; i++) {
+            Assert.assertEquals(data.routeStops[i].mode, data.modes[data.routeStopModeIndices[i]]);
+        }
+
+        RaptorParameters parameters = new RaptorParameters(srrConfig);
+        parameters.setMarginalUtilityOfTravelTime_utl_s("rail", -0.001);
+        parameters.setMarginalUtilityOfTravelTime_utl_s("road", -0.002);
+        for (int modeIndex = 0; modeIndex < data.modes.length; modeIndex++) {
+            Assert.assertEquals(parameters.getMarginalUtilityOfTravelTime_utl_s(data.modes[modeIndex]), parameters.getMarginalUtilityOfTravelTime_utl_s(data, modeIndex), 0.0);
+        }
+        // changed parameters must be compiled again
+        parameters.setMarginalUtilityOfTravelTime_utl_s("road", -0.003);
+        int roadIndex = data.modes[0].equals("road") ? 0 : 1;
+        Assert.assertEquals(-0.003, parameters.getMarginalUtilityOfTravelTime_utl_s(data, roadIndex), 0.0);
+
+        RaptorParameters incompleteParameters = new RaptorParameters(srrConfig);
+        incompleteParameters.setMarginalUtilityOfTravelTime_utl_s("rail", -0.001);
+        try {
+            incompleteParameters.getMarginalUtilityOfTravelTime_utl_s(data, roadIndex);
+            Assert.fail("expected an exception for the missing mode.");
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    private static String getRouteStopName(SwissRailRaptorData data, int routeStopIndex) {
+        SwissRailRaptorData.RRouteStop routeStop = data.routeStops[routeStopIndex];
+        return routeStop.route.getId() + "/" + routeStop.routeStop.getStopFacility().getId();
+    }
+
+    private static int getFromRouteStop(SwissRailRaptorData data, int transferIndex) {
+        int routeStopIndex = 0;
+        while (data.routeStopTransferOffsets[routeStopIndex + 1] <= transferIndex) {
+            routeStopIndex++;
+        }
+        return routeStopIndex;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.TravelInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pt.transitSchedule.api.TransitStopFacility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the parallel processing of single queries.
+ *
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorParallelQueryTest {
+
+    private static final int GRID_SIZE = 20;
+
+    private static SwissRailRaptorData createData(Config config, Scenario scenario, boolean parallel) {
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(config);
+        raptorConfig.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        raptorConfig.setUseParallelQueryProcessing(parallel);
+        return SwissRailRaptorData.create(scenario.getTransitSchedule(), raptorConfig, scenario.getNetwork());
+    }
+
+    @Test
+    public void testLeastCostTree() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, GRID_SIZE);
+        RaptorParameters parameters = RaptorUtils.createParameters(config);
+        SwissRailRaptorCore sequentialCore = new SwissRailRaptorCore(createData(config, scenario, false));
+        // use very small tasks, so the parallel processing is also used for the small test schedule
+        SwissRailRaptorCore parallelCore = new SwissRailRaptorCore(createData(config, scenario, true), 2);
+
+        for (String stopId : new String[] { "row0a_0", "col7b_12", "row10a_10" }) {
+            TransitStopFacility stop = scenario.getTransitSchedule().getFacilities().get(Id.create(stopId, TransitStopFacility.class));
+            List<InitialStop> startStops = Collections.singletonList(new InitialStop(stop, 0, 0, 0, TransportMode.access_walk));
+            Map<Id<TransitStopFacility>, TravelInfo> expected = sequentialCore.calcLeastCostTree(7 * 3600, startStops, parameters);
+            Map<Id<TransitStopFacility>, TravelInfo> actual = parallelCore.calcLeastCostTree(7 * 3600, startStops, parameters);
+
+            Assert.assertEquals(expected.size(), actual.size());
+            Assert.assertTrue("the tree should reach most of the stops.", expected.size() > GRID_SIZE * GRID_SIZE);
+            for (Map.Entry<Id<TransitStopFacility>, TravelInfo> e : expected.entrySet()) {
+                TravelInfo expectedInfo = e.getValue();
+                TravelInfo actualInfo = actual.get(e.getKey());
+                Assert.assertNotNull(actualInfo);
+                Assert.assertEquals(expectedInfo.arrivalTime, actualInfo.arrivalTime, 0.0);
+                Assert.assertEquals(expectedInfo.departureTime, actualInfo.departureTime, 0.0);
+                Assert.assertEquals(expectedInfo.totalCost, actualInfo.totalCost, 0.0);
+                Assert.assertEquals(expectedInfo.transferCount, actualInfo.transferCount);
+                Assert.assertEquals(expectedInfo.departureStop, actualInfo.departureStop);
+            }
+        }
+    }
+
+    @Test
+    public void testLeastCostRoute() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, GRID_SIZE);
+        RaptorParameters parameters = RaptorUtils.createParameters(config);
+        SwissRailRaptorCore sequentialCore = new SwissRailRaptorCore(createData(config, scenario, false));
+        SwissRailRaptorCore parallelCore = new SwissRailRaptorCore(createData(config, scenario, true), 2);
+        Map<Id<TransitStopFacility>, ? extends TransitStopFacility> stops = scenario.getTransitSchedule().getFacilities();
+
+        List<InitialStop> accessStops = Collections.singletonList(new InitialStop(stops.get(Id.create("row2a_1", TransitStopFacility.class)), 60, 60, 50, TransportMode.access_walk));
+        List<InitialStop> egressStops = Collections.singletonList(new InitialStop(stops.get(Id.create("col15b_3", TransitStopFacility.class)), 60, 60, 50, TransportMode.egress_walk));
+        FakeFacility fromFacility = new FakeFacility(new Coord(800, 1600));
+        FakeFacility toFacility = new FakeFacility(new Coord(12000, 13600));
+
+        RaptorRoute expected = sequentialCore.calcLeastCostRoute(8 * 3600, fromFacility, toFacility, accessStops, egressStops, parameters);
+        RaptorRoute actual = parallelCore.calcLeastCostRoute(8 * 3600, fromFacility, toFacility, accessStops, egressStops, parameters);
+
+        Assert.assertTrue(Double.isFinite(expected.getTotalCosts()));
+        Assert.assertEquals(expected.getTotalCosts(), actual.getTotalCosts(), 0.0);
+        Assert.assertEquals(expected.getDepartureTime(), actual.getDepartureTime(), 0.0);
+        Assert.assertEquals(expected.getTravelTime(), actual.getTravelTime(), 0.0);
+        Assert.assertEquals(expected.getNumberOfTransfers(), actual.getNumberOfTransfers());
+    }
+
+    @Test
+    public void testRangeQueryInChunks() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, GRID_SIZE);
+        SwissRailRaptorConfigGroup srrConfig = ConfigUtils.addOrGetModule(config, SwissRailRaptorConfigGroup.class);
+        SwissRailRaptorData data = createData(config, scenario, false);
+        SwissRailRaptor raptor = new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(config),
+                new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress());
+
+        FakeFacility fromFacility = new FakeFacility(new Coord(850, 1650));
+        FakeFacility toFacility = new FakeFacility(new Coord(12050, 12750));
+        double depTime = 8 * 3600;
+
+        srrConfig.setRangeQueryDepartureChunks(1);
+        List<RaptorRoute> sequentialRoutes = raptor.calcRoutes(fromFacility, toFacility, depTime - 1800, depTime, depTime + 1800, null);
+        srrConfig.setRangeQueryDepartureChunks(4);
+        List<RaptorRoute> chunkedRoutes = raptor.calcRoutes(fromFacility, toFacility, depTime - 1800, depTime, depTime + 1800, null);
+        Assert.assertFalse(sequentialRoutes.isEmpty());
+        Assert.assertFalse(chunkedRoutes.isEmpty());
+        // the chunks may find additional, sometimes better routes, but every route found sequentially must still be found
+        for (RaptorRoute route : sequentialRoutes) {
+            Assert.assertTrue("route is missing in the chunked range query", isFoundOrDominated(route, chunkedRoutes));
+        }
+
+        // the result must not depend on the scheduling of the chunks
+        for (int i = 0; i < 10; i++) {
+            List<RaptorRoute> routes = raptor.calcRoutes(fromFacility, toFacility, depTime - 1800, depTime, depTime + 1800, null);
+            Assert.assertEquals(chunkedRoutes.size(), routes.size());
+            for (int r = 0; r < routes.size(); r++) {
+                Assert.assertEquals(chunkedRoutes.get(r).getDepartureTime(), routes.get(r).getDepartureTime(), 0.0);
+                Assert.assertEquals(chunkedRoutes.get(r).getTravelTime(), routes.get(r).getTravelTime(), 0.0);
+                Assert.assertEquals(chunkedRoutes.get(r).getNumberOfTransfers(), routes.get(r).getNumberOfTransfers());
+                Assert.assertEquals(chunkedRoutes.get(r).getTotalCosts(), routes.get(r).getTotalCosts(), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Compares the routes found by the range query before they are filtered, when all departures are evaluated
+     * one after the other and when they are evaluated in chunks.
+     */
+    @Test
+    public void testRangeQueryCandidatesInChunks() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, GRID_SIZE);
+        RaptorParameters parameters = RaptorUtils.createParameters(config);
+        SwissRailRaptorData data = createData(config, scenario, false);
+        SwissRailRaptorCore core = new SwissRailRaptorCore(data);
+        final int chunkCount = 4;
+
+        Random random = new Random(20180627);
+        double maxCoord = GRID_SIZE * 800;
+        int queriesWithRoutes = 0;
+        for (int q = 0; q < 20; q++) {
+            FakeFacility fromFacility = new FakeFacility(new Coord(random.nextDouble() * maxCoord, random.nextDouble() * maxCoord));
+            FakeFacility toFacility = new FakeFacility(new Coord(random.nextDouble() * maxCoord, random.nextDouble() * maxCoord));
+            double depTime = 6 * 3600 + random.nextInt(10 * 3600);
+            List<InitialStop> accessStops = findInitialStops(data, fromFacility, TransportMode.access_walk);
+            List<InitialStop> egressStops = findInitialStops(data, toFacility, TransportMode.egress_walk);
+
+            List<RaptorRoute> sequentialCandidates = core.calcRouteCandidates(depTime - 3600, depTime + 3600, fromFacility, toFacility, accessStops, egressStops, parameters, 0, 1);
+            List<RaptorRoute> sequentialRoutes = core.calcRoutes(depTime - 3600, depTime, depTime + 3600, fromFacility, toFacility, accessStops, egressStops, parameters);
+            assertSameRoutes(SwissRailRaptorCore.filterRoutes(sequentialCandidates), sequentialRoutes);
+            if (!sequentialCandidates.isEmpty()) {
+                queriesWithRoutes++;
+            }
+
+            List<RaptorRoute> chunkedCandidates = new ArrayList<>();
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                List<RaptorRoute> candidates = core.calcRouteCandidates(depTime - 3600, depTime + 3600, fromFacility, toFacility, accessStops, egressStops, parameters, chunk, chunkCount);
+                if (chunk == 0) {
+                    // the first chunk evaluates the first departures exactly like the sequential query
+                    Assert.assertTrue(candidates.size() <= sequentialCandidates.size());
+                    assertSameRoutes(sequentialCandidates.subList(0, candidates.size()), candidates);
+                }
+                chunkedCandidates.addAll(candidates);
+            }
+            // the chunks start without the labels of the departures evaluated in the previous chunks,
+            // so they may find additional routes, but every route found sequentially must still be found
+            for (RaptorRoute route : sequentialCandidates) {
+                Assert.assertTrue("route is missing in the chunked range query", isFoundOrDominated(route, chunkedCandidates));
+            }
+        }
+        Assert.assertTrue("most queries should find routes.", queriesWithRoutes > 10);
+    }
+
+    private static List<InitialStop> findInitialStops(SwissRailRaptorData data, FakeFacility facility, String mode) {
+        List<InitialStop> initialStops = new ArrayList<>();
+        for (TransitStopFacility stop : data.findNearbyStops(facility.getCoord().getX(), facility.getCoord().getY(), 1000)) {
+            double distance = CoordUtils.calcEuclideanDistance(stop.getCoord(), facility.getCoord());
+            double travelTime = Math.ceil(distance / 1.0);
+            initialStops.add(new InitialStop(stop, travelTime * 0.002, travelTime, distance, mode));
+        }
+        return initialStops;
+    }
+
+    private static void assertSameRoutes(List<RaptorRoute> expected, List<RaptorRoute> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int r = 0; r < expected.size(); r++) {
+            Assert.assertEquals(expected.get(r).getDepartureTime(), actual.get(r).getDepartureTime(), 0.0);
+            Assert.assertEquals(expected.get(r).getTravelTime(), actual.get(r).getTravelTime(), 0.0);
+            Assert.assertEquals(expected.get(r).getNumberOfTransfers(), actual.get(r).getNumberOfTransfers());
+            Assert.assertEquals(expected.get(r).getTotalCosts(), actual.get(r).getTotalCosts(), 0.0);
+        }
+    }
+
+    /**
+     * @return true if one of the routes departs at the same time or later, arrives at the same time or earlier and
+     * has at most as many transfers as the given route.
+     */
+    private static boolean isFoundOrDominated(RaptorRoute route, List<RaptorRoute> routes) {
+        for (RaptorRoute other : routes) {
+            if (other.getDepartureTime() >= route.getDepartureTime()
+                    && other.getDepartureTime() + other.getTravelTime() <= route.getDepartureTime() + route.getTravelTime()
+                    && other.getNumberOfTransfers() <= route.getNumberOfTransfers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import ch.sbb.matsim.config.SwissRailRaptorConfigGroup;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+
+import java.util.List;
+
+/**
+ * Tests the multi-criteria search returning the Pareto set of routes.
+ *
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorParetoQueryTest {
+
+    private static SwissRailRaptor createRaptor(Config config) {
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, 20);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), RaptorUtils.createStaticConfig(config), scenario.getNetwork());
+        return new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(config), new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress());
+    }
+
+    private static double getArrivalTime(RaptorRoute route) {
+        return route.getDepartureTime() + route.getTravelTime();
+    }
+
+    @Test
+    public void testParetoRoutes() {
+        Config config = ConfigUtils.createConfig();
+        SwissRailRaptor raptor = createRaptor(config);
+        FakeFacility fromFacility = new FakeFacility(new Coord(14860, 10266));
+        FakeFacility toFacility = new FakeFacility(new Coord(12556, 9423));
+        double depTime = 22839;
+
+        List<RaptorRoute> routes = raptor.calcParetoRoutes(fromFacility, toFacility, depTime, null);
+        Assert.assertEquals(2, routes.size());
+        RaptorRoute directRoute = routes.get(0);
+        RaptorRoute fastRoute = routes.get(1);
+        Assert.assertEquals(0, directRoute.getNumberOfTransfers());
+        Assert.assertEquals(1, fastRoute.getNumberOfTransfers());
+        Assert.assertTrue(getArrivalTime(fastRoute) < getArrivalTime(directRoute));
+        Assert.assertTrue(fastRoute.getTotalCosts() < directRoute.getTotalCosts());
+
+        // the least-cost route is part of the Pareto set
+        List<Leg> legs = raptor.calcRoute(fromFacility, toFacility, depTime, null);
+        Leg lastLeg = legs.get(legs.size() - 1);
+        int ptLegCount = 0;
+        for (Leg leg : legs) {
+            if (leg.getMode().equals(TransportMode.pt)) {
+                ptLegCount++;
+            }
+        }
+        Assert.assertEquals(2, ptLegCount);
+        Assert.assertEquals(lastLeg.getDepartureTime() + lastLeg.getTravelTime(), getArrivalTime(fastRoute), 1e-7);
+    }
+
+    @Test
+    public void testNoDominatedRoutes() {
+        Config config = ConfigUtils.createConfig();
+        SwissRailRaptor raptor = createRaptor(config);
+        for (int i = 0; i < 20; i++) {
+            FakeFacility fromFacility = new FakeFacility(new Coord(800 * i, 1000 + 600 * i));
+            FakeFacility toFacility = new FakeFacility(new Coord(15000 - 500 * i, 14000 - 700 * i));
+            List<RaptorRoute> routes = raptor.calcParetoRoutes(fromFacility, toFacility, 7 * 3600 + 97 * i, null);
+            for (RaptorRoute route1 : routes) {
+                for (RaptorRoute route2 : routes) {
+                    if (route1 != route2) {
+                        boolean isDominated = getArrivalTime(route2) <= getArrivalTime(route1)
+                                && route2.getTotalCosts() <= route1.getTotalCosts()
+                                && route2.getNumberOfTransfers() <= route1.getNumberOfTransfers();
+                        Assert.assertFalse(isDominated);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBagSizeLimit() {
+        Config config = ConfigUtils.createConfig();
+        SwissRailRaptorConfigGroup srrConfig = ConfigUtils.addOrGetModule(config, SwissRailRaptorConfigGroup.class);
+        srrConfig.setParetoQueryMaxBagSize(1);
+        SwissRailRaptor raptor = createRaptor(config);
+        FakeFacility fromFacility = new FakeFacility(new Coord(14860, 10266));
+        FakeFacility toFacility = new FakeFacility(new Coord(12556, 9423));
+
+        // with a single label per route stop, the least-cost route must still be found
+        List<RaptorRoute> routes = raptor.calcParetoRoutes(fromFacility, toFacility, 22839, null);
+        Assert.assertFalse(routes.isEmpty());
+        boolean foundLeastCostRoute = false;
+        for (RaptorRoute route : routes) {
+            foundLeastCostRoute |= route.getNumberOfTransfers() == 1;
+        }
+        Assert.assertTrue(foundLeastCostRoute);
+    }
+}
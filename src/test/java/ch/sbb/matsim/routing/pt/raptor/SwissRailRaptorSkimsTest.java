@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) Schweizerische Bundesbahnen SBB, 2018.
+ */
+
+package ch.sbb.matsim.routing.pt.raptor;
+
+import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorSkims.SkimMatrices;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author mrieser / SBB
+ */
+public class SwissRailRaptorSkimsTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static SkimMatrices calcSkims(List<Coord> zones) {
+        Config config = ConfigUtils.createConfig();
+        config.transitRouter().setSearchRadius(10); // only use the stops exactly at the grid nodes
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, 10);
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(config);
+        raptorConfig.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), raptorConfig, scenario.getNetwork());
+        SwissRailRaptorSkims skimCalculator = new SwissRailRaptorSkims(data, RaptorUtils.createParameters(config));
+        return skimCalculator.calcSkims(zones, new double[] { 7 * 3600, 7 * 3600 + 300, 7 * 3600 + 600 });
+    }
+
+    @Test
+    public void testSkims() {
+        List<Coord> zones = Arrays.asList(new Coord(0, 0), new Coord(4000, 0), new Coord(2400, 1600));
+        SkimMatrices skims = calcSkims(zones);
+
+        Assert.assertEquals(3, skims.zoneCount);
+        // along the first row, 5 stops without transfer
+        Assert.assertEquals(450, skims.get(SwissRailRaptorSkims.TRAVEL_TIME, 0, 1), 1e-3);
+        Assert.assertEquals(450, skims.get(SwissRailRaptorSkims.IN_VEHICLE_TIME, 0, 1), 1e-3);
+        Assert.assertEquals(0, skims.get(SwissRailRaptorSkims.TRANSFER_COUNT, 0, 1), 1e-3);
+        Assert.assertEquals(0, skims.get(SwissRailRaptorSkims.ACCESS_TIME, 0, 1), 1e-3);
+        Assert.assertEquals(0, skims.get(SwissRailRaptorSkims.EGRESS_TIME, 0, 1), 1e-3);
+
+        // 3 columns and 2 rows, requires one transfer
+        Assert.assertEquals(450, skims.get(SwissRailRaptorSkims.IN_VEHICLE_TIME, 0, 2), 1e-3);
+        Assert.assertEquals(1, skims.get(SwissRailRaptorSkims.TRANSFER_COUNT, 0, 2), 1e-3);
+        Assert.assertTrue(skims.get(SwissRailRaptorSkims.TRAVEL_TIME, 0, 2) >= 450);
+
+        // the zone itself can only be reached by walking, which is not part of the pt skims
+        Assert.assertTrue(Float.isNaN(skims.get(SwissRailRaptorSkims.TRAVEL_TIME, 1, 1)));
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        List<Coord> zones = Arrays.asList(new Coord(0, 0), new Coord(4000, 0), new Coord(2400, 1600), new Coord(7200, 7200));
+        SkimMatrices skims = calcSkims(zones);
+        File file = new File(this.tmpFolder.getRoot(), "skims.bin");
+        skims.write(file);
+        Assert.assertEquals(4 * 4 + 5 * 32 + 5 * 4 * 4 * 4, file.length());
+
+        SkimMatrices skims2 = SkimMatrices.read(file);
+        Assert.assertEquals(skims.zoneCount, skims2.zoneCount);
+        Assert.assertEquals(skims.getNames(), skims2.getNames());
+        for (String name : skims.getNames()) {
+            for (int from = 0; from < zones.size(); from++) {
+                for (int to = 0; to < zones.size(); to++) {
+                    Assert.assertEquals(skims.get(name, from, to), skims2.get(name, from, to), 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWithoutStops() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = ScenarioUtils.createScenario(config);
+        RaptorStaticConfig raptorConfig = RaptorUtils.createStaticConfig(config);
+        raptorConfig.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), raptorConfig, scenario.getNetwork());
+        SwissRailRaptorSkims skimCalculator = new SwissRailRaptorSkims(data, RaptorUtils.createParameters(config));
+        SkimMatrices skims = skimCalculator.calcSkims(Arrays.asList(new Coord(0, 0), new Coord(4000, 0)), new double[] { 7 * 3600 });
+
+        Assert.assertEquals(2, skims.zoneCount);
+        Assert.assertTrue(Float.isNaN(skims.get(SwissRailRaptorSkims.TRAVEL_TIME, 0, 1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyZones() {
+        new SkimMatrices(50000, new String[] { SwissRailRaptorSkims.TRAVEL_TIME });
+    }
+}
@@ -33,6 +33,7 @@ import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.misc.Time;
 import org.matsim.facilities.ActivityFacilities;
 import org.matsim.facilities.ActivityFacility;
+import org.matsim.facilities.Facility;
 import org.matsim.pt.router.TransitRouter;
 import org.matsim.pt.routes.ExperimentalTransitRoute;
 import org.matsim.pt.transitSchedule.api.Departure;
@@ -666,6 +667,94 @@ public class SwissRailRaptorTest {
         assertRaptorRoute(routes.get(5), "06:40:12", "07:11:56", 1, 7.3466666);
     }
 
+    @Test
+    public void testRoutesToMany() {
+        Fixture f = new Fixture();
+        f.init();
+        SwissRailRaptor raptor = createTransitRouter(f.schedule, f.config, f.network);
+
+        Coord fromCoord = new Coord(3800, 5100);
+        List<Facility<?>> toFacilities = new ArrayList<>();
+        toFacilities.add(new FakeFacility(new Coord(16100, 5050)));
+        toFacilities.add(new FakeFacility(new Coord(28100, 4950)));
+        toFacilities.add(new FakeFacility(new Coord(4100, 5050))); // close to the start, should be a direct walk
+        double depTime = 5.0 * 3600 + 50 * 60;
+        List<List<Leg>> legsPerDestination = raptor.calcRoutesToMany(new FakeFacility(fromCoord), toFacilities, depTime, null);
+
+        assertEquals(toFacilities.size(), legsPerDestination.size());
+        for (int i = 0; i < toFacilities.size(); i++) {
+            List<Leg> expectedLegs = raptor.calcRoute(new FakeFacility(fromCoord), toFacilities.get(i), depTime, null);
+            List<Leg> legs = legsPerDestination.get(i);
+            assertEquals(expectedLegs.size(), legs.size());
+            for (int l = 0; l < legs.size(); l++) {
+                assertEquals(expectedLegs.get(l).getMode(), legs.get(l).getMode());
+                assertEquals(expectedLegs.get(l).getDepartureTime(), legs.get(l).getDepartureTime(), 1e-7);
+                assertEquals(expectedLegs.get(l).getTravelTime(), legs.get(l).getTravelTime(), 1e-7);
+            }
+        }
+        assertEquals(1, legsPerDestination.get(2).size());
+        assertEquals(TransportMode.transit_walk, legsPerDestination.get(2).get(0).getMode());
+    }
+
+    @Test
+    public void testArrivingBy_singleLine() {
+        Fixture f = new Fixture();
+        f.init();
+        SwissRailRaptor raptor = createTransitRouter(f.schedule, f.config, f.network);
+        Coord fromCoord = new Coord(3800, 5100);
+        Coord toCoord = new Coord(16100, 5050);
+        double latestArrivalTime = 6.0 * 3600;
+        List<Leg> legs = raptor.calcRouteArrivingBy(new FakeFacility(fromCoord), new FakeFacility(toCoord), latestArrivalTime, null);
+        assertEquals(3, legs.size());
+        assertEquals(TransportMode.access_walk, legs.get(0).getMode());
+        assertEquals(TransportMode.pt, legs.get(1).getMode());
+        assertEquals(TransportMode.egress_walk, legs.get(2).getMode());
+        ExperimentalTransitRoute ptRoute = (ExperimentalTransitRoute) legs.get(1).getRoute();
+        assertEquals(Id.create("0", TransitStopFacility.class), ptRoute.getAccessStopId());
+        assertEquals(Id.create("6", TransitStopFacility.class), ptRoute.getEgressStopId());
+        assertEquals(f.blueLine.getId(), ptRoute.getLineId());
+        // the *:26 course arrives in D at *:49, the next one would arrive too late at 06:09
+        assertEquals(Time.parseTime("05:26:00"), legs.get(1).getDepartureTime(), MatsimTestCase.EPSILON);
+        assertEquals(Time.parseTime("05:49:00"), legs.get(2).getDepartureTime(), MatsimTestCase.EPSILON);
+        Leg lastLeg = legs.get(legs.size() - 1);
+        assertTrue(lastLeg.getDepartureTime() + lastLeg.getTravelTime() <= latestArrivalTime);
+
+        // departing at the same time, the forward search must find the same connection
+        List<Leg> forwardLegs = raptor.calcRoute(new FakeFacility(fromCoord), new FakeFacility(toCoord), legs.get(0).getDepartureTime(), null);
+        Leg lastForwardLeg = forwardLegs.get(forwardLegs.size() - 1);
+        assertEquals(lastLeg.getDepartureTime() + lastLeg.getTravelTime(), lastForwardLeg.getDepartureTime() + lastForwardLeg.getTravelTime(), MatsimTestCase.EPSILON);
+    }
+
+    @Test
+    public void testArrivingBy_lineChange() {
+        Fixture f = new Fixture();
+        f.init();
+        SwissRailRaptor raptor = createTransitRouter(f.schedule, f.config, f.network);
+        Coord fromCoord = new Coord(3800, 5100);
+        Coord toCoord = new Coord(16100, 10050);
+        double latestArrivalTime = 7.0 * 3600;
+        List<Leg> legs = raptor.calcRouteArrivingBy(new FakeFacility(fromCoord), new FakeFacility(toCoord), latestArrivalTime, null);
+        assertEquals(5, legs.size());
+        assertEquals(TransportMode.access_walk, legs.get(0).getMode());
+        assertEquals(TransportMode.pt, legs.get(1).getMode());
+        assertEquals(TransportMode.transit_walk, legs.get(2).getMode());
+        assertEquals(TransportMode.pt, legs.get(3).getMode());
+        assertEquals(TransportMode.egress_walk, legs.get(4).getMode());
+        ExperimentalTransitRoute ptRoute = (ExperimentalTransitRoute) legs.get(1).getRoute();
+        assertEquals(Id.create("0", TransitStopFacility.class), ptRoute.getAccessStopId());
+        assertEquals(Id.create("4", TransitStopFacility.class), ptRoute.getEgressStopId());
+        assertEquals(f.blueLine.getId(), ptRoute.getLineId());
+        ptRoute = (ExperimentalTransitRoute) legs.get(3).getRoute();
+        assertEquals(Id.create("18", TransitStopFacility.class), ptRoute.getAccessStopId());
+        assertEquals(Id.create("19", TransitStopFacility.class), ptRoute.getEgressStopId());
+        assertEquals(f.greenLine.getId(), ptRoute.getLineId());
+        // the *:26 course arrives in C at *:38, transfer to the green line arriving in K at *:51
+        assertEquals(Time.parseTime("06:26:00"), legs.get(1).getDepartureTime(), MatsimTestCase.EPSILON);
+        assertEquals(Time.parseTime("06:51:00"), legs.get(4).getDepartureTime(), MatsimTestCase.EPSILON);
+        Leg lastLeg = legs.get(legs.size() - 1);
+        assertTrue(lastLeg.getDepartureTime() + lastLeg.getTravelTime() <= latestArrivalTime);
+    }
+
     private void assertRaptorRoute(RaptorRoute route, String depTime, String arrTime, int expectedTransfers, double expectedCost) {
         Assert.assertEquals("wrong number of transfers", expectedTransfers, route.getNumberOfTransfers());
         Assert.assertEquals("wrong departure time", Time.parseTime(depTime), route.getDepartureTime(), 0.99);
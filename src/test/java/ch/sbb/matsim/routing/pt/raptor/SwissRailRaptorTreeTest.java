@@ -8,6 +8,9 @@ import ch.sbb.matsim.routing.pt.raptor.SwissRailRaptorCore.TravelInfo;
 import org.junit.Assert;
 import org.junit.Test;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.utils.misc.Time;
 import org.matsim.pt.transitSchedule.api.TransitStopFacility;
 
@@ -302,6 +305,97 @@ public class SwissRailRaptorTreeTest {
         assertTravelInfo(map, 23, 1, "08:11:00"); // from H, transfer at G, 7:48/7:51 green
     }
 
+    @Test
+    public void testTreeResult() {
+        Fixture f = new Fixture();
+        f.init();
+
+        RaptorStaticConfig config = RaptorUtils.createStaticConfig(f.config);
+        config.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        SwissRailRaptorData data = SwissRailRaptorData.create(f.scenario.getTransitSchedule(), config, f.scenario.getNetwork());
+        SwissRailRaptor raptor = new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(f.scenario.getConfig()),
+                new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress(), null, null, null);
+
+        RaptorParameters raptorParams = RaptorUtils.createParameters(f.config);
+        RaptorTreeResult result = new RaptorTreeResult(data);
+
+        // the same result must be re-usable for different trees
+        for (int fromStopId : new int[] { 23, 2, 23 }) {
+            List<TransitStopFacility> fromStops = new ArrayList<>();
+            fromStops.add(f.schedule.getFacilities().get(Id.create(fromStopId, TransitStopFacility.class)));
+            double depTime = 7*3600 + 40*60;
+            Map<Id<TransitStopFacility>, TravelInfo> map = raptor.calcTree(fromStops, depTime, raptorParams);
+            raptor.calcTree(fromStops, depTime, raptorParams, result);
+
+            Assert.assertEquals(map.size(), result.getReachedStopCount());
+            for (int stopIndex = 0; stopIndex < data.getStopCount(); stopIndex++) {
+                Id<TransitStopFacility> stopId = data.getStopId(stopIndex);
+                Assert.assertEquals(stopIndex, data.getStopIndex(stopId));
+                TravelInfo info = map.get(stopId);
+                if (info == null) {
+                    Assert.assertFalse(result.isReached(stopIndex));
+                    Assert.assertTrue(Double.isNaN(result.arrivalTime[stopIndex]));
+                    continue;
+                }
+                Assert.assertTrue(result.isReached(stopIndex));
+                Assert.assertEquals(info.arrivalTime, result.arrivalTime[stopIndex], 0.0);
+                Assert.assertEquals(info.departureTime, result.departureTime[stopIndex], 0.0);
+                Assert.assertEquals(info.totalCost, result.totalCost[stopIndex], 0.0);
+                Assert.assertEquals(info.transferCount, result.transferCount[stopIndex]);
+                Assert.assertEquals(info.departureStop, data.getStopId(result.departureStopIndex[stopIndex]));
+            }
+        }
+        Assert.assertEquals(-1, data.getStopIndex(Id.create("unknown", TransitStopFacility.class)));
+    }
+
+    @Test
+    public void testBoundedTree() {
+        Config config = ConfigUtils.createConfig();
+        Scenario scenario = SwissRailRaptorBenchmark.createGridScenario(config, 20);
+        RaptorStaticConfig staticConfig = RaptorUtils.createStaticConfig(config);
+        staticConfig.setOptimization(RaptorStaticConfig.RaptorOptimization.OneToAllRouting);
+        SwissRailRaptorData data = SwissRailRaptorData.create(scenario.getTransitSchedule(), staticConfig, scenario.getNetwork());
+        SwissRailRaptor raptor = new SwissRailRaptor(data, new DefaultRaptorParametersForPerson(config),
+                new LeastCostRaptorRouteSelector(), new DefaultRaptorIntermodalAccessEgress());
+        RaptorParameters raptorParams = RaptorUtils.createParameters(config);
+
+        List<TransitStopFacility> fromStops = new ArrayList<>();
+        fromStops.add(scenario.getTransitSchedule().getFacilities().get(Id.create("row10a_10", TransitStopFacility.class)));
+        double depTime = 7*3600;
+        RaptorTreeResult fullTree = new RaptorTreeResult(data);
+        raptor.calcTree(fromStops, depTime, raptorParams, fullTree);
+
+        RaptorTreeResult timeBoundedTree = new RaptorTreeResult(data);
+        double maxArrivalTime = depTime + 15*60;
+        raptor.calcTree(fromStops, depTime, raptorParams, maxArrivalTime, Double.POSITIVE_INFINITY, timeBoundedTree);
+        Assert.assertTrue(timeBoundedTree.getReachedStopCount() > 1);
+        Assert.assertTrue(timeBoundedTree.getReachedStopCount() < fullTree.getReachedStopCount());
+        for (int stopIndex = 0; stopIndex < data.getStopCount(); stopIndex++) {
+            if (timeBoundedTree.isReached(stopIndex)) {
+                Assert.assertTrue(timeBoundedTree.arrivalTime[stopIndex] <= maxArrivalTime);
+            }
+            if (fullTree.arrivalTime[stopIndex] <= maxArrivalTime) {
+                Assert.assertTrue("stop within the bounds is not reached: " + data.getStopId(stopIndex), timeBoundedTree.isReached(stopIndex));
+                Assert.assertEquals(fullTree.totalCost[stopIndex], timeBoundedTree.totalCost[stopIndex], 1e-7);
+            }
+        }
+
+        RaptorTreeResult costBoundedTree = new RaptorTreeResult(data);
+        double maxCost = fullTree.totalCost[data.getStopIndex(Id.create("row10a_15", TransitStopFacility.class))];
+        raptor.calcTree(fromStops, depTime, raptorParams, Double.POSITIVE_INFINITY, maxCost, costBoundedTree);
+        Assert.assertTrue(costBoundedTree.getReachedStopCount() > 1);
+        Assert.assertTrue(costBoundedTree.getReachedStopCount() < fullTree.getReachedStopCount());
+        for (int stopIndex = 0; stopIndex < data.getStopCount(); stopIndex++) {
+            if (costBoundedTree.isReached(stopIndex)) {
+                Assert.assertTrue(costBoundedTree.totalCost[stopIndex] <= maxCost);
+            }
+            if (fullTree.totalCost[stopIndex] <= maxCost) {
+                Assert.assertTrue("stop within the bounds is not reached: " + data.getStopId(stopIndex), costBoundedTree.isReached(stopIndex));
+                Assert.assertEquals(fullTree.totalCost[stopIndex], costBoundedTree.totalCost[stopIndex], 1e-7);
+            }
+        }
+    }
+
     private void assertTravelInfo(Map<Id<TransitStopFacility>, TravelInfo> map, int stopId, int expectedTransfers, String expectedArrivalTime) {
         TravelInfo info = map.get(Id.create(stopId, TransitStopFacility.class));
         Assert.assertNotNull("Stop " + stopId + " is not reachable.", info);